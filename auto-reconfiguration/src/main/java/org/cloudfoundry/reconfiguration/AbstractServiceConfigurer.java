@@ -39,14 +39,12 @@ abstract public class AbstractServiceConfigurer<SI extends AbstractServiceInfo>
 			logger.log(Level.INFO, "No services found. Skipping autostaging");
 			return false;
 		}
-		if (cloudServices.size() > 1) {
-			logger.log(Level.INFO, "Error creating cloud service. Skipping autostaging.  Expected 1 service of "
-					+ serviceInfoClass + " type, but found " + cloudServices.size());
-			return false;
-		}
 		try {
-			beanFactory.registerSingleton(getServiceBeanName(),
-					getServiceCreator().createSingletonService(cloudServices.get(0)).service);
+			Object service = createService(cloudServices);
+			if (service == null) {
+				return false;
+			}
+			beanFactory.registerSingleton(getServiceBeanName(), service);
 			beanFactory.removeBeanDefinition(beanNames[0]);
 			beanFactory.registerAlias(getServiceBeanName(), beanNames[0]);
 			return true;
@@ -56,6 +54,21 @@ abstract public class AbstractServiceConfigurer<SI extends AbstractServiceInfo>
 		}
 	}
 
+	/**
+	 * Creates the service replacing the application bean from the bound services.
+	 * Unless overridden, exactly one service must be bound.
+	 * @param cloudServices The bound services, at least one
+	 * @return The service, or null to skip autostaging
+	 */
+	protected Object createService(List<SI> cloudServices) {
+		if (cloudServices.size() > 1) {
+			logger.log(Level.INFO, "Error creating cloud service. Skipping autostaging.  Expected 1 service of "
+					+ serviceInfoClass + " type, but found " + cloudServices.size());
+			return null;
+		}
+		return getServiceCreator().createSingletonService(cloudServices.get(0)).service;
+	}
+
 	protected String[] getBeanNames(DefaultListableBeanFactory beanFactory) {
 		Class<?> beanClass = loadClass(getBeanClass());
 		if (beanClass == null) {
@@ -5,6 +5,10 @@ package org.cloudfoundry.reconfiguration.data.relational;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
@@ -13,19 +17,31 @@ import org.cloudfoundry.reconfiguration.Configurer;
 import org.cloudfoundry.reconfiguration.data.orm.HibernateConfigurer;
 import org.cloudfoundry.reconfiguration.data.orm.JpaConfigurer;
 import org.cloudfoundry.runtime.env.CloudEnvironment;
+import org.cloudfoundry.runtime.env.CloudServiceException;
 import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
-import org.cloudfoundry.runtime.service.AbstractServiceCreator;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
 import org.cloudfoundry.runtime.service.relational.RdbmsServiceCreator;
+import org.cloudfoundry.runtime.service.relational.ReadWriteRoutingDataSource;
+import org.cloudfoundry.runtime.service.relational.ReplicaBalancing;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.util.StringUtils;
 
 /**
  * Implementation of {@link Configurer} that replaces a single
  * {@link DataSource} with one connecting to a postgresql or mysql cloud service
  * bound to the current application.
+ * <p>
+ * If several services are bound, the <code>cloudfoundry.datasource.primary</code>
+ * system property names the primary one, and read-only transactions are sent to
+ * the services named by <code>cloudfoundry.datasource.replicas</code>
+ * (comma-separated), or to all other services if it is not set. The
+ * <code>cloudfoundry.datasource.replicaBalancing</code> property selects the
+ * {@link ReplicaBalancing}, for example "least-active".
+ * </p>
  *
  * @author Ramnivas Laddad
  * @author Xin Li
@@ -38,6 +54,14 @@ public class DataSourceConfigurer extends AbstractServiceConfigurer<RdbmsService
 
 	private static final String DATA_SOURCE_CLASS_NAME = "javax.sql.DataSource";
 
+	static final String PRIMARY_PROPERTY = "cloudfoundry.datasource.primary";
+
+	static final String REPLICAS_PROPERTY = "cloudfoundry.datasource.replicas";
+
+	static final String REPLICA_BALANCING_PROPERTY = "cloudfoundry.datasource.replicaBalancing";
+
+	private final Logger logger = Logger.getLogger(getClass().getName());
+
 	private Configurer hibernateConfigurer;
 
 	private Configurer jpaConfigurer;
@@ -69,10 +93,69 @@ public class DataSourceConfigurer extends AbstractServiceConfigurer<RdbmsService
 	}
 
 	@Override
-	public AbstractServiceCreator<?, RdbmsServiceInfo> getServiceCreator() {
+	public RdbmsServiceCreator getServiceCreator() {
 		return new RdbmsServiceCreator();
 	}
 
+	@Override
+	protected Object createService(List<RdbmsServiceInfo> cloudServices) {
+		String primaryServiceName = System.getProperty(PRIMARY_PROPERTY);
+		if (cloudServices.size() == 1 || !StringUtils.hasText(primaryServiceName)) {
+			return super.createService(cloudServices);
+		}
+		Set<String> replicaServiceNames = null;
+		String replicas = System.getProperty(REPLICAS_PROPERTY);
+		if (StringUtils.hasText(replicas)) {
+			replicaServiceNames = StringUtils.commaDelimitedListToSet(StringUtils.trimAllWhitespace(replicas));
+		}
+		RdbmsServiceInfo primaryServiceInfo = null;
+		List<RdbmsServiceInfo> replicaServiceInfos = new ArrayList<RdbmsServiceInfo>();
+		for (RdbmsServiceInfo serviceInfo : cloudServices) {
+			if (primaryServiceName.equals(serviceInfo.getServiceName())) {
+				primaryServiceInfo = serviceInfo;
+			} else if (replicaServiceNames == null || replicaServiceNames.contains(serviceInfo.getServiceName())) {
+				replicaServiceInfos.add(serviceInfo);
+			}
+		}
+		if (primaryServiceInfo == null || replicaServiceInfos.isEmpty()) {
+			logger.log(Level.INFO, "Primary service " + primaryServiceName + " or its replicas not bound. "
+					+ "Skipping autostaging");
+			return null;
+		}
+		ReplicaBalancing replicaBalancing = getReplicaBalancing();
+		RdbmsServiceCreator serviceCreator = getServiceCreator();
+		List<DataSource> dataSources = new ArrayList<DataSource>();
+		try {
+			DataSource primary = serviceCreator.createService(primaryServiceInfo);
+			dataSources.add(primary);
+			List<DataSource> replicaDataSources = new ArrayList<DataSource>();
+			for (RdbmsServiceInfo replicaServiceInfo : replicaServiceInfos) {
+				DataSource replica = serviceCreator.createService(replicaServiceInfo);
+				dataSources.add(replica);
+				replicaDataSources.add(replica);
+			}
+			return ReadWriteRoutingDataSource.createProxy(primary, replicaDataSources, replicaBalancing);
+		} catch (RuntimeException e) {
+			// dispose of the pools, MBeans and background tasks of those already created
+			for (DataSource dataSource : dataSources) {
+				ServiceDisposal.dispose(dataSource);
+			}
+			throw e;
+		}
+	}
+
+	private ReplicaBalancing getReplicaBalancing() {
+		String replicaBalancing = System.getProperty(REPLICA_BALANCING_PROPERTY);
+		if (!StringUtils.hasText(replicaBalancing)) {
+			return ReplicaBalancing.ROUND_ROBIN;
+		}
+		try {
+			return ReplicaBalancing.valueOf(replicaBalancing.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new CloudServiceException("Unknown replica balancing " + replicaBalancing);
+		}
+	}
+
 	@Override
 	protected String[] getBeanNames(DefaultListableBeanFactory beanFactory) {
 		String[] dataSourceBeanNames = super.getBeanNames(beanFactory);
@@ -10,11 +10,14 @@ import javax.sql.DataSource;
 import org.cloudfoundry.reconfiguration.CloudEnvironmentMockingTest;
 import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
 import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
+import org.cloudfoundry.runtime.service.relational.ReadWriteRoutingDataSource;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.context.ApplicationContext;
 import org.springframework.jdbc.datasource.AbstractDriverBasedDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 
 /**
  * Integration test of the {@link DataSourceConfigurer}
@@ -89,4 +92,30 @@ public class DataSourceConfigurerTest extends CloudEnvironmentMockingTest {
 				DataSource.class);
 		Assert.assertEquals("jdbc:hsql:localdb", replacedDataSource.getUrl());
 	}
+
+	@Test
+	public void cloudDataSourceRoutesToReplicasIfPrimaryServiceNamed() {
+		List<RdbmsServiceInfo> serviceInfos = new ArrayList<RdbmsServiceInfo>();
+		serviceInfos.add(mockRdbmsServiceInfo);
+		serviceInfos.add(mockRdbmsServiceInfo2);
+		when(mockRdbmsServiceInfo.getServiceName()).thenReturn("mysql-primary");
+		when(mockRdbmsServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.20.40:1234/mysql-1");
+		when(mockRdbmsServiceInfo2.getServiceName()).thenReturn("mysql-replica");
+		when(mockRdbmsServiceInfo2.getUrl()).thenReturn("jdbc:mysql://10.20.20.41:1234/mysql-1");
+		when(mockEnvironment.getServiceInfos(RdbmsServiceInfo.class)).thenReturn(serviceInfos);
+
+		System.setProperty(DataSourceConfigurer.PRIMARY_PROPERTY, "mysql-primary");
+		try {
+			ApplicationContext context = getTestApplicationContext("test-ds-good-context.xml");
+			LazyConnectionDataSourceProxy replacedDataSource = (LazyConnectionDataSourceProxy) context.getBean("myDs",
+					DataSource.class);
+			ReadWriteRoutingDataSource routingDataSource =
+					(ReadWriteRoutingDataSource) replacedDataSource.getTargetDataSource();
+			Assert.assertEquals(1, routingDataSource.getReplicas().size());
+			Assert.assertEquals("jdbc:mysql://10.20.20.41:1234/mysql-1",
+					new BeanWrapperImpl(routingDataSource.getReplicas().get(0)).getPropertyValue("url"));
+		} finally {
+			System.clearProperty(DataSourceConfigurer.PRIMARY_PROPERTY);
+		}
+	}
 }
@@ -20,6 +20,7 @@ import java.util.Map;
  *	"runtime":"ruby18",
  *	"state_timestamp":1301769551,
  *	"port":53160,
+ *	"instances":2,
  *	"limits":{
  *		"fds":256,
  *		"mem":134217728,
@@ -28,6 +29,12 @@ import java.util.Map;
  *	"host":"127.0.0.1"
  *}
  *</code>
+ * <p>
+ * Memory and disk limits are reported in bytes by older Cloud Foundry versions (as
+ * above) and in megabytes by newer ones; values below one megabyte are taken to be
+ * in megabytes. Limits missing from the environment are reported as 0. The number
+ * of instances is only known if the optional "instances" attribute is present.
+ * </p>
  * 
  * @author Ramnivas Laddad
  *
@@ -35,20 +42,42 @@ import java.util.Map;
 public class ApplicationInstanceInfo {
 	private String name;
 	private int instanceIndex;
+	private int instanceCount;
 	private List<String> uris;
 	
 	private String host;
 	private int port;
+
+	private long memoryLimit;
+	private int fileDescriptorLimit;
+	private long diskLimit;
 	
 	@SuppressWarnings("unchecked")
 	public ApplicationInstanceInfo(Map<String, Object> info) {
 		name = (String) info.get("name");
 		instanceIndex = (Integer) info.get("instance_index");
+		instanceCount = (int) longValue(info.get("instances"));
 		
 		uris = (List<String>) info.get("uris");
 		
 		host = (String) info.get("host");
 		port = (Integer) info.get("port");
+
+		Map<String, Object> limits = (Map<String, Object>) info.get("limits");
+		if (limits != null) {
+			memoryLimit = byteValue(limits.get("mem"));
+			fileDescriptorLimit = (int) longValue(limits.get("fds"));
+			diskLimit = byteValue(limits.get("disk"));
+		}
+	}
+
+	private static long byteValue(Object value) {
+		long bytes = longValue(value);
+		return bytes < 1024 * 1024 ? bytes * 1024 * 1024 : bytes;
+	}
+
+	private static long longValue(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : 0;
 	}
 
 	public String getName() {
@@ -59,6 +88,13 @@ public class ApplicationInstanceInfo {
 		return instanceIndex;
 	}
 
+	/**
+	 * @return number of instances of the application, or 0 if unknown
+	 */
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
 	public List<String> getUris() {
 		return uris;
 	}
@@ -70,8 +106,27 @@ public class ApplicationInstanceInfo {
 	public int getPort() {
 		return port;
 	}
-	
-	
+
+	/**
+	 * @return memory limit of the instance in bytes, or 0 if unknown
+	 */
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * @return maximum number of file descriptors the instance may open, or 0 if unknown
+	 */
+	public int getFileDescriptorLimit() {
+		return fileDescriptorLimit;
+	}
+
+	/**
+	 * @return disk limit of the instance in bytes, or 0 if unknown
+	 */
+	public long getDiskLimit() {
+		return diskLimit;
+	}
 }
 
 
@@ -1,17 +1,10 @@
 package org.cloudfoundry.runtime.env;
 
-import java.lang.reflect.Constructor;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
-
-import org.codehaus.jackson.map.ObjectMapper;
 
 /**
  * Simpler access to Cloud Foundry environment.
@@ -27,44 +20,23 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public class CloudEnvironment {
 
-	private ObjectMapper objectMapper = new ObjectMapper();
-	private EnvironmentAccessor environment = new EnvironmentAccessor();
-
-	private static Map<Class<? extends AbstractServiceInfo>, Set<String>> serviceTypeToLabels = new HashMap<Class<? extends AbstractServiceInfo>, Set<String>>();
-
-	private static void labelledServiceType(Class<? extends AbstractServiceInfo> serviceType,
-				      String label)
-	{
-		Set<String> labels = serviceTypeToLabels.get(serviceType);
-		if (labels == null) {
-			labels = new HashSet<String>();
-			serviceTypeToLabels.put(serviceType, labels);
-		}
+	private EnvironmentAccessor environment;
+	private volatile EnvironmentSnapshot snapshot;
 
-		labels.add(label);
+	public CloudEnvironment() {
+		this(new EnvironmentAccessor());
 	}
 
-	static {
-		labelledServiceType(RdbmsServiceInfo.class, "mysql");
-		labelledServiceType(RdbmsServiceInfo.class, "postgresql");
-		labelledServiceType(RedisServiceInfo.class, "redis");
-		labelledServiceType(MongoServiceInfo.class, "mongodb");
-		labelledServiceType(RabbitServiceInfo.class, "rabbitmq");
-
-		// v2 services
-		labelledServiceType(RdbmsServiceInfo.class, "rds-mysql");
-		labelledServiceType(RdbmsServiceInfo.class, "cleardb");
-		labelledServiceType(RdbmsServiceInfo.class, "cleardb-dev");
-		labelledServiceType(RdbmsServiceInfo.class, "elephantsql");
-		labelledServiceType(RdbmsServiceInfo.class, "elephantsql-dev");
-		labelledServiceType(RedisServiceInfo.class, "rediscloud");
-		labelledServiceType(RedisServiceInfo.class, "rediscloud-dev");
-		labelledServiceType(MongoServiceInfo.class, "mongolab");
-		labelledServiceType(MongoServiceInfo.class, "mongolab-dev");
-		labelledServiceType(RabbitServiceInfo.class, "cloudamqp");
-		labelledServiceType(RabbitServiceInfo.class, "cloudamqp-dev");
+	/**
+	 * Create a cloud environment reading its values through the given accessor, for
+	 * example a {@link FileEnvironmentAccessor} whose values may change at runtime.
+	 *
+	 * @param environment
+	 */
+	public CloudEnvironment(EnvironmentAccessor environment) {
+		this.environment = environment;
 	}
-	
+
 	/* package for testing purpose */
 	void setCloudEnvironment(EnvironmentAccessor environment) {
 		this.environment = environment;
@@ -78,22 +50,15 @@ public class CloudEnvironment {
 		return getValue("VCAP_APPLICATION") != null;
 	}
 
-	@SuppressWarnings("unchecked")
 	public ApplicationInstanceInfo getInstanceInfo() {
-		String instanceInfoString = getValue("VCAP_APPLICATION");
-		if (instanceInfoString == null || instanceInfoString.trim().isEmpty()) {
-			return null;
-		}
-		try {
-			Map<String,Object> infoMap = objectMapper.readValue(instanceInfoString, Map.class);
-			return new ApplicationInstanceInfo(infoMap);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		} 
+		return getSnapshot().getInstanceInfo();
 	}
 	
 	public String getCloudApiUri() {
-		ApplicationInstanceInfo instanceInfo = getInstanceInfo();
+		return getCloudApiUri(getInstanceInfo());
+	}
+
+	private String getCloudApiUri(ApplicationInstanceInfo instanceInfo) {
 		if (instanceInfo == null) {
 			throw new IllegalArgumentException("There is no cloud API urls in a non-cloud deployment");
 		}
@@ -103,98 +68,64 @@ public class CloudEnvironment {
 	}
 	
 	/**
-	 * Return object representation of the VCAP_SERIVCES environment variable
+	 * Return the parsed form of the current environment.
 	 * <p>
-	 * Returns a map whose key is the label (for example "redis-2.2") of the 
-	 * service and value is a list of services for that label. Each list element
-	 * is a map with service attributes. 
+	 * The snapshot is reused for as long as the VCAP_SERVICES and VCAP_APPLICATION
+	 * values returned by the {@link EnvironmentAccessor} stay the same, so the JSON
+	 * is parsed once rather than on every query. Cloud environments seeing the same
+	 * values share the same snapshot.
 	 * </p>
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
-	private Map<String, List<Map<String,Object>>> getRawServices() {
-		String servicesString = getValue("VCAP_SERVICES");
-		if (servicesString == null || servicesString.length() == 0) {
-			return new HashMap<String, List<Map<String,Object>>>();
+	EnvironmentSnapshot getSnapshot() {
+		String servicesValue = getValue("VCAP_SERVICES");
+		String applicationValue = getValue("VCAP_APPLICATION");
+		EnvironmentSnapshot current = snapshot;
+		if (current == null || !current.isFor(servicesValue, applicationValue)) {
+			current = EnvironmentSnapshot.forValues(servicesValue, applicationValue, current);
+			snapshot = current;
 		}
-		try {
-			return objectMapper.readValue(servicesString, Map.class);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		} 
+		return current;
 	}
 	
+	/**
+	 * Return the services bound to the application.
+	 * <p>
+	 * The returned list and the service maps in it are shared and may not be modified.
+	 * </p>
+	 * @return
+	 */
 	public List<Map<String,Object>> getServices() {
-		Map<String, List<Map<String,Object>>> rawServices = getRawServices();
-		
-		List<Map<String,Object>> flatServices = new ArrayList<Map<String,Object>>();
-		for (Map.Entry<String, List<Map<String,Object>>> entry : rawServices.entrySet()) {
-			flatServices.addAll(entry.getValue());
-		}
-		return flatServices;
+		return getSnapshot().getServices();
 	}
 	
 	public Map<String, Object> getServiceDataByName(String name) {
-		List<Map<String, Object>> services = getServices();
-		
-		for (Map<String, Object> service : services) {
-			if (service.get("name").equals(name)) {
-				return service;
-			}
-		}
-		return null;
+		return getSnapshot().getServiceIndex().getByName(name);
 	}
 
 	public List<Map<String, Object>> getServiceDataByLabels(String... labels) {
-		return getServiceDataByLabels(new HashSet<String>(Arrays.asList(labels)));
-	}
-
-	private List<Map<String, Object>> getServiceDataByLabels(Set<String> labels) {
-		List<Map<String, Object>> services = getServices();
-		List<Map<String, Object>> matchedServices = new ArrayList<Map<String,Object>>();
-		for (Map<String, Object> service : services) {
-			String serviceLabelWithoutVersion = labelWithoutVersion(service.get("label").toString());
-			if (labels.contains(serviceLabelWithoutVersion)) {
-				matchedServices.add(service);
-		    }
+		ServiceIndex serviceIndex = getSnapshot().getServiceIndex();
+		if (labels.length == 1) {
+			return serviceIndex.getByLabel(labels[0]);
 		}
-
-		return matchedServices;
+		return serviceIndex.getByLabels(new HashSet<String>(Arrays.asList(labels)));
 	}
 
 	public <T extends AbstractServiceInfo> T getServiceInfo(String name, Class<T> serviceInfoType) {
-		Map<String,Object> serviceInfoMap = getServiceDataByName(name);
-		Set<String> labels = serviceTypeToLabels.get(serviceInfoType);
-
-		if (labels != null && labels.contains(labelWithoutVersion(serviceInfoMap.get("label").toString()))) {
-		    return getServiceInfo(serviceInfoMap, serviceInfoType);
-		} else {
-		    return null;
-		}
+		return getSnapshot().getTypedServices().getServiceInfo(name, serviceInfoType);
 	}
 
+	/**
+	 * Return service information for all services of the given type.
+	 * <p>
+	 * Service information objects are created once per environment snapshot; the
+	 * returned list is shared and may not be modified.
+	 * </p>
+	 * @param serviceInfoType
+	 * @return
+	 */
 	public <T extends AbstractServiceInfo> List<T> getServiceInfos(Class<T> serviceInfoType) {
-		Set<String> labels = serviceTypeToLabels.get(serviceInfoType);
-		List<T> serviceInfos = new ArrayList<T>();
-
-		if (labels != null) {
-			List<Map<String,Object>> serviceInfoMaps = getServiceDataByLabels(labels);
-
-			for (Map<String,Object> serviceInfoMap : serviceInfoMaps) {
-				serviceInfos.add(getServiceInfo(serviceInfoMap, serviceInfoType));
-			}
-		}
-
-		return serviceInfos;
-	}
-
-	private <T extends AbstractServiceInfo> T getServiceInfo(Map<String,Object> serviceInfoMap, Class<T> serviceInfoType) {
-		try {
-			Constructor<T> ctor = serviceInfoType.getConstructor(Map.class);
-			return ctor.newInstance(serviceInfoMap);
-		} catch (Exception e) {
-			throw new CloudServiceException("Failed to create service information for " + serviceInfoMap.get("name"), e);
-		}
+		return getSnapshot().getTypedServices().getServiceInfos(serviceInfoType);
 	}
 
 	/**
@@ -228,69 +159,21 @@ public class CloudEnvironment {
 	 */
 	public Properties getCloudProperties() {
 		Properties properties = new Properties();
-		properties.putAll(providerProperties());
-		properties.putAll(applicationProperties());
-		properties.putAll(serviceProperties());
-		return properties;
-	}
-
-	private Properties providerProperties() {
-		Properties properties = new Properties();
-		properties.put("cloud.provider.url", getCloudApiUri().split("\\.", 2)[1]);
-		return properties;
-	}
-
-	private Properties applicationProperties() {
-		Properties properties = new Properties();
-		properties.put("cloud.application.name", getInstanceInfo().getName());
+		properties.putAll(getCloudPropertyMap());
 		return properties;
 	}
 
-	private Properties serviceProperties() {
-		Properties properties = new Properties();
-		Map<String, Integer> serviceCounts = new HashMap<String, Integer>();
-		List<Map<String, Object>> services = getServices();
-		for (Map<String, Object> service : services) {
-			String shortType = serviceShortType(service);
-			// index services properties by name
-			properties.putAll(servicePropertiesHelper("cloud.services." + service.get("name"), service));
-			// count services by type (needed in next iteration)
-			int count = serviceCounts.containsKey(shortType) ? serviceCounts.get(shortType) : 0;
-			serviceCounts.put(shortType, count + 1);
-		}
-		for (Map<String, Object> service : services) {
-			// alias service properties by type, if unique and available
-			String shortType = serviceShortType(service);
-			if (serviceCounts.get(shortType) == 1 && !properties.containsKey("cloud.services." + shortType + ".type")) {
-				properties.putAll(servicePropertiesHelper("cloud.services." + shortType, service));
-			}
-		}
-		return properties;
-	}
-
-	@SuppressWarnings("unchecked")
-	private Properties servicePropertiesHelper(String propertyBase, Map<String, Object> service) {
-		Properties source = new Properties();
-		source.put(propertyBase + ".plan" , service.get("plan").toString());
-		source.put(propertyBase + ".type" , service.get("label").toString());
-		for (Entry<String, Object> connectionProperty : ((Map<String, Object>) service.get("credentials")).entrySet()) {
-			source.put(propertyBase + ".connection." + connectionProperty.getKey(), connectionProperty.getValue().toString());
-		}
-		return source;
-	}
-
-	private String serviceShortType(Map<String, Object> service) {
-		String type = (String) service.get("label");
-		return type.split("-", 2)[0];
-	}
-
-	private static String labelWithoutVersion(String labelWithVersion) {
-		int hyphenIndex = labelWithVersion.lastIndexOf('-');
-		if (hyphenIndex == -1) {
-			return labelWithVersion;
-		} else {
-			return labelWithVersion.substring(0, hyphenIndex);
-		}
+	/**
+	 * Return the properties described in {@link #getCloudProperties()} as a map.
+	 * <p>
+	 * The map is computed once per environment snapshot and is shared; it may not be
+	 * modified. When the bound services change, properties of the services whose
+	 * data is unchanged are reused rather than computed again.
+	 * </p>
+	 * @return
+	 */
+	public Map<String, String> getCloudPropertyMap() {
+		return getSnapshot().getCloudProperties();
 	}
 
 	/**
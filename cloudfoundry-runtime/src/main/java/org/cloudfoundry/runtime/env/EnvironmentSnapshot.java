@@ -0,0 +1,297 @@
+package org.cloudfoundry.runtime.env;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Parsed, immutable view of the VCAP_SERVICES and VCAP_APPLICATION values.
+ * <p>
+ * A snapshot is tied to the raw strings it was created from. Each part is parsed
+ * lazily on first access and then reused; concurrent first accesses may parse the
+ * same value more than once, but always publish an equivalent immutable result.
+ * </p>
+ * <p>
+ * Snapshots are shared by all {@link CloudEnvironment} instances loaded by the same
+ * class loader (see {@link #forValues(String, String, EnvironmentSnapshot)}).
+ * </p>
+ */
+final class EnvironmentSnapshot {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static final int MAX_SHARED_SNAPSHOTS = 8;
+
+	/**
+	 * Most recently used snapshots keyed by their raw values. Only a few distinct
+	 * environments are ever seen in one JVM, typically one per environment accessor.
+	 */
+	private static final Map<List<String>, EnvironmentSnapshot> sharedSnapshots =
+			new LinkedHashMap<List<String>, EnvironmentSnapshot>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<String>, EnvironmentSnapshot> eldest) {
+					return size() > MAX_SHARED_SNAPSHOTS;
+				}
+			};
+
+	private final String servicesValue;
+
+	private final String applicationValue;
+
+	private volatile Map<String, List<Map<String, Object>>> rawServices;
+
+	private volatile List<Map<String, Object>> services;
+
+	private volatile ServiceIndex serviceIndex;
+
+	private volatile ServiceInfoParser.TypedServices typedServices;
+
+	private volatile ApplicationInstanceInfo instanceInfo;
+
+	private volatile boolean instanceInfoParsed;
+
+	private volatile Map<String, String> cloudProperties;
+
+	/**
+	 * Properties of each service, keyed by its service data. Those of the previous
+	 * snapshot are reused for services whose data has not changed.
+	 */
+	private volatile Map<Map<String, Object>, Map<String, String>> servicePropertiesByService;
+
+	EnvironmentSnapshot(String servicesValue, String applicationValue) {
+		this(servicesValue, applicationValue, null);
+	}
+
+	/**
+	 * @param previous snapshot this one replaces, whose per-service properties may be
+	 * reused; no reference to it is kept
+	 */
+	EnvironmentSnapshot(String servicesValue, String applicationValue, EnvironmentSnapshot previous) {
+		this.servicesValue = servicesValue;
+		this.applicationValue = applicationValue;
+		if (previous != null) {
+			this.servicePropertiesByService = previous.servicePropertiesByService;
+		}
+	}
+
+	/**
+	 * Return the shared snapshot for the given raw values, creating it if needed.
+	 *
+	 * @param previous snapshot being replaced by the caller, whose per-service
+	 * properties are reused if a new snapshot has to be created; may be null
+	 */
+	static EnvironmentSnapshot forValues(String servicesValue, String applicationValue, EnvironmentSnapshot previous) {
+		List<String> key = Arrays.asList(servicesValue, applicationValue);
+		synchronized (sharedSnapshots) {
+			EnvironmentSnapshot snapshot = sharedSnapshots.get(key);
+			if (snapshot == null) {
+				snapshot = new EnvironmentSnapshot(servicesValue, applicationValue, previous);
+				sharedSnapshots.put(key, snapshot);
+			}
+			return snapshot;
+		}
+	}
+
+	/* package for testing purpose */
+	static void clearSharedSnapshots() {
+		synchronized (sharedSnapshots) {
+			sharedSnapshots.clear();
+		}
+	}
+
+	/**
+	 * @return true if this snapshot was created from exactly the given raw values
+	 */
+	boolean isFor(String servicesValue, String applicationValue) {
+		return sameValue(this.servicesValue, servicesValue) && sameValue(this.applicationValue, applicationValue);
+	}
+
+	/**
+	 * Map whose key is the label (for example "redis-2.2") of the service and value
+	 * is the list of services for that label.
+	 */
+	Map<String, List<Map<String, Object>>> getRawServices() {
+		Map<String, List<Map<String, Object>>> result = rawServices;
+		if (result == null) {
+			result = parseServices();
+			rawServices = result;
+		}
+		return result;
+	}
+
+	List<Map<String, Object>> getServices() {
+		List<Map<String, Object>> result = services;
+		if (result == null) {
+			List<Map<String, Object>> flatServices = new ArrayList<Map<String, Object>>();
+			for (List<Map<String, Object>> labelServices : getRawServices().values()) {
+				flatServices.addAll(labelServices);
+			}
+			result = Collections.unmodifiableList(flatServices);
+			services = result;
+		}
+		return result;
+	}
+
+	ServiceIndex getServiceIndex() {
+		ServiceIndex result = serviceIndex;
+		if (result == null) {
+			result = new ServiceIndex(getServices());
+			serviceIndex = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Service infos built by streaming over VCAP_SERVICES, without materializing the
+	 * raw service data returned by {@link #getRawServices()} unless it is already
+	 * available. They are rebuilt if a {@link ServiceInfoFactory} has been registered
+	 * since they were created.
+	 */
+	ServiceInfoParser.TypedServices getTypedServices() {
+		ServiceInfoFactoryRegistry factoryRegistry = ServiceInfoFactoryRegistry.getInstance();
+		ServiceInfoParser.TypedServices result = typedServices;
+		if (result == null || !result.isCurrent(factoryRegistry)) {
+			if (rawServices != null) {
+				result = ServiceInfoParser.parse(getServices(), factoryRegistry);
+			} else {
+				result = ServiceInfoParser.parse(servicesValue, factoryRegistry);
+			}
+			typedServices = result;
+		}
+		return result;
+	}
+
+	ApplicationInstanceInfo getInstanceInfo() {
+		if (!instanceInfoParsed) {
+			instanceInfo = parseInstanceInfo();
+			instanceInfoParsed = true;
+		}
+		return instanceInfo;
+	}
+
+	/**
+	 * The flattened <code>cloud.*</code> properties described in
+	 * {@link CloudEnvironment#getCloudProperties()}, computed once per snapshot.
+	 *
+	 * @throws IllegalArgumentException if there is no application instance info
+	 */
+	Map<String, String> getCloudProperties() {
+		Map<String, String> result = cloudProperties;
+		if (result == null) {
+			result = Collections.unmodifiableMap(buildCloudProperties());
+			cloudProperties = result;
+		}
+		return result;
+	}
+
+	private Map<String, String> buildCloudProperties() {
+		ApplicationInstanceInfo instanceInfo = getInstanceInfo();
+		if (instanceInfo == null) {
+			throw new IllegalArgumentException("There is no cloud API urls in a non-cloud deployment");
+		}
+		Map<String, String> properties = new HashMap<String, String>();
+		String defaultUri = instanceInfo.getUris().get(0);
+		properties.put("cloud.provider.url", defaultUri.substring(defaultUri.indexOf(".") + 1));
+		properties.put("cloud.application.name", instanceInfo.getName());
+
+		List<Map<String, Object>> services = getServices();
+		Map<Map<String, Object>, Map<String, String>> previousServiceProperties = servicePropertiesByService;
+		Map<Map<String, Object>, Map<String, String>> currentServiceProperties =
+				new HashMap<Map<String, Object>, Map<String, String>>();
+		Map<String, Integer> serviceCounts = new HashMap<String, Integer>();
+		for (Map<String, Object> service : services) {
+			Map<String, String> serviceProperties = previousServiceProperties == null ? null :
+					previousServiceProperties.get(service);
+			if (serviceProperties == null) {
+				serviceProperties = serviceProperties("cloud.services." + service.get("name"), service);
+			}
+			currentServiceProperties.put(service, serviceProperties);
+			// index services properties by name
+			properties.putAll(serviceProperties);
+			// count services by type (needed in next iteration)
+			String shortType = serviceShortType(service);
+			Integer count = serviceCounts.get(shortType);
+			serviceCounts.put(shortType, count == null ? 1 : count + 1);
+		}
+		for (Map<String, Object> service : services) {
+			// alias service properties by type, if unique and available
+			String shortType = serviceShortType(service);
+			if (serviceCounts.get(shortType) == 1 && !properties.containsKey("cloud.services." + shortType + ".type")) {
+				properties.putAll(serviceProperties("cloud.services." + shortType, service));
+			}
+		}
+		// only keep the properties of services still bound
+		servicePropertiesByService = currentServiceProperties;
+		return properties;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, String> serviceProperties(String propertyBase, Map<String, Object> service) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(propertyBase + ".plan", service.get("plan").toString());
+		properties.put(propertyBase + ".type", service.get("label").toString());
+		for (Map.Entry<String, Object> connectionProperty : ((Map<String, Object>) service.get("credentials")).entrySet()) {
+			properties.put(propertyBase + ".connection." + connectionProperty.getKey(), connectionProperty.getValue().toString());
+		}
+		return properties;
+	}
+
+	private static String serviceShortType(Map<String, Object> service) {
+		String type = (String) service.get("label");
+		return type.split("-", 2)[0];
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, List<Map<String, Object>>> parseServices() {
+		if (servicesValue == null || servicesValue.length() == 0) {
+			return Collections.emptyMap();
+		}
+		try {
+			return (Map<String, List<Map<String, Object>>>) immutableCopy(objectMapper.readValue(servicesValue, Map.class));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private ApplicationInstanceInfo parseInstanceInfo() {
+		if (applicationValue == null || applicationValue.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			Map<String, Object> infoMap = objectMapper.readValue(applicationValue, Map.class);
+			return new ApplicationInstanceInfo((Map<String, Object>) immutableCopy(infoMap));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object immutableCopy(Object value) {
+		if (value instanceof Map) {
+			Map<String, Object> copy = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				copy.put(entry.getKey(), immutableCopy(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+		if (value instanceof List) {
+			List<Object> copy = new ArrayList<Object>();
+			for (Object element : (List<Object>) value) {
+				copy.add(immutableCopy(element));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+		return value;
+	}
+
+	private static boolean sameValue(String current, String candidate) {
+		return current == candidate || (current != null && current.equals(candidate));
+	}
+}
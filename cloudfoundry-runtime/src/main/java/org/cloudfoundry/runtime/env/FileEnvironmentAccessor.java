@@ -0,0 +1,129 @@
+package org.cloudfoundry.runtime.env;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Environment accessor reading values from a file that may change while the
+ * application runs, for example a credentials file rewritten by a sidecar process.
+ * <p>
+ * The file holds a JSON object whose keys are variable names such as
+ * <code>VCAP_SERVICES</code>. A value may be a string or an embedded JSON object,
+ * which is returned in its serialized form. Variables not present in the file are
+ * read from the process environment.
+ * </p>
+ * <p>
+ * The file is checked for changes (modification time and length) at most once per
+ * check interval and is only read again when it has changed. If the file is
+ * missing or cannot be parsed, the values last read are kept.
+ * </p>
+ *
+ * @see CloudEnvironment#CloudEnvironment(CloudEnvironment.EnvironmentAccessor)
+ */
+public class FileEnvironmentAccessor extends CloudEnvironment.EnvironmentAccessor {
+
+	private static final Logger logger = Logger.getLogger(FileEnvironmentAccessor.class.getName());
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final File file;
+
+	private final long checkIntervalMillis;
+
+	private volatile FileValues values = new FileValues(Collections.<String, String>emptyMap(), -1, -1);
+
+	private volatile long lastCheckTime;
+
+	/**
+	 * @param file the file holding the environment values
+	 * @param checkIntervalMillis minimum time between two checks of the file for changes
+	 */
+	public FileEnvironmentAccessor(File file, long checkIntervalMillis) {
+		this.file = file;
+		this.checkIntervalMillis = checkIntervalMillis;
+		refresh();
+	}
+
+	public FileEnvironmentAccessor(String path) {
+		this(new File(path), 1000);
+	}
+
+	@Override
+	public String getValue(String key) {
+		long now = System.currentTimeMillis();
+		if (now - lastCheckTime >= checkIntervalMillis) {
+			lastCheckTime = now;
+			refresh();
+		}
+		String value = values.values.get(key);
+		return value != null ? value : super.getValue(key);
+	}
+
+	/**
+	 * Read the file again if it has changed since it was last read.
+	 *
+	 * @return true if new values were read
+	 */
+	public synchronized boolean refresh() {
+		FileValues current = values;
+		long lastModified = file.lastModified();
+		long length = file.length();
+		if (lastModified == 0 || (lastModified == current.lastModified && length == current.length)) {
+			return false;
+		}
+		try {
+			values = new FileValues(readValues(), lastModified, length);
+			logger.info("Read environment values from " + file);
+			return true;
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to read environment values from " + file + ", keeping previous values", e);
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, String> readValues() throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		Map<String, Object> parsed;
+		try {
+			parsed = objectMapper.readValue(input, Map.class);
+		} finally {
+			input.close();
+		}
+		Map<String, String> fileValues = new HashMap<String, String>();
+		for (Map.Entry<String, Object> entry : parsed.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof String) {
+				fileValues.put(entry.getKey(), (String) value);
+			} else if (value != null) {
+				fileValues.put(entry.getKey(), objectMapper.writeValueAsString(value));
+			}
+		}
+		return fileValues;
+	}
+
+	private static final class FileValues {
+
+		final Map<String, String> values;
+
+		final long lastModified;
+
+		final long length;
+
+		FileValues(Map<String, String> values, long lastModified, long length) {
+			this.values = values;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
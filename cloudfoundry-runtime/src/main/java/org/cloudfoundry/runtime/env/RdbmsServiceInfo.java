@@ -29,4 +29,11 @@ public class RdbmsServiceInfo extends AbstractDataSourceServiceInfo {
 	public String getUrl() {
 		return delegate.getUrl();
 	}
+
+	@Override
+	protected AbstractDataSourceServiceInfo forHost(String host, int port) {
+		RdbmsServiceInfo copy = (RdbmsServiceInfo) super.forHost(host, port);
+		copy.delegate = delegate.forHost(host, port);
+		return copy;
+	}
 }
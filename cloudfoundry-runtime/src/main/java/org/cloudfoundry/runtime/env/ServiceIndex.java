@@ -0,0 +1,95 @@
+package org.cloudfoundry.runtime.env;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookup tables over the services of one {@link EnvironmentSnapshot}.
+ * <p>
+ * Services are indexed by name and by label without version (for example "mysql"
+ * for "mysql-5.1"). Each indexed list keeps the order in which services appear in
+ * VCAP_SERVICES and may not be modified.
+ * </p>
+ */
+final class ServiceIndex {
+
+	private final List<Map<String, Object>> services;
+
+	private final List<String> versionlessLabels;
+
+	private final Map<String, Map<String, Object>> servicesByName;
+
+	private final Map<String, List<Map<String, Object>>> servicesByLabel;
+
+	ServiceIndex(List<Map<String, Object>> services) {
+		this.services = services;
+		this.versionlessLabels = new ArrayList<String>(services.size());
+		Map<String, Map<String, Object>> byName = new HashMap<String, Map<String, Object>>();
+		Map<String, List<Map<String, Object>>> byLabel = new HashMap<String, List<Map<String, Object>>>();
+		for (Map<String, Object> service : services) {
+			String label = labelWithoutVersion(service.get("label").toString());
+			versionlessLabels.add(label);
+			Object name = service.get("name");
+			if (name != null && !byName.containsKey(name)) {
+				byName.put(name.toString(), service);
+			}
+			add(byLabel, label, service);
+		}
+		this.servicesByName = byName;
+		this.servicesByLabel = unmodifiableValues(byLabel);
+	}
+
+	Map<String, Object> getByName(String name) {
+		return servicesByName.get(name);
+	}
+
+	List<Map<String, Object>> getByLabel(String labelWithoutVersion) {
+		List<Map<String, Object>> matched = servicesByLabel.get(labelWithoutVersion);
+		if (matched == null) {
+			return Collections.emptyList();
+		}
+		return matched;
+	}
+
+	List<Map<String, Object>> getByLabels(Set<String> labelsWithoutVersion) {
+		if (labelsWithoutVersion.size() == 1) {
+			return getByLabel(labelsWithoutVersion.iterator().next());
+		}
+		List<Map<String, Object>> matched = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < services.size(); i++) {
+			if (labelsWithoutVersion.contains(versionlessLabels.get(i))) {
+				matched.add(services.get(i));
+			}
+		}
+		return matched;
+	}
+
+	static String labelWithoutVersion(String labelWithVersion) {
+		int hyphenIndex = labelWithVersion.lastIndexOf('-');
+		if (hyphenIndex == -1) {
+			return labelWithVersion;
+		} else {
+			return labelWithVersion.substring(0, hyphenIndex);
+		}
+	}
+
+	private static void add(Map<String, List<Map<String, Object>>> index, String key, Map<String, Object> service) {
+		List<Map<String, Object>> indexed = index.get(key);
+		if (indexed == null) {
+			indexed = new ArrayList<Map<String, Object>>();
+			index.put(key, indexed);
+		}
+		indexed.add(service);
+	}
+
+	private static Map<String, List<Map<String, Object>>> unmodifiableValues(Map<String, List<Map<String, Object>>> index) {
+		for (Map.Entry<String, List<Map<String, Object>>> entry : index.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return index;
+	}
+}
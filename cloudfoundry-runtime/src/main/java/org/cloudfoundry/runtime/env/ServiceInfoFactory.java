@@ -0,0 +1,39 @@
+package org.cloudfoundry.runtime.env;
+
+import java.util.Map;
+
+/**
+ * Creates service information for services carrying particular labels.
+ * <p>
+ * Factories are held by the {@link ServiceInfoFactoryRegistry}. Besides the
+ * built-in factories, implementations listed in
+ * <code>META-INF/services/org.cloudfoundry.runtime.env.ServiceInfoFactory</code>
+ * are discovered through {@link java.util.ServiceLoader}, which allows services
+ * with custom labels (a MySQL proxy, for example) to be exposed as one of the
+ * standard service info types.
+ * </p>
+ */
+public interface ServiceInfoFactory {
+
+	/**
+	 * Labels handled by this factory, without version (for example "mysql" for
+	 * "mysql-5.1"). A label ending with '*' matches every label starting with the
+	 * text before the '*'.
+	 *
+	 * @return labels or label prefixes
+	 */
+	String[] getLabels();
+
+	/**
+	 * @return the type of the service information created by this factory
+	 */
+	Class<? extends AbstractServiceInfo> getServiceInfoType();
+
+	/**
+	 * Create service information for a bound service.
+	 *
+	 * @param serviceData service attributes (name, label, plan and credentials)
+	 * @return service information of the type returned by {@link #getServiceInfoType()}
+	 */
+	AbstractServiceInfo createServiceInfo(Map<String, Object> serviceData);
+}
@@ -0,0 +1,252 @@
+package org.cloudfoundry.runtime.env;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of {@link ServiceInfoFactory} instances keyed by label.
+ * <p>
+ * Lookups never lock: registrations are kept in an immutable table that is
+ * replaced as a whole when a factory is registered. Exact labels are found with a
+ * single hash lookup; a label resolved through a prefix is remembered in the
+ * current table so that subsequent lookups for it are just as cheap. A factory
+ * registered later takes precedence over earlier ones for the same label.
+ * </p>
+ */
+public final class ServiceInfoFactoryRegistry {
+
+	private static final Logger logger = Logger.getLogger(ServiceInfoFactoryRegistry.class.getName());
+
+	private static final ServiceInfoFactoryRegistry instance = createDefaultRegistry();
+
+	private final AtomicReference<Registrations> registrations = new AtomicReference<Registrations>(new Registrations());
+
+	/**
+	 * @return the registry holding the built-in factories and those discovered
+	 * through {@link ServiceLoader}
+	 */
+	public static ServiceInfoFactoryRegistry getInstance() {
+		return instance;
+	}
+
+	public void register(ServiceInfoFactory factory) {
+		while (true) {
+			Registrations current = registrations.get();
+			if (registrations.compareAndSet(current, current.with(factory))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @param labelWithoutVersion service label without version (for example "mysql")
+	 * @return the factory for the label or null if the label is not known
+	 */
+	public ServiceInfoFactory getFactory(String labelWithoutVersion) {
+		return registrations.get().getFactory(labelWithoutVersion);
+	}
+
+	/**
+	 * Token identifying the current set of registrations; it changes whenever a
+	 * factory is registered, which lets callers invalidate results derived from an
+	 * earlier set.
+	 */
+	Object getVersion() {
+		return registrations.get();
+	}
+
+	private static ServiceInfoFactoryRegistry createDefaultRegistry() {
+		ServiceInfoFactoryRegistry registry = new ServiceInfoFactoryRegistry();
+		registry.register(new RdbmsServiceInfoFactory("mysql", "postgresql",
+				"rds-mysql", "cleardb", "cleardb-dev", "elephantsql", "elephantsql-dev"));
+		registry.register(new RedisServiceInfoFactory("redis", "rediscloud", "rediscloud-dev"));
+		registry.register(new MongoServiceInfoFactory("mongodb", "mongolab", "mongolab-dev"));
+		registry.register(new RabbitServiceInfoFactory("rabbitmq", "cloudamqp", "cloudamqp-dev"));
+		registry.registerDiscoveredFactories();
+		return registry;
+	}
+
+	private void registerDiscoveredFactories() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = ServiceInfoFactoryRegistry.class.getClassLoader();
+		}
+		Iterator<ServiceInfoFactory> factories = ServiceLoader.load(ServiceInfoFactory.class, classLoader).iterator();
+		while (true) {
+			try {
+				if (!factories.hasNext()) {
+					return;
+				}
+				ServiceInfoFactory factory = factories.next();
+				logger.info("Registering service info factory " + factory.getClass().getName());
+				register(factory);
+			} catch (ServiceConfigurationError e) {
+				logger.log(Level.WARNING, "Failed to load a service info factory", e);
+			}
+		}
+	}
+
+	/**
+	 * Immutable set of registrations.
+	 */
+	private static final class Registrations {
+
+		private static final ServiceInfoFactory NO_FACTORY = new RdbmsServiceInfoFactory();
+
+		private final Map<String, ServiceInfoFactory> factoriesByLabel;
+
+		private final List<String> prefixes;
+
+		private final List<ServiceInfoFactory> prefixFactories;
+
+		private final ConcurrentMap<String, ServiceInfoFactory> resolvedPrefixes =
+				new ConcurrentHashMap<String, ServiceInfoFactory>();
+
+		Registrations() {
+			this(Collections.<String, ServiceInfoFactory>emptyMap(), Collections.<String>emptyList(),
+					Collections.<ServiceInfoFactory>emptyList());
+		}
+
+		private Registrations(Map<String, ServiceInfoFactory> factoriesByLabel, List<String> prefixes,
+				List<ServiceInfoFactory> prefixFactories) {
+			this.factoriesByLabel = factoriesByLabel;
+			this.prefixes = prefixes;
+			this.prefixFactories = prefixFactories;
+		}
+
+		Registrations with(ServiceInfoFactory factory) {
+			Map<String, ServiceInfoFactory> newFactoriesByLabel = new HashMap<String, ServiceInfoFactory>(factoriesByLabel);
+			List<String> newPrefixes = new ArrayList<String>();
+			List<ServiceInfoFactory> newPrefixFactories = new ArrayList<ServiceInfoFactory>();
+			for (String label : factory.getLabels()) {
+				if (label.endsWith("*")) {
+					// newest prefixes are tried first
+					newPrefixes.add(label.substring(0, label.length() - 1));
+					newPrefixFactories.add(factory);
+				} else {
+					newFactoriesByLabel.put(label, factory);
+				}
+			}
+			newPrefixes.addAll(prefixes);
+			newPrefixFactories.addAll(prefixFactories);
+			return new Registrations(newFactoriesByLabel, newPrefixes, newPrefixFactories);
+		}
+
+		ServiceInfoFactory getFactory(String labelWithoutVersion) {
+			ServiceInfoFactory factory = factoriesByLabel.get(labelWithoutVersion);
+			if (factory != null || prefixes.isEmpty()) {
+				return factory;
+			}
+			factory = resolvedPrefixes.get(labelWithoutVersion);
+			if (factory == null) {
+				factory = NO_FACTORY;
+				for (int i = 0; i < prefixes.size(); i++) {
+					if (labelWithoutVersion.startsWith(prefixes.get(i))) {
+						factory = prefixFactories.get(i);
+						break;
+					}
+				}
+				resolvedPrefixes.putIfAbsent(labelWithoutVersion, factory);
+			}
+			return factory == NO_FACTORY ? null : factory;
+		}
+	}
+
+	private static abstract class LabelledServiceInfoFactory implements ServiceInfoFactory {
+
+		private final String[] labels;
+
+		LabelledServiceInfoFactory(String... labels) {
+			this.labels = labels;
+		}
+
+		@Override
+		public String[] getLabels() {
+			return labels.clone();
+		}
+	}
+
+	private static final class RdbmsServiceInfoFactory extends LabelledServiceInfoFactory {
+
+		RdbmsServiceInfoFactory(String... labels) {
+			super(labels);
+		}
+
+		@Override
+		public Class<? extends AbstractServiceInfo> getServiceInfoType() {
+			return RdbmsServiceInfo.class;
+		}
+
+		@Override
+		public AbstractServiceInfo createServiceInfo(Map<String, Object> serviceData) {
+			return new RdbmsServiceInfo(serviceData);
+		}
+	}
+
+	private static final class RedisServiceInfoFactory extends LabelledServiceInfoFactory {
+
+		RedisServiceInfoFactory(String... labels) {
+			super(labels);
+		}
+
+		@Override
+		public Class<? extends AbstractServiceInfo> getServiceInfoType() {
+			return RedisServiceInfo.class;
+		}
+
+		@Override
+		public AbstractServiceInfo createServiceInfo(Map<String, Object> serviceData) {
+			return new RedisServiceInfo(serviceData);
+		}
+	}
+
+	private static final class MongoServiceInfoFactory extends LabelledServiceInfoFactory {
+
+		MongoServiceInfoFactory(String... labels) {
+			super(labels);
+		}
+
+		@Override
+		public Class<? extends AbstractServiceInfo> getServiceInfoType() {
+			return MongoServiceInfo.class;
+		}
+
+		@Override
+		public AbstractServiceInfo createServiceInfo(Map<String, Object> serviceData) {
+			return new MongoServiceInfo(serviceData);
+		}
+	}
+
+	private static final class RabbitServiceInfoFactory extends LabelledServiceInfoFactory {
+
+		RabbitServiceInfoFactory(String... labels) {
+			super(labels);
+		}
+
+		@Override
+		public Class<? extends AbstractServiceInfo> getServiceInfoType() {
+			return RabbitServiceInfo.class;
+		}
+
+		@Override
+		public AbstractServiceInfo createServiceInfo(Map<String, Object> serviceData) {
+			try {
+				return new RabbitServiceInfo(serviceData);
+			} catch (URISyntaxException e) {
+				throw new CloudServiceException("Invalid format for RabbitMQ URI", e);
+			}
+		}
+	}
+}
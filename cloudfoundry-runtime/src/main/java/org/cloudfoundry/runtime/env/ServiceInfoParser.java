@@ -0,0 +1,296 @@
+package org.cloudfoundry.runtime.env;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Builds typed service information directly from the VCAP_SERVICES value.
+ * <p>
+ * The value is read with Jackson's streaming {@link JsonParser} in a single pass.
+ * Only the attributes the service info types understand (name, label, plan, and the
+ * scalar credentials and lists of scalar credentials such as <code>hosts</code>) are
+ * read for each service; nested structures such as tags or nested credential objects
+ * are skipped without being materialized. No tree of maps
+ * is kept once the service infos are created, so callers that never ask for raw
+ * service data never pay for it.
+ * </p>
+ */
+final class ServiceInfoParser {
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private final ServiceInfoFactoryRegistry factoryRegistry;
+
+	private final Map<Class<? extends AbstractServiceInfo>, List<AbstractServiceInfo>> serviceInfosByType =
+			new HashMap<Class<? extends AbstractServiceInfo>, List<AbstractServiceInfo>>();
+
+	private final Map<Class<? extends AbstractServiceInfo>, RuntimeException> failuresByType =
+			new HashMap<Class<? extends AbstractServiceInfo>, RuntimeException>();
+
+	private final Map<String, RuntimeException> failuresByName = new HashMap<String, RuntimeException>();
+
+	private final Map<String, Class<? extends AbstractServiceInfo>> serviceTypesByName =
+			new HashMap<String, Class<? extends AbstractServiceInfo>>();
+
+	private ServiceInfoParser(ServiceInfoFactoryRegistry factoryRegistry) {
+		this.factoryRegistry = factoryRegistry;
+	}
+
+	/**
+	 * Parse the given VCAP_SERVICES value.
+	 *
+	 * @param servicesValue the raw value, may be null or empty
+	 * @param factoryRegistry registry used to create service infos from labels
+	 * @return the parsed service infos
+	 */
+	static TypedServices parse(String servicesValue, ServiceInfoFactoryRegistry factoryRegistry) {
+		ServiceInfoParser parser = new ServiceInfoParser(factoryRegistry);
+		if (servicesValue != null && servicesValue.length() > 0) {
+			try {
+				parser.parseServices(jsonFactory.createJsonParser(servicesValue));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return new TypedServices(factoryRegistry.getVersion(), parser.serviceInfosByType, parser.failuresByType,
+				parser.failuresByName, parser.serviceTypesByName);
+	}
+
+	/**
+	 * Create service infos from already parsed service data.
+	 *
+	 * @param services services in VCAP_SERVICES order
+	 * @param factoryRegistry registry used to create service infos from labels
+	 * @return the service infos
+	 */
+	static TypedServices parse(List<Map<String, Object>> services, ServiceInfoFactoryRegistry factoryRegistry) {
+		ServiceInfoParser parser = new ServiceInfoParser(factoryRegistry);
+		for (Map<String, Object> service : services) {
+			parser.addServiceInfo(new HashMap<String, Object>(service));
+		}
+		return new TypedServices(factoryRegistry.getVersion(), parser.serviceInfosByType, parser.failuresByType,
+				parser.failuresByName, parser.serviceTypesByName);
+	}
+
+	private void parseServices(JsonParser parser) throws IOException {
+		try {
+			expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				expect(parser.nextToken(), JsonToken.START_ARRAY, parser);
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					addServiceInfo(parseService(parser));
+				}
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	private Map<String, Object> parseService(JsonParser parser) throws IOException {
+		Map<String, Object> service = new HashMap<String, Object>(8);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("credentials".equals(fieldName) && token == JsonToken.START_OBJECT) {
+				service.put(fieldName, parseCredentials(parser));
+			} else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+				parser.skipChildren();
+			} else if ("name".equals(fieldName) || "label".equals(fieldName) || "plan".equals(fieldName)) {
+				service.put(fieldName, scalarValue(parser, token));
+			}
+		}
+		return service;
+	}
+
+	private Map<String, Object> parseCredentials(JsonParser parser) throws IOException {
+		Map<String, Object> credentials = new LinkedHashMap<String, Object>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_ARRAY) {
+				List<Object> values = parseScalarList(parser);
+				if (values != null) {
+					credentials.put(fieldName, values);
+				}
+			} else if (token == JsonToken.START_OBJECT) {
+				parser.skipChildren();
+			} else {
+				credentials.put(fieldName, scalarValue(parser, token));
+			}
+		}
+		return credentials;
+	}
+
+	/**
+	 * @return the values of the current array, or null if it holds nested structures
+	 */
+	private static List<Object> parseScalarList(JsonParser parser) throws IOException {
+		List<Object> values = new ArrayList<Object>();
+		boolean scalars = true;
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+				parser.skipChildren();
+				scalars = false;
+			} else if (scalars) {
+				values.add(scalarValue(parser, token));
+			}
+		}
+		return scalars ? Collections.unmodifiableList(values) : null;
+	}
+
+	private void addServiceInfo(Map<String, Object> service) {
+		Object name = service.get("name");
+		Object label = service.get("label");
+		ServiceInfoFactory factory = label == null ? null :
+				factoryRegistry.getFactory(ServiceIndex.labelWithoutVersion(label.toString()));
+		Class<? extends AbstractServiceInfo> serviceInfoType = factory == null ? null : factory.getServiceInfoType();
+		if (name != null && !serviceTypesByName.containsKey(name.toString())) {
+			// the first service bound under a name wins, as for lookups of the raw service data
+			serviceTypesByName.put(name.toString(), serviceInfoType);
+		}
+		if (serviceInfoType == null) {
+			return;
+		}
+		if (!service.containsKey("credentials")) {
+			service.put("credentials", Collections.<String, Object>emptyMap());
+		}
+		List<AbstractServiceInfo> serviceInfos = serviceInfosByType.get(serviceInfoType);
+		if (serviceInfos == null) {
+			serviceInfos = new ArrayList<AbstractServiceInfo>();
+			serviceInfosByType.put(serviceInfoType, serviceInfos);
+		}
+		try {
+			serviceInfos.add(createServiceInfo(service, factory));
+		} catch (RuntimeException e) {
+			// keep the failure so that only queries for this type of service are affected
+			if (!failuresByType.containsKey(serviceInfoType)) {
+				failuresByType.put(serviceInfoType, e);
+			}
+			if (name != null && !failuresByName.containsKey(name.toString())) {
+				failuresByName.put(name.toString(), e);
+			}
+		}
+	}
+
+	private static AbstractServiceInfo createServiceInfo(Map<String, Object> service, ServiceInfoFactory factory) {
+		AbstractServiceInfo serviceInfo;
+		try {
+			serviceInfo = factory.createServiceInfo(service);
+		} catch (RuntimeException e) {
+			throw new CloudServiceException("Failed to create service information for " + service.get("name"), e);
+		}
+		if (!factory.getServiceInfoType().isInstance(serviceInfo)) {
+			throw new CloudServiceException("Service info factory " + factory.getClass().getName() + " created "
+					+ serviceInfo + " instead of " + factory.getServiceInfoType().getName() + " for " + service.get("name"));
+		}
+		return serviceInfo;
+	}
+
+	private static Object scalarValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getNumberValue();
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		default:
+			return null;
+		}
+	}
+
+	private static void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws IOException {
+		if (actual != expected) {
+			throw new CloudServiceException("Invalid VCAP_SERVICES format: expected " + expected + " but found "
+					+ actual + " at " + parser.getCurrentLocation());
+		}
+	}
+
+	/**
+	 * Service infos of one snapshot grouped by type.
+	 */
+	static final class TypedServices {
+
+		private final Object factoryRegistryVersion;
+
+		private final Map<Class<? extends AbstractServiceInfo>, List<AbstractServiceInfo>> serviceInfosByType;
+
+		private final Map<Class<? extends AbstractServiceInfo>, Map<String, AbstractServiceInfo>> serviceInfosByName;
+
+		private final Map<Class<? extends AbstractServiceInfo>, RuntimeException> failuresByType;
+
+		private final Map<String, RuntimeException> failuresByName;
+
+		private final Map<String, Class<? extends AbstractServiceInfo>> serviceTypesByName;
+
+		private TypedServices(Object factoryRegistryVersion,
+				Map<Class<? extends AbstractServiceInfo>, List<AbstractServiceInfo>> serviceInfosByType,
+				Map<Class<? extends AbstractServiceInfo>, RuntimeException> failuresByType,
+				Map<String, RuntimeException> failuresByName,
+				Map<String, Class<? extends AbstractServiceInfo>> serviceTypesByName) {
+			this.factoryRegistryVersion = factoryRegistryVersion;
+			this.serviceInfosByType = serviceInfosByType;
+			this.serviceInfosByName = new HashMap<Class<? extends AbstractServiceInfo>, Map<String, AbstractServiceInfo>>();
+			for (Map.Entry<Class<? extends AbstractServiceInfo>, List<AbstractServiceInfo>> entry : serviceInfosByType.entrySet()) {
+				Map<String, AbstractServiceInfo> byName = new HashMap<String, AbstractServiceInfo>();
+				for (AbstractServiceInfo serviceInfo : entry.getValue()) {
+					if (!byName.containsKey(serviceInfo.getServiceName())) {
+						byName.put(serviceInfo.getServiceName(), serviceInfo);
+					}
+				}
+				serviceInfosByName.put(entry.getKey(), byName);
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
+			}
+			this.failuresByType = failuresByType;
+			this.failuresByName = failuresByName;
+			this.serviceTypesByName = serviceTypesByName;
+		}
+
+		/**
+		 * @return true if these service infos were created with the current set of
+		 * registered factories
+		 */
+		boolean isCurrent(ServiceInfoFactoryRegistry factoryRegistry) {
+			return factoryRegistryVersion == factoryRegistry.getVersion();
+		}
+
+		@SuppressWarnings("unchecked")
+		<T extends AbstractServiceInfo> List<T> getServiceInfos(Class<T> serviceInfoType) {
+			RuntimeException failure = failuresByType.get(serviceInfoType);
+			if (failure != null) {
+				throw failure;
+			}
+			List<T> serviceInfos = (List<T>) serviceInfosByType.get(serviceInfoType);
+			if (serviceInfos == null) {
+				return Collections.emptyList();
+			}
+			return serviceInfos;
+		}
+
+		@SuppressWarnings("unchecked")
+		<T extends AbstractServiceInfo> T getServiceInfo(String name, Class<T> serviceInfoType) {
+			if (!serviceInfoType.equals(serviceTypesByName.get(name))) {
+				return null;
+			}
+			RuntimeException failure = failuresByName.get(name);
+			if (failure != null) {
+				throw failure;
+			}
+			Map<String, AbstractServiceInfo> byName = serviceInfosByName.get(serviceInfoType);
+			return byName == null ? null : (T) byName.get(name);
+		}
+	}
+}
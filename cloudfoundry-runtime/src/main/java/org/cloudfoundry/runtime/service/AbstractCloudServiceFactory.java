@@ -1,6 +1,7 @@
 package org.cloudfoundry.runtime.service;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.cloudfoundry.runtime.env.AbstractServiceInfo;
 import org.cloudfoundry.runtime.env.CloudEnvironment;
@@ -32,6 +33,18 @@ public abstract class AbstractCloudServiceFactory<S, SI extends AbstractServiceI
 
 	private CloudEnvironment cloudEnvironment;
 
+	private long refreshInterval;
+
+	private boolean autoSizePools;
+
+	private boolean lazyInit;
+
+	private boolean warmUp;
+
+	private volatile ServiceRebinder<S, SI> rebinder;
+
+	private ServiceReadiness readiness;
+
 	public AbstractCloudServiceFactory(Class<SI> serviceInfoClass, CloudEnvironment cloudEnvironment) {
 		this.serviceInfoClass = serviceInfoClass;
 		this.cloudEnvironment = cloudEnvironment;
@@ -48,21 +61,123 @@ public abstract class AbstractCloudServiceFactory<S, SI extends AbstractServiceI
 		this.serviceName = serviceName;
 	}
 
+	/**
+	 * Optional interval, in milliseconds, at which the service binding is checked
+	 * for changes. If set to a positive value, the factory returns a proxy and
+	 * swaps in a new service object whenever the binding changes (see
+	 * {@link ServiceRebinder}); this is mostly useful with a cloud environment whose
+	 * values may change at runtime, such as one reading a
+	 * {@link org.cloudfoundry.runtime.env.FileEnvironmentAccessor}. Defaults to 0,
+	 * which disables rebinding. The replaced service object is disposed of once the
+	 * calls to it and the connections borrowed from it are done with, and at the
+	 * latest 30 seconds after the swap.
+	 *
+	 * @param refreshInterval
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * If set, pools without an explicit configuration are sized from the memory and
+	 * file descriptor limits of the application instance (see {@link CloudPoolSizing})
+	 * rather than left to the client library defaults. Defaults to false.
+	 *
+	 * @param autoSizePools
+	 */
+	public void setAutoSizePools(boolean autoSizePools) {
+		this.autoSizePools = autoSizePools;
+	}
+
+	/**
+	 * If set, the factory returns a proxy of the service interface and the service
+	 * object is only created on the first call to the proxy, so that a service the
+	 * application does not use costs nothing at startup. A service that cannot be
+	 * created then fails on first use rather than at startup. Defaults to false.
+	 *
+	 * @param lazyInit
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * If set, the pools of the service object are filled with their idle connections
+	 * in the background after it is created, and the {@link ServiceReadiness} of the
+	 * application reports it as not ready until this is done. Ignored for lazily
+	 * initialized services. Defaults to false.
+	 *
+	 * @param warmUp
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	protected CloudEnvironment getCloudEnvironment() {
+		return cloudEnvironment;
+	}
+
 	@Override
 	protected S createInstance() throws Exception {
+		if (!lazyInit) {
+			return createService();
+		}
+		return LazyServiceTargetSource.createProxy(getObjectType(), new Callable<S>() {
+			@Override
+			public S call() throws Exception {
+				return createService();
+			}
+		});
+	}
+
+	private S createService() throws Exception {
+		prepareServiceCreator();
+		SI serviceInfo;
 		if (serviceName != null) {
-			SI serviceInfo = cloudEnvironment.getServiceInfo(serviceName, serviceInfoClass);
+			serviceInfo = cloudEnvironment.getServiceInfo(serviceName, serviceInfoClass);
 			if (serviceInfo == null) {
 				return null;
 			}
-			return getServiceCreator().createSingletonService(serviceInfo).service;
 		} else {
 			List<SI> serviceInfos = cloudEnvironment.getServiceInfos(serviceInfoClass);
 			if (serviceInfos.size() != 1) {
 				throw new CloudServiceException("Expected 1 service of " + serviceInfoClass + " type, but found "
 						+ serviceInfos.size());
 			}
-			return getServiceCreator().createSingletonService(serviceInfos.get(0)).service;
+			serviceInfo = serviceInfos.get(0);
+		}
+		ServiceNameTuple<S> service = getServiceCreator().createSingletonService(serviceInfo);
+		if (warmUp && !lazyInit) {
+			readiness = ServiceReadiness.acquire(cloudEnvironment);
+			ServiceWarmUp.submit(service.name, getServiceCreator(), service.service, readiness);
+		}
+		if (refreshInterval <= 0) {
+			return service.service;
+		}
+		rebinder = new ServiceRebinder<S, SI>(cloudEnvironment, getServiceCreator(), serviceInfoClass, service.name,
+				service.service, getObjectType(), refreshInterval);
+		rebinder.start();
+		return rebinder.getProxy();
+	}
+
+	/**
+	 * Stop rebinding and dispose of the service object (see {@link ServiceDisposal}),
+	 * so that its pools, background tasks and MBeans do not outlive the application
+	 * context. A lazily initialized service object is only disposed of if it was
+	 * created.
+	 */
+	@Override
+	protected void destroyInstance(S instance) throws Exception {
+		if (readiness != null) {
+			readiness.release();
+			readiness = null;
+		}
+		ServiceRebinder<S, SI> currentRebinder = rebinder;
+		rebinder = null;
+		if (currentRebinder != null) {
+			currentRebinder.destroy();
+		} else {
+			ServiceDisposal.dispose(LazyServiceTargetSource.unwrap(instance));
 		}
 	}
 
@@ -73,8 +188,17 @@ public abstract class AbstractCloudServiceFactory<S, SI extends AbstractServiceI
 	 *         application
 	 */
 	public List<ServiceNameTuple<S>> createInstances() {
+		prepareServiceCreator();
 		return getServiceCreator().createServices(cloudEnvironment.getServiceInfos(serviceInfoClass));
 	}
 
+	protected void prepareServiceCreator() {
+		AbstractServiceCreator<S, SI> serviceCreator = getServiceCreator();
+		serviceCreator.setApplicationInstanceInfo(cloudEnvironment.getInstanceInfo());
+		if (autoSizePools) {
+			serviceCreator.setPoolSizing(CloudPoolSizing.forEnvironment(cloudEnvironment));
+		}
+	}
+
 	protected abstract AbstractServiceCreator<S, SI> getServiceCreator();
 }
@@ -1,15 +1,27 @@
 package org.cloudfoundry.runtime.service;
 
-import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
 import org.cloudfoundry.runtime.env.CloudServiceException;
+import org.cloudfoundry.runtime.service.relational.AdaptiveSizingDataSource;
 import org.cloudfoundry.runtime.service.relational.CloudConnectionConfiguration;
-import org.springframework.beans.BeanWrapper;
-import org.springframework.beans.BeanWrapperImpl;
-import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.cloudfoundry.runtime.service.relational.FailoverDataSource;
+import org.cloudfoundry.runtime.service.relational.GuardedDataSource;
+import org.cloudfoundry.runtime.service.relational.InstrumentedDataSource;
+import org.cloudfoundry.runtime.service.relational.LeakDetectingDataSource;
+import org.cloudfoundry.runtime.service.relational.PooledDataSourceProvider;
+import org.cloudfoundry.runtime.service.relational.PooledDataSourceProviders;
+import org.cloudfoundry.runtime.service.relational.StatementTimingDataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 
 /**
  * Abstract service creator for data service.
@@ -22,6 +34,10 @@ extends AbstractServiceCreator<DataSource, SI> {
 
 	private CloudConnectionConfiguration cloudConnectionConfiguration;
 	private CloudPoolConfiguration cloudPoolConfiguration;
+	private List<String> warmUpStatements = Collections.emptyList();
+	private String poolProvider;
+	private boolean performanceProfile;
+	private boolean metrics;
 
 	abstract public String getDriverClassName();
 	abstract public String getValidationQuery();
@@ -34,62 +50,358 @@ extends AbstractServiceCreator<DataSource, SI> {
 		this.cloudPoolConfiguration = cloudPoolConfiguration;
 	}
 
+	/**
+	 * Name of the {@link PooledDataSourceProvider} creating the data sources, for
+	 * example "tomcat-jdbc" or "hikari". If not set, the provider named by the
+	 * <code>cloudfoundry.datasource.poolProvider</code> system property is used, or
+	 * else the first one whose pool is on the classpath (see
+	 * {@link PooledDataSourceProviders}).
+	 *
+	 * @param poolProvider
+	 */
+	public void setPoolProvider(String poolProvider) {
+		this.poolProvider = poolProvider;
+	}
+
+	/**
+	 * Apply the {@link #getPerformanceProperties() performance profile} of the driver,
+	 * merged with the connection properties, which take precedence.
+	 *
+	 * @param performanceProfile
+	 */
+	public void setPerformanceProfile(boolean performanceProfile) {
+		this.performanceProfile = performanceProfile;
+	}
+
+	/**
+	 * Wrap the data sources in an {@link InstrumentedDataSource} publishing pool and
+	 * borrow latency metrics over JMX, one MBean per service. Also enabled for all
+	 * data sources by setting the <code>cloudfoundry.datasource.metrics</code> system
+	 * property to true.
+	 *
+	 * @param metrics
+	 */
+	public void setMetrics(boolean metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Connection properties tuning the driver for throughput, applied if the
+	 * performance profile is enabled. Subclasses override this to supply the profile of
+	 * their driver; none by default.
+	 *
+	 * @return properties, which the caller may modify
+	 */
+	public Properties getPerformanceProperties() {
+		return new Properties();
+	}
+
+	/**
+	 * Statements run on each connection opened while warming up a data source, for
+	 * example to load the caches of the database or of the driver.
+	 *
+	 * @param warmUpStatements
+	 */
+	public void setWarmUpStatements(List<String> warmUpStatements) {
+		this.warmUpStatements = warmUpStatements == null ? Collections.<String>emptyList() : warmUpStatements;
+	}
+
 	/**
 	 * Create a datasource based on service info.
 	 *
 	 * <p>
-	 * Tries to create a pooled connection based on either Commons DBCP or
-	 * Tomcat's internal DBCP.  The connection pool will validate connections
-	 * as they are dispensed.
+	 * Creates a pooled data source through the selected {@link PooledDataSourceProvider}
+	 * or, if none is selected, the first one whose pool is on the classpath, falling
+	 * back to the built-in {@link org.cloudfoundry.runtime.service.relational.SimplePooledDataSource}.
+	 * The connection pool will validate connections as they are dispensed.
 	 *
 	 * <p>
-	 * Testing on borrow will add slight overhead for requests needing a
-	 * database connection as the validation query needs to execute before the
-	 * connection is returned by the pool.  testOnBorrow is the best option
-	 * provided by DBCP.
+	 * By default connections are validated on borrow, which adds a round trip
+	 * for requests needing a database connection as the validation query needs to
+	 * execute before the connection is returned by the pool.  The
+	 * {@link ValidationStrategy} of the pool configuration can validate only
+	 * connections idle for a while, or validate idle connections in the background.
 	 */
 	public DataSource createService(SI serviceInfo) {
+		return createDataSource(serviceInfo, getDriverClassName(), getValidationQuery(), getPerformanceProperties());
+	}
+
+	/**
+	 * Create a datasource based on service info, using the given driver.
+	 * Subclasses choosing the driver per service call this rather than keeping the
+	 * choice in a field, so that services may be created concurrently.
+	 *
+	 * @param validationQuery may be null to not validate connections
+	 * @param performanceProperties performance profile of the driver
+	 */
+	protected DataSource createDataSource(SI serviceInfo, String driverClassName, String validationQuery,
+			Properties performanceProperties) {
+		return createDataSource(Collections.singletonList(serviceInfo), driverClassName, validationQuery,
+				performanceProperties);
+	}
+
+	/**
+	 * Create a datasource failing over across the hosts of the given services, in
+	 * order, with a pool per host (see {@link FailoverDataSource}). A service may list
+	 * several hosts itself.
+	 *
+	 * @param serviceInfos services of the same database, the first naming the data source
+	 */
+	public DataSource createFailoverService(List<SI> serviceInfos) {
+		return createDataSource(serviceInfos, getDriverClassName(), getValidationQuery(), getPerformanceProperties());
+	}
+
+	/**
+	 * Create a datasource based on the hosts of one or more services, using the given
+	 * driver. A single host gets a plain pool; several get a {@link FailoverDataSource}.
+	 * If any step fails, the pools and wrappers created so far are disposed of (see
+	 * {@link ServiceDisposal}), along with their MBeans and background tasks.
+	 */
+	protected DataSource createDataSource(List<? extends AbstractDataSourceServiceInfo> serviceInfos,
+			String driverClassName, String validationQuery, Properties performanceProperties) {
+		String serviceName = serviceInfos.get(0).getServiceName();
+		DataSource dataSource = null;
 		try {
-			Class.forName(getDriverClassName());
-			// Give first preference to user's DBCP datasource
-			if (hasClass("org.apache.commons.dbcp.BasicDataSource")) {
-				org.apache.commons.dbcp.BasicDataSource ds = new org.apache.commons.dbcp.BasicDataSource();
-				setBasicDataSourceProperties(ds, serviceInfo);
-				return ds;
-				// else, we have one from Tomcat
-			} else if (hasClass("org.apache.tomcat.dbcp.dbcp.BasicDataSource")) {
-				org.apache.tomcat.dbcp.dbcp.BasicDataSource ds = new org.apache.tomcat.dbcp.dbcp.BasicDataSource();
-				setBasicDataSourceProperties(ds, serviceInfo);
-				return ds;
+			Class.forName(driverClassName);
+			CloudPoolConfiguration poolConfiguration = getEffectivePoolConfiguration(cloudPoolConfiguration);
+			List<AbstractDataSourceServiceInfo> hostServiceInfos = new ArrayList<AbstractDataSourceServiceInfo>();
+			for (AbstractDataSourceServiceInfo serviceInfo : serviceInfos) {
+				List<AbstractDataSourceServiceInfo> hosts = serviceInfo.getHostServiceInfos();
+				// without a host list, connect through the URL of the service
+				hostServiceInfos.addAll(hosts == null || hosts.isEmpty()
+						? Collections.singletonList(serviceInfo) : hosts);
+			}
+			if (hostServiceInfos.size() == 1) {
+				dataSource = getPooledDataSourceProvider().createDataSource(hostServiceInfos.get(0), driverClassName,
+						validationQuery, getEffectiveConnectionConfiguration(performanceProperties), poolConfiguration);
 			} else {
-				// Only for testing outside Tomcat/CloudFoundry
-				return new SimpleDriverDataSource(DriverManager.getDriver(serviceInfo.getUrl()),
-						serviceInfo.getUrl(),
-						serviceInfo.getUserName(),
-						serviceInfo.getPassword());
+				dataSource = createFailoverDataSource(serviceName, hostServiceInfos, driverClassName, validationQuery,
+						getEffectiveConnectionConfiguration(performanceProperties));
+			}
+			if (poolConfiguration != null && poolConfiguration.isAdaptiveSizing()) {
+				dataSource = createAdaptiveSizingDataSource(serviceName, dataSource, poolConfiguration);
+			}
+			ServiceGuard guard = createServiceGuard(serviceName);
+			if (guard != null) {
+				// beneath the leak detector, so that reclaiming a connection also ends its call
+				dataSource = new GuardedDataSource(dataSource, guard);
+			}
+			if (poolConfiguration != null && poolConfiguration.getLeakDetectionThreshold() != null) {
+				LeakDetectingDataSource leakDetectingDataSource = new LeakDetectingDataSource(
+						serviceName, dataSource, poolConfiguration.getLeakDetectionThreshold(),
+						poolConfiguration.getLeakSampleRate(), poolConfiguration.getLeakUtilizationThreshold(),
+						getMaxActive(getPools(dataSource).get(0)),
+						poolConfiguration.isLeakReclamation());
+				leakDetectingDataSource.registerMBean();
+				dataSource = leakDetectingDataSource;
+			}
+			if (cloudConnectionConfiguration != null && cloudConnectionConfiguration.getSlowQueryThreshold() != null) {
+				StatementTimingDataSource statementTimingDataSource = new StatementTimingDataSource(
+						serviceName, dataSource, cloudConnectionConfiguration.getSlowQueryThreshold(),
+						cloudConnectionConfiguration.getSlowQueryLogInterval());
+				statementTimingDataSource.registerMBean();
+				dataSource = statementTimingDataSource;
 			}
+			if (metrics || Boolean.getBoolean(InstrumentedDataSource.METRICS_PROPERTY)) {
+				InstrumentedDataSource instrumentedDataSource =
+						new InstrumentedDataSource(serviceName, dataSource);
+				instrumentedDataSource.registerMBean();
+				dataSource = instrumentedDataSource;
+			}
+			return dataSource;
+		} catch (CloudServiceException e) {
+			// each wrapper disposes of the one it wraps
+			ServiceDisposal.dispose(dataSource);
+			throw e;
 		} catch (Exception e) {
-			throw new CloudServiceException("Failed to created cloud datasource for " + serviceInfo.getServiceName() + " service", e);
+			ServiceDisposal.dispose(dataSource);
+			throw new CloudServiceException("Failed to created cloud datasource for " + serviceName + " service", e);
 		}
 	}
 
-	private void setBasicDataSourceProperties(Object basicDataSource, AbstractDataSourceServiceInfo serviceInfo) {
-		BeanWrapper target = new BeanWrapperImpl(basicDataSource);
-		target.setPropertyValue("driverClassName", getDriverClassName());
-		target.setPropertyValue("url", serviceInfo.getUrl());
-		target.setPropertyValue("username", serviceInfo.getUserName());
-		target.setPropertyValue("password", serviceInfo.getPassword());
-		if (getValidationQuery() != null) {
-			target.setPropertyValue("validationQuery", getValidationQuery());
-			target.setPropertyValue("testOnBorrow", true);
+	/**
+	 * Create a pool per host, with the pool configuration current when the pool is
+	 * created: a pool created when failing over starts from the configured sizes
+	 * rather than those the adaptive sizing reached.
+	 */
+	private FailoverDataSource createFailoverDataSource(String serviceName,
+			final List<AbstractDataSourceServiceInfo> hostServiceInfos, final String driverClassName,
+			final String validationQuery, final CloudConnectionConfiguration connectionConfiguration) {
+		final PooledDataSourceProvider provider = getPooledDataSourceProvider();
+		List<String> hosts = new ArrayList<String>(hostServiceInfos.size());
+		for (AbstractDataSourceServiceInfo hostServiceInfo : hostServiceInfos) {
+			hosts.add(hostServiceInfo.getHost() + ":" + hostServiceInfo.getPort());
 		}
+		FailoverDataSource failoverDataSource = new FailoverDataSource(serviceName, hosts,
+				new FailoverDataSource.PoolFactory() {
+					@Override
+					public DataSource createPool(int hostIndex) {
+						return provider.createDataSource(hostServiceInfos.get(hostIndex), driverClassName,
+								validationQuery, connectionConfiguration,
+								getEffectivePoolConfiguration(cloudPoolConfiguration));
+					}
+				},
+				cloudConnectionConfiguration != null ? cloudConnectionConfiguration.getFailoverFailureThreshold()
+						: CloudConnectionConfiguration.DEFAULT_FAILOVER_FAILURE_THRESHOLD,
+				cloudConnectionConfiguration != null ? cloudConnectionConfiguration.getFailoverRetryInterval()
+						: CloudConnectionConfiguration.DEFAULT_FAILOVER_RETRY_INTERVAL);
+		failoverDataSource.registerMBean();
+		return failoverDataSource;
+	}
+
+	/**
+	 * Wrap a pool in a data source adjusting its maximum size within the pool size
+	 * range, through the provider of the pool.
+	 */
+	private DataSource createAdaptiveSizingDataSource(String serviceName, final DataSource dataSource,
+			CloudPoolConfiguration poolConfiguration) {
+		int upperLimit = poolConfiguration.getMaxActive() != null ? poolConfiguration.getMaxActive()
+				: getMaxActive(getPools(dataSource).get(0));
+		int lowerLimit = poolConfiguration.getMinIdle() != null ? poolConfiguration.getMinIdle() : 1;
+		AdaptivePoolSizer poolSizer = new AdaptivePoolSizer(serviceName, lowerLimit, upperLimit,
+				poolConfiguration.getAdaptiveWaitThreshold(), new AdaptivePoolSizer.PoolLimit() {
+					@Override
+					public void setMaxActive(int maxActive) {
+						CloudPoolConfiguration resized =
+								getEffectivePoolConfiguration(cloudPoolConfiguration).withMaxPoolSize(maxActive);
+						for (DataSource pool : getPools(dataSource)) {
+							PooledDataSourceProvider provider = PooledDataSourceProviders.getProvider(pool);
+							if (provider != null) {
+								provider.applyPoolConfiguration(pool, resized);
+							}
+						}
+					}
+				});
+		poolSizer.registerMBean();
+		poolSizer.start();
+		return new AdaptiveSizingDataSource(dataSource, poolSizer);
+	}
+
+	private CloudConnectionConfiguration getEffectiveConnectionConfiguration(Properties performanceProperties) {
+		if (!performanceProfile || performanceProperties.isEmpty()) {
+			return cloudConnectionConfiguration;
+		}
+		Properties connectionProperties = new Properties();
+		connectionProperties.putAll(performanceProperties);
 		if (cloudConnectionConfiguration != null) {
-			BeanWrapper connectionSource = new BeanWrapperImpl(cloudConnectionConfiguration);
-			setCorrespondingProperties(target, connectionSource);
+			connectionProperties.putAll(CloudConnectionConfiguration.parseConnectionProperties(
+					cloudConnectionConfiguration.getConnectionProperties()));
+		}
+		CloudConnectionConfiguration connectionConfiguration = new CloudConnectionConfiguration();
+		connectionConfiguration.setConnectionProperties(
+				CloudConnectionConfiguration.formatConnectionProperties(connectionProperties));
+		return connectionConfiguration;
+	}
+
+	private PooledDataSourceProvider getPooledDataSourceProvider() {
+		String name = poolProvider != null ? poolProvider
+				: System.getProperty(PooledDataSourceProviders.POOL_PROVIDER_PROPERTY);
+		if (name == null || name.length() == 0) {
+			return PooledDataSourceProviders.getAvailableProvider();
+		}
+		PooledDataSourceProvider provider = PooledDataSourceProviders.getProvider(name);
+		if (provider == null || !provider.isAvailable()) {
+			throw new CloudServiceException("Connection pool provider " + name + " is not available");
+		}
+		return provider;
+	}
+
+	/**
+	 * Open <code>minIdle</code> connections at once, running the warm-up statements
+	 * on each, and release them, so that the pool holds as many validated idle
+	 * connections.
+	 */
+	@Override
+	protected void warmUp(DataSource dataSource) {
+		List<DataSource> pools = getPools(dataSource);
+		if (pools.isEmpty()) {
+			return;
+		}
+		PooledDataSourceProvider provider = PooledDataSourceProviders.getProvider(pools.get(0));
+		if (provider == null) {
+			return;
+		}
+		int connectionCount = getWarmUpConnections(provider.getMinIdle(pools.get(0)),
+				provider.getMaxActive(pools.get(0)));
+		List<Connection> connections = new ArrayList<Connection>(connectionCount);
+		try {
+			for (int i = 0; i < connectionCount; i++) {
+				Connection connection = dataSource.getConnection();
+				connections.add(connection);
+				for (String warmUpStatement : warmUpStatements) {
+					Statement statement = connection.createStatement();
+					try {
+						statement.execute(warmUpStatement);
+					} finally {
+						statement.close();
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new CloudServiceException("Failed to warm up the cloud datasource", e);
+		} finally {
+			for (Connection connection : connections) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					// the pool discards it
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the maximum number of connections of a pool, or 0 if no provider
+	 * created it
+	 */
+	private static int getMaxActive(DataSource pool) {
+		PooledDataSourceProvider provider = PooledDataSourceProviders.getProvider(pool);
+		return provider != null ? provider.getMaxActive(pool) : 0;
+	}
+
+	/**
+	 * Apply the pool sizes to a pooled data source through its provider; DBCP and
+	 * the Tomcat JDBC pool apply a new maximum to their existing pool.
+	 */
+	@Override
+	protected void resize(DataSource dataSource) {
+		CloudPoolConfiguration poolConfiguration = getEffectivePoolConfiguration(cloudPoolConfiguration);
+		if (poolConfiguration == null) {
+			return;
+		}
+		AdaptivePoolSizer poolSizer = getPoolSizer(dataSource);
+		if (poolSizer != null && poolConfiguration.getMaxActive() != null) {
+			// keeps the adjusted maximum within the new range
+			poolSizer.setLimits(poolConfiguration.getMinIdle() != null ? poolConfiguration.getMinIdle() : 1,
+					poolConfiguration.getMaxActive());
+			return;
+		}
+		for (DataSource pool : getPools(dataSource)) {
+			PooledDataSourceProvider provider = PooledDataSourceProviders.getProvider(pool);
+			if (provider != null) {
+				provider.applyPoolConfiguration(pool, poolConfiguration);
+			}
+		}
+	}
+
+	private static AdaptivePoolSizer getPoolSizer(DataSource dataSource) {
+		while (dataSource instanceof DelegatingDataSource) {
+			if (dataSource instanceof AdaptiveSizingDataSource) {
+				return ((AdaptiveSizingDataSource) dataSource).getPoolSizer();
+			}
+			dataSource = ((DelegatingDataSource) dataSource).getTargetDataSource();
+		}
+		return null;
+	}
+
+	private static List<DataSource> getPools(DataSource dataSource) {
+		// the wrappers added by this creator; the pools themselves do not delegate
+		while (dataSource instanceof DelegatingDataSource) {
+			dataSource = ((DelegatingDataSource) dataSource).getTargetDataSource();
 		}
-		if (cloudPoolConfiguration != null) {
-			BeanWrapper poolSource = new BeanWrapperImpl(cloudPoolConfiguration);
-			setCorrespondingProperties(target, poolSource);
+		if (dataSource instanceof FailoverDataSource) {
+			return ((FailoverDataSource) dataSource).getPools();
 		}
+		return Collections.singletonList(dataSource);
 	}
 }
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.cloudfoundry.runtime.env.AbstractServiceInfo;
+import org.cloudfoundry.runtime.env.ApplicationInstanceInfo;
 import org.springframework.beans.BeanWrapper;
 
 /**
@@ -26,6 +27,64 @@ import org.springframework.beans.BeanWrapper;
  */
 public abstract class AbstractServiceCreator<S, SI extends AbstractServiceInfo> {
 
+	private CloudPoolSizing poolSizing;
+
+	private volatile ApplicationInstanceInfo instanceInfo;
+
+	/**
+	 * Instance info passed to the call in progress on the current thread, which
+	 * takes precedence over the one set on the creator.
+	 */
+	private final ThreadLocal<ApplicationInstanceInfo> callInstanceInfo = new ThreadLocal<ApplicationInstanceInfo>();
+
+	private CloudResilienceConfiguration cloudResilienceConfiguration;
+
+	/**
+	 * Pool sizing applied when no explicit pool configuration is set. Null, the
+	 * default, leaves the pool sizes to the client library.
+	 *
+	 * @param poolSizing
+	 */
+	public void setPoolSizing(CloudPoolSizing poolSizing) {
+		this.poolSizing = poolSizing;
+	}
+
+	public CloudPoolSizing getPoolSizing() {
+		return poolSizing;
+	}
+
+	/**
+	 * Information about the application instance services are created for, used to
+	 * divide connection budgets across instances.
+	 *
+	 * @param instanceInfo may be null when not running in the cloud
+	 */
+	public void setApplicationInstanceInfo(ApplicationInstanceInfo instanceInfo) {
+		this.instanceInfo = instanceInfo;
+	}
+
+	/**
+	 * Guard the acquisition of connections from the created services with a
+	 * {@link ServiceGuard}, one per service. Not guarded if not set.
+	 *
+	 * @param cloudResilienceConfiguration
+	 */
+	public void setCloudResilienceConfiguration(CloudResilienceConfiguration cloudResilienceConfiguration) {
+		this.cloudResilienceConfiguration = cloudResilienceConfiguration;
+	}
+
+	/**
+	 * @return a guard registered over JMX, or null if services are not guarded
+	 */
+	protected ServiceGuard createServiceGuard(String serviceName) {
+		if (cloudResilienceConfiguration == null) {
+			return null;
+		}
+		ServiceGuard guard = new ServiceGuard(serviceName, cloudResilienceConfiguration);
+		guard.registerMBean();
+		return guard;
+	}
+
 	/**
 	 * Implementation of this method must create service based on the service info object passed.
 	 *
@@ -34,6 +93,24 @@ public abstract class AbstractServiceCreator<S, SI extends AbstractServiceInfo>
 	 */
 	public abstract S createService(SI serviceInfo);
 
+	/**
+	 * Create a service for the given application instance rather than the one set
+	 * through {@link #setApplicationInstanceInfo(ApplicationInstanceInfo)}, which stays
+	 * in effect for other threads using this creator.
+	 *
+	 * @param serviceInfo
+	 * @param instanceInfo may be null to use the one set on this creator
+	 * @return service
+	 */
+	public S createService(SI serviceInfo, ApplicationInstanceInfo instanceInfo) {
+		ApplicationInstanceInfo previous = enterCall(instanceInfo);
+		try {
+			return createService(serviceInfo);
+		} finally {
+			exitCall(previous);
+		}
+	}
+
 	/**
 	 * Create service based on the unique service of the required type.
 	 *
@@ -58,6 +135,88 @@ public abstract class AbstractServiceCreator<S, SI extends AbstractServiceInfo>
 		return services;
 	}
 
+	/**
+	 * Prepare a newly created service for use, for example by opening the idle
+	 * connections of its pool, so that it does not happen on the first requests. The
+	 * default implementation does nothing.
+	 *
+	 * @param service
+	 * @throws RuntimeException if the service is not usable
+	 */
+	protected void warmUp(S service) {
+	}
+
+	/**
+	 * Adjust the pool sizes of an existing service to the current pool configuration,
+	 * for example after the number of application instances sharing a connection
+	 * budget has changed. The default implementation does nothing.
+	 *
+	 * @param service
+	 */
+	protected void resize(S service) {
+	}
+
+	/**
+	 * Adjust the pool sizes of an existing service for the given application instance
+	 * rather than the one set on this creator (see {@link #resize(Object)}).
+	 *
+	 * @param service
+	 * @param instanceInfo may be null to use the one set on this creator
+	 */
+	protected void resize(S service, ApplicationInstanceInfo instanceInfo) {
+		ApplicationInstanceInfo previous = enterCall(instanceInfo);
+		try {
+			resize(service);
+		} finally {
+			exitCall(previous);
+		}
+	}
+
+	private ApplicationInstanceInfo enterCall(ApplicationInstanceInfo instanceInfo) {
+		ApplicationInstanceInfo previous = callInstanceInfo.get();
+		callInstanceInfo.set(instanceInfo);
+		return previous;
+	}
+
+	private void exitCall(ApplicationInstanceInfo previous) {
+		if (previous == null) {
+			callInstanceInfo.remove();
+		} else {
+			callInstanceInfo.set(previous);
+		}
+	}
+
+	/**
+	 * @return the pool configuration for this application instance: the given pool
+	 * configuration with its connection budget applied, or one derived from the pool
+	 * sizing if there is none; may be null
+	 */
+	protected CloudPoolConfiguration getEffectivePoolConfiguration(CloudPoolConfiguration cloudPoolConfiguration) {
+		if (cloudPoolConfiguration == null) {
+			return poolSizing == null ? null : poolSizing.getPoolConfiguration();
+		}
+		ApplicationInstanceInfo currentInstanceInfo = callInstanceInfo.get();
+		if (currentInstanceInfo == null) {
+			currentInstanceInfo = instanceInfo;
+		}
+		if (currentInstanceInfo == null) {
+			// the number of instances is unknown
+			return cloudPoolConfiguration.forInstance(0, 0);
+		}
+		return cloudPoolConfiguration.forInstance(currentInstanceInfo.getInstanceIndex(),
+				currentInstanceInfo.getInstanceCount());
+	}
+
+	/**
+	 * @return number of connections to open when warming up a pool keeping
+	 * <code>minIdle</code> idle connections and opening at most <code>maxActive</code>
+	 * (not limited if not positive); at least 1
+	 */
+	protected static int getWarmUpConnections(int minIdle, int maxActive) {
+		int connections = Math.max(1, minIdle);
+		return maxActive > 0 ? Math.min(connections, maxActive) : connections;
+	}
+
 	protected void setCorrespondingProperties(BeanWrapper target, BeanWrapper source) {
 		for (PropertyDescriptor pd : source.getPropertyDescriptors()) {
 			String property = pd.getName();
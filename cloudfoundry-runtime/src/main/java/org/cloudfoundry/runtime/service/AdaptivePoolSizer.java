@@ -0,0 +1,291 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Adjusts the maximum size of a connection pool to the load, within a range.
+ * <p>
+ * The pool reports each borrow with the time it waited and the number of
+ * connections in use. Every {@link #PERIOD} milliseconds, the sizer looks at the
+ * borrows of the period: if more than 5% of them waited longer than the threshold,
+ * the pool is short of connections; if the peak number of connections in use stayed
+ * under half of the maximum, most of them sat idle. The maximum is raised by a
+ * quarter after {@link #GROW_PERIODS} short periods in a row, and lowered by an
+ * eighth after {@link #SHRINK_PERIODS} idle ones; anything in between resets both
+ * counts. Growing fast and shrinking slowly keeps the pool from oscillating with
+ * bursts of traffic.
+ * </p>
+ * <p>
+ * Each adjustment is logged and sent as an {@link AttributeChangeNotification} of
+ * the <code>MaxActive</code> attribute of the MBean published for the service,
+ * along with the counts of the last period.
+ * </p>
+ */
+public class AdaptivePoolSizer extends NotificationBroadcasterSupport implements AdaptivePoolSizerMBean,
+		DisposableBean {
+
+	public static final String MBEAN_TYPE = "PoolSizing";
+
+	static final long PERIOD = 5000;
+
+	static final int WAIT_PERCENTILE = 95;
+
+	static final int GROW_PERIODS = 2;
+
+	static final int SHRINK_PERIODS = 12;
+
+	static final double SHRINK_UTILIZATION = 0.5;
+
+	private static final Logger logger = Logger.getLogger(AdaptivePoolSizer.class.getName());
+
+	private static final ServiceScheduler scheduler = new ServiceScheduler("cloud-pool-sizing");
+
+	/**
+	 * Applies a maximum size to the pool.
+	 */
+	public interface PoolLimit {
+
+		void setMaxActive(int maxActive);
+	}
+
+	private final String serviceName;
+
+	private final long waitThresholdNanos;
+
+	private final PoolLimit poolLimit;
+
+	private final AtomicLong borrows = new AtomicLong();
+
+	private final AtomicLong slowBorrows = new AtomicLong();
+
+	private final AtomicInteger peakActive = new AtomicInteger();
+
+	private final AtomicLong growCount = new AtomicLong();
+
+	private final AtomicLong shrinkCount = new AtomicLong();
+
+	private final AtomicLong notificationSequence = new AtomicLong();
+
+	private volatile int lowerLimit;
+
+	private volatile int upperLimit;
+
+	private volatile int maxActive;
+
+	private volatile long lastPeriodBorrows;
+
+	private volatile long lastPeriodSlowBorrows;
+
+	private volatile int lastPeriodPeakActive;
+
+	private int growPeriods;
+
+	private int shrinkPeriods;
+
+	private ScheduledFuture<?> adjustTask;
+
+	private ObjectName objectName;
+
+	/**
+	 * Create a sizer for a pool currently sized to the upper limit.
+	 *
+	 * @param lowerLimit lowest maximum size, at least 1
+	 * @param upperLimit highest maximum size
+	 * @param waitThreshold milliseconds a borrow may wait before it counts as slow
+	 * @param poolLimit applies the maximum size to the pool
+	 */
+	public AdaptivePoolSizer(String serviceName, int lowerLimit, int upperLimit, long waitThreshold,
+			PoolLimit poolLimit) {
+		this.serviceName = serviceName;
+		this.lowerLimit = Math.max(1, Math.min(lowerLimit, upperLimit));
+		this.upperLimit = Math.max(1, upperLimit);
+		this.maxActive = this.upperLimit;
+		this.waitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(waitThreshold);
+		this.poolLimit = poolLimit;
+	}
+
+	/**
+	 * Register the sizer on the platform MBean server, replacing an MBean registered
+	 * for the same service.
+	 */
+	public synchronized void registerMBean() {
+		objectName = ServiceMBeans.register(MBEAN_TYPE, serviceName, this);
+	}
+
+	/**
+	 * Start adjusting the pool every {@link #PERIOD} milliseconds.
+	 */
+	public synchronized void start() {
+		if (adjustTask == null) {
+			adjustTask = scheduler.acquire().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						adjust();
+					} catch (RuntimeException e) {
+						logger.log(Level.WARNING, "Failed to adjust the pool of " + serviceName, e);
+					}
+				}
+			}, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (adjustTask != null) {
+			adjustTask.cancel(false);
+			adjustTask = null;
+			scheduler.release();
+		}
+		ServiceMBeans.unregister(objectName, this);
+		objectName = null;
+	}
+
+	/**
+	 * Record a borrow from the pool.
+	 *
+	 * @param waitNanos time the borrower waited for the connection
+	 * @param active number of connections in use, including the borrowed one
+	 */
+	public void recordBorrow(long waitNanos, int active) {
+		borrows.incrementAndGet();
+		if (waitNanos > waitThresholdNanos) {
+			slowBorrows.incrementAndGet();
+		}
+		int peak = peakActive.get();
+		while (active > peak && !peakActive.compareAndSet(peak, active)) {
+			peak = peakActive.get();
+		}
+	}
+
+	/**
+	 * Change the range of the maximum size, for example after the pool was resized to
+	 * a new connection budget, and apply the current maximum within it to the pool.
+	 */
+	public synchronized void setLimits(int lowerLimit, int upperLimit) {
+		this.upperLimit = Math.max(1, upperLimit);
+		this.lowerLimit = Math.max(1, Math.min(lowerLimit, upperLimit));
+		apply(Math.max(this.lowerLimit, Math.min(this.upperLimit, maxActive)), "pool size range changed to "
+				+ this.lowerLimit + "-" + this.upperLimit);
+	}
+
+	/**
+	 * Evaluate the period ending now, and grow or shrink the pool if needed.
+	 */
+	synchronized void adjust() {
+		long periodBorrows = borrows.getAndSet(0);
+		long periodSlowBorrows = slowBorrows.getAndSet(0);
+		int periodPeakActive = peakActive.getAndSet(0);
+		lastPeriodBorrows = periodBorrows;
+		lastPeriodSlowBorrows = periodSlowBorrows;
+		lastPeriodPeakActive = periodPeakActive;
+		if (periodSlowBorrows * 100 > periodBorrows * (100 - WAIT_PERCENTILE)) {
+			shrinkPeriods = 0;
+			if (++growPeriods >= GROW_PERIODS && maxActive < upperLimit) {
+				int grown = Math.min(upperLimit, maxActive + Math.max(1, maxActive / 4));
+				if (apply(grown, periodSlowBorrows + " of " + periodBorrows + " borrows waited longer than "
+						+ getWaitThreshold() + "ms")) {
+					growCount.incrementAndGet();
+				}
+			}
+		} else if (periodPeakActive < maxActive * SHRINK_UTILIZATION) {
+			growPeriods = 0;
+			if (++shrinkPeriods >= SHRINK_PERIODS && maxActive > lowerLimit) {
+				int shrunk = Math.max(lowerLimit, maxActive - Math.max(1, maxActive / 8));
+				if (apply(shrunk, "at most " + periodPeakActive + " connections in use for "
+						+ (shrinkPeriods * PERIOD / 1000) + "s")) {
+					shrinkCount.incrementAndGet();
+				}
+			}
+		} else {
+			growPeriods = 0;
+			shrinkPeriods = 0;
+		}
+	}
+
+	/**
+	 * @return true if the pool accepted the maximum size
+	 */
+	private boolean apply(int newMaxActive, String reason) {
+		try {
+			poolLimit.setMaxActive(newMaxActive);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Failed to set the maximum pool size of " + serviceName + " to "
+					+ newMaxActive, e);
+			return false;
+		}
+		int oldMaxActive = maxActive;
+		maxActive = newMaxActive;
+		growPeriods = 0;
+		shrinkPeriods = 0;
+		if (newMaxActive != oldMaxActive) {
+			String message = "Maximum pool size of " + serviceName + " changed from " + oldMaxActive + " to "
+					+ newMaxActive + ": " + reason;
+			logger.info(message);
+			sendNotification(new AttributeChangeNotification(this, notificationSequence.incrementAndGet(),
+					System.currentTimeMillis(), message, "MaxActive", "int", oldMaxActive, newMaxActive));
+		}
+		return true;
+	}
+
+	@Override
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	@Override
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	@Override
+	public int getLowerLimit() {
+		return lowerLimit;
+	}
+
+	@Override
+	public int getUpperLimit() {
+		return upperLimit;
+	}
+
+	@Override
+	public long getWaitThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(waitThresholdNanos);
+	}
+
+	@Override
+	public long getGrowCount() {
+		return growCount.get();
+	}
+
+	@Override
+	public long getShrinkCount() {
+		return shrinkCount.get();
+	}
+
+	@Override
+	public long getLastPeriodBorrows() {
+		return lastPeriodBorrows;
+	}
+
+	@Override
+	public long getLastPeriodSlowBorrows() {
+		return lastPeriodSlowBorrows;
+	}
+
+	@Override
+	public int getLastPeriodPeakActive() {
+		return lastPeriodPeakActive;
+	}
+}
@@ -0,0 +1,52 @@
+package org.cloudfoundry.runtime.service;
+
+/**
+ * Management interface of {@link AdaptivePoolSizer}.
+ */
+public interface AdaptivePoolSizerMBean {
+
+	String getServiceName();
+
+	/**
+	 * @return the maximum pool size currently applied
+	 */
+	int getMaxActive();
+
+	/**
+	 * @return lower bound of the maximum pool size
+	 */
+	int getLowerLimit();
+
+	/**
+	 * @return upper bound of the maximum pool size
+	 */
+	int getUpperLimit();
+
+	long getWaitThreshold();
+
+	/**
+	 * @return number of times the maximum pool size was raised
+	 */
+	long getGrowCount();
+
+	/**
+	 * @return number of times the maximum pool size was lowered
+	 */
+	long getShrinkCount();
+
+	/**
+	 * @return number of borrows in the last evaluation period
+	 */
+	long getLastPeriodBorrows();
+
+	/**
+	 * @return number of borrows waiting longer than the threshold in the last
+	 *         evaluation period
+	 */
+	long getLastPeriodSlowBorrows();
+
+	/**
+	 * @return peak number of connections in use seen in the last evaluation period
+	 */
+	int getLastPeriodPeakActive();
+}
@@ -0,0 +1,14 @@
+package org.cloudfoundry.runtime.service;
+
+/**
+ * Thrown by a {@link ServiceGuard} refusing a call, which the service objects
+ * translate into the exception type of their client API.
+ */
+public class CallRejectedException extends Exception {
+
+	private static final long serialVersionUID = 4171372539470587610L;
+
+	public CallRejectedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,92 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stops calls to an endpoint that keeps failing, so that callers fail at once
+ * rather than each waiting for the endpoint to time out.
+ * <p>
+ * The breaker opens after a number of consecutive failures. While it is open,
+ * {@link #tryAcquire()} refuses calls; once the retry interval has elapsed, it lets
+ * a single trial call through. The breaker closes if the trial succeeds and opens
+ * again if it fails. Each acquired call must be followed by
+ * {@link #recordSuccess()} or {@link #recordFailure()}.
+ * </p>
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+
+	private final long retryInterval;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	private final AtomicLong openCount = new AtomicLong();
+
+	private volatile long openedAt;
+
+	/**
+	 * @param failureThreshold number of consecutive failures opening the breaker
+	 * @param retryInterval milliseconds after which an open breaker lets a trial
+	 *        call through
+	 */
+	public CircuitBreaker(int failureThreshold, long retryInterval) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.retryInterval = retryInterval;
+	}
+
+	/**
+	 * @return true if the call may proceed
+	 */
+	public boolean tryAcquire() {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			return true;
+		}
+		return current == State.OPEN && System.currentTimeMillis() - openedAt >= retryInterval
+				&& state.compareAndSet(State.OPEN, State.HALF_OPEN);
+	}
+
+	public void recordSuccess() {
+		consecutiveFailures.set(0);
+		state.set(State.CLOSED);
+	}
+
+	/**
+	 * @return true if this failure opened the breaker
+	 */
+	public boolean recordFailure() {
+		State current = state.get();
+		boolean opening = current == State.HALF_OPEN
+				|| (consecutiveFailures.incrementAndGet() >= failureThreshold && current == State.CLOSED);
+		if (!opening) {
+			return false;
+		}
+		// set before opening, so that no trial call is let through early
+		openedAt = System.currentTimeMillis();
+		if (state.compareAndSet(current, State.OPEN)) {
+			openCount.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * @return number of times the breaker opened
+	 */
+	public long getOpenCount() {
+		return openCount.get();
+	}
+}
@@ -1,5 +1,7 @@
 package org.cloudfoundry.runtime.service;
 
+import java.util.logging.Logger;
+
 import org.springframework.util.StringUtils;
 
 /**
@@ -10,12 +12,50 @@ import org.springframework.util.StringUtils;
  */
 public class CloudPoolConfiguration {
 
+	public static final int DEFAULT_VALIDATION_INTERVAL = 30000;
+
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
+
+	public static final double DEFAULT_LEAK_SAMPLE_RATE = 0.01;
+
+	public static final double DEFAULT_LEAK_UTILIZATION_THRESHOLD = 0.9;
+
+	public static final int DEFAULT_ADAPTIVE_WAIT_THRESHOLD = 20;
+
+	private static final Logger logger = Logger.getLogger(CloudPoolConfiguration.class.getName());
+
 	private Integer minPoolSize;
 
 	private Integer maxPoolSize;
 
 	private Integer maxWaitTime;
 
+	private Integer connectionBudget;
+
+	private ValidationStrategy validation;
+
+	private Integer validationInterval;
+
+	private boolean jdbc4Validation;
+
+	private boolean statementCacheEnabled;
+
+	private Integer statementCacheSize;
+
+	private Integer leakDetectionThreshold;
+
+	private Double leakSampleRate;
+
+	private Double leakUtilizationThreshold;
+
+	private boolean leakReclamation;
+
+	private boolean adaptiveSizing;
+
+	private Integer adaptiveWaitThreshold;
+
+	private volatile boolean unknownInstanceCountLogged;
+
 	/**
 	 * Getter corresponding to the DBCP initialSize property
 	 */
@@ -52,6 +92,223 @@ public class CloudPoolConfiguration {
 		this.maxWaitTime = maxWaitTime;
 	}
 
+	public Integer getConnectionBudget() {
+		return connectionBudget;
+	}
+
+	/**
+	 * Total number of connections to the service shared by all instances of the
+	 * application. When set, the maximum pool size of each instance is its share of
+	 * the budget (see {@link #forInstance(int, int)}) and the pool size setting only
+	 * provides the minimum size.
+	 *
+	 * @param connectionBudget
+	 */
+	public void setConnectionBudget(Integer connectionBudget) {
+		this.connectionBudget = connectionBudget;
+	}
+
+	/**
+	 * @return when connections are validated, {@link ValidationStrategy#ON_BORROW} if
+	 * not set
+	 */
+	public ValidationStrategy getValidation() {
+		return validation != null ? validation : ValidationStrategy.ON_BORROW;
+	}
+
+	public void setValidation(ValidationStrategy validation) {
+		this.validation = validation;
+	}
+
+	/**
+	 * @return milliseconds within which a validated connection is not validated again
+	 * when borrowed, or between background validations, depending on the validation
+	 * strategy
+	 */
+	public int getValidationInterval() {
+		return validationInterval != null ? validationInterval : DEFAULT_VALIDATION_INTERVAL;
+	}
+
+	public void setValidationInterval(int validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	public boolean isJdbc4Validation() {
+		return jdbc4Validation;
+	}
+
+	/**
+	 * Validate connections with the JDBC 4 <code>Connection.isValid</code> method,
+	 * which drivers may implement without a round trip through the SQL parser, rather
+	 * than with a validation query. Ignored by pools for JDBC 3 drivers.
+	 *
+	 * @param jdbc4Validation
+	 */
+	public void setJdbc4Validation(boolean jdbc4Validation) {
+		this.jdbc4Validation = jdbc4Validation;
+	}
+
+	public boolean isStatementCacheEnabled() {
+		return statementCacheEnabled;
+	}
+
+	/**
+	 * Cache prepared statements per connection, so that a statement prepared again on
+	 * the same connection is reused rather than parsed again. Corresponds to the DBCP
+	 * poolPreparedStatements property.
+	 *
+	 * @param statementCacheEnabled
+	 */
+	public void setStatementCacheEnabled(boolean statementCacheEnabled) {
+		this.statementCacheEnabled = statementCacheEnabled;
+	}
+
+	/**
+	 * @return maximum number of prepared statements cached per connection, corresponding
+	 * to the DBCP maxOpenPreparedStatements property
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize != null ? statementCacheSize : DEFAULT_STATEMENT_CACHE_SIZE;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public Integer getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	/**
+	 * Flag connections borrowed for longer than this many milliseconds as leaks (see
+	 * {@link org.cloudfoundry.runtime.service.relational.LeakDetectingDataSource}).
+	 * Leaks are not detected if not set.
+	 *
+	 * @param leakDetectionThreshold
+	 */
+	public void setLeakDetectionThreshold(Integer leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	/**
+	 * @return share of the borrows whose call site is captured for leak reports
+	 */
+	public double getLeakSampleRate() {
+		return leakSampleRate != null ? leakSampleRate : DEFAULT_LEAK_SAMPLE_RATE;
+	}
+
+	public void setLeakSampleRate(double leakSampleRate) {
+		this.leakSampleRate = leakSampleRate;
+	}
+
+	/**
+	 * @return share of the maximum pool size above which the call site of every
+	 * borrow is captured
+	 */
+	public double getLeakUtilizationThreshold() {
+		return leakUtilizationThreshold != null ? leakUtilizationThreshold : DEFAULT_LEAK_UTILIZATION_THRESHOLD;
+	}
+
+	public void setLeakUtilizationThreshold(double leakUtilizationThreshold) {
+		this.leakUtilizationThreshold = leakUtilizationThreshold;
+	}
+
+	public boolean isLeakReclamation() {
+		return leakReclamation;
+	}
+
+	/**
+	 * Close leaked connections, returning them to the pool, so that leaks cannot
+	 * exhaust it. Corresponds to the DBCP removeAbandoned property.
+	 *
+	 * @param leakReclamation
+	 */
+	public void setLeakReclamation(boolean leakReclamation) {
+		this.leakReclamation = leakReclamation;
+	}
+
+	public boolean isAdaptiveSizing() {
+		return adaptiveSizing;
+	}
+
+	/**
+	 * Adjust the maximum pool size within the pool size range to the load, rather
+	 * than keeping it at the upper bound (see {@link AdaptivePoolSizer}).
+	 *
+	 * @param adaptiveSizing
+	 */
+	public void setAdaptiveSizing(boolean adaptiveSizing) {
+		this.adaptiveSizing = adaptiveSizing;
+	}
+
+	/**
+	 * @return milliseconds a borrower may wait for a connection before adaptive sizing
+	 * counts the wait against the pool size
+	 */
+	public int getAdaptiveWaitThreshold() {
+		return adaptiveWaitThreshold != null ? adaptiveWaitThreshold : DEFAULT_ADAPTIVE_WAIT_THRESHOLD;
+	}
+
+	public void setAdaptiveWaitThreshold(int adaptiveWaitThreshold) {
+		this.adaptiveWaitThreshold = adaptiveWaitThreshold;
+	}
+
+	/**
+	 * Return the configuration applying to one application instance.
+	 * <p>
+	 * Without a connection budget, this configuration applies as is. Otherwise the
+	 * budget is divided evenly across the instances, the remainder going to the
+	 * instances with the lowest indexes, and each instance gets at least one
+	 * connection. The minimum pool size is capped by the instance's share. If the
+	 * number of instances is unknown, the whole budget goes to each instance, which is
+	 * logged as a warning once per configuration.
+	 * </p>
+	 *
+	 * @param instanceIndex index of the instance, starting at 0
+	 * @param instanceCount number of instances, or 0 if unknown (taken as 1)
+	 */
+	public CloudPoolConfiguration forInstance(int instanceIndex, int instanceCount) {
+		if (connectionBudget == null) {
+			return this;
+		}
+		if (instanceCount <= 0 && !unknownInstanceCountLogged) {
+			unknownInstanceCountLogged = true;
+			logger.warning("The number of application instances is unknown, so each instance may open up to the "
+					+ "whole connection budget of " + connectionBudget + " connections");
+		}
+		int instances = Math.max(1, instanceCount);
+		int share = connectionBudget / instances + (instanceIndex < connectionBudget % instances ? 1 : 0);
+		share = Math.max(1, share);
+		return copy(Math.min(minPoolSize == null ? 0 : minPoolSize, share), share);
+	}
+
+	/**
+	 * @return a copy of this configuration with another maximum pool size, the minimum
+	 * being capped by it
+	 */
+	public CloudPoolConfiguration withMaxPoolSize(int maxPoolSize) {
+		return copy(minPoolSize == null ? null : Math.min(minPoolSize, maxPoolSize), maxPoolSize);
+	}
+
+	private CloudPoolConfiguration copy(Integer minPoolSize, Integer maxPoolSize) {
+		CloudPoolConfiguration copy = new CloudPoolConfiguration();
+		copy.minPoolSize = minPoolSize;
+		copy.maxPoolSize = maxPoolSize;
+		copy.maxWaitTime = maxWaitTime;
+		copy.validation = validation;
+		copy.validationInterval = validationInterval;
+		copy.jdbc4Validation = jdbc4Validation;
+		copy.statementCacheEnabled = statementCacheEnabled;
+		copy.statementCacheSize = statementCacheSize;
+		copy.leakDetectionThreshold = leakDetectionThreshold;
+		copy.leakSampleRate = leakSampleRate;
+		copy.leakUtilizationThreshold = leakUtilizationThreshold;
+		copy.leakReclamation = leakReclamation;
+		copy.adaptiveSizing = adaptiveSizing;
+		copy.adaptiveWaitThreshold = adaptiveWaitThreshold;
+		return copy;
+	}
+
 	private void determinePoolSizeRange(String poolSize) {
 		if (StringUtils.hasText(poolSize)) {
 			try {
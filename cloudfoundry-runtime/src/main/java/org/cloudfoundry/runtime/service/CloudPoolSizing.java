@@ -0,0 +1,70 @@
+package org.cloudfoundry.runtime.service;
+
+import org.cloudfoundry.runtime.env.ApplicationInstanceInfo;
+import org.cloudfoundry.runtime.env.CloudEnvironment;
+
+/**
+ * Pool sizes derived from the resource limits of the application instance.
+ * <p>
+ * Used by the service creators when auto-sizing is enabled and no explicit pool
+ * configuration is given. Each pool may open one connection per 16MB of instance
+ * memory, and at most a quarter of the file descriptors left after a reserve of 64
+ * for the JVM, the container and logging; the result is kept between 2 and 64.
+ * A quarter of the connections are kept idle.
+ * </p>
+ */
+public class CloudPoolSizing {
+
+	static final long MEMORY_PER_CONNECTION = 16 * 1024 * 1024;
+
+	static final int RESERVED_FILE_DESCRIPTORS = 64;
+
+	static final int MIN_CONNECTIONS = 2;
+
+	static final int MAX_CONNECTIONS = 64;
+
+	private final int maxConnections;
+
+	private final int minIdleConnections;
+
+	public CloudPoolSizing(long memoryLimit, int fileDescriptorLimit) {
+		long max = MAX_CONNECTIONS;
+		if (memoryLimit > 0) {
+			max = Math.min(max, memoryLimit / MEMORY_PER_CONNECTION);
+		}
+		if (fileDescriptorLimit > 0) {
+			max = Math.min(max, (fileDescriptorLimit - RESERVED_FILE_DESCRIPTORS) / 4);
+		}
+		this.maxConnections = (int) Math.max(MIN_CONNECTIONS, max);
+		this.minIdleConnections = Math.max(1, maxConnections / 4);
+	}
+
+	/**
+	 * @return sizing for the current application instance, or null if its limits
+	 * are not known
+	 */
+	public static CloudPoolSizing forEnvironment(CloudEnvironment cloudEnvironment) {
+		ApplicationInstanceInfo instanceInfo = cloudEnvironment.getInstanceInfo();
+		if (instanceInfo == null || (instanceInfo.getMemoryLimit() <= 0 && instanceInfo.getFileDescriptorLimit() <= 0)) {
+			return null;
+		}
+		return new CloudPoolSizing(instanceInfo.getMemoryLimit(), instanceInfo.getFileDescriptorLimit());
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public int getMinIdleConnections() {
+		return minIdleConnections;
+	}
+
+	/**
+	 * @return pool configuration matching this sizing
+	 */
+	public CloudPoolConfiguration getPoolConfiguration() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize(minIdleConnections + "-" + maxConnections);
+		return poolConfiguration;
+	}
+}
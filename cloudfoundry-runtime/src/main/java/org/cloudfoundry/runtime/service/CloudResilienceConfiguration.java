@@ -0,0 +1,76 @@
+package org.cloudfoundry.runtime.service;
+
+/**
+ * Class to hold the limits a {@link ServiceGuard} enforces on the connections
+ * acquired from a service.
+ */
+public class CloudResilienceConfiguration {
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	public static final long DEFAULT_RETRY_INTERVAL = 10000;
+
+	private Integer maxConcurrent;
+
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+	private Long slowCallThreshold;
+
+	private long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+	public Integer getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * Reject calls beyond this many in flight at once rather than letting them
+	 * queue. Unbounded if not set.
+	 *
+	 * @param maxConcurrent
+	 */
+	public void setMaxConcurrent(Integer maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * Number of consecutive failed or slow acquisitions opening the circuit breaker.
+	 * Defaults to {@value #DEFAULT_FAILURE_THRESHOLD}.
+	 *
+	 * @param failureThreshold
+	 */
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public Long getSlowCallThreshold() {
+		return slowCallThreshold;
+	}
+
+	/**
+	 * Count acquisitions taking longer than this many milliseconds as failures.
+	 * Only errors count if not set.
+	 *
+	 * @param slowCallThreshold
+	 */
+	public void setSlowCallThreshold(Long slowCallThreshold) {
+		this.slowCallThreshold = slowCallThreshold;
+	}
+
+	public long getRetryInterval() {
+		return retryInterval;
+	}
+
+	/**
+	 * Milliseconds after which an open circuit breaker lets a trial call through.
+	 * Defaults to {@value #DEFAULT_RETRY_INTERVAL}.
+	 *
+	 * @param retryInterval
+	 */
+	public void setRetryInterval(long retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+}
@@ -1,8 +1,13 @@
 package org.cloudfoundry.runtime.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
+import javax.sql.DataSource;
+
 import org.cloudfoundry.runtime.env.AbstractServiceInfo;
 import org.cloudfoundry.runtime.env.CloudEnvironment;
 import org.cloudfoundry.runtime.env.CloudServiceException;
@@ -10,14 +15,18 @@ import org.cloudfoundry.runtime.env.MongoServiceInfo;
 import org.cloudfoundry.runtime.env.RabbitServiceInfo;
 import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
 import org.cloudfoundry.runtime.env.RedisServiceInfo;
-import org.cloudfoundry.runtime.service.AbstractServiceCreator.ServiceNameTuple;
+import org.cloudfoundry.runtime.service.ServiceCreationExecutor.Creation;
 import org.cloudfoundry.runtime.service.document.MongoServiceCreator;
 import org.cloudfoundry.runtime.service.keyvalue.RedisServiceCreator;
 import org.cloudfoundry.runtime.service.messaging.RabbitServiceCreator;
 import org.cloudfoundry.runtime.service.relational.RdbmsServiceCreator;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 
 /**
  * Bean factory post processor that adds a bean for each service bound to the application.
@@ -53,10 +62,40 @@ import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
  * @author Jennifer Hickey
  *
  */
-public class CloudServicesScanner implements BeanFactoryPostProcessor {
+public class CloudServicesScanner implements BeanFactoryPostProcessor, DisposableBean {
 
 	Logger logger = Logger.getLogger(CloudServicesScanner.class.getName());
 
+	private long refreshInterval;
+
+	private boolean autoSizePools;
+
+	private int creationThreads = ServiceCreationExecutor.DEFAULT_THREADS;
+
+	private long creationTimeout = ServiceCreationExecutor.DEFAULT_TIMEOUT;
+
+	private boolean lazyInit;
+
+	private boolean warmUp;
+
+	private List<String> warmUpStatements;
+
+	private final List<ServiceRebinder<?, ?>> rebinders = new ArrayList<ServiceRebinder<?, ?>>();
+
+	private ServiceReadiness readiness;
+
+	/**
+	 * Optional interval, in milliseconds, at which the bindings of the services are
+	 * checked for changes. If set to a positive value, each service bean is a proxy
+	 * to which a new service object is swapped in whenever its binding changes (see
+	 * {@link ServiceRebinder}). Defaults to 0, which disables rebinding.
+	 *
+	 * @param refreshInterval
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
 	@Override
 	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
 		CloudEnvironment cloudEnvironment;
@@ -75,24 +114,105 @@ public class CloudServicesScanner implements BeanFactoryPostProcessor {
 	}
 
 	/**
-	 * Create and register beans for each cloud service bound to the application
+	 * If set, pools of the service beans are sized from the memory and file
+	 * descriptor limits of the application instance (see {@link CloudPoolSizing})
+	 * rather than left to the client library defaults. Defaults to false.
+	 *
+	 * @param autoSizePools
+	 */
+	public void setAutoSizePools(boolean autoSizePools) {
+		this.autoSizePools = autoSizePools;
+	}
+
+	/**
+	 * Maximum number of service objects created at the same time. Defaults to 4; 1
+	 * creates the services one after another.
+	 *
+	 * @param creationThreads
+	 */
+	public void setCreationThreads(int creationThreads) {
+		this.creationThreads = creationThreads;
+	}
+
+	/**
+	 * Time, in milliseconds, allowed for the creation of all service objects. If it
+	 * is exceeded, no service bean is registered and the post processing fails.
+	 * Defaults to 60 seconds; 0 waits without limit.
+	 *
+	 * @param creationTimeout
+	 */
+	public void setCreationTimeout(long creationTimeout) {
+		this.creationTimeout = creationTimeout;
+	}
+
+	/**
+	 * If set, each service bean is registered as a proxy of the service interface
+	 * (<code>MongoDbFactory</code>, <code>RedisConnectionFactory</code>, Rabbit
+	 * <code>ConnectionFactory</code> or <code>DataSource</code>), and the service
+	 * object is only created on the first call to the proxy. Services the
+	 * application does not use then cost nothing at startup, but a service that
+	 * cannot be created fails on first use rather than at startup. Defaults to false.
+	 *
+	 * @param lazyInit
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * If set, the pools of the service beans are filled with their idle connections
+	 * in the background once the beans are registered, and the {@link ServiceReadiness}
+	 * of the application reports it as not ready until this is done. Ignored for
+	 * lazily initialized services. Defaults to false.
+	 *
+	 * @param warmUp
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	/**
+	 * Statements run on each connection opened while warming up a data source.
+	 *
+	 * @param warmUpStatements
+	 */
+	public void setWarmUpStatements(List<String> warmUpStatements) {
+		this.warmUpStatements = warmUpStatements;
+	}
+
+	/**
+	 * Create and register beans for each cloud service bound to the application.
+	 * <p>
+	 * The service objects are created concurrently (see {@link #setCreationThreads(int)}),
+	 * but registered in a fixed order: Mongo, Redis, RabbitMQ and relational services,
+	 * each in the order they are bound in. If any of them cannot be created, none is
+	 * registered and the exception names all services that failed.
+	 * </p>
 	 * @param beanFactory
 	 * @param cloudEnvironment
 	 */
 	protected void createCloudServiceBeans(ConfigurableListableBeanFactory beanFactory, CloudEnvironment cloudEnvironment) {
 		logger.info("Auto-creating service beans");
+		List<ServiceGroup<?, ?>> serviceGroups = new ArrayList<ServiceGroup<?, ?>>();
 		if(hasServicesOfType(cloudEnvironment, MongoServiceInfo.class)) {
-			registerServiceBeans(beanFactory, cloudEnvironment, new MongoServiceCreator(), MongoServiceInfo.class);
+			serviceGroups.add(prepareServices(cloudEnvironment, new MongoServiceCreator(), MongoServiceInfo.class,
+					MongoDbFactory.class));
 		}
 		if(hasServicesOfType(cloudEnvironment, RedisServiceInfo.class)) {
-			registerServiceBeans(beanFactory, cloudEnvironment, new RedisServiceCreator(), RedisServiceInfo.class);
+			serviceGroups.add(prepareServices(cloudEnvironment, new RedisServiceCreator(), RedisServiceInfo.class,
+					RedisConnectionFactory.class));
 		}
 		if(hasServicesOfType(cloudEnvironment, RabbitServiceInfo.class)) {
-			registerServiceBeans(beanFactory, cloudEnvironment, new RabbitServiceCreator(), RabbitServiceInfo.class);
+			serviceGroups.add(prepareServices(cloudEnvironment, new RabbitServiceCreator(), RabbitServiceInfo.class,
+					ConnectionFactory.class));
 		}
 		if(hasServicesOfType(cloudEnvironment, RdbmsServiceInfo.class)) {
-			registerServiceBeans(beanFactory, cloudEnvironment, new RdbmsServiceCreator(), RdbmsServiceInfo.class);
+			RdbmsServiceCreator rdbmsServiceCreator = new RdbmsServiceCreator();
+			rdbmsServiceCreator.setWarmUpStatements(warmUpStatements);
+			serviceGroups.add(prepareServices(cloudEnvironment, rdbmsServiceCreator, RdbmsServiceInfo.class,
+					DataSource.class));
 		}
+		registerServiceBeans(beanFactory, cloudEnvironment, serviceGroups);
 	}
 
 	/**
@@ -118,11 +238,123 @@ public class CloudServicesScanner implements BeanFactoryPostProcessor {
 	 */
 	protected <S, T extends AbstractServiceInfo> void registerServiceBeans(ConfigurableListableBeanFactory beanFactory,
 			CloudEnvironment cloudEnvironment, AbstractServiceCreator<S, T> serviceCreator, Class<T> serviceInfoType) {
-		List<ServiceNameTuple<S>> serviceNamePairs = serviceCreator.createServices(cloudEnvironment
-				.getServiceInfos(serviceInfoType));
-		for (ServiceNameTuple<S> serviceNamePair : serviceNamePairs) {
-			logger.info("Auto-creating service bean for " + serviceNamePair.name);
-			beanFactory.registerSingleton(serviceNamePair.name, serviceNamePair.service);
+		List<ServiceGroup<?, ?>> serviceGroups = Collections.<ServiceGroup<?, ?>>singletonList(prepareServices(
+				cloudEnvironment, serviceCreator, serviceInfoType, null));
+		registerServiceBeans(beanFactory, cloudEnvironment, serviceGroups);
+	}
+
+	/**
+	 * @param serviceType interface of the service objects, or null if not known, in
+	 * which case they are created at startup even in lazy mode
+	 */
+	private <S, T extends AbstractServiceInfo> ServiceGroup<S, T> prepareServices(CloudEnvironment cloudEnvironment,
+			AbstractServiceCreator<S, T> serviceCreator, Class<T> serviceInfoType, Class<?> serviceType) {
+		serviceCreator.setApplicationInstanceInfo(cloudEnvironment.getInstanceInfo());
+		if (autoSizePools) {
+			serviceCreator.setPoolSizing(CloudPoolSizing.forEnvironment(cloudEnvironment));
+		}
+		return new ServiceGroup<S, T>(serviceCreator, serviceInfoType, serviceType,
+				cloudEnvironment.getServiceInfos(serviceInfoType));
+	}
+
+	private void registerServiceBeans(ConfigurableListableBeanFactory beanFactory, CloudEnvironment cloudEnvironment,
+			List<ServiceGroup<?, ?>> serviceGroups) {
+		List<Creation<?, ?>> creations = new ArrayList<Creation<?, ?>>();
+		for (ServiceGroup<?, ?> serviceGroup : serviceGroups) {
+			if (!isLazy(serviceGroup)) {
+				creations.addAll(serviceGroup.creations);
+			}
+		}
+		new ServiceCreationExecutor(creationThreads, creationTimeout).createAll(creations);
+		for (ServiceGroup<?, ?> serviceGroup : serviceGroups) {
+			registerServiceBeans(beanFactory, cloudEnvironment, serviceGroup);
+		}
+	}
+
+	private boolean isLazy(ServiceGroup<?, ?> serviceGroup) {
+		return lazyInit && serviceGroup.serviceType != null;
+	}
+
+	private <S, T extends AbstractServiceInfo> void registerServiceBeans(ConfigurableListableBeanFactory beanFactory,
+			final CloudEnvironment cloudEnvironment, final ServiceGroup<S, T> serviceGroup) {
+		for (final Creation<S, T> creation : serviceGroup.creations) {
+			String serviceName = creation.getServiceName();
+			S service;
+			if (isLazy(serviceGroup)) {
+				logger.info("Auto-creating lazily initialized service bean for " + serviceName);
+				service = LazyServiceTargetSource.createProxy(serviceGroup.serviceType, new Callable<S>() {
+					@Override
+					public S call() {
+						return bindService(cloudEnvironment, serviceGroup, creation.getServiceName(), creation.call());
+					}
+				});
+			} else {
+				logger.info("Auto-creating service bean for " + serviceName);
+				if (warmUp) {
+					if (readiness == null) {
+						readiness = ServiceReadiness.acquire(cloudEnvironment);
+					}
+					ServiceWarmUp.submit(serviceName, serviceGroup.serviceCreator, creation.getService(), readiness);
+				}
+				service = bindService(cloudEnvironment, serviceGroup, serviceName, creation.getService());
+			}
+			beanFactory.registerSingleton(serviceName, service);
+		}
+	}
+
+	/**
+	 * @return the service, or a proxy keeping it bound to its service if rebinding is
+	 * enabled
+	 */
+	private <S, T extends AbstractServiceInfo> S bindService(CloudEnvironment cloudEnvironment,
+			ServiceGroup<S, T> serviceGroup, String serviceName, S service) {
+		if (refreshInterval <= 0) {
+			return service;
+		}
+		ServiceRebinder<S, T> rebinder = new ServiceRebinder<S, T>(cloudEnvironment, serviceGroup.serviceCreator,
+				serviceGroup.serviceInfoType, serviceName, service, null, refreshInterval);
+		rebinder.start();
+		synchronized (rebinders) {
+			rebinders.add(rebinder);
+		}
+		return rebinder.getProxy();
+	}
+
+	@Override
+	public void destroy() {
+		synchronized (rebinders) {
+			for (ServiceRebinder<?, ?> rebinder : rebinders) {
+				rebinder.stop();
+			}
+			rebinders.clear();
+		}
+		if (readiness != null) {
+			readiness.release();
+			readiness = null;
+		}
+	}
+
+	/**
+	 * Services of one type, with the creator shared by their creations.
+	 */
+	private static class ServiceGroup<S, T extends AbstractServiceInfo> {
+
+		final AbstractServiceCreator<S, T> serviceCreator;
+
+		final Class<T> serviceInfoType;
+
+		final Class<?> serviceType;
+
+		final List<Creation<S, T>> creations = new ArrayList<Creation<S, T>>();
+
+		ServiceGroup(AbstractServiceCreator<S, T> serviceCreator, Class<T> serviceInfoType, Class<?> serviceType,
+				List<T> serviceInfos) {
+			this.serviceCreator = serviceCreator;
+			this.serviceInfoType = serviceInfoType;
+			this.serviceType = serviceType;
+			for (T serviceInfo : serviceInfos) {
+				creations.add(new Creation<S, T>(serviceCreator, serviceInfo));
+			}
 		}
 	}
 }
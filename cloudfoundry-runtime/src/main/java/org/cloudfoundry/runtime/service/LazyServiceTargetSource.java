@@ -0,0 +1,112 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.concurrent.Callable;
+
+import org.cloudfoundry.runtime.env.CloudServiceException;
+import org.springframework.aop.TargetSource;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Target source creating its service object on the first call to the proxy.
+ * <p>
+ * Lets a service bean be registered at startup without opening connections or
+ * pools for services the application may never use. The service object is created
+ * once, by the first caller, while concurrent callers wait for it. If creation
+ * fails, the exception is thrown to the caller and the next call tries again.
+ * </p>
+ */
+class LazyServiceTargetSource implements TargetSource {
+
+	private final Class<?> serviceType;
+
+	private final Callable<?> serviceFactory;
+
+	private volatile Object service;
+
+	/**
+	 * @param serviceType interface exposed by the proxy
+	 * @param serviceFactory creates the service object on first use
+	 */
+	LazyServiceTargetSource(Class<?> serviceType, Callable<?> serviceFactory) {
+		this.serviceType = serviceType;
+		this.serviceFactory = serviceFactory;
+	}
+
+	/**
+	 * @return proxy of the service type creating the service object on first use
+	 */
+	static <S> S createProxy(Class<?> serviceType, Callable<? extends S> serviceFactory) {
+		ProxyFactory proxyFactory = new ProxyFactory();
+		proxyFactory.setTargetSource(new LazyServiceTargetSource(serviceType, serviceFactory));
+		proxyFactory.addInterface(serviceType);
+		@SuppressWarnings("unchecked")
+		S proxy = (S) proxyFactory.getProxy(ClassUtils.getDefaultClassLoader());
+		return proxy;
+	}
+
+	/**
+	 * @return true if the service object has been created
+	 */
+	boolean isInitialized() {
+		return service != null;
+	}
+
+	/**
+	 * @return the service object behind a proxy created by
+	 * {@link #createProxy(Class, Callable)}, or null if it has not been created; any
+	 * other object as is
+	 */
+	static Object unwrap(Object service) {
+		if (!(service instanceof Advised)) {
+			return service;
+		}
+		TargetSource targetSource = ((Advised) service).getTargetSource();
+		return targetSource instanceof LazyServiceTargetSource ? ((LazyServiceTargetSource) targetSource).service
+				: service;
+	}
+
+	@Override
+	public Class<?> getTargetClass() {
+		return serviceType;
+	}
+
+	@Override
+	public boolean isStatic() {
+		return false;
+	}
+
+	@Override
+	public Object getTarget() {
+		Object current = service;
+		if (current == null) {
+			synchronized (this) {
+				current = service;
+				if (current == null) {
+					current = createService();
+					service = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	@Override
+	public void releaseTarget(Object target) {
+	}
+
+	private Object createService() {
+		try {
+			Object created = serviceFactory.call();
+			if (created == null) {
+				throw new CloudServiceException("No service of type " + serviceType.getName() + " was created");
+			}
+			return created;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new CloudServiceException("Failed to create service of type " + serviceType.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.cloudfoundry.runtime.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Invocation handler of the proxies that service object wrappers hand out in place
+ * of the connections, or statements, of their targets.
+ * <p>
+ * The proxies compare by identity and throw the exceptions of their target as is.
+ * The first call to <code>close</code> runs the close callbacks of the proxy, then
+ * closes the target; later calls do nothing. Subclasses intercept other methods by
+ * overriding {@link #invokeTarget(Object, Method, Object[])}.
+ * </p>
+ * <p>
+ * A wrapper that only needs to know when a connection is closed adds its callback
+ * through {@link #proxy(Class, Object, CloseCallback)}, which reuses the proxy of the
+ * wrapper beneath when it is a plain one, so that a connection borrowed through a
+ * stack of wrappers costs one proxy and one reflective call per method. The
+ * callbacks run from the outermost wrapper inward, as they would through nested
+ * proxies.
+ * </p>
+ *
+ * @param <T> type of the proxied object
+ */
+public class ServiceConnectionHandler<T> implements InvocationHandler {
+
+	/**
+	 * Notified when a proxied connection is first closed.
+	 */
+	public interface CloseCallback {
+
+		void closed();
+	}
+
+	private final T target;
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private volatile CallbackNode callbacks;
+
+	public ServiceConnectionHandler(T target) {
+		this.target = target;
+	}
+
+	/**
+	 * @param type interface of the connection
+	 * @param connection connection borrowed from the target of a wrapper
+	 * @param callback callback of the wrapper
+	 * @return a proxy of the connection running the callback when it is first
+	 * closed, which is the connection itself, with the callback added, if it is a
+	 * plain proxy
+	 */
+	public static <T> T proxy(Class<T> type, T connection, CloseCallback callback) {
+		if (Proxy.isProxyClass(connection.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(connection);
+			if (handler.getClass() == ServiceConnectionHandler.class) {
+				((ServiceConnectionHandler<?>) handler).addCallback(callback);
+				return connection;
+			}
+		}
+		ServiceConnectionHandler<T> handler = new ServiceConnectionHandler<T>(connection);
+		handler.addCallback(callback);
+		return type.cast(handler.createProxy(type));
+	}
+
+	/**
+	 * @param proxyInterface interface implemented by the proxy
+	 * @return a new proxy handled by this handler
+	 */
+	public Object createProxy(Class<?> proxyInterface) {
+		return Proxy.newProxyInstance(proxyInterface.getClassLoader(), new Class<?>[] { proxyInterface }, this);
+	}
+
+	public final T getTarget() {
+		return target;
+	}
+
+	/**
+	 * Add a callback run before those already added. Callbacks are added by the
+	 * borrowing thread, before the proxy is handed out.
+	 */
+	public final void addCallback(CloseCallback callback) {
+		callbacks = new CallbackNode(callback, callbacks);
+	}
+
+	/**
+	 * Mark the proxy closed, running its callbacks, unless it already is.
+	 *
+	 * @return whether the proxy was closed by this call
+	 */
+	protected final boolean markClosed() {
+		if (!closed.compareAndSet(false, true)) {
+			return false;
+		}
+		for (CallbackNode node = callbacks; node != null; node = node.next) {
+			node.callback.closed();
+		}
+		return true;
+	}
+
+	@Override
+	public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String methodName = method.getName();
+		if (methodName.equals("equals")) {
+			return proxy == args[0];
+		} else if (methodName.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (methodName.equals("close") && !markClosed()) {
+			return null;
+		}
+		return invokeTarget(proxy, method, args);
+	}
+
+	/**
+	 * Invoke a method, other than <code>equals</code> and <code>hashCode</code>, on
+	 * the target.
+	 */
+	protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private static class CallbackNode {
+
+		private final CloseCallback callback;
+
+		private final CallbackNode next;
+
+		CallbackNode(CloseCallback callback, CallbackNode next) {
+			this.callback = callback;
+			this.next = next;
+		}
+	}
+}
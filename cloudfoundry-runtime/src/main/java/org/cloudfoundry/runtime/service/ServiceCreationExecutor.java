@@ -0,0 +1,192 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudfoundry.runtime.env.AbstractServiceInfo;
+import org.cloudfoundry.runtime.env.CloudServiceException;
+
+/**
+ * Creates service objects on a bounded pool of threads.
+ * <p>
+ * Creating a service object may resolve host names or load drivers, so creating
+ * several of them concurrently shortens application startup. The results are kept
+ * in the order the creations were submitted in, whatever order they complete in.
+ * All creations are waited for, up to an overall timeout; if any of them failed or
+ * did not complete in time, the service objects that were created are disposed of
+ * and a single exception naming every failed service is thrown.
+ * </p>
+ */
+class ServiceCreationExecutor {
+
+	static final int DEFAULT_THREADS = 4;
+
+	static final long DEFAULT_TIMEOUT = 60000;
+
+	private static final Logger logger = Logger.getLogger(ServiceCreationExecutor.class.getName());
+
+	private final int threads;
+
+	private final long timeout;
+
+	/**
+	 * @param threads maximum number of services created at the same time
+	 * @param timeout time allowed for all creations to complete, in milliseconds, or 0
+	 * to wait without limit
+	 */
+	ServiceCreationExecutor(int threads, long timeout) {
+		this.threads = Math.max(1, threads);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Run the given creations and wait for all of them to complete. On return, each
+	 * creation holds its service object.
+	 *
+	 * @throws CloudServiceException if any creation failed or timed out
+	 */
+	void createAll(List<? extends Creation<?, ?>> creations) {
+		if (creations.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, creations.size()),
+				new ServiceThreadFactory("cloud-service-creator-",
+						Thread.currentThread().getContextClassLoader()));
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(creations.size());
+			for (Creation<?, ?> creation : creations) {
+				futures.add(executor.submit(creation));
+			}
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			List<String> failures = new ArrayList<String>();
+			Throwable firstCause = null;
+			for (int i = 0; i < creations.size(); i++) {
+				String serviceName = creations.get(i).getServiceName();
+				Future<?> future = futures.get(i);
+				try {
+					if (timeout > 0) {
+						future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					} else {
+						future.get();
+					}
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					logger.log(Level.SEVERE, "Failed to create service object for " + serviceName, cause);
+					failures.add(serviceName + " (" + cause.getMessage() + ")");
+					firstCause = firstCause == null ? cause : firstCause;
+				} catch (TimeoutException e) {
+					future.cancel(true);
+					logger.severe("Creation of service object for " + serviceName + " did not complete within "
+							+ timeout + "ms");
+					failures.add(serviceName + " (timed out)");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					abandonAll(creations);
+					throw new CloudServiceException("Interrupted while creating cloud services", e);
+				}
+			}
+			if (!failures.isEmpty()) {
+				abandonAll(creations);
+				throw new CloudServiceException("Failed to create " + failures.size() + " of " + creations.size()
+						+ " cloud services: " + failures, firstCause);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void abandonAll(List<? extends Creation<?, ?>> creations) {
+		for (Creation<?, ?> creation : creations) {
+			creation.abandon();
+		}
+	}
+
+	/**
+	 * Creation of the service object for one binding.
+	 */
+	static class Creation<S, SI extends AbstractServiceInfo> implements Callable<S> {
+
+		private final AbstractServiceCreator<S, SI> serviceCreator;
+
+		private final SI serviceInfo;
+
+		private S service;
+
+		private boolean abandoned;
+
+		Creation(AbstractServiceCreator<S, SI> serviceCreator, SI serviceInfo) {
+			this.serviceCreator = serviceCreator;
+			this.serviceInfo = serviceInfo;
+		}
+
+		String getServiceName() {
+			return serviceInfo.getServiceName();
+		}
+
+		/**
+		 * @return the created service object, or null if it has not been created
+		 */
+		synchronized S getService() {
+			return service;
+		}
+
+		@Override
+		public S call() {
+			S created = serviceCreator.createService(serviceInfo);
+			synchronized (this) {
+				if (abandoned) {
+					// completed after the creations were given up on
+					ServiceDisposal.dispose(created);
+					return null;
+				}
+				service = created;
+			}
+			return created;
+		}
+
+		synchronized void abandon() {
+			abandoned = true;
+			if (service != null) {
+				ServiceDisposal.dispose(service);
+				service = null;
+			}
+		}
+	}
+
+	/**
+	 * Creates numbered daemon threads using the class loader of the application.
+	 */
+	static class ServiceThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		private final String namePrefix;
+
+		private final ClassLoader contextClassLoader;
+
+		ServiceThreadFactory(String namePrefix, ClassLoader contextClassLoader) {
+			this.namePrefix = namePrefix;
+			this.contextClassLoader = contextClassLoader;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			// drivers and client libraries may be visible to the application class loader only
+			thread.setContextClassLoader(contextClassLoader);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.cloudfoundry.runtime.service;
+
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Releases the resources held by service objects that are no longer used, such as
+ * the data source wrappers created for a service and the pools beneath them.
+ */
+public final class ServiceDisposal {
+
+	private static final Logger logger = Logger.getLogger(ServiceDisposal.class.getName());
+
+	private ServiceDisposal() {
+	}
+
+	/**
+	 * Dispose of a service object. {@link DisposableBean}s are destroyed, other
+	 * objects are closed through a public <code>close()</code> method if they have one
+	 * (a pooled data source, for example, then closes its connections once they are
+	 * returned). Failures are logged, not thrown.
+	 *
+	 * @param service may be null
+	 */
+	public static void dispose(Object service) {
+		if (service == null) {
+			return;
+		}
+		try {
+			if (service instanceof DisposableBean) {
+				((DisposableBean) service).destroy();
+				return;
+			}
+			Method close = ClassUtils.getMethodIfAvailable(service.getClass(), "close");
+			if (close != null) {
+				close.invoke(service);
+			}
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to dispose of service object " + service, e);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Bulkhead and circuit breaker guarding the acquisition of connections from a
+ * service, so that callers fail at once when the service degrades instead of
+ * blocking on pool waits or socket timeouts.
+ * <p>
+ * The bulkhead rejects calls beyond the configured number in flight, without
+ * waiting for one to complete. The {@link CircuitBreaker} opens after consecutive
+ * failed acquisitions, counting those slower than the slow call threshold as
+ * failures, and rejects calls until its retry interval has elapsed. Each admitted
+ * call must record its outcome, then {@link #exit()}.
+ * </p>
+ */
+public class ServiceGuard implements ServiceGuardMBean {
+
+	public static final String MBEAN_TYPE = "ServiceGuard";
+
+	private static final Logger logger = Logger.getLogger(ServiceGuard.class.getName());
+
+	private final String serviceName;
+
+	private final int maxConcurrent;
+
+	private final Semaphore bulkhead;
+
+	private final CircuitBreaker breaker;
+
+	private final long slowCallNanos;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicLong bulkheadRejections = new AtomicLong();
+
+	private final AtomicLong circuitRejections = new AtomicLong();
+
+	private ObjectName objectName;
+
+	public ServiceGuard(String serviceName, CloudResilienceConfiguration configuration) {
+		this.serviceName = serviceName;
+		this.maxConcurrent = configuration.getMaxConcurrent() != null ? configuration.getMaxConcurrent() : -1;
+		this.bulkhead = maxConcurrent >= 0 ? new Semaphore(maxConcurrent) : null;
+		this.breaker = new CircuitBreaker(configuration.getFailureThreshold(), configuration.getRetryInterval());
+		this.slowCallNanos = configuration.getSlowCallThreshold() != null
+				? TimeUnit.MILLISECONDS.toNanos(configuration.getSlowCallThreshold()) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Register the guard on the platform MBean server, replacing an MBean registered
+	 * for the same service.
+	 */
+	public synchronized void registerMBean() {
+		objectName = ServiceMBeans.register(MBEAN_TYPE, serviceName, this);
+	}
+
+	public synchronized void destroy() {
+		ServiceMBeans.unregister(objectName, this);
+		objectName = null;
+	}
+
+	/**
+	 * Admit a call.
+	 *
+	 * @return the start time of the call, to pass to {@link #recordSuccess(long)}
+	 * @throws CallRejectedException if too many calls are in flight or the circuit
+	 * breaker is open
+	 */
+	public long enter() throws CallRejectedException {
+		if (bulkhead != null && !bulkhead.tryAcquire()) {
+			bulkheadRejections.incrementAndGet();
+			throw new CallRejectedException(maxConcurrent + " calls to the " + serviceName
+					+ " service are already in flight");
+		}
+		if (!breaker.tryAcquire()) {
+			if (bulkhead != null) {
+				bulkhead.release();
+			}
+			circuitRejections.incrementAndGet();
+			throw new CallRejectedException("The circuit breaker of the " + serviceName + " service is open");
+		}
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record that a call started at the given time acquired its connection, which
+	 * counts as a failure if it was slow.
+	 */
+	public void recordSuccess(long start) {
+		if (System.nanoTime() - start > slowCallNanos) {
+			recordFailure();
+		} else {
+			breaker.recordSuccess();
+		}
+	}
+
+	public void recordFailure() {
+		if (breaker.recordFailure()) {
+			logger.warning("Opened the circuit breaker of the " + serviceName
+					+ " service after consecutive failed or slow calls");
+		}
+	}
+
+	/**
+	 * End a call, once the connection it acquired is released.
+	 */
+	public void exit() {
+		inFlight.decrementAndGet();
+		if (bulkhead != null) {
+			bulkhead.release();
+		}
+	}
+
+	@Override
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	@Override
+	public String getCircuitState() {
+		return breaker.getState().name();
+	}
+
+	@Override
+	public long getCircuitOpenCount() {
+		return breaker.getOpenCount();
+	}
+
+	@Override
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getBulkheadRejections() {
+		return bulkheadRejections.get();
+	}
+
+	@Override
+	public long getCircuitRejections() {
+		return circuitRejections.get();
+	}
+}
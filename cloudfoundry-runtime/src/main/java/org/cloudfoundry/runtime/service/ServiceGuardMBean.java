@@ -0,0 +1,36 @@
+package org.cloudfoundry.runtime.service;
+
+/**
+ * Management interface of {@link ServiceGuard}.
+ */
+public interface ServiceGuardMBean {
+
+	String getServiceName();
+
+	/**
+	 * @return CLOSED, OPEN or HALF_OPEN
+	 */
+	String getCircuitState();
+
+	/**
+	 * @return number of times the circuit breaker opened
+	 */
+	long getCircuitOpenCount();
+
+	/**
+	 * @return maximum number of calls in flight, or -1 if unbounded
+	 */
+	int getMaxConcurrent();
+
+	int getInFlight();
+
+	/**
+	 * @return number of calls rejected because too many were in flight
+	 */
+	long getBulkheadRejections();
+
+	/**
+	 * @return number of calls rejected because the circuit breaker was open
+	 */
+	long getCircuitRejections();
+}
@@ -0,0 +1,92 @@
+package org.cloudfoundry.runtime.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the MBeans of service objects, such as data source wrappers, on the
+ * platform MBean server, one per application, service and type.
+ * <p>
+ * The applications deployed in one container share the platform MBean server, and
+ * may bind services of the same name, so the names of the MBeans carry a
+ * <code>context</code> key identifying the class loader of the application: the
+ * context class loader of the registering thread, which the container sets to that
+ * of the application, and which the threads started by the application inherit.
+ * </p>
+ */
+public final class ServiceMBeans {
+
+	private static final Logger logger = Logger.getLogger(ServiceMBeans.class.getName());
+
+	/**
+	 * MBean owning each registered name, so that a service object replaced by another
+	 * for the same service does not unregister its successor.
+	 */
+	private static final ConcurrentMap<ObjectName, Object> registered = new ConcurrentHashMap<ObjectName, Object>();
+
+	private ServiceMBeans() {
+	}
+
+	/**
+	 * Register an MBean, replacing one registered under the same name by the same
+	 * application.
+	 *
+	 * @return the name, or null if the MBean could not be registered
+	 */
+	public static ObjectName register(String type, String serviceName, Object mbean) {
+		try {
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName(type, serviceName);
+			if (mbeanServer.isRegistered(name)) {
+				mbeanServer.unregisterMBean(name);
+			}
+			mbeanServer.registerMBean(mbean, name);
+			registered.put(name, mbean);
+			return name;
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to register the " + type + " MBean of the " + serviceName
+					+ " service", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Unregister an MBean, unless another one has replaced it.
+	 */
+	public static void unregister(ObjectName name, Object mbean) {
+		if (name == null || !registered.remove(name, mbean)) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Failed to unregister " + name, e);
+		}
+	}
+
+	/**
+	 * @return the name of the MBean of the given type and service, for the
+	 * application of the calling thread
+	 */
+	public static ObjectName getObjectName(String type, String serviceName) throws Exception {
+		return new ObjectName("org.cloudfoundry.runtime:type=" + type + ",context=" + getContextKey() + ",name="
+				+ ObjectName.quote(serviceName));
+	}
+
+	/**
+	 * @return the key identifying the application of the calling thread
+	 */
+	static String getContextKey() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = ServiceMBeans.class.getClassLoader();
+		}
+		return Integer.toHexString(System.identityHashCode(classLoader));
+	}
+}
@@ -0,0 +1,115 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import org.cloudfoundry.runtime.env.ApplicationInstanceInfo;
+import org.cloudfoundry.runtime.env.CloudEnvironment;
+
+/**
+ * Readiness of the services of an application, published as an MBean.
+ * <p>
+ * The application is ready once every service warm-up started in the background
+ * has completed or failed. The MBean is registered on the platform MBean server
+ * (see {@link ServiceMBeans}) under the {@link #MBEAN_TYPE} type and the name of the
+ * application when the first warm-up starts, so that the container (see the Tomcat
+ * startup listener) can hold back announcing the application as running until its
+ * pools are filled, without sharing classes with it. It is unregistered once the
+ * factories and scanners that started warm-ups are destroyed with their
+ * application context.
+ * </p>
+ * <p>
+ * The web applications of a droplet share its name, so there is one readiness per
+ * name and application class loader, whose MBean names differ by their context key.
+ * </p>
+ */
+public class ServiceReadiness implements ServiceReadinessMBean {
+
+	public static final String MBEAN_TYPE = "ServiceReadiness";
+
+	private static final Map<String, ServiceReadiness> instances = new HashMap<String, ServiceReadiness>();
+
+	private final String key;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final AtomicInteger completed = new AtomicInteger();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private int users;
+
+	private ObjectName objectName;
+
+	ServiceReadiness(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @return the readiness of the application, registered as an MBean on first use;
+	 * each call must be matched by a call to {@link #release()}
+	 */
+	static ServiceReadiness acquire(CloudEnvironment cloudEnvironment) {
+		ApplicationInstanceInfo instanceInfo = cloudEnvironment.getInstanceInfo();
+		return acquire(instanceInfo != null && instanceInfo.getName() != null ? instanceInfo.getName()
+				: "application");
+	}
+
+	static ServiceReadiness acquire(String applicationName) {
+		String key = ServiceMBeans.getContextKey() + "/" + applicationName;
+		synchronized (instances) {
+			ServiceReadiness instance = instances.get(key);
+			if (instance == null) {
+				instance = new ServiceReadiness(key);
+				instance.objectName = ServiceMBeans.register(MBEAN_TYPE, applicationName, instance);
+				instances.put(key, instance);
+			}
+			instance.users++;
+			return instance;
+		}
+	}
+
+	/**
+	 * Release this readiness, unregistering the MBean once it has no other users.
+	 */
+	void release() {
+		synchronized (instances) {
+			if (--users == 0) {
+				instances.remove(key);
+				ServiceMBeans.unregister(objectName, this);
+			}
+		}
+	}
+
+	@Override
+	public boolean isReady() {
+		return pending.get() == 0;
+	}
+
+	@Override
+	public int getPendingWarmUps() {
+		return pending.get();
+	}
+
+	@Override
+	public int getCompletedWarmUps() {
+		return completed.get();
+	}
+
+	@Override
+	public int getFailedWarmUps() {
+		return failed.get();
+	}
+
+	void warmUpStarted() {
+		pending.incrementAndGet();
+	}
+
+	void warmUpFinished(boolean successful) {
+		(successful ? completed : failed).incrementAndGet();
+		pending.decrementAndGet();
+	}
+}
@@ -0,0 +1,18 @@
+package org.cloudfoundry.runtime.service;
+
+/**
+ * Management interface of {@link ServiceReadiness}.
+ */
+public interface ServiceReadinessMBean {
+
+	/**
+	 * @return true if no service warm-up is in progress
+	 */
+	boolean isReady();
+
+	int getPendingWarmUps();
+
+	int getCompletedWarmUps();
+
+	int getFailedWarmUps();
+}
@@ -0,0 +1,398 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.cloudfoundry.runtime.env.AbstractServiceInfo;
+import org.cloudfoundry.runtime.env.ApplicationInstanceInfo;
+import org.cloudfoundry.runtime.env.CloudEnvironment;
+import org.springframework.aop.TargetSource;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Keeps a service object in sync with the binding it was created from.
+ * <p>
+ * Callers use a proxy delegating to the current service object. The binding is
+ * polled through the {@link CloudEnvironment}; when its data changes, a new service
+ * object is created and warmed up in the background, then swapped in atomically.
+ * If the new object cannot be created or warmed up, the current one stays in use
+ * and the binding is tried again on the next poll.
+ * </p>
+ * <p>
+ * The proxy counts the outstanding uses of each service object: the calls in
+ * progress, and the connections borrowed through it until they are closed (any
+ * closeable interface returned by a call, such as a JDBC, Redis or RabbitMQ
+ * connection). The replaced object is disposed of (see {@link ServiceDisposal}) as
+ * soon as its uses drain, and at the latest after a delay
+ * ({@link #DEFAULT_DISPOSE_DELAY}), so that a connection never closed does not keep
+ * it open. Uses still outstanding then are logged; connection pools close their
+ * connections as they are returned, while other clients (Mongo, Redis and RabbitMQ
+ * connection factories, for example) fail the operations still in progress.
+ * </p>
+ * <p>
+ * When the index or number of application instances changes, the pools of the
+ * current service object are resized, so that connection budgets stay divided
+ * across the instances.
+ * </p>
+ *
+ * @param <S> service type
+ * @param <SI> service info type
+ */
+class ServiceRebinder<S, SI extends AbstractServiceInfo> implements Runnable {
+
+	static final long DEFAULT_DISPOSE_DELAY = 30000;
+
+	private static final Logger logger = Logger.getLogger(ServiceRebinder.class.getName());
+
+	private static final ServiceScheduler scheduler = new ServiceScheduler("cloud-service-rebinder");
+
+	private final CloudEnvironment cloudEnvironment;
+
+	private final AbstractServiceCreator<S, SI> serviceCreator;
+
+	private final Class<SI> serviceInfoClass;
+
+	private final String serviceName;
+
+	private final Object proxy;
+
+	private final long refreshInterval;
+
+	private long disposeDelay = DEFAULT_DISPOSE_DELAY;
+
+	private volatile Binding current;
+
+	/**
+	 * Replaced service objects not yet disposed of.
+	 */
+	private final List<Binding> retired = new CopyOnWriteArrayList<Binding>();
+
+	private volatile Map<String, Object> serviceData;
+
+	private volatile ApplicationInstanceInfo instanceInfo;
+
+	private ScheduledFuture<?> refreshTask;
+
+	private boolean destroyed;
+
+	/**
+	 * @param cloudEnvironment environment the binding is read from
+	 * @param serviceCreator creator used for new service objects
+	 * @param serviceInfoClass type of the bound service
+	 * @param serviceName name of the bound service
+	 * @param service service object created for the current binding
+	 * @param serviceType interface exposed by the proxy, or null to expose all
+	 * interfaces of the service object
+	 * @param refreshInterval time between two checks of the binding, in milliseconds
+	 */
+	ServiceRebinder(CloudEnvironment cloudEnvironment, AbstractServiceCreator<S, SI> serviceCreator,
+			Class<SI> serviceInfoClass, String serviceName, S service, Class<?> serviceType, long refreshInterval) {
+		this.cloudEnvironment = cloudEnvironment;
+		this.serviceCreator = serviceCreator;
+		this.serviceInfoClass = serviceInfoClass;
+		this.serviceName = serviceName;
+		this.refreshInterval = refreshInterval;
+		this.serviceData = cloudEnvironment.getServiceDataByName(serviceName);
+		this.instanceInfo = cloudEnvironment.getInstanceInfo();
+		this.current = new Binding(service);
+		ProxyFactory proxyFactory = new ProxyFactory();
+		proxyFactory.setTargetSource(new BindingTargetSource());
+		proxyFactory.addAdvice(new BorrowTrackingInterceptor());
+		if (serviceType != null) {
+			proxyFactory.addInterface(serviceType);
+		} else {
+			proxyFactory.setInterfaces(ClassUtils.getAllInterfaces(service));
+		}
+		this.proxy = proxyFactory.getProxy(ClassUtils.getDefaultClassLoader());
+	}
+
+	/**
+	 * @return proxy delegating to the current service object
+	 */
+	@SuppressWarnings("unchecked")
+	S getProxy() {
+		return (S) proxy;
+	}
+
+	/**
+	 * @return the current service object
+	 */
+	@SuppressWarnings("unchecked")
+	S getTarget() {
+		return (S) current.service;
+	}
+
+	/**
+	 * @param disposeDelay time after which a replaced service object is disposed of
+	 * even if it is still in use, in milliseconds
+	 */
+	void setDisposeDelay(long disposeDelay) {
+		this.disposeDelay = disposeDelay;
+	}
+
+	synchronized void start() {
+		if (refreshTask == null) {
+			refreshTask = scheduler.acquire().scheduleWithFixedDelay(this, refreshInterval, refreshInterval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void stop() {
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+			refreshTask = null;
+			scheduler.release();
+		}
+	}
+
+	/**
+	 * Stop checking the binding and dispose of the current service object, and of the
+	 * replaced ones still in use. A new service object being created at the same time
+	 * is disposed of instead of being swapped in.
+	 */
+	synchronized void destroy() {
+		stop();
+		destroyed = true;
+		for (Binding binding : retired) {
+			dispose(binding);
+		}
+		ServiceDisposal.dispose(getTarget());
+	}
+
+	@Override
+	public void run() {
+		try {
+			if (!rebindIfChanged()) {
+				resizeIfInstancesChanged();
+			}
+		} catch (Throwable t) {
+			// never let an exception cancel the periodic task
+			logger.log(Level.WARNING, "Failed to check binding of service " + serviceName, t);
+		}
+	}
+
+	/**
+	 * Check the binding and swap in a new service object if it has changed.
+	 *
+	 * @return true if a new service object was swapped in
+	 */
+	boolean rebindIfChanged() {
+		Map<String, Object> currentData = cloudEnvironment.getServiceDataByName(serviceName);
+		if (currentData == null || currentData.equals(serviceData)) {
+			return false;
+		}
+		SI serviceInfo = cloudEnvironment.getServiceInfo(serviceName, serviceInfoClass);
+		if (serviceInfo == null) {
+			logger.warning("Service " + serviceName + " is no longer bound as " + serviceInfoClass.getSimpleName()
+					+ ", keeping the current binding");
+			return false;
+		}
+		logger.info("Binding of service " + serviceName + " changed, creating a new service object");
+		ApplicationInstanceInfo currentInfo = cloudEnvironment.getInstanceInfo();
+		S newService = serviceCreator.createService(serviceInfo, currentInfo);
+		try {
+			serviceCreator.warmUp(newService);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Failed to warm up new service object for " + serviceName
+					+ ", keeping the current binding", e);
+			ServiceDisposal.dispose(newService);
+			return false;
+		}
+		Binding oldBinding;
+		synchronized (this) {
+			if (destroyed) {
+				ServiceDisposal.dispose(newService);
+				return false;
+			}
+			oldBinding = current;
+			current = new Binding(newService);
+		}
+		serviceData = currentData;
+		instanceInfo = currentInfo;
+		logger.info("Swapped in new service object for " + serviceName);
+		retire(oldBinding);
+		return true;
+	}
+
+	/**
+	 * Dispose of a replaced service object once its uses drain, or after the dispose
+	 * delay.
+	 */
+	private void retire(final Binding binding) {
+		retired.add(binding);
+		binding.retired = true;
+		binding.disposeTask = scheduler.acquire().schedule(new Runnable() {
+			@Override
+			public void run() {
+				int outstanding = binding.outstanding.get();
+				if (outstanding > 0 && !binding.disposed.get()) {
+					logger.warning("Disposing of the replaced service object of " + serviceName + " with "
+							+ outstanding + " uses outstanding after " + disposeDelay + "ms");
+				}
+				dispose(binding);
+			}
+		}, disposeDelay, TimeUnit.MILLISECONDS);
+		scheduler.release();
+		if (binding.outstanding.get() == 0) {
+			dispose(binding);
+		}
+	}
+
+	private void release(Binding binding) {
+		// a use acquired after the binding was retired may be the last to drain
+		if (binding.outstanding.decrementAndGet() == 0 && binding.retired) {
+			dispose(binding);
+		}
+	}
+
+	private void dispose(Binding binding) {
+		if (!binding.disposed.compareAndSet(false, true)) {
+			return;
+		}
+		retired.remove(binding);
+		ScheduledFuture<?> disposeTask = binding.disposeTask;
+		if (disposeTask != null) {
+			disposeTask.cancel(false);
+		}
+		ServiceDisposal.dispose(binding.service);
+	}
+
+	/**
+	 * @return the binding of a service object, or null if it has been disposed of
+	 */
+	private Binding bindingOf(Object service) {
+		Binding binding = current;
+		if (binding.service == service) {
+			return binding;
+		}
+		for (Binding retiredBinding : retired) {
+			if (retiredBinding.service == service) {
+				return retiredBinding;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resize the current service object if the index or the number of application
+	 * instances has changed.
+	 *
+	 * @return true if the service object was resized
+	 */
+	boolean resizeIfInstancesChanged() {
+		ApplicationInstanceInfo currentInfo = cloudEnvironment.getInstanceInfo();
+		if (currentInfo == null || !instancesChanged(instanceInfo, currentInfo)) {
+			return false;
+		}
+		logger.info("Application instances changed to " + currentInfo.getInstanceCount() + ", resizing "
+				+ serviceName + " for instance " + currentInfo.getInstanceIndex());
+		serviceCreator.resize(getTarget(), currentInfo);
+		instanceInfo = currentInfo;
+		return true;
+	}
+
+	private static boolean instancesChanged(ApplicationInstanceInfo previous, ApplicationInstanceInfo current) {
+		return previous == null || previous.getInstanceIndex() != current.getInstanceIndex()
+				|| previous.getInstanceCount() != current.getInstanceCount();
+	}
+
+	/**
+	 * Service object with the count of its outstanding uses.
+	 */
+	private static final class Binding {
+
+		private final Object service;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private final AtomicBoolean disposed = new AtomicBoolean();
+
+		private volatile boolean retired;
+
+		private volatile ScheduledFuture<?> disposeTask;
+
+		Binding(Object service) {
+			this.service = service;
+		}
+	}
+
+	/**
+	 * Hands out the current service object for each call, counting the call as a use
+	 * until it returns.
+	 */
+	private class BindingTargetSource implements TargetSource {
+
+		@Override
+		public Class<?> getTargetClass() {
+			return current.service.getClass();
+		}
+
+		@Override
+		public boolean isStatic() {
+			return false;
+		}
+
+		@Override
+		public Object getTarget() {
+			while (true) {
+				Binding binding = current;
+				binding.outstanding.incrementAndGet();
+				if (!binding.retired) {
+					return binding.service;
+				}
+				// swapped out meanwhile, and possibly about to be disposed of
+				release(binding);
+			}
+		}
+
+		@Override
+		public void releaseTarget(Object target) {
+			Binding binding = bindingOf(target);
+			if (binding != null) {
+				release(binding);
+			}
+		}
+	}
+
+	/**
+	 * Counts a connection returned by a call as a use of the service object until it
+	 * is closed.
+	 */
+	private class BorrowTrackingInterceptor implements MethodInterceptor {
+
+		@Override
+		public Object invoke(MethodInvocation invocation) throws Throwable {
+			Object result = invocation.proceed();
+			Class<?> returnType = invocation.getMethod().getReturnType();
+			if (result == null || !returnType.isInterface() || !ClassUtils.hasMethod(returnType, "close")) {
+				return result;
+			}
+			final Binding binding = bindingOf(invocation.getThis());
+			if (binding == null) {
+				return result;
+			}
+			// the call itself is still outstanding, so the binding is not disposed of yet
+			binding.outstanding.incrementAndGet();
+			return track(returnType, result, new ServiceConnectionHandler.CloseCallback() {
+				@Override
+				public void closed() {
+					release(binding);
+				}
+			});
+		}
+
+		private <T> T track(Class<T> type, Object connection, ServiceConnectionHandler.CloseCallback callback) {
+			return ServiceConnectionHandler.proxy(type, type.cast(connection), callback);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Single daemon thread running the background tasks of one kind of service object,
+ * such as pool maintenance, shared by all objects of that kind.
+ * <p>
+ * The thread is started when the first object acquires the scheduler, and ended
+ * once the last one has released it, so that no thread outlives the application
+ * context. Delayed tasks still pending at that point run before the thread ends.
+ * </p>
+ */
+public final class ServiceScheduler {
+
+	private final String threadName;
+
+	private ScheduledExecutorService executor;
+
+	private int users;
+
+	/**
+	 * @param threadName name of the thread running the tasks
+	 */
+	public ServiceScheduler(String threadName) {
+		this.threadName = threadName;
+	}
+
+	/**
+	 * @return the executor to schedule tasks on; each call must be matched by a call
+	 * to {@link #release()}
+	 */
+	public synchronized ScheduledExecutorService acquire() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, threadName);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		users++;
+		return executor;
+	}
+
+	public synchronized void release() {
+		if (--users == 0) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.cloudfoundry.runtime.service;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudfoundry.runtime.service.ServiceCreationExecutor.ServiceThreadFactory;
+
+/**
+ * Warms up service objects in the background.
+ * <p>
+ * Warm-ups of different services run concurrently on a small pool of daemon
+ * threads, which end once there is nothing left to warm up. Progress is tracked by
+ * the {@link ServiceReadiness} of the application. A failed warm-up is logged and
+ * only means the pool fills on demand, as it would without warm-up.
+ * </p>
+ */
+final class ServiceWarmUp {
+
+	static final int THREADS = 4;
+
+	private static final Logger logger = Logger.getLogger(ServiceWarmUp.class.getName());
+
+	private static ThreadPoolExecutor executor;
+
+	private ServiceWarmUp() {
+	}
+
+	/**
+	 * Warm up a newly created service object in the background.
+	 *
+	 * @param readiness readiness of the application, reporting it as not ready until
+	 * the warm-up has finished
+	 */
+	static <S> void submit(final String serviceName, final AbstractServiceCreator<S, ?> serviceCreator,
+			final S service, final ServiceReadiness readiness) {
+		readiness.warmUpStarted();
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean successful = false;
+				try {
+					long start = System.currentTimeMillis();
+					serviceCreator.warmUp(service);
+					successful = true;
+					logger.info("Warmed up service " + serviceName + " in " + (System.currentTimeMillis() - start)
+							+ "ms");
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Failed to warm up service " + serviceName, e);
+				} finally {
+					readiness.warmUpFinished(successful);
+				}
+			}
+		});
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(THREADS, THREADS, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ServiceThreadFactory("cloud-service-warmup-",
+							Thread.currentThread().getContextClassLoader()));
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,36 @@
+package org.cloudfoundry.runtime.service;
+
+/**
+ * When pooled connections are validated.
+ * <p>
+ * Validating every borrowed connection adds a round trip to the database to each
+ * borrow, but never hands out a connection broken by a failover or a network
+ * timeout. The other strategies trade some of that safety for latency. Pools not
+ * supporting a strategy use the closest one they support, as documented by their
+ * {@link org.cloudfoundry.runtime.service.relational.PooledDataSourceProvider}.
+ * </p>
+ */
+public enum ValidationStrategy {
+
+	/**
+	 * Connections are not validated.
+	 */
+	NONE,
+
+	/**
+	 * Every connection is validated as it is borrowed. This is the default.
+	 */
+	ON_BORROW,
+
+	/**
+	 * Connections are validated as they are borrowed, unless they were validated
+	 * within the validation interval.
+	 */
+	ON_BORROW_IF_IDLE,
+
+	/**
+	 * Idle connections are validated in the background, once per validation interval,
+	 * and discarded if they fail.
+	 */
+	WHILE_IDLE
+}
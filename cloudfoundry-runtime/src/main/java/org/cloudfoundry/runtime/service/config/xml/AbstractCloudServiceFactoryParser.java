@@ -63,5 +63,13 @@ class AbstractCloudServiceFactoryParser extends AbstractSingleBeanDefinitionPars
 		if (StringUtils.hasText(serviceName)) {
 			builder.addPropertyValue("serviceName", serviceName);
 		}
+		String lazyInit = element.getAttribute("lazy-init");
+		if (StringUtils.hasText(lazyInit)) {
+			builder.addPropertyValue("lazyInit", lazyInit);
+		}
+		String warmUp = element.getAttribute("warm-up");
+		if (StringUtils.hasText(warmUp)) {
+			builder.addPropertyValue("warmUp", warmUp);
+		}
 	}
 }
@@ -1,7 +1,11 @@
 package org.cloudfoundry.runtime.service.config.xml;
 
 import org.cloudfoundry.runtime.env.AbstractServiceInfo;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.util.StringUtils;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
@@ -13,6 +17,28 @@ abstract class AbstractNestedElementCloudServiceFactoryParser extends AbstractCl
 		super(beanClass, serviceInfoClass);
 	}
 
+	protected BeanDefinition parseResilienceElement(Element element) {
+		BeanDefinitionBuilder cloudResilienceConfigurationBeanBuilder =
+				BeanDefinitionBuilder.genericBeanDefinition("org.cloudfoundry.runtime.service.CloudResilienceConfiguration");
+		String maxConcurrent = element.getAttribute("max-concurrent");
+		if (StringUtils.hasText(maxConcurrent)) {
+			cloudResilienceConfigurationBeanBuilder.addPropertyValue("maxConcurrent", maxConcurrent);
+		}
+		String failureThreshold = element.getAttribute("failure-threshold");
+		if (StringUtils.hasText(failureThreshold)) {
+			cloudResilienceConfigurationBeanBuilder.addPropertyValue("failureThreshold", failureThreshold);
+		}
+		String slowCallThreshold = element.getAttribute("slow-call-threshold");
+		if (StringUtils.hasText(slowCallThreshold)) {
+			cloudResilienceConfigurationBeanBuilder.addPropertyValue("slowCallThreshold", slowCallThreshold);
+		}
+		String retryInterval = element.getAttribute("retry-interval");
+		if (StringUtils.hasText(retryInterval)) {
+			cloudResilienceConfigurationBeanBuilder.addPropertyValue("retryInterval", retryInterval);
+		}
+		return cloudResilienceConfigurationBeanBuilder.getBeanDefinition();
+	}
+
 	protected boolean isElement(Node node, ParserContext parserContext, String elementName) {
 		return node.getNodeType() == Node.ELEMENT_NODE &&
 				elementName.equals(parserContext.getDelegate().getLocalName(node));
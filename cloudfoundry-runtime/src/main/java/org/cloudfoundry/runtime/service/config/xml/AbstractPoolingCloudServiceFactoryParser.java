@@ -1,5 +1,7 @@
 package org.cloudfoundry.runtime.service.config.xml;
 
+import java.util.Locale;
+
 import org.cloudfoundry.runtime.env.AbstractServiceInfo;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
@@ -27,6 +29,56 @@ abstract class AbstractPoolingCloudServiceFactoryParser extends AbstractNestedEl
 		if (StringUtils.hasText(maxWaitTime)) {
 			cloudPoolConfigurationBeanBuilder.addPropertyValue("maxWaitTime", maxWaitTime);
 		}
+		String connectionBudget = element.getAttribute("connection-budget");
+		if (StringUtils.hasText(connectionBudget)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("connectionBudget", connectionBudget);
+		}
+		String validation = element.getAttribute("validation");
+		if (StringUtils.hasText(validation)) {
+			// on-borrow-if-idle maps to ON_BORROW_IF_IDLE
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("validation",
+					validation.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		}
+		String validationInterval = element.getAttribute("validation-interval");
+		if (StringUtils.hasText(validationInterval)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("validationInterval", validationInterval);
+		}
+		String jdbc4Validation = element.getAttribute("jdbc4-validation");
+		if (StringUtils.hasText(jdbc4Validation)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("jdbc4Validation", jdbc4Validation);
+		}
+		String statementCache = element.getAttribute("statement-cache");
+		if (StringUtils.hasText(statementCache)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("statementCacheEnabled", statementCache);
+		}
+		String statementCacheSize = element.getAttribute("statement-cache-size");
+		if (StringUtils.hasText(statementCacheSize)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("statementCacheSize", statementCacheSize);
+		}
+		String leakDetectionThreshold = element.getAttribute("leak-detection-threshold");
+		if (StringUtils.hasText(leakDetectionThreshold)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("leakDetectionThreshold", leakDetectionThreshold);
+		}
+		String leakSampleRate = element.getAttribute("leak-sample-rate");
+		if (StringUtils.hasText(leakSampleRate)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("leakSampleRate", leakSampleRate);
+		}
+		String leakUtilizationThreshold = element.getAttribute("leak-utilization-threshold");
+		if (StringUtils.hasText(leakUtilizationThreshold)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("leakUtilizationThreshold", leakUtilizationThreshold);
+		}
+		String leakReclamation = element.getAttribute("reclaim-leaked-connections");
+		if (StringUtils.hasText(leakReclamation)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("leakReclamation", leakReclamation);
+		}
+		String adaptiveSizing = element.getAttribute("adaptive-sizing");
+		if (StringUtils.hasText(adaptiveSizing)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("adaptiveSizing", adaptiveSizing);
+		}
+		String adaptiveWaitThreshold = element.getAttribute("adaptive-wait-threshold");
+		if (StringUtils.hasText(adaptiveWaitThreshold)) {
+			cloudPoolConfigurationBeanBuilder.addPropertyValue("adaptiveWaitThreshold", adaptiveWaitThreshold);
+		}
 		return cloudPoolConfigurationBeanBuilder.getBeanDefinition();
 	}
 }
@@ -1,5 +1,10 @@
 package org.cloudfoundry.runtime.service.config.xml;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
 import org.cloudfoundry.runtime.env.AbstractServiceInfo;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
@@ -18,6 +23,8 @@ public class CloudDataSourceFactoryParser extends AbstractPoolingCloudServiceFac
 
 	private static final String ELEMENT_CONNECTION = "connection";
 	private static final String ELEMENT_POOL = "pool";
+	private static final String ELEMENT_RESILIENCE = "resilience";
+	private static final String ELEMENT_WARM_UP_STATEMENT = "warm-up-statement";
 
 	public CloudDataSourceFactoryParser(Class<?> beanClass, Class<? extends AbstractServiceInfo> serviceInfoClass) {
 		super(beanClass, serviceInfoClass);
@@ -28,6 +35,8 @@ public class CloudDataSourceFactoryParser extends AbstractPoolingCloudServiceFac
 		super.doParse(element, parserContext, builder);
 		BeanDefinition cloudConnectionConfiguration = null;
 		BeanDefinition cloudPoolConfiguration = null;
+		BeanDefinition cloudResilienceConfiguration = null;
+		List<String> warmUpStatements = new ArrayList<String>();
 		NodeList childNodes = element.getChildNodes();
 		for (int i = 0; i < childNodes.getLength(); i++) {
 			Node child = childNodes.item(i);
@@ -37,6 +46,12 @@ public class CloudDataSourceFactoryParser extends AbstractPoolingCloudServiceFac
 			else if (isElement(child, parserContext, ELEMENT_POOL)) {
 				cloudPoolConfiguration = parsePoolElement((Element) child, parserContext);
 			}
+			else if (isElement(child, parserContext, ELEMENT_RESILIENCE)) {
+				cloudResilienceConfiguration = parseResilienceElement((Element) child);
+			}
+			else if (isElement(child, parserContext, ELEMENT_WARM_UP_STATEMENT)) {
+				warmUpStatements.add(child.getTextContent().trim());
+			}
 		}
 		if (cloudConnectionConfiguration != null) {
 			builder.addPropertyValue("cloudConnectionConfiguration", cloudConnectionConfiguration);
@@ -44,6 +59,39 @@ public class CloudDataSourceFactoryParser extends AbstractPoolingCloudServiceFac
 		if (cloudPoolConfiguration != null) {
 			builder.addPropertyValue("cloudPoolConfiguration", cloudPoolConfiguration);
 		}
+		if (cloudResilienceConfiguration != null) {
+			builder.addPropertyValue("cloudResilienceConfiguration", cloudResilienceConfiguration);
+		}
+		if (!warmUpStatements.isEmpty()) {
+			builder.addPropertyValue("warmUpStatements", warmUpStatements);
+		}
+		String poolProvider = element.getAttribute("pool-provider");
+		if (StringUtils.hasText(poolProvider)) {
+			builder.addPropertyValue("poolProvider", poolProvider);
+		}
+		String performanceProfile = element.getAttribute("performance-profile");
+		if (StringUtils.hasText(performanceProfile)) {
+			builder.addPropertyValue("performanceProfile", performanceProfile);
+		}
+		String metrics = element.getAttribute("metrics");
+		if (StringUtils.hasText(metrics)) {
+			builder.addPropertyValue("metrics", metrics);
+		}
+		String replicaServiceNames = element.getAttribute("replica-service-names");
+		if (StringUtils.hasText(replicaServiceNames)) {
+			builder.addPropertyValue("replicaServiceNames",
+					Arrays.asList(StringUtils.commaDelimitedListToStringArray(StringUtils.trimAllWhitespace(replicaServiceNames))));
+		}
+		String failoverServiceNames = element.getAttribute("failover-service-names");
+		if (StringUtils.hasText(failoverServiceNames)) {
+			builder.addPropertyValue("failoverServiceNames",
+					Arrays.asList(StringUtils.commaDelimitedListToStringArray(StringUtils.trimAllWhitespace(failoverServiceNames))));
+		}
+		String replicaBalancing = element.getAttribute("replica-balancing");
+		if (StringUtils.hasText(replicaBalancing)) {
+			builder.addPropertyValue("replicaBalancing",
+					replicaBalancing.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		}
 	}
 
 	private BeanDefinition parseConnectionElement(Element element) {
@@ -53,6 +101,22 @@ public class CloudDataSourceFactoryParser extends AbstractPoolingCloudServiceFac
 		if (StringUtils.hasText(connectionProperties)) {
 			cloudConnectionConfigurationBeanBuilder.addPropertyValue("connectionProperties", connectionProperties);
 		}
+		String slowQueryThreshold = element.getAttribute("slow-query-threshold");
+		if (StringUtils.hasText(slowQueryThreshold)) {
+			cloudConnectionConfigurationBeanBuilder.addPropertyValue("slowQueryThreshold", slowQueryThreshold);
+		}
+		String slowQueryLogInterval = element.getAttribute("slow-query-log-interval");
+		if (StringUtils.hasText(slowQueryLogInterval)) {
+			cloudConnectionConfigurationBeanBuilder.addPropertyValue("slowQueryLogInterval", slowQueryLogInterval);
+		}
+		String failoverFailureThreshold = element.getAttribute("failover-failure-threshold");
+		if (StringUtils.hasText(failoverFailureThreshold)) {
+			cloudConnectionConfigurationBeanBuilder.addPropertyValue("failoverFailureThreshold", failoverFailureThreshold);
+		}
+		String failoverRetryInterval = element.getAttribute("failover-retry-interval");
+		if (StringUtils.hasText(failoverRetryInterval)) {
+			cloudConnectionConfigurationBeanBuilder.addPropertyValue("failoverRetryInterval", failoverRetryInterval);
+		}
 		return cloudConnectionConfigurationBeanBuilder.getBeanDefinition();
 	}
 }
@@ -17,6 +17,8 @@ public class CloudRedisConnectionFactoryParser extends AbstractPoolingCloudServi
 
 	private static final String ELEMENT_POOL = "pool";
 
+	private static final String ELEMENT_RESILIENCE = "resilience";
+
 	public CloudRedisConnectionFactoryParser(Class<?> beanClass, Class<? extends AbstractServiceInfo> serviceInfoClass) {
 		super(beanClass, serviceInfoClass);
 	}
@@ -25,15 +27,22 @@ public class CloudRedisConnectionFactoryParser extends AbstractPoolingCloudServi
 	protected void doParse(Element element, ParserContext parserContext, BeanDefinitionBuilder builder) {
 		super.doParse(element, parserContext, builder);
 		BeanDefinition cloudPoolConfiguration = null;
+		BeanDefinition cloudResilienceConfiguration = null;
 		NodeList childNodes = element.getChildNodes();
 		for (int i = 0; i < childNodes.getLength(); i++) {
 			Node child = childNodes.item(i);
 			if (isElement(child, parserContext, ELEMENT_POOL)) {
 				cloudPoolConfiguration = parsePoolElement((Element) child, parserContext);
 			}
+			else if (isElement(child, parserContext, ELEMENT_RESILIENCE)) {
+				cloudResilienceConfiguration = parseResilienceElement((Element) child);
+			}
 		}
 		if (cloudPoolConfiguration != null) {
 			builder.addPropertyValue("cloudPoolConfiguration", cloudPoolConfiguration);
 		}
+		if (cloudResilienceConfiguration != null) {
+			builder.addPropertyValue("cloudResilienceConfiguration", cloudResilienceConfiguration);
+		}
 	}
 }
@@ -73,7 +73,12 @@ public class MongoServiceCreator extends AbstractServiceCreator<MongoDbFactory,
 
 	private MongoOptions getMongoOptions() {
 		if (cloudMongoConfiguration == null) {
-			return null;
+			if (getPoolSizing() == null) {
+				return null;
+			}
+			MongoOptions mongoOptions = new MongoOptions();
+			mongoOptions.connectionsPerHost = getPoolSizing().getMaxConnections();
+			return mongoOptions;
 		}
 		MongoOptions mongoOptions = null;
 		BeanWrapper source = new BeanWrapperImpl(cloudMongoConfiguration);
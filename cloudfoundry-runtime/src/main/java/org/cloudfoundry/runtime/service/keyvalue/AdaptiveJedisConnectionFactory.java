@@ -0,0 +1,54 @@
+package org.cloudfoundry.runtime.service.keyvalue;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.cloudfoundry.runtime.service.AdaptivePoolSizer;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Jedis connection factory reporting the borrows from its pool to an
+ * {@link AdaptivePoolSizer}, which adjusts the maximum size of the pool.
+ */
+class AdaptiveJedisConnectionFactory extends JedisConnectionFactory {
+
+	private volatile AdaptivePoolSizer poolSizer;
+
+	private volatile GenericObjectPool internalPool;
+
+	AdaptivePoolSizer getPoolSizer() {
+		return poolSizer;
+	}
+
+	/**
+	 * Start reporting borrows; the pool exists once the properties are set.
+	 */
+	void setPoolSizer(AdaptivePoolSizer poolSizer) {
+		this.internalPool = RedisServiceCreator.getInternalPool(this);
+		this.poolSizer = poolSizer;
+	}
+
+	@Override
+	protected Jedis fetchJedisConnector() {
+		AdaptivePoolSizer poolSizer = this.poolSizer;
+		GenericObjectPool internalPool = this.internalPool;
+		if (poolSizer == null || internalPool == null) {
+			return super.fetchJedisConnector();
+		}
+		long start = System.nanoTime();
+		try {
+			return super.fetchJedisConnector();
+		} finally {
+			// also when the pool is exhausted, the clearest sign of a pool too small
+			poolSizer.recordBorrow(System.nanoTime() - start, internalPool.getNumActive());
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (poolSizer != null) {
+			poolSizer.destroy();
+		}
+		super.destroy();
+	}
+}
@@ -5,6 +5,7 @@ import org.cloudfoundry.runtime.env.RedisServiceInfo;
 import org.cloudfoundry.runtime.service.AbstractCloudServiceFactory;
 import org.cloudfoundry.runtime.service.AbstractServiceCreator;
 import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.CloudResilienceConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 
 /**
@@ -31,6 +32,10 @@ public class CloudRedisConnectionFactoryBean extends AbstractCloudServiceFactory
 		this.redisServiceCreator.setCloudPoolConfiguration(cloudPoolConfiguration);
 	}
 
+	public void setCloudResilienceConfiguration(CloudResilienceConfiguration cloudResilienceConfiguration) {
+		this.redisServiceCreator.setCloudResilienceConfiguration(cloudResilienceConfiguration);
+	}
+
 	@Override
 	public Class<?> getObjectType() {
 		return RedisConnectionFactory.class;
@@ -0,0 +1,81 @@
+package org.cloudfoundry.runtime.service.keyvalue;
+
+import org.cloudfoundry.runtime.service.CallRejectedException;
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceGuard;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+/**
+ * Redis connection factory admitting connections through a {@link ServiceGuard}.
+ * A connection is in flight until it is first closed; rejected connections fail at
+ * once with a {@link RedisConnectionFailureException}.
+ */
+class GuardedRedisConnectionFactory implements RedisConnectionFactory, DisposableBean {
+
+	private final RedisConnectionFactory targetConnectionFactory;
+
+	private final ServiceGuard guard;
+
+	/**
+	 * Ends the call when a connection is first closed.
+	 */
+	private final ServiceConnectionHandler.CloseCallback exitGuard = new ServiceConnectionHandler.CloseCallback() {
+		@Override
+		public void closed() {
+			guard.exit();
+		}
+	};
+
+	GuardedRedisConnectionFactory(RedisConnectionFactory targetConnectionFactory, ServiceGuard guard) {
+		this.targetConnectionFactory = targetConnectionFactory;
+		this.guard = guard;
+	}
+
+	RedisConnectionFactory getTargetConnectionFactory() {
+		return targetConnectionFactory;
+	}
+
+	ServiceGuard getGuard() {
+		return guard;
+	}
+
+	@Override
+	public RedisConnection getConnection() {
+		long start;
+		try {
+			start = guard.enter();
+		} catch (CallRejectedException e) {
+			throw new RedisConnectionFailureException(e.getMessage(), e);
+		}
+		RedisConnection connection;
+		try {
+			connection = targetConnectionFactory.getConnection();
+		} catch (RuntimeException e) {
+			guard.recordFailure();
+			guard.exit();
+			throw e;
+		}
+		guard.recordSuccess(start);
+		return ServiceConnectionHandler.proxy(RedisConnection.class, connection, exitGuard);
+	}
+
+	@Override
+	public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+		return targetConnectionFactory.translateExceptionIfPossible(ex);
+	}
+
+	/**
+	 * Destroy the target connection factory too, which owns the pool.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		guard.destroy();
+		if (targetConnectionFactory instanceof DisposableBean) {
+			((DisposableBean) targetConnectionFactory).destroy();
+		}
+	}
+}
@@ -1,14 +1,27 @@
 package org.cloudfoundry.runtime.service.keyvalue;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
 import org.cloudfoundry.runtime.env.CloudServiceException;
 import org.cloudfoundry.runtime.env.RedisServiceInfo;
 import org.cloudfoundry.runtime.service.AbstractServiceCreator;
+import org.cloudfoundry.runtime.service.AdaptivePoolSizer;
 import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.cloudfoundry.runtime.service.ServiceGuard;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.util.ReflectionUtils;
+
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Pool;
 
 /**
  * Simplified access to creating Redis service objects.
@@ -22,6 +35,8 @@ public class RedisServiceCreator extends AbstractServiceCreator<RedisConnectionF
 
 	private static final String REDIS_CLIENT_CLASS_NAME = "redis.clients.jedis.Jedis";
 
+	private static final Logger logger = Logger.getLogger(RedisServiceCreator.class.getName());
+
 	private CloudPoolConfiguration cloudPoolConfiguration;
 
 	public void setCloudPoolConfiguration(CloudPoolConfiguration cloudPoolConfiguration) {
@@ -30,22 +45,36 @@ public class RedisServiceCreator extends AbstractServiceCreator<RedisConnectionF
 
 	public RedisConnectionFactory createService(RedisServiceInfo serviceInfo) {
 		if (hasClass(REDIS_CLIENT_CLASS_NAME)) {
-			JedisConnectionFactory connectionFactory = new JedisConnectionFactory();
+			CloudPoolConfiguration poolConfiguration = getEffectivePoolConfiguration(cloudPoolConfiguration);
+			boolean adaptiveSizing = poolConfiguration != null && poolConfiguration.isAdaptiveSizing();
+			JedisConnectionFactory connectionFactory = adaptiveSizing ? new AdaptiveJedisConnectionFactory()
+					: new JedisConnectionFactory();
 			connectionFactory.setHostName(serviceInfo.getHost());
 			connectionFactory.setPort(serviceInfo.getPort());
 			connectionFactory.setPassword(serviceInfo.getPassword());
 			JedisPoolConfig poolConfig = null;
-			if (cloudPoolConfiguration != null) {
+			if (poolConfiguration != null) {
 				poolConfig = new JedisPoolConfig();
 				BeanWrapper target = new BeanWrapperImpl(poolConfig);
-				BeanWrapper source = new BeanWrapperImpl(cloudPoolConfiguration);
+				BeanWrapper source = new BeanWrapperImpl(poolConfiguration);
 				setCorrespondingProperties(target, source);
 			}
 			if (poolConfig != null) {
 				connectionFactory.setPoolConfig(poolConfig);
 			}
 			connectionFactory.afterPropertiesSet();
-			return connectionFactory;
+			try {
+				if (adaptiveSizing) {
+					startAdaptiveSizing((AdaptiveJedisConnectionFactory) connectionFactory,
+							serviceInfo.getServiceName(), poolConfiguration);
+				}
+				ServiceGuard guard = createServiceGuard(serviceInfo.getServiceName());
+				return guard == null ? connectionFactory : new GuardedRedisConnectionFactory(connectionFactory, guard);
+			} catch (RuntimeException e) {
+				// destroys the pool, and the pool sizer with it
+				ServiceDisposal.dispose(connectionFactory);
+				throw e;
+			}
 		} else {
 			throw new CloudServiceException("Failed to created cloud Redis connection factory for "
 					+ serviceInfo.getServiceName() + " service.  Jedis client implementation class ("
@@ -53,4 +82,106 @@ public class RedisServiceCreator extends AbstractServiceCreator<RedisConnectionF
 		}
 	}
 
+	/**
+	 * Adjust the maximum size of the pool of a connection factory within the pool
+	 * size range.
+	 */
+	private void startAdaptiveSizing(AdaptiveJedisConnectionFactory connectionFactory, String serviceName,
+			CloudPoolConfiguration poolConfiguration) {
+		final GenericObjectPool internalPool = getInternalPool(connectionFactory);
+		if (internalPool == null) {
+			return;
+		}
+		final int maxIdle = internalPool.getMaxIdle();
+		int upperLimit = poolConfiguration.getMaxActive() != null ? poolConfiguration.getMaxActive()
+				: internalPool.getMaxActive();
+		int lowerLimit = poolConfiguration.getMinIdle() != null ? poolConfiguration.getMinIdle() : 1;
+		AdaptivePoolSizer poolSizer = new AdaptivePoolSizer(serviceName, lowerLimit, upperLimit,
+				poolConfiguration.getAdaptiveWaitThreshold(), new AdaptivePoolSizer.PoolLimit() {
+					@Override
+					public void setMaxActive(int maxActive) {
+						internalPool.setMaxActive(maxActive);
+						// otherwise the connections above the maximum stay open once returned
+						internalPool.setMaxIdle(maxIdle < 0 ? maxActive : Math.min(maxIdle, maxActive));
+					}
+				});
+		// set first, so that destroying the connection factory destroys the pool sizer
+		connectionFactory.setPoolSizer(poolSizer);
+		poolSizer.registerMBean();
+		poolSizer.start();
+	}
+
+	/**
+	 * Apply the pool sizes to the pool of a Jedis connection factory, which does not
+	 * expose it otherwise.
+	 */
+	@Override
+	protected void resize(RedisConnectionFactory connectionFactory) {
+		connectionFactory = getTargetConnectionFactory(connectionFactory);
+		CloudPoolConfiguration poolConfiguration = getEffectivePoolConfiguration(cloudPoolConfiguration);
+		if (poolConfiguration == null || !(connectionFactory instanceof JedisConnectionFactory)) {
+			return;
+		}
+		if (connectionFactory instanceof AdaptiveJedisConnectionFactory
+				&& ((AdaptiveJedisConnectionFactory) connectionFactory).getPoolSizer() != null
+				&& poolConfiguration.getMaxActive() != null) {
+			// keeps the adjusted maximum within the new range
+			((AdaptiveJedisConnectionFactory) connectionFactory).getPoolSizer().setLimits(
+					poolConfiguration.getMinIdle() != null ? poolConfiguration.getMinIdle() : 1,
+					poolConfiguration.getMaxActive());
+			return;
+		}
+		GenericObjectPool internalPool = getInternalPool((JedisConnectionFactory) connectionFactory);
+		if (internalPool != null) {
+			setCorrespondingProperties(new BeanWrapperImpl(internalPool), new BeanWrapperImpl(poolConfiguration));
+		}
+	}
+
+	private static RedisConnectionFactory getTargetConnectionFactory(RedisConnectionFactory connectionFactory) {
+		if (connectionFactory instanceof GuardedRedisConnectionFactory) {
+			return ((GuardedRedisConnectionFactory) connectionFactory).getTargetConnectionFactory();
+		}
+		return connectionFactory;
+	}
+
+	/**
+	 * @return the pool of a connection factory, or null if it does not use one or the
+	 * Jedis version in use keeps it elsewhere
+	 */
+	static GenericObjectPool getInternalPool(JedisConnectionFactory connectionFactory) {
+		Field poolField = ReflectionUtils.findField(JedisConnectionFactory.class, "pool");
+		Field internalPoolField = ReflectionUtils.findField(Pool.class, "internalPool");
+		if (poolField == null || internalPoolField == null) {
+			logger.warning("Cannot find the pool of the Redis connection factory " + connectionFactory
+					+ ": the pool sizes of the Jedis version in use are not adjusted");
+			return null;
+		}
+		ReflectionUtils.makeAccessible(poolField);
+		ReflectionUtils.makeAccessible(internalPoolField);
+		Object pool = ReflectionUtils.getField(poolField, connectionFactory);
+		return pool == null ? null : (GenericObjectPool) ReflectionUtils.getField(internalPoolField, pool);
+	}
+
+	@Override
+	protected void warmUp(RedisConnectionFactory connectionFactory) {
+		connectionFactory = getTargetConnectionFactory(connectionFactory);
+		int connectionCount = 1;
+		if (connectionFactory instanceof JedisConnectionFactory
+				&& ((JedisConnectionFactory) connectionFactory).getUsePool()) {
+			JedisPoolConfig poolConfig = ((JedisConnectionFactory) connectionFactory).getPoolConfig();
+			connectionCount = getWarmUpConnections(poolConfig.getMinIdle(), poolConfig.getMaxActive());
+		}
+		List<RedisConnection> connections = new ArrayList<RedisConnection>(connectionCount);
+		try {
+			for (int i = 0; i < connectionCount; i++) {
+				RedisConnection connection = connectionFactory.getConnection();
+				connections.add(connection);
+				connection.ping();
+			}
+		} finally {
+			for (RedisConnection connection : connections) {
+				connection.close();
+			}
+		}
+	}
 }
@@ -1,10 +1,17 @@
 package org.cloudfoundry.runtime.service.messaging;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.cloudfoundry.runtime.env.RabbitServiceInfo;
 import org.cloudfoundry.runtime.service.AbstractServiceCreator;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.Connection;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 
+import com.rabbitmq.client.Channel;
+
 /**
  * Simplified access to creating RabbitMQ service objects.
  *
@@ -30,7 +37,37 @@ public class RabbitServiceCreator
 		connectionFactory.setPassword(serviceInfo.getPassword());
 		if (cloudRabbitConfiguration != null) {
 			connectionFactory.setChannelCacheSize(cloudRabbitConfiguration.getChannelCacheSize());
+		} else if (getPoolSizing() != null) {
+			connectionFactory.setChannelCacheSize(getPoolSizing().getMaxConnections());
 		}
 		return connectionFactory;
 	}
+
+	/**
+	 * Open the connection and as many channels as are cached, then return the
+	 * channels to the cache.
+	 */
+	@Override
+	protected void warmUp(ConnectionFactory connectionFactory) {
+		int channelCount = 1;
+		if (connectionFactory instanceof CachingConnectionFactory) {
+			channelCount = Math.max(1, ((CachingConnectionFactory) connectionFactory).getChannelCacheSize());
+		}
+		Connection connection = connectionFactory.createConnection();
+		List<Channel> channels = new ArrayList<Channel>(channelCount);
+		try {
+			for (int i = 0; i < channelCount; i++) {
+				channels.add(connection.createChannel(false));
+			}
+		} finally {
+			for (Channel channel : channels) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// the cache discards it
+				}
+			}
+			connection.close();
+		}
+	}
 }
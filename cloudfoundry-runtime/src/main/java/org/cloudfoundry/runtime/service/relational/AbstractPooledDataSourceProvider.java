@@ -0,0 +1,73 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+
+/**
+ * Base class of the providers for a pool implemented by a single data source
+ * class. The class is only loaded if it is on the classpath, so the provider may be
+ * instantiated without it.
+ *
+ * @param <D> data source type of the pool
+ */
+abstract class AbstractPooledDataSourceProvider<D extends DataSource> implements PooledDataSourceProvider {
+
+	private static final CloudPoolConfiguration DEFAULT_POOL_CONFIGURATION = new CloudPoolConfiguration();
+
+	private final String name;
+
+	private final String dataSourceClassName;
+
+	private volatile Class<?> dataSourceClass;
+
+	private volatile boolean availabilityChecked;
+
+	AbstractPooledDataSourceProvider(String name, String dataSourceClassName) {
+		this.name = name;
+		this.dataSourceClassName = dataSourceClassName;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		if (!availabilityChecked) {
+			try {
+				dataSourceClass = Class.forName(dataSourceClassName);
+			} catch (Throwable ex) {
+				dataSourceClass = null;
+			}
+			availabilityChecked = true;
+		}
+		return dataSourceClass != null;
+	}
+
+	@Override
+	public boolean isProvided(DataSource dataSource) {
+		return isAvailable() && dataSourceClass.isInstance(dataSource);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void applyPoolConfiguration(DataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		if (poolConfiguration != null) {
+			configurePool((D) dataSource, poolConfiguration);
+		}
+	}
+
+	/**
+	 * Map the pool configuration onto the properties of the pool.
+	 */
+	protected abstract void configurePool(D dataSource, CloudPoolConfiguration poolConfiguration);
+
+	/**
+	 * @return the pool configuration, or one holding the defaults if it is null
+	 */
+	protected static CloudPoolConfiguration orDefaults(CloudPoolConfiguration poolConfiguration) {
+		return poolConfiguration != null ? poolConfiguration : DEFAULT_POOL_CONFIGURATION;
+	}
+}
@@ -0,0 +1,81 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.AdaptivePoolSizer;
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Data source reporting the borrows from the pool it wraps to an
+ * {@link AdaptivePoolSizer}, which adjusts the maximum size of the pool. Destroying
+ * it also destroys the pool sizer and disposes of the target data source.
+ */
+public class AdaptiveSizingDataSource extends DelegatingDataSource implements DisposableBean {
+
+	private final AdaptivePoolSizer poolSizer;
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	/**
+	 * Releases the active count when a connection is first closed.
+	 */
+	private final ServiceConnectionHandler.CloseCallback releaseActive = new ServiceConnectionHandler.CloseCallback() {
+		@Override
+		public void closed() {
+			active.decrementAndGet();
+		}
+	};
+
+	public AdaptiveSizingDataSource(DataSource targetDataSource, AdaptivePoolSizer poolSizer) {
+		super(targetDataSource);
+		this.poolSizer = poolSizer;
+	}
+
+	public AdaptivePoolSizer getPoolSizer() {
+		return poolSizer;
+	}
+
+	@Override
+	public void destroy() {
+		poolSizer.destroy();
+		ServiceDisposal.dispose(getTargetDataSource());
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return borrow(null, null);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return borrow(username, password);
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private Connection borrow(String username, String password) throws SQLException {
+		long start = System.nanoTime();
+		Connection connection;
+		try {
+			connection = username == null && password == null ? getTargetDataSource().getConnection()
+					: getTargetDataSource().getConnection(username, password);
+		} catch (SQLException e) {
+			// a borrow timing out is the clearest sign of a pool too small
+			poolSizer.recordBorrow(System.nanoTime() - start, active.get());
+			throw e;
+		}
+		poolSizer.recordBorrow(System.nanoTime() - start, active.incrementAndGet());
+		return ServiceConnectionHandler.proxy(Connection.class, connection, releaseActive);
+	}
+}
@@ -1,5 +1,10 @@
 package org.cloudfoundry.runtime.service.relational;
 
+import java.util.Map;
+import java.util.Properties;
+
+import org.springframework.util.StringUtils;
+
 /**
  * Class to hold configuration values for a Connection
  *
@@ -7,8 +12,22 @@ package org.cloudfoundry.runtime.service.relational;
  */
 public class CloudConnectionConfiguration {
 
+	public static final long DEFAULT_SLOW_QUERY_LOG_INTERVAL = 1000;
+
+	public static final int DEFAULT_FAILOVER_FAILURE_THRESHOLD = 3;
+
+	public static final long DEFAULT_FAILOVER_RETRY_INTERVAL = 10000;
+
 	private String connectionProperties = null;
 
+	private Long slowQueryThreshold = null;
+
+	private long slowQueryLogInterval = DEFAULT_SLOW_QUERY_LOG_INTERVAL;
+
+	private int failoverFailureThreshold = DEFAULT_FAILOVER_FAILURE_THRESHOLD;
+
+	private long failoverRetryInterval = DEFAULT_FAILOVER_RETRY_INTERVAL;
+
 	public String getConnectionProperties() {
 		return connectionProperties;
 	}
@@ -16,4 +35,96 @@ public class CloudConnectionConfiguration {
 	public void setConnectionProperties(String connectionProperties) {
 		this.connectionProperties = connectionProperties;
 	}
+
+	public Long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	/**
+	 * Time statements executed on the connections, logging those taking longer than
+	 * this many milliseconds (see {@link StatementTimingDataSource}). Statements are
+	 * not timed if not set.
+	 *
+	 * @param slowQueryThreshold
+	 */
+	public void setSlowQueryThreshold(Long slowQueryThreshold) {
+		this.slowQueryThreshold = slowQueryThreshold;
+	}
+
+	public long getSlowQueryLogInterval() {
+		return slowQueryLogInterval;
+	}
+
+	/**
+	 * Minimum milliseconds between two slow statements logged; slow statements in
+	 * between are only counted. Defaults to 1000.
+	 *
+	 * @param slowQueryLogInterval
+	 */
+	public void setSlowQueryLogInterval(long slowQueryLogInterval) {
+		this.slowQueryLogInterval = slowQueryLogInterval;
+	}
+
+	public int getFailoverFailureThreshold() {
+		return failoverFailureThreshold;
+	}
+
+	/**
+	 * Number of consecutive connection failures after which a host of a service
+	 * listing several is taken out of use (see {@link FailoverDataSource}). Defaults
+	 * to 3.
+	 *
+	 * @param failoverFailureThreshold
+	 */
+	public void setFailoverFailureThreshold(int failoverFailureThreshold) {
+		this.failoverFailureThreshold = failoverFailureThreshold;
+	}
+
+	public long getFailoverRetryInterval() {
+		return failoverRetryInterval;
+	}
+
+	/**
+	 * Milliseconds after which a host taken out of use is tried again. Defaults to
+	 * 10000.
+	 *
+	 * @param failoverRetryInterval
+	 */
+	public void setFailoverRetryInterval(long failoverRetryInterval) {
+		this.failoverRetryInterval = failoverRetryInterval;
+	}
+
+	/**
+	 * Parse connection properties in the DBCP format, <code>name=value</code> pairs
+	 * separated by semicolons.
+	 */
+	public static Properties parseConnectionProperties(String connectionProperties) {
+		Properties properties = new Properties();
+		if (connectionProperties == null) {
+			return properties;
+		}
+		for (String entry : StringUtils.tokenizeToStringArray(connectionProperties, ";")) {
+			int separator = entry.indexOf('=');
+			if (separator > 0) {
+				properties.setProperty(entry.substring(0, separator), entry.substring(separator + 1));
+			} else if (separator < 0) {
+				properties.setProperty(entry, "");
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Format connection properties in the DBCP format.
+	 */
+	public static String formatConnectionProperties(Properties properties) {
+		StringBuilder connectionProperties = new StringBuilder();
+		for (Map.Entry<Object, Object> property : properties.entrySet()) {
+			if (connectionProperties.length() > 0) {
+				connectionProperties.append(';');
+			}
+			connectionProperties.append(property.getKey()).append('=').append(property.getValue());
+		}
+		return connectionProperties.toString();
+	}
 }
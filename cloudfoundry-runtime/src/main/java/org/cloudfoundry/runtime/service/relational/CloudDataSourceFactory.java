@@ -1,12 +1,19 @@
 package org.cloudfoundry.runtime.service.relational;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.sql.DataSource;
 
 import org.cloudfoundry.runtime.env.CloudEnvironment;
+import org.cloudfoundry.runtime.env.CloudServiceException;
 import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
 import org.cloudfoundry.runtime.service.AbstractCloudServiceFactory;
 import org.cloudfoundry.runtime.service.AbstractServiceCreator;
 import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.CloudResilienceConfiguration;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 
 /**
  * Spring factory bean for datasource service.
@@ -19,6 +26,12 @@ public class CloudDataSourceFactory extends AbstractCloudServiceFactory<DataSour
 
 	private RdbmsServiceCreator rdbmsServiceCreator;
 
+	private List<String> failoverServiceNames = new ArrayList<String>();
+
+	private List<String> replicaServiceNames = new ArrayList<String>();
+
+	private ReplicaBalancing replicaBalancing = ReplicaBalancing.ROUND_ROBIN;
+
 	public CloudDataSourceFactory(CloudEnvironment cloudEnvironment) {
 		super(RdbmsServiceInfo.class, cloudEnvironment);
 		this.rdbmsServiceCreator = new RdbmsServiceCreator();
@@ -36,6 +49,138 @@ public class CloudDataSourceFactory extends AbstractCloudServiceFactory<DataSour
 		this.rdbmsServiceCreator.setCloudPoolConfiguration(cloudPoolConfiguration);
 	}
 
+	public void setCloudResilienceConfiguration(CloudResilienceConfiguration cloudResilienceConfiguration) {
+		this.rdbmsServiceCreator.setCloudResilienceConfiguration(cloudResilienceConfiguration);
+	}
+
+	public void setWarmUpStatements(List<String> warmUpStatements) {
+		this.rdbmsServiceCreator.setWarmUpStatements(warmUpStatements);
+	}
+
+	public void setPoolProvider(String poolProvider) {
+		this.rdbmsServiceCreator.setPoolProvider(poolProvider);
+	}
+
+	public void setPerformanceProfile(boolean performanceProfile) {
+		this.rdbmsServiceCreator.setPerformanceProfile(performanceProfile);
+	}
+
+	public void setMetrics(boolean metrics) {
+		this.rdbmsServiceCreator.setMetrics(metrics);
+	}
+
+	/**
+	 * Optional names of services whose hosts the primary data source fails over to,
+	 * in order, after the hosts of the service named by the service name property
+	 * (see {@link FailoverDataSource}). Services listing several hosts fail over
+	 * across them without this. A failover data source is created at once and is not
+	 * rebound or warmed up.
+	 *
+	 * @param failoverServiceNames
+	 */
+	public void setFailoverServiceNames(List<String> failoverServiceNames) {
+		this.failoverServiceNames = failoverServiceNames;
+	}
+
+	/**
+	 * Optional names of services replicating the one named by the service name
+	 * property. If set, read-only transactions are sent to the replicas (see
+	 * {@link ReadWriteRoutingDataSource}). The replicas are created along with the
+	 * primary data source and are not rebound or warmed up.
+	 *
+	 * @param replicaServiceNames
+	 */
+	public void setReplicaServiceNames(List<String> replicaServiceNames) {
+		this.replicaServiceNames = replicaServiceNames;
+	}
+
+	/**
+	 * How read-only transactions are spread across the replicas. Defaults to
+	 * {@link ReplicaBalancing#ROUND_ROBIN}.
+	 *
+	 * @param replicaBalancing
+	 */
+	public void setReplicaBalancing(ReplicaBalancing replicaBalancing) {
+		this.replicaBalancing = replicaBalancing;
+	}
+
+	@Override
+	protected DataSource createInstance() throws Exception {
+		if (replicaServiceNames.isEmpty()) {
+			return createPrimaryInstance();
+		}
+		if (serviceName == null) {
+			throw new CloudServiceException("A primary service name is required with replica services "
+					+ replicaServiceNames);
+		}
+		DataSource primary = createPrimaryInstance();
+		if (primary == null) {
+			return null;
+		}
+		List<DataSource> replicas = new ArrayList<DataSource>();
+		try {
+			for (String replicaServiceName : replicaServiceNames) {
+				RdbmsServiceInfo replicaServiceInfo =
+						getCloudEnvironment().getServiceInfo(replicaServiceName, RdbmsServiceInfo.class);
+				if (replicaServiceInfo == null) {
+					throw new CloudServiceException("No replica service bound to name " + replicaServiceName);
+				}
+				replicas.add(rdbmsServiceCreator.createService(replicaServiceInfo));
+			}
+			return ReadWriteRoutingDataSource.createProxy(primary, replicas, replicaBalancing);
+		} catch (Exception e) {
+			// the container does not destroy an instance it failed to create
+			for (DataSource replica : replicas) {
+				ServiceDisposal.dispose(replica);
+			}
+			super.destroyInstance(primary);
+			throw e;
+		}
+	}
+
+	private DataSource createPrimaryInstance() throws Exception {
+		if (failoverServiceNames.isEmpty()) {
+			return super.createInstance();
+		}
+		if (serviceName == null) {
+			throw new CloudServiceException("A primary service name is required with failover services "
+					+ failoverServiceNames);
+		}
+		RdbmsServiceInfo serviceInfo = getCloudEnvironment().getServiceInfo(serviceName, RdbmsServiceInfo.class);
+		if (serviceInfo == null) {
+			return null;
+		}
+		List<RdbmsServiceInfo> serviceInfos = new ArrayList<RdbmsServiceInfo>();
+		serviceInfos.add(serviceInfo);
+		for (String failoverServiceName : failoverServiceNames) {
+			RdbmsServiceInfo failoverServiceInfo =
+					getCloudEnvironment().getServiceInfo(failoverServiceName, RdbmsServiceInfo.class);
+			if (failoverServiceInfo == null) {
+				throw new CloudServiceException("No failover service bound to name " + failoverServiceName);
+			}
+			serviceInfos.add(failoverServiceInfo);
+		}
+		prepareServiceCreator();
+		return rdbmsServiceCreator.createFailoverService(serviceInfos);
+	}
+
+	/**
+	 * Dispose of the replicas along with the primary data source.
+	 */
+	@Override
+	protected void destroyInstance(DataSource instance) throws Exception {
+		if (instance instanceof LazyConnectionDataSourceProxy && ((LazyConnectionDataSourceProxy) instance)
+				.getTargetDataSource() instanceof ReadWriteRoutingDataSource) {
+			ReadWriteRoutingDataSource routingDataSource =
+					(ReadWriteRoutingDataSource) ((LazyConnectionDataSourceProxy) instance).getTargetDataSource();
+			for (DataSource replica : routingDataSource.getReplicas()) {
+				ServiceDisposal.dispose(replica);
+			}
+			instance = routingDataSource.getPrimary();
+		}
+		super.destroyInstance(instance);
+	}
+
 	@Override
 	public Class<? extends DataSource> getObjectType() {
 		return DataSource.class;
@@ -0,0 +1,90 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ValidationStrategy;
+
+/**
+ * Provider of Commons DBCP data sources.
+ * <p>
+ * DBCP cannot skip validating connections validated recently, so
+ * {@link ValidationStrategy#ON_BORROW_IF_IDLE} validates idle connections in the
+ * background, as {@link ValidationStrategy#WHILE_IDLE} does. Connections are always
+ * validated with the validation query, as DBCP predates JDBC 4.
+ * </p>
+ */
+class CommonsDbcpDataSourceProvider extends AbstractPooledDataSourceProvider<BasicDataSource> {
+
+	CommonsDbcpDataSourceProvider() {
+		super("commons-dbcp", "org.apache.commons.dbcp.BasicDataSource");
+	}
+
+	@Override
+	public DataSource createDataSource(AbstractDataSourceServiceInfo serviceInfo, String driverClassName,
+			String validationQuery, CloudConnectionConfiguration connectionConfiguration,
+			CloudPoolConfiguration poolConfiguration) {
+		BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setDriverClassName(driverClassName);
+		dataSource.setUrl(serviceInfo.getUrl());
+		dataSource.setUsername(serviceInfo.getUserName());
+		dataSource.setPassword(serviceInfo.getPassword());
+		configureValidation(dataSource, validationQuery, orDefaults(poolConfiguration));
+		if (orDefaults(poolConfiguration).isStatementCacheEnabled()) {
+			dataSource.setPoolPreparedStatements(true);
+			dataSource.setMaxOpenPreparedStatements(poolConfiguration.getStatementCacheSize());
+		}
+		if (connectionConfiguration != null && connectionConfiguration.getConnectionProperties() != null) {
+			dataSource.setConnectionProperties(connectionConfiguration.getConnectionProperties());
+		}
+		applyPoolConfiguration(dataSource, poolConfiguration);
+		return dataSource;
+	}
+
+	private void configureValidation(BasicDataSource dataSource, String validationQuery,
+			CloudPoolConfiguration poolConfiguration) {
+		ValidationStrategy validation = poolConfiguration.getValidation();
+		if (validationQuery == null || validation == ValidationStrategy.NONE) {
+			return;
+		}
+		dataSource.setValidationQuery(validationQuery);
+		if (validation == ValidationStrategy.ON_BORROW) {
+			dataSource.setTestOnBorrow(true);
+		} else {
+			// DBCP tests on borrow by default
+			dataSource.setTestOnBorrow(false);
+			dataSource.setTestWhileIdle(true);
+			dataSource.setTimeBetweenEvictionRunsMillis(poolConfiguration.getValidationInterval());
+			// test all idle connections in each run
+			dataSource.setNumTestsPerEvictionRun(-1);
+		}
+	}
+
+	@Override
+	protected void configurePool(BasicDataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		if (poolConfiguration.getInitialSize() != null) {
+			dataSource.setInitialSize(poolConfiguration.getInitialSize());
+		}
+		if (poolConfiguration.getMinIdle() != null) {
+			dataSource.setMinIdle(poolConfiguration.getMinIdle());
+		}
+		if (poolConfiguration.getMaxActive() != null) {
+			dataSource.setMaxActive(poolConfiguration.getMaxActive());
+		}
+		if (poolConfiguration.getMaxWait() != null) {
+			dataSource.setMaxWait(poolConfiguration.getMaxWait());
+		}
+	}
+
+	@Override
+	public int getMaxActive(DataSource dataSource) {
+		return ((BasicDataSource) dataSource).getMaxActive();
+	}
+
+	@Override
+	public int getMinIdle(DataSource dataSource) {
+		return ((BasicDataSource) dataSource).getMinIdle();
+	}
+}
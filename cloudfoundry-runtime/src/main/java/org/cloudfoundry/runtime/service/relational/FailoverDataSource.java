@@ -0,0 +1,383 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.CircuitBreaker;
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Data source failing over across the hosts of a replicated database, each with
+ * its own pool.
+ * <p>
+ * Connections are opened to the current host. A connection failure, whether
+ * opening a connection or using one, counts against the circuit breaker of the
+ * host: an SQL state of class 08, or a socket error, anywhere in the chain of
+ * causes. After the configured number of consecutive failures, the breaker opens:
+ * the pool of the host is closed, dropping all its idle connections at once rather
+ * than letting them fail validation one by one, and connections are opened to the
+ * next host whose breaker is closed, which becomes the current host. Failing over
+ * therefore takes at most that number of connect timeouts, so drivers should be
+ * given a connect timeout through the connection properties.
+ * </p>
+ * <p>
+ * While a breaker is open, its host is skipped without waiting on it; if all are
+ * open, borrowers fail at once instead of piling up. After the retry interval, one
+ * borrower tries the host again, closing its breaker if it succeeds. Connections
+ * do not move back to a host that recovered unless the current one fails, which
+ * keeps them on the new primary after a managed database failed over.
+ * </p>
+ */
+public class FailoverDataSource extends AbstractDataSource implements FailoverDataSourceMBean, DisposableBean {
+
+	public static final String MBEAN_TYPE = "Failover";
+
+	private static final int MAX_CAUSE_DEPTH = 10;
+
+	private static final Logger logger = Logger.getLogger(FailoverDataSource.class.getName());
+
+	/**
+	 * Creates the pool of a host.
+	 */
+	public interface PoolFactory {
+
+		/**
+		 * @return a pool that does not open connections before it is first used
+		 */
+		DataSource createPool(int hostIndex);
+	}
+
+	private final String serviceName;
+
+	private final List<String> hosts;
+
+	private final PoolFactory poolFactory;
+
+	private final CircuitBreaker[] breakers;
+
+	private final AtomicReferenceArray<DataSource> pools;
+
+	private final AtomicInteger current = new AtomicInteger();
+
+	private final AtomicLong failoverCount = new AtomicLong();
+
+	private ObjectName objectName;
+
+	/**
+	 * Create the pool of the first host; the pools of the others are created when
+	 * they are first used.
+	 *
+	 * @param hosts names of the hosts, in order of preference
+	 * @param failureThreshold number of consecutive connection failures after which
+	 *        a host is taken out of use
+	 * @param retryInterval milliseconds after which a host taken out of use is
+	 *        tried again
+	 */
+	public FailoverDataSource(String serviceName, List<String> hosts, PoolFactory poolFactory,
+			int failureThreshold, long retryInterval) {
+		this.serviceName = serviceName;
+		this.hosts = new ArrayList<String>(hosts);
+		this.poolFactory = poolFactory;
+		this.breakers = new CircuitBreaker[hosts.size()];
+		for (int i = 0; i < breakers.length; i++) {
+			breakers[i] = new CircuitBreaker(failureThreshold, retryInterval);
+		}
+		this.pools = new AtomicReferenceArray<DataSource>(hosts.size());
+		pools.set(0, poolFactory.createPool(0));
+	}
+
+	/**
+	 * Register the failover state on the platform MBean server, replacing an MBean
+	 * registered for the same service.
+	 */
+	public synchronized void registerMBean() {
+		objectName = ServiceMBeans.register(MBEAN_TYPE, serviceName, this);
+	}
+
+	/**
+	 * Close the pools of all hosts.
+	 */
+	@Override
+	public synchronized void destroy() {
+		for (int i = 0; i < pools.length(); i++) {
+			evict(i);
+		}
+		ServiceMBeans.unregister(objectName, this);
+		objectName = null;
+	}
+
+	/**
+	 * @return the pools created so far, one per host used
+	 */
+	public List<DataSource> getPools() {
+		List<DataSource> created = new ArrayList<DataSource>();
+		for (int i = 0; i < pools.length(); i++) {
+			DataSource pool = pools.get(i);
+			if (pool != null) {
+				created.add(pool);
+			}
+		}
+		return created;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return borrow(null, null);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return borrow(username, password);
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private Connection borrow(String username, String password) throws SQLException {
+		SQLException failure = null;
+		int first = current.get();
+		for (int i = 0; i < hosts.size(); i++) {
+			int index = (first + i) % hosts.size();
+			if (!breakers[index].tryAcquire()) {
+				continue;
+			}
+			Connection connection;
+			try {
+				DataSource pool = getPool(index);
+				connection = username == null && password == null ? pool.getConnection()
+						: pool.getConnection(username, password);
+			} catch (SQLException e) {
+				if (!isConnectionFailure(e)) {
+					// the host answered
+					breakers[index].recordSuccess();
+					throw e;
+				}
+				if (!hostFailed(index, e)) {
+					throw e;
+				}
+				failure = e;
+				continue;
+			}
+			breakers[index].recordSuccess();
+			use(index);
+			return (Connection) new FailureDetectingConnectionHandler(connection, index).createProxy(Connection.class);
+		}
+		throw new SQLException("No host of the " + serviceName + " service is available: " + hosts, "08001", failure);
+	}
+
+	private DataSource getPool(int index) throws SQLException {
+		DataSource pool = pools.get(index);
+		while (pool == null) {
+			DataSource created;
+			try {
+				created = poolFactory.createPool(index);
+			} catch (RuntimeException e) {
+				throw new SQLException("Failed to create the pool of " + serviceName + " for host " + hosts.get(index),
+						e);
+			}
+			if (pools.compareAndSet(index, null, created)) {
+				pool = created;
+			} else {
+				close(created);
+				pool = pools.get(index);
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * @return true if the host is out of use
+	 */
+	private boolean hostFailed(int index, Throwable failure) {
+		if (breakers[index].recordFailure()) {
+			logger.warning("Host " + hosts.get(index) + " of " + serviceName + " taken out of use after: " + failure);
+			evict(index);
+			return true;
+		}
+		return breakers[index].getState() != CircuitBreaker.State.CLOSED;
+	}
+
+	private void use(int index) {
+		int previous = current.get();
+		if (previous != index && current.compareAndSet(previous, index)) {
+			failoverCount.incrementAndGet();
+			logger.warning("Connections of " + serviceName + " failed over from host " + hosts.get(previous)
+					+ " to host " + hosts.get(index));
+		}
+	}
+
+	private void evict(int index) {
+		DataSource pool = pools.getAndSet(index, null);
+		if (pool != null) {
+			close(pool);
+		}
+	}
+
+	/**
+	 * Close a pool through its <code>close</code> method, which all the provided
+	 * pools have; connections still borrowed are closed as they are returned.
+	 */
+	private void close(DataSource pool) {
+		try {
+			if (pool instanceof DisposableBean) {
+				((DisposableBean) pool).destroy();
+			} else {
+				Method close = ReflectionUtils.findMethod(pool.getClass(), "close");
+				if (close != null) {
+					close.invoke(pool);
+				}
+			}
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Failed to close a pool of " + serviceName, e);
+		}
+	}
+
+	/**
+	 * @return true if the failure, or one of its causes, shows the host could not be
+	 * reached
+	 */
+	static boolean isConnectionFailure(Throwable failure) {
+		for (int depth = 0; failure != null && depth < MAX_CAUSE_DEPTH; depth++) {
+			if (failure instanceof SQLNonTransientConnectionException
+					|| failure instanceof SQLTransientConnectionException
+					|| failure instanceof SocketException || failure instanceof UnknownHostException
+					|| failure instanceof InterruptedIOException) {
+				return true;
+			}
+			Throwable cause = failure.getCause();
+			if (failure instanceof SQLException) {
+				String sqlState = ((SQLException) failure).getSQLState();
+				if (sqlState != null && sqlState.startsWith("08")) {
+					return true;
+				}
+				if (cause == null) {
+					cause = ((SQLException) failure).getNextException();
+				}
+			}
+			failure = cause;
+		}
+		return false;
+	}
+
+	/**
+	 * Count a failure of a method of a connection or statement against the host,
+	 * if it is a connection failure, unless the method closes the object.
+	 */
+	private void methodFailed(int index, Method method, SQLException failure) {
+		if (!method.getName().equals("close") && isConnectionFailure(failure)) {
+			hostFailed(index, failure);
+		}
+	}
+
+	@Override
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	@Override
+	public String getCurrentHost() {
+		return hosts.get(current.get());
+	}
+
+	@Override
+	public String[] getHostStates() {
+		String[] states = new String[hosts.size()];
+		for (int i = 0; i < states.length; i++) {
+			states[i] = hosts.get(i) + " " + breakers[i].getState();
+		}
+		return states;
+	}
+
+	@Override
+	public long getFailoverCount() {
+		return failoverCount.get();
+	}
+
+	/**
+	 * Counts the connection failures of a borrowed connection, and of its
+	 * statements, against its host.
+	 */
+	private class FailureDetectingConnectionHandler extends ServiceConnectionHandler<Connection> {
+
+		private final int index;
+
+		FailureDetectingConnectionHandler(Connection target, int index) {
+			super(target);
+			this.index = index;
+		}
+
+		@Override
+		protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result;
+			try {
+				result = super.invokeTarget(proxy, method, args);
+			} catch (SQLException e) {
+				methodFailed(index, method, e);
+				throw e;
+			}
+			if (result instanceof Statement) {
+				// the host is most likely lost while a statement runs
+				Class<?> statementInterface = result instanceof CallableStatement ? CallableStatement.class
+						: result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+				return new FailureDetectingStatementHandler((Statement) result, (Connection) proxy, index)
+						.createProxy(statementInterface);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Counts the connection failures of a statement against the host of its
+	 * connection.
+	 */
+	private class FailureDetectingStatementHandler extends ServiceConnectionHandler<Statement> {
+
+		private final Connection connection;
+
+		private final int index;
+
+		FailureDetectingStatementHandler(Statement target, Connection connection, int index) {
+			super(target);
+			this.connection = connection;
+			this.index = index;
+		}
+
+		@Override
+		protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("getConnection")) {
+				return connection;
+			}
+			try {
+				return super.invokeTarget(proxy, method, args);
+			} catch (SQLException e) {
+				methodFailed(index, method, e);
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package org.cloudfoundry.runtime.service.relational;
+
+/**
+ * Management interface of {@link FailoverDataSource}.
+ */
+public interface FailoverDataSourceMBean {
+
+	String getServiceName();
+
+	/**
+	 * @return the host new connections are opened to
+	 */
+	String getCurrentHost();
+
+	/**
+	 * @return each host with the state of its circuit breaker
+	 */
+	String[] getHostStates();
+
+	/**
+	 * @return number of times connections moved to another host
+	 */
+	long getFailoverCount();
+}
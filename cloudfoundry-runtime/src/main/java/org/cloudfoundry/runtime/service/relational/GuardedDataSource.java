@@ -0,0 +1,92 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.CallRejectedException;
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.cloudfoundry.runtime.service.ServiceGuard;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Data source admitting borrows through a {@link ServiceGuard}. A connection is in
+ * flight from its borrow until it is first closed, by the borrower or by a
+ * {@link LeakDetectingDataSource} reclaiming it, which is why the leak detector wraps
+ * this data source rather than the reverse; rejected borrows fail at once with an
+ * {@link SQLTransientConnectionException} of SQL state 08001. Destroying it also
+ * disposes of the target data source.
+ */
+public class GuardedDataSource extends DelegatingDataSource implements DisposableBean {
+
+	private final ServiceGuard guard;
+
+	/**
+	 * Ends the call when a connection is first closed.
+	 */
+	private final ServiceConnectionHandler.CloseCallback exitGuard = new ServiceConnectionHandler.CloseCallback() {
+		@Override
+		public void closed() {
+			guard.exit();
+		}
+	};
+
+	public GuardedDataSource(DataSource targetDataSource, ServiceGuard guard) {
+		super(targetDataSource);
+		this.guard = guard;
+	}
+
+	public ServiceGuard getGuard() {
+		return guard;
+	}
+
+	@Override
+	public void destroy() {
+		guard.destroy();
+		ServiceDisposal.dispose(getTargetDataSource());
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return borrow(null, null);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return borrow(username, password);
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private Connection borrow(String username, String password) throws SQLException {
+		long start;
+		try {
+			start = guard.enter();
+		} catch (CallRejectedException e) {
+			throw new SQLTransientConnectionException(e.getMessage(), "08001", e);
+		}
+		Connection connection;
+		try {
+			connection = username == null && password == null ? getTargetDataSource().getConnection()
+					: getTargetDataSource().getConnection(username, password);
+		} catch (SQLException e) {
+			guard.recordFailure();
+			guard.exit();
+			throw e;
+		} catch (RuntimeException e) {
+			guard.recordFailure();
+			guard.exit();
+			throw e;
+		}
+		guard.recordSuccess(start);
+		return ServiceConnectionHandler.proxy(Connection.class, connection, exitGuard);
+	}
+}
@@ -0,0 +1,111 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Provider of HikariCP data sources.
+ * <p>
+ * The pool is started by the first request for a connection, and failing to
+ * connect then does not prevent later attempts. HikariCP does not distinguish an
+ * initial size from the minimum number of idle connections; a maximum wait of 0
+ * or less, which means no limit for DBCP, waits without limit too, and shorter waits
+ * are raised to the minimum of one second accepted by HikariCP.
+ * </p>
+ * <p>
+ * HikariCP always validates connections idle for more than half a second as they
+ * are borrowed, whatever the {@link org.cloudfoundry.runtime.service.ValidationStrategy},
+ * and uses <code>Connection.isValid</code> if no validation query is set.
+ * </p>
+ * <p>
+ * HikariCP leaves statement caching to the driver, so the statement cache settings
+ * are passed to the MySQL driver as its <code>cachePrepStmts</code> and
+ * <code>prepStmtCacheSize</code> properties.
+ * </p>
+ */
+class HikariDataSourceProvider extends AbstractPooledDataSourceProvider<HikariDataSource> {
+
+	private static final long MIN_CONNECTION_TIMEOUT = 1000;
+
+	private static final String MYSQL_DRIVER_CLASS_NAME = "com.mysql.jdbc.Driver";
+
+	private static final Logger logger = Logger.getLogger(HikariDataSourceProvider.class.getName());
+
+	HikariDataSourceProvider() {
+		super("hikari", "com.zaxxer.hikari.HikariDataSource");
+	}
+
+	@Override
+	public DataSource createDataSource(AbstractDataSourceServiceInfo serviceInfo, String driverClassName,
+			String validationQuery, CloudConnectionConfiguration connectionConfiguration,
+			CloudPoolConfiguration poolConfiguration) {
+		HikariDataSource dataSource = new HikariDataSource();
+		dataSource.setPoolName(serviceInfo.getServiceName());
+		dataSource.setDriverClassName(driverClassName);
+		dataSource.setJdbcUrl(serviceInfo.getUrl());
+		dataSource.setUsername(serviceInfo.getUserName());
+		dataSource.setPassword(serviceInfo.getPassword());
+		dataSource.setInitializationFailFast(false);
+		if (validationQuery != null && !orDefaults(poolConfiguration).isJdbc4Validation()) {
+			dataSource.setConnectionTestQuery(validationQuery);
+		}
+		Properties driverProperties = CloudConnectionConfiguration.parseConnectionProperties(
+				connectionConfiguration != null ? connectionConfiguration.getConnectionProperties() : null);
+		configureStatementCache(driverProperties, driverClassName, orDefaults(poolConfiguration));
+		if (!driverProperties.isEmpty()) {
+			dataSource.setDataSourceProperties(driverProperties);
+		}
+		applyPoolConfiguration(dataSource, poolConfiguration);
+		return dataSource;
+	}
+
+	private void configureStatementCache(Properties driverProperties, String driverClassName,
+			CloudPoolConfiguration poolConfiguration) {
+		if (!poolConfiguration.isStatementCacheEnabled()) {
+			return;
+		}
+		if (MYSQL_DRIVER_CLASS_NAME.equals(driverClassName)) {
+			// explicit connection properties take precedence
+			if (!driverProperties.containsKey("cachePrepStmts")) {
+				driverProperties.setProperty("cachePrepStmts", "true");
+			}
+			if (!driverProperties.containsKey("prepStmtCacheSize")) {
+				driverProperties.setProperty("prepStmtCacheSize", String.valueOf(poolConfiguration.getStatementCacheSize()));
+			}
+		} else {
+			logger.info("HikariCP does not cache statements and driver " + driverClassName
+					+ " has no known statement cache; statements are not cached");
+		}
+	}
+
+	@Override
+	protected void configurePool(HikariDataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		if (poolConfiguration.getMinIdle() != null) {
+			dataSource.setMinimumIdle(poolConfiguration.getMinIdle());
+		}
+		if (poolConfiguration.getMaxActive() != null) {
+			dataSource.setMaximumPoolSize(poolConfiguration.getMaxActive());
+		}
+		if (poolConfiguration.getMaxWait() != null) {
+			int maxWait = poolConfiguration.getMaxWait();
+			dataSource.setConnectionTimeout(maxWait <= 0 ? 0 : Math.max(MIN_CONNECTION_TIMEOUT, maxWait));
+		}
+	}
+
+	@Override
+	public int getMaxActive(DataSource dataSource) {
+		return ((HikariDataSource) dataSource).getMaximumPoolSize();
+	}
+
+	@Override
+	public int getMinIdle(DataSource dataSource) {
+		return ((HikariDataSource) dataSource).getMinimumIdle();
+	}
+}
@@ -0,0 +1,288 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Data source recording metrics of the pool it wraps, published as an MBean named
+ * after the service.
+ * <p>
+ * The wrapper times each borrow and how long each connection is held until it is
+ * closed, and counts the connections borrowed and the threads waiting for one.
+ * Counters are striped and times go to lock-free histograms, so that recording
+ * adds no contention between threads. The idle, created and destroyed connection
+ * counts, the validation failures and the prepared statement cache hits and misses
+ * are read from the pool, where it exposes them: DBCP and the Tomcat JDBC pool
+ * expose the idle count, and the built-in {@link SimplePooledDataSource} all of
+ * them. They are read through the other
+ * wrappers down to the pool, and summed across the per-host pools of a
+ * {@link FailoverDataSource}.
+ * </p>
+ */
+public class InstrumentedDataSource extends DelegatingDataSource implements InstrumentedDataSourceMBean,
+		DisposableBean {
+
+	public static final String METRICS_PROPERTY = "cloudfoundry.datasource.metrics";
+
+	public static final String MBEAN_TYPE = "DataSource";
+
+	private static final Logger logger = Logger.getLogger(InstrumentedDataSource.class.getName());
+
+	private final String serviceName;
+
+	private final StripedCounter active = new StripedCounter();
+
+	private final StripedCounter waiting = new StripedCounter();
+
+	private final StripedCounter borrowFailures = new StripedCounter();
+
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+	private final LatencyHistogram holdTime = new LatencyHistogram();
+
+	private ObjectName objectName;
+
+	public InstrumentedDataSource(String serviceName, DataSource targetDataSource) {
+		super(targetDataSource);
+		this.serviceName = serviceName;
+	}
+
+	/**
+	 * Register this data source on the platform MBean server, replacing an MBean
+	 * registered for the same service, for example by a previous deployment of the
+	 * application.
+	 */
+	public synchronized void registerMBean() {
+		objectName = ServiceMBeans.register(MBEAN_TYPE, serviceName, this);
+	}
+
+	/**
+	 * Unregister the MBean and dispose of the target data source.
+	 */
+	@Override
+	public synchronized void destroy() {
+		ServiceMBeans.unregister(objectName, this);
+		objectName = null;
+		ServiceDisposal.dispose(getTargetDataSource());
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return borrow(null, null);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return borrow(username, password);
+	}
+
+	private Connection borrow(String username, String password) throws SQLException {
+		long start = System.nanoTime();
+		waiting.increment();
+		Connection connection;
+		try {
+			connection = username == null && password == null ? getTargetDataSource().getConnection()
+					: getTargetDataSource().getConnection(username, password);
+		} catch (SQLException e) {
+			borrowFailures.increment();
+			throw e;
+		} catch (RuntimeException e) {
+			borrowFailures.increment();
+			throw e;
+		} finally {
+			waiting.decrement();
+		}
+		long borrowed = System.nanoTime();
+		borrowWait.record((borrowed - start) / 1000);
+		active.increment();
+		return ServiceConnectionHandler.proxy(Connection.class, connection, new ConnectionRelease(borrowed));
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	@Override
+	public long getActiveConnections() {
+		return active.sum();
+	}
+
+	@Override
+	public long getIdleConnections() {
+		return readPoolCount("numIdle", "idleCount");
+	}
+
+	@Override
+	public long getWaitingThreads() {
+		return waiting.sum();
+	}
+
+	@Override
+	public long getBorrowCount() {
+		return borrowWait.getCount();
+	}
+
+	@Override
+	public long getBorrowFailureCount() {
+		return borrowFailures.sum();
+	}
+
+	@Override
+	public double getBorrowWaitMean() {
+		return borrowWait.getMean();
+	}
+
+	@Override
+	public long getBorrowWait50thPercentile() {
+		return borrowWait.getPercentile(50);
+	}
+
+	@Override
+	public long getBorrowWait99thPercentile() {
+		return borrowWait.getPercentile(99);
+	}
+
+	@Override
+	public long getBorrowWaitMax() {
+		return borrowWait.getMax();
+	}
+
+	@Override
+	public double getHoldTimeMean() {
+		return holdTime.getMean();
+	}
+
+	@Override
+	public long getHoldTime50thPercentile() {
+		return holdTime.getPercentile(50);
+	}
+
+	@Override
+	public long getHoldTime99thPercentile() {
+		return holdTime.getPercentile(99);
+	}
+
+	@Override
+	public long getHoldTimeMax() {
+		return holdTime.getMax();
+	}
+
+	@Override
+	public void resetStatistics() {
+		borrowFailures.reset();
+		borrowWait.reset();
+		holdTime.reset();
+	}
+
+	@Override
+	public long getCreatedConnections() {
+		return readPoolCount("createdCount");
+	}
+
+	@Override
+	public long getDestroyedConnections() {
+		return readPoolCount("destroyedCount");
+	}
+
+	@Override
+	public long getValidationFailures() {
+		return readPoolCount("validationFailureCount");
+	}
+
+	@Override
+	public long getStatementCacheHits() {
+		return readPoolCount("statementCacheHits");
+	}
+
+	@Override
+	public long getStatementCacheMisses() {
+		return readPoolCount("statementCacheMisses");
+	}
+
+	/**
+	 * @return the sum over the pools of the first of the named properties each
+	 * exposes, or -1 if none does
+	 */
+	private long readPoolCount(String... propertyNames) {
+		long sum = -1;
+		for (DataSource pool : getPools()) {
+			long count = readCount(new BeanWrapperImpl(pool), propertyNames);
+			if (count >= 0) {
+				sum = sum < 0 ? count : sum + count;
+			}
+		}
+		return sum;
+	}
+
+	private long readCount(BeanWrapper pool, String... propertyNames) {
+		for (String propertyName : propertyNames) {
+			if (pool.isReadableProperty(propertyName)) {
+				try {
+					Object value = pool.getPropertyValue(propertyName);
+					if (value instanceof Number) {
+						return ((Number) value).longValue();
+					}
+				} catch (RuntimeException e) {
+					logger.log(Level.FINE, "Failed to read " + propertyName + " of the " + serviceName
+							+ " data source", e);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the pools beneath the other wrappers; a failover data source creates
+	 * its per-host pools as they are first used, so they are looked up on each read
+	 */
+	private List<DataSource> getPools() {
+		DataSource dataSource = getTargetDataSource();
+		while (dataSource instanceof DelegatingDataSource) {
+			dataSource = ((DelegatingDataSource) dataSource).getTargetDataSource();
+		}
+		if (dataSource instanceof FailoverDataSource) {
+			return ((FailoverDataSource) dataSource).getPools();
+		}
+		return Collections.singletonList(dataSource);
+	}
+
+	/**
+	 * Records the hold time and releases the active count when the connection is
+	 * first closed.
+	 */
+	private class ConnectionRelease implements ServiceConnectionHandler.CloseCallback {
+
+		private final long borrowed;
+
+		ConnectionRelease(long borrowed) {
+			this.borrowed = borrowed;
+		}
+
+		@Override
+		public void closed() {
+			holdTime.record((System.nanoTime() - borrowed) / 1000);
+			active.decrement();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.cloudfoundry.runtime.service.relational;
+
+/**
+ * Management interface of {@link InstrumentedDataSource}. Times are in
+ * microseconds; counts the pool does not expose are -1.
+ */
+public interface InstrumentedDataSourceMBean {
+
+	String getServiceName();
+
+	/**
+	 * @return number of connections borrowed and not yet closed
+	 */
+	long getActiveConnections();
+
+	/**
+	 * @return number of idle connections in the pool
+	 */
+	long getIdleConnections();
+
+	/**
+	 * @return number of threads waiting for a connection
+	 */
+	long getWaitingThreads();
+
+	long getBorrowCount();
+
+	/**
+	 * @return number of failed attempts to borrow a connection, including timeouts
+	 */
+	long getBorrowFailureCount();
+
+	double getBorrowWaitMean();
+
+	long getBorrowWait50thPercentile();
+
+	long getBorrowWait99thPercentile();
+
+	long getBorrowWaitMax();
+
+	double getHoldTimeMean();
+
+	long getHoldTime50thPercentile();
+
+	long getHoldTime99thPercentile();
+
+	long getHoldTimeMax();
+
+	/**
+	 * @return number of connections opened by the pool
+	 */
+	long getCreatedConnections();
+
+	/**
+	 * @return number of connections closed by the pool
+	 */
+	long getDestroyedConnections();
+
+	/**
+	 * @return number of connections that failed validation
+	 */
+	long getValidationFailures();
+
+	/**
+	 * @return number of prepared statements served from the statement cache of the
+	 * pool
+	 */
+	long getStatementCacheHits();
+
+	/**
+	 * @return number of prepared statements the statement cache of the pool had to
+	 * prepare
+	 */
+	long getStatementCacheMisses();
+
+	/**
+	 * Start the borrow and hold time statistics, and the borrow counts, afresh, so
+	 * that they cover a measurement interval rather than the life of the data source.
+	 */
+	void resetStatistics();
+}
@@ -0,0 +1,160 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histogram of non-negative values, such as latencies in microseconds, with a
+ * fixed relative precision.
+ * <p>
+ * As in HdrHistogram, values below 32 are counted exactly and each larger power of
+ * two is split into 16 linear buckets, so that a percentile is reported within
+ * 1/16 of its value using under a thousand counters, whatever the range of values.
+ * </p>
+ * <p>
+ * Recording a value takes no lock. Threads recording concurrently would contend on
+ * the counters of the common values, so the counters are striped as in
+ * {@link StripedCounter}: each thread counts in one of a few copies of them, picked
+ * by thread and allocated on first use, which readers sum. The histogram counts
+ * from its creation or last {@link #reset()}.
+ * </p>
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int EXACT_VALUES = 2 * SUB_BUCKETS;
+
+	private static final int BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+
+	/**
+	 * Copies of the counters, fewer than the cells of a {@link StripedCounter} as each
+	 * is several kilobytes.
+	 */
+	private static final int STRIPES = stripes();
+
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+	private final StripedCounter count = new StripedCounter();
+
+	private final StripedCounter sum = new StripedCounter();
+
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts().incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// retry until the maximum is at least the value
+		}
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	double getMean() {
+		long total = count.sum();
+		return total == 0 ? 0 : (double) sum.sum() / total;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest value counted in the bucket holding the percentile, or 0
+	 *         if no value was recorded
+	 */
+	long getPercentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			AtomicLongArray stripe = stripes.get(i);
+			if (stripe != null) {
+				for (int j = 0; j < BUCKETS; j++) {
+					long count = stripe.get(j);
+					counts[j] += count;
+					total += count;
+				}
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Start counting afresh, for example at the start of a measurement interval.
+	 * Values recorded meanwhile may be partly dropped.
+	 */
+	void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			AtomicLongArray stripe = stripes.get(i);
+			if (stripe != null) {
+				for (int j = 0; j < BUCKETS; j++) {
+					stripe.set(j, 0);
+				}
+			}
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	private AtomicLongArray counts() {
+		// spread consecutive thread ids across the stripes
+		int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		int index = (hash ^ (hash >>> 16)) & (STRIPES - 1);
+		AtomicLongArray stripe = stripes.get(index);
+		if (stripe == null) {
+			stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+			stripe = stripes.get(index);
+		}
+		return stripe;
+	}
+
+	private static int stripes() {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 8) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	static int indexOf(long value) {
+		if (value < EXACT_VALUES) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return EXACT_VALUES + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueAt(int index) {
+		if (index < EXACT_VALUES) {
+			return index;
+		}
+		int shift = (index - EXACT_VALUES) / SUB_BUCKETS + 1;
+		long lowest = (long) ((index - EXACT_VALUES) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,390 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
+import org.cloudfoundry.runtime.service.ServiceScheduler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Data source flagging connections held longer than a threshold.
+ * <p>
+ * Capturing the call site of every borrow is too expensive to leave on, so the
+ * site is only captured for a sample of the borrows, and for every borrow while the
+ * number of borrowed connections is above a share of the pool's maximum. In the
+ * background, connections borrowed longer than the threshold ago are logged once,
+ * with their borrow site if it was captured, and the leaks are counted by site. If
+ * reclamation is enabled, leaked connections are also destroyed: the physical
+ * connection beneath the pool's connection is closed, so that the pool discards the
+ * connection instead of lending it again, and the borrower gets an exception on its
+ * next use of the connection or of the statements it created. Pools not giving
+ * access to their physical connections are only handed the connection back.
+ * Reclaiming a connection still in use, for example by a long report, aborts its
+ * work, so the threshold must exceed the longest legitimate use.
+ * </p>
+ * <p>
+ * The leak counts and sites are published as an MBean named after the service.
+ * </p>
+ */
+public class LeakDetectingDataSource extends DelegatingDataSource implements LeakDetectingDataSourceMBean,
+		DisposableBean {
+
+	public static final String MBEAN_TYPE = "LeakDetection";
+
+	private static final int MAX_LEAK_SITES = 100;
+
+	private static final int LEAK_SITES_REPORTED = 20;
+
+	private static final long MIN_SCAN_INTERVAL = 1000;
+
+	private static final Logger logger = Logger.getLogger(LeakDetectingDataSource.class.getName());
+
+	private static final ServiceScheduler scheduler = new ServiceScheduler("cloud-connection-leak-detection");
+
+	private final String serviceName;
+
+	private final long thresholdNanos;
+
+	private final double sampleRate;
+
+	private final int utilizationBorrowCount;
+
+	private final boolean reclaim;
+
+	private final ConcurrentMap<TrackedConnection, Boolean> outstanding =
+			new ConcurrentHashMap<TrackedConnection, Boolean>();
+
+	private final AtomicInteger outstandingCount = new AtomicInteger();
+
+	private final ConcurrentMap<String, AtomicLong> leakSites = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicLong leakedCount = new AtomicLong();
+
+	private final AtomicLong reclaimedCount = new AtomicLong();
+
+	private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private volatile boolean destroyed;
+
+	private ScheduledFuture<?> scanTask;
+
+	private ObjectName objectName;
+
+	/**
+	 * @param threshold milliseconds after which a borrowed connection is a leak
+	 * @param sampleRate share of the borrows whose site is captured, between 0 and 1
+	 * @param utilizationThreshold share of <code>maxActive</code> above which every
+	 *        borrow site is captured
+	 * @param maxActive maximum number of connections of the pool, or 0 if unknown
+	 * @param reclaim whether leaked connections are closed
+	 */
+	public LeakDetectingDataSource(String serviceName, DataSource targetDataSource, long threshold,
+			double sampleRate, double utilizationThreshold, int maxActive, boolean reclaim) {
+		super(targetDataSource);
+		this.serviceName = serviceName;
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+		this.sampleRate = sampleRate;
+		this.utilizationBorrowCount = maxActive > 0 ? (int) Math.ceil(maxActive * utilizationThreshold)
+				: Integer.MAX_VALUE;
+		this.reclaim = reclaim;
+	}
+
+	/**
+	 * Register the leak statistics on the platform MBean server, replacing an MBean
+	 * registered for the same service.
+	 */
+	public synchronized void registerMBean() {
+		objectName = ServiceMBeans.register(MBEAN_TYPE, serviceName, this);
+	}
+
+	/**
+	 * Stop scanning for leaks, unregister the MBean and dispose of the target data
+	 * source.
+	 */
+	@Override
+	public synchronized void destroy() {
+		destroyed = true;
+		if (scanTask != null) {
+			scanTask.cancel(false);
+			scanTask = null;
+			scheduler.release();
+		}
+		ServiceMBeans.unregister(objectName, this);
+		objectName = null;
+		ServiceDisposal.dispose(getTargetDataSource());
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return track(getTargetDataSource().getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return track(getTargetDataSource().getConnection(username, password));
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private Connection track(Connection connection) {
+		start();
+		int borrowed = outstandingCount.incrementAndGet();
+		boolean capture = borrowed >= utilizationBorrowCount
+				|| (sampleRate > 0 && random.get().nextDouble() < sampleRate);
+		TrackedConnection tracked = new TrackedConnection(connection,
+				capture ? new Throwable("Connection borrowed") : null);
+		tracked.proxy = (Connection) tracked.createProxy(Connection.class);
+		outstanding.put(tracked, Boolean.TRUE);
+		return tracked.proxy;
+	}
+
+	private void start() {
+		if (started.get() || !started.compareAndSet(false, true)) {
+			return;
+		}
+		long interval = Math.max(MIN_SCAN_INTERVAL, TimeUnit.NANOSECONDS.toMillis(thresholdNanos) / 2);
+		synchronized (this) {
+			if (destroyed) {
+				return;
+			}
+			scanTask = scheduler.acquire().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					detectLeaks();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Flag, and reclaim if enabled, the connections borrowed longer than the threshold.
+	 */
+	void detectLeaks() {
+		long now = System.nanoTime();
+		for (TrackedConnection tracked : outstanding.keySet()) {
+			if (now - tracked.borrowed < thresholdNanos || !tracked.flagged.compareAndSet(false, true)) {
+				continue;
+			}
+			leakedCount.incrementAndGet();
+			String site = tracked.site != null ? formatSite(tracked.site) : null;
+			if (site != null) {
+				countLeakSite(site);
+			}
+			logger.warning("Connection of " + serviceName + " borrowed by thread " + tracked.threadName + " held for "
+					+ TimeUnit.NANOSECONDS.toMillis(now - tracked.borrowed) + "ms"
+					+ (site != null ? ", borrowed at\n" + site : " (borrow site not sampled)"));
+			if (reclaim) {
+				tracked.reclaim();
+			}
+		}
+	}
+
+	private void countLeakSite(String site) {
+		AtomicLong count = leakSites.get(site);
+		if (count == null && leakSites.size() < MAX_LEAK_SITES) {
+			AtomicLong newCount = new AtomicLong();
+			count = leakSites.putIfAbsent(site, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		if (count != null) {
+			count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the frames of the application, leaving out those of the detector
+	 */
+	private static String formatSite(Throwable site) {
+		StringBuilder formatted = new StringBuilder();
+		for (StackTraceElement element : site.getStackTrace()) {
+			if (formatted.length() == 0 && (element.getClassName().equals(LeakDetectingDataSource.class.getName())
+					|| element.getClassName().startsWith(LeakDetectingDataSource.class.getName() + "$"))) {
+				continue;
+			}
+			formatted.append("\tat ").append(element).append('\n');
+		}
+		return formatted.toString();
+	}
+
+	@Override
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	@Override
+	public long getLeakDetectionThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+
+	@Override
+	public int getOutstandingConnections() {
+		return outstandingCount.get();
+	}
+
+	@Override
+	public long getLeakedConnectionCount() {
+		return leakedCount.get();
+	}
+
+	@Override
+	public long getReclaimedConnectionCount() {
+		return reclaimedCount.get();
+	}
+
+	@Override
+	public String[] getLeakSites() {
+		List<Map.Entry<String, AtomicLong>> sites = new ArrayList<Map.Entry<String, AtomicLong>>(leakSites.entrySet());
+		Collections.sort(sites, new Comparator<Map.Entry<String, AtomicLong>>() {
+			@Override
+			public int compare(Map.Entry<String, AtomicLong> first, Map.Entry<String, AtomicLong> second) {
+				long difference = second.getValue().get() - first.getValue().get();
+				return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+			}
+		});
+		String[] lines = new String[Math.min(LEAK_SITES_REPORTED, sites.size())];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = "leaks=" + sites.get(i).getValue().get() + "\n" + sites.get(i).getKey();
+		}
+		return lines;
+	}
+
+
+	/**
+	 * Borrowed connection, removed from the outstanding connections when it is first
+	 * closed by the borrower or reclaimed.
+	 */
+	private class TrackedConnection extends ServiceConnectionHandler<Connection> implements
+			ServiceConnectionHandler.CloseCallback {
+
+		private final Throwable site;
+
+		private final long borrowed = System.nanoTime();
+
+		private final String threadName = Thread.currentThread().getName();
+
+		private final AtomicBoolean flagged = new AtomicBoolean();
+
+		private volatile boolean reclaimed;
+
+		private Connection proxy;
+
+		TrackedConnection(Connection target, Throwable site) {
+			super(target);
+			this.site = site;
+			addCallback(this);
+		}
+
+		void reclaim() {
+			if (!markClosed()) {
+				return;
+			}
+			reclaimed = true;
+			reclaimedCount.incrementAndGet();
+			Connection target = getTarget();
+			try {
+				// with its physical connection closed, the pool discards the connection
+				Connection physical = target.unwrap(Connection.class);
+				if (physical != null && physical != target) {
+					physical.close();
+				}
+			} catch (SQLException e) {
+				logger.log(Level.FINE, "Failed to close the physical connection of a reclaimed connection of "
+						+ serviceName, e);
+			}
+			try {
+				target.close();
+			} catch (SQLException e) {
+				logger.log(Level.FINE, "Failed to reclaim a connection of " + serviceName, e);
+			}
+		}
+
+		private SQLException reclaimedException() {
+			return new SQLException("Connection was reclaimed after being held for longer than "
+					+ getLeakDetectionThreshold() + "ms");
+		}
+
+		@Override
+		public void closed() {
+			outstanding.remove(this);
+			outstandingCount.decrementAndGet();
+		}
+
+		@Override
+		protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("toString")) {
+				return "Leak-tracked connection of " + serviceName + (reclaimed ? " (reclaimed)" : "");
+			} else if (methodName.equals("isClosed") && reclaimed) {
+				return true;
+			} else if (reclaimed) {
+				throw reclaimedException();
+			}
+			Object result = super.invokeTarget(proxy, method, args);
+			if (reclaim && result instanceof Statement) {
+				// statements would otherwise keep working on a connection lent to another borrower
+				return new TrackedStatement(this, (Statement) result).createProxy(method.getReturnType());
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Statement of a borrowed connection, unusable once the connection is reclaimed.
+	 */
+	private static class TrackedStatement extends ServiceConnectionHandler<Statement> {
+
+		private final TrackedConnection connection;
+
+		TrackedStatement(TrackedConnection connection, Statement target) {
+			super(target);
+			this.connection = connection;
+		}
+
+		@Override
+		protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("getConnection")) {
+				return connection.proxy;
+			} else if (connection.reclaimed && !methodName.equals("close") && !methodName.equals("isClosed")) {
+				throw connection.reclaimedException();
+			}
+			return super.invokeTarget(proxy, method, args);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package org.cloudfoundry.runtime.service.relational;
+
+/**
+ * Management interface of {@link LeakDetectingDataSource}.
+ */
+public interface LeakDetectingDataSourceMBean {
+
+	String getServiceName();
+
+	long getLeakDetectionThreshold();
+
+	/**
+	 * @return number of connections borrowed and not yet closed
+	 */
+	int getOutstandingConnections();
+
+	/**
+	 * @return number of connections held longer than the threshold
+	 */
+	long getLeakedConnectionCount();
+
+	/**
+	 * @return number of leaked connections closed by the detector
+	 */
+	long getReclaimedConnectionCount();
+
+	/**
+	 * @return the sampled borrow sites of leaked connections, most frequent first, each
+	 *         with its number of leaks
+	 */
+	String[] getLeakSites();
+}
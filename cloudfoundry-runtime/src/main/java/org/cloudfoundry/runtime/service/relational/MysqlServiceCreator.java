@@ -1,5 +1,7 @@
 package org.cloudfoundry.runtime.service.relational;
 
+import java.util.Properties;
+
 import org.cloudfoundry.runtime.env.MysqlServiceInfo;
 import org.cloudfoundry.runtime.service.AbstractDataSourceCreator;
 
@@ -28,4 +30,26 @@ public class MysqlServiceCreator extends AbstractDataSourceCreator<MysqlServiceI
 	public String getValidationQuery() {
 		return VALIDATION_QUERY;
 	}
+
+	/**
+	 * Connector/J properties caching prepared statements on both sides, rewriting
+	 * batches into multi-row statements, tracking session state locally instead of
+	 * querying or resetting it, and fetching large results through a cursor.
+	 */
+	@Override
+	public Properties getPerformanceProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("cachePrepStmts", "true");
+		properties.setProperty("prepStmtCacheSize", "250");
+		properties.setProperty("prepStmtCacheSqlLimit", "2048");
+		properties.setProperty("useServerPrepStmts", "true");
+		properties.setProperty("rewriteBatchedStatements", "true");
+		properties.setProperty("useLocalSessionState", "true");
+		properties.setProperty("elideSetAutoCommits", "true");
+		properties.setProperty("cacheServerConfiguration", "true");
+		// with a fetch size, results are read in chunks rather than all at once
+		properties.setProperty("useCursorFetch", "true");
+		properties.setProperty("defaultFetchSize", "100");
+		return properties;
+	}
 }
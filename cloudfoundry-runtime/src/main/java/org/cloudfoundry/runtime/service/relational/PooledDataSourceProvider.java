@@ -0,0 +1,66 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+
+/**
+ * Creates pooled data sources with one connection pool implementation.
+ * <p>
+ * Implementations map the connection and pool configuration onto the native
+ * properties of their pool. Besides the built-in providers, implementations may be
+ * registered in
+ * <code>META-INF/services/org.cloudfoundry.runtime.service.relational.PooledDataSourceProvider</code>.
+ * </p>
+ *
+ * @see PooledDataSourceProviders
+ */
+public interface PooledDataSourceProvider {
+
+	/**
+	 * @return name selecting this provider explicitly, for example "tomcat-jdbc"
+	 */
+	String getName();
+
+	/**
+	 * @return true if the pool implementation is on the classpath
+	 */
+	boolean isAvailable();
+
+	/**
+	 * @return true if the data source was created by this provider
+	 */
+	boolean isProvided(DataSource dataSource);
+
+	/**
+	 * Create a pooled data source. The pool must not open connections before it is
+	 * first used.
+	 *
+	 * @param validationQuery query validating connections as they are borrowed, or
+	 * null to not validate them
+	 * @param connectionConfiguration may be null
+	 * @param poolConfiguration may be null to keep the defaults of the pool
+	 */
+	DataSource createDataSource(AbstractDataSourceServiceInfo serviceInfo, String driverClassName,
+			String validationQuery, CloudConnectionConfiguration connectionConfiguration,
+			CloudPoolConfiguration poolConfiguration);
+
+	/**
+	 * Apply pool sizes to a data source created by this provider, which may already
+	 * be in use.
+	 */
+	void applyPoolConfiguration(DataSource dataSource, CloudPoolConfiguration poolConfiguration);
+
+	/**
+	 * @return the maximum number of connections of a data source created by this
+	 * provider
+	 */
+	int getMaxActive(DataSource dataSource);
+
+	/**
+	 * @return the minimum number of idle connections of a data source created by
+	 * this provider
+	 */
+	int getMinIdle(DataSource dataSource);
+}
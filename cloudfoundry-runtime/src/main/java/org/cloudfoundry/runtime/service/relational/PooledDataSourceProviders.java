@@ -0,0 +1,112 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * The known {@link PooledDataSourceProvider}s.
+ * <p>
+ * Providers discovered through {@link ServiceLoader} come first, then the built-in
+ * ones: Commons DBCP, Tomcat's DBCP, the Tomcat JDBC pool, HikariCP and the
+ * {@link SimplePooledDataSource}. Unless one is selected by name, data sources are
+ * created by the first provider whose pool is on the classpath; the DBCP providers
+ * come first so that applications keep the pool they had before providers could be
+ * selected, and the built-in pool comes last as it is always available.
+ * </p>
+ * <p>
+ * A provider may be selected for all data sources with the
+ * <code>cloudfoundry.datasource.poolProvider</code> system property.
+ * </p>
+ */
+public final class PooledDataSourceProviders {
+
+	public static final String POOL_PROVIDER_PROPERTY = "cloudfoundry.datasource.poolProvider";
+
+	private static final Logger logger = Logger.getLogger(PooledDataSourceProviders.class.getName());
+
+	private static final List<PooledDataSourceProvider> providers = createProviders();
+
+	private PooledDataSourceProviders() {
+	}
+
+	/**
+	 * Make a provider available, taking precedence over those already known.
+	 */
+	public static void register(PooledDataSourceProvider provider) {
+		providers.add(0, provider);
+	}
+
+	/**
+	 * @return the provider of the given name, or null if there is none
+	 */
+	public static PooledDataSourceProvider getProvider(String name) {
+		for (PooledDataSourceProvider provider : providers) {
+			if (provider.getName().equals(name)) {
+				return provider;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the first provider whose pool is on the classpath, which is the
+	 * built-in pool if no other is
+	 */
+	public static PooledDataSourceProvider getAvailableProvider() {
+		for (PooledDataSourceProvider provider : providers) {
+			if (provider.isAvailable()) {
+				return provider;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the provider that created the data source, or null if it was not
+	 * created by a known provider
+	 */
+	public static PooledDataSourceProvider getProvider(DataSource dataSource) {
+		for (PooledDataSourceProvider provider : providers) {
+			if (provider.isProvided(dataSource)) {
+				return provider;
+			}
+		}
+		return null;
+	}
+
+	private static List<PooledDataSourceProvider> createProviders() {
+		List<PooledDataSourceProvider> providers = new ArrayList<PooledDataSourceProvider>();
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = PooledDataSourceProviders.class.getClassLoader();
+		}
+		Iterator<PooledDataSourceProvider> discovered = ServiceLoader.load(PooledDataSourceProvider.class,
+				classLoader).iterator();
+		while (true) {
+			try {
+				if (!discovered.hasNext()) {
+					break;
+				}
+				PooledDataSourceProvider provider = discovered.next();
+				logger.info("Registering pooled data source provider " + provider.getClass().getName());
+				providers.add(provider);
+			} catch (ServiceConfigurationError e) {
+				logger.log(Level.WARNING, "Failed to load a pooled data source provider", e);
+			}
+		}
+		providers.add(new CommonsDbcpDataSourceProvider());
+		providers.add(new TomcatDbcpDataSourceProvider());
+		providers.add(new TomcatJdbcDataSourceProvider());
+		providers.add(new HikariDataSourceProvider());
+		providers.add(new SimplePooledDataSourceProvider());
+		return new CopyOnWriteArrayList<PooledDataSourceProvider>(providers);
+	}
+}
@@ -1,5 +1,7 @@
 package org.cloudfoundry.runtime.service.relational;
 
+import java.util.Properties;
+
 import org.cloudfoundry.runtime.env.PostgresqlServiceInfo;
 import org.cloudfoundry.runtime.service.AbstractDataSourceCreator;
 
@@ -22,4 +24,24 @@ public class PostgresqlServiceCreator extends AbstractDataSourceCreator<Postgres
 	public String getValidationQuery() {
 		return VALIDATION_QUERY;
 	}
+
+	/**
+	 * PgJDBC properties switching to server-side prepared statements after a few
+	 * executions and caching them, rewriting batched inserts into multi-row
+	 * statements, fetching large results in chunks, and keeping idle connections
+	 * alive through firewalls. Drivers older than 9.4 ignore the statement cache and
+	 * batch rewrite properties.
+	 */
+	@Override
+	public Properties getPerformanceProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("prepareThreshold", "3");
+		properties.setProperty("preparedStatementCacheQueries", "256");
+		properties.setProperty("preparedStatementCacheSizeMiB", "5");
+		properties.setProperty("reWriteBatchedInserts", "true");
+		// results are only streamed within a transaction, with autocommit off
+		properties.setProperty("defaultRowFetchSize", "100");
+		properties.setProperty("tcpKeepAlive", "true");
+		return properties;
+	}
 }
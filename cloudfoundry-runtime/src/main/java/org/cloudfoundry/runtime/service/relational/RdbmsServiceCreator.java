@@ -4,6 +4,8 @@ import org.cloudfoundry.runtime.env.*;
 import org.cloudfoundry.runtime.service.AbstractDataSourceCreator;
 import org.springframework.util.Assert;
 
+import java.util.List;
+
 import javax.sql.DataSource;
 
 /**
@@ -14,17 +16,37 @@ import javax.sql.DataSource;
  */
 public class RdbmsServiceCreator extends AbstractDataSourceCreator<RdbmsServiceInfo> {
 
-	private AbstractDataSourceCreator delegate;
+	private volatile AbstractDataSourceCreator delegate;
 
 	@Override
 	public DataSource createService(RdbmsServiceInfo serviceInfo) {
+		AbstractDataSourceCreator delegate = selectDelegate(serviceInfo);
+		// pass the driver on rather than reading the field, which a concurrent creation may change
+		return createDataSource(serviceInfo, delegate.getDriverClassName(), delegate.getValidationQuery(),
+				delegate.getPerformanceProperties());
+	}
+
+	/**
+	 * Create a datasource failing over across the given services, whose driver is
+	 * chosen by the first one.
+	 */
+	@Override
+	public DataSource createFailoverService(List<RdbmsServiceInfo> serviceInfos) {
+		AbstractDataSourceCreator delegate = selectDelegate(serviceInfos.get(0));
+		return createDataSource(serviceInfos, delegate.getDriverClassName(), delegate.getValidationQuery(),
+				delegate.getPerformanceProperties());
+	}
+
+	private AbstractDataSourceCreator selectDelegate(RdbmsServiceInfo serviceInfo) {
+		AbstractDataSourceCreator delegate;
 		if (serviceInfo.getLabel() != null && (serviceInfo.getLabel().startsWith("postgres") || serviceInfo.getLabel().startsWith("elephantsql"))) {
-			this.delegate = new PostgresqlServiceCreator();
+			delegate = new PostgresqlServiceCreator();
 		}
 		else {
-			this.delegate = new MysqlServiceCreator();
+			delegate = new MysqlServiceCreator();
 		}
-		return super.createService(serviceInfo);
+		this.delegate = delegate;
+		return delegate;
 	}
 
 	@Override
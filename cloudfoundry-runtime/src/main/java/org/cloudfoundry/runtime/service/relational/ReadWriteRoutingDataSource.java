@@ -0,0 +1,156 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+/**
+ * Data source sending read-only transactions to replicas of a primary database.
+ * <p>
+ * Connections obtained within a read-only Spring transaction come from one of the
+ * replicas, chosen as set by {@link ReplicaBalancing}; all others come from the
+ * primary. As Spring transaction managers obtain their connection before marking
+ * the transaction read-only, the routing data source is used through a
+ * {@link LazyConnectionDataSourceProxy}, which only obtains the connection when the
+ * first statement is created (see {@link #createProxy(DataSource, List, ReplicaBalancing)}).
+ * </p>
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+
+	private final DataSource primary;
+
+	private final List<DataSource> replicas;
+
+	private final ReplicaBalancing balancing;
+
+	private final AtomicInteger[] activeCounts;
+
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, ReplicaBalancing balancing) {
+		Assert.notNull(primary, "Primary data source must not be null");
+		Assert.notEmpty(replicas, "At least one replica data source is required");
+		this.primary = primary;
+		this.replicas = Collections.unmodifiableList(new ArrayList<DataSource>(replicas));
+		this.balancing = balancing == null ? ReplicaBalancing.ROUND_ROBIN : balancing;
+		this.activeCounts = new AtomicInteger[replicas.size()];
+		for (int i = 0; i < activeCounts.length; i++) {
+			activeCounts[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Creates a routing data source wrapped in a {@link LazyConnectionDataSourceProxy},
+	 * so that the read-only flag of a transaction is known when its connection is
+	 * obtained. The default auto-commit and isolation settings of the proxy are read
+	 * from the first connection rather than on creation.
+	 */
+	public static DataSource createProxy(DataSource primary, List<DataSource> replicas, ReplicaBalancing balancing) {
+		LazyConnectionDataSourceProxy proxy = new LazyConnectionDataSourceProxy();
+		proxy.setTargetDataSource(new ReadWriteRoutingDataSource(primary, replicas, balancing));
+		return proxy;
+	}
+
+	public DataSource getPrimary() {
+		return primary;
+	}
+
+	public List<DataSource> getReplicas() {
+		return replicas;
+	}
+
+	public ReplicaBalancing getBalancing() {
+		return balancing;
+	}
+
+	/**
+	 * @return the number of connections handed out by this data source and not yet
+	 *         closed, for each replica
+	 */
+	public int[] getReplicaActiveCounts() {
+		int[] counts = new int[activeCounts.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = activeCounts[i].get();
+		}
+		return counts;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return primary.getConnection();
+		}
+		int replica = selectReplica();
+		return track(replica, replicas.get(replica).getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return primary.getConnection(username, password);
+		}
+		int replica = selectReplica();
+		return track(replica, replicas.get(replica).getConnection(username, password));
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private int selectReplica() {
+		int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % activeCounts.length;
+		if (balancing == ReplicaBalancing.ROUND_ROBIN) {
+			return start;
+		}
+		// scan from the round-robin position so that ties are spread across replicas
+		int selected = start;
+		int fewest = activeCounts[start].get();
+		for (int i = 1; i < activeCounts.length && fewest > 0; i++) {
+			int candidate = (start + i) % activeCounts.length;
+			int active = activeCounts[candidate].get();
+			if (active < fewest) {
+				selected = candidate;
+				fewest = active;
+			}
+		}
+		return selected;
+	}
+
+	private Connection track(int replica, Connection connection) {
+		if (balancing != ReplicaBalancing.LEAST_ACTIVE) {
+			return connection;
+		}
+		activeCounts[replica].incrementAndGet();
+		return ServiceConnectionHandler.proxy(Connection.class, connection, new ActiveCountRelease(activeCounts[replica]));
+	}
+
+	/**
+	 * Decrements the active count of the replica when the connection is first closed.
+	 */
+	private static class ActiveCountRelease implements ServiceConnectionHandler.CloseCallback {
+
+		private final AtomicInteger activeCount;
+
+		ActiveCountRelease(AtomicInteger activeCount) {
+			this.activeCount = activeCount;
+		}
+
+		@Override
+		public void closed() {
+			activeCount.decrementAndGet();
+		}
+	}
+}
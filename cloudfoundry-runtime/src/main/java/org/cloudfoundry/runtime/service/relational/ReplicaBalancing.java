@@ -0,0 +1,18 @@
+package org.cloudfoundry.runtime.service.relational;
+
+/**
+ * How a {@link ReadWriteRoutingDataSource} spreads read-only work across replicas.
+ */
+public enum ReplicaBalancing {
+
+	/**
+	 * Replicas take turns. This is the default.
+	 */
+	ROUND_ROBIN,
+
+	/**
+	 * The replica with the fewest connections handed out by the routing data source
+	 * is used, which favours replicas answering faster.
+	 */
+	LEAST_ACTIVE
+}
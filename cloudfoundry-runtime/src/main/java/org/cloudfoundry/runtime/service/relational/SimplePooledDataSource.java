@@ -0,0 +1,1011 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.ServiceScheduler;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Connection pool without dependencies, used when no other pool is on the
+ * classpath.
+ * <p>
+ * Idle connections are kept on a lock-free stack, so the most recently returned
+ * connection, whose socket and caches are warmest, is handed out first. Each thread
+ * first tries the connection it used last, which avoids the stack entirely when a
+ * thread borrows and returns one connection at a time. The number of borrowed
+ * connections is bounded by <code>maxActive</code>; callers beyond it wait up to
+ * <code>maxWait</code> milliseconds, or without limit if it is 0 or less, as with
+ * DBCP.
+ * </p>
+ * <p>
+ * By default, connections idle for longer than the validation interval are
+ * validated as they are borrowed. In the background, idle connections are
+ * validated, those idle for longer than the maximum idle time are closed down to
+ * <code>minIdle</code>, and the pool is topped up to <code>minIdle</code>
+ * connections. No connection is opened before the pool is first used.
+ * </p>
+ * <p>
+ * If a statement cache size is set, each connection keeps that many prepared
+ * statements open; closing a statement returns it to the cache, and preparing the
+ * same statement again on the connection takes it from there. A statement whose
+ * settings, such as the maximum number of rows, were changed by its borrower is
+ * closed rather than returned to the cache.
+ * </p>
+ */
+public class SimplePooledDataSource implements DataSource, DisposableBean {
+
+	static final int DEFAULT_MAX_ACTIVE = 8;
+
+	static final long DEFAULT_VALIDATION_INTERVAL = 30000;
+
+	static final long DEFAULT_MAX_IDLE_TIME = 600000;
+
+	static final long DEFAULT_MAINTENANCE_INTERVAL = 30000;
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	private static final int IDLE = 0;
+
+	private static final int IN_USE = 1;
+
+	private static final int CLOSED = 2;
+
+	/**
+	 * Statement methods changing settings that would carry over to the next borrower
+	 * of a cached statement.
+	 */
+	private static final Set<String> STATEMENT_SETTERS = new HashSet<String>(Arrays.asList("setMaxRows",
+			"setLargeMaxRows", "setMaxFieldSize", "setFetchSize", "setFetchDirection", "setQueryTimeout",
+			"setEscapeProcessing", "setCursorName", "setPoolable", "closeOnCompletion"));
+
+	private static final Logger logger = Logger.getLogger(SimplePooledDataSource.class.getName());
+
+	private static final ServiceScheduler scheduler = new ServiceScheduler("cloud-connection-pool-maintenance");
+
+	private final String poolName;
+
+	private final Driver driver;
+
+	private final String url;
+
+	private final Properties connectionProperties;
+
+	private final String validationQuery;
+
+	private final AtomicReference<IdleNode> idleStack = new AtomicReference<IdleNode>();
+
+	private final ThreadLocal<WeakReference<PooledConnection>> lastUsed = new ThreadLocal<WeakReference<PooledConnection>>();
+
+	private final PoolSemaphore permits = new PoolSemaphore(DEFAULT_MAX_ACTIVE);
+
+	private final AtomicInteger totalConnections = new AtomicInteger();
+
+	private final AtomicInteger idleConnections = new AtomicInteger();
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private final Object maintenanceLock = new Object();
+
+	private final AtomicLong statementCacheHits = new AtomicLong();
+
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+
+	private final AtomicLong createdCount = new AtomicLong();
+
+	private final AtomicLong destroyedCount = new AtomicLong();
+
+	private final AtomicLong validationFailureCount = new AtomicLong();
+
+	private volatile boolean closed;
+
+	private volatile int minIdle;
+
+	private volatile int maxActive = DEFAULT_MAX_ACTIVE;
+
+	private volatile long maxWait = -1;
+
+	private volatile boolean testOnBorrow = true;
+
+	private volatile boolean testWhileIdle = true;
+
+	private volatile long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+
+	private volatile long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+	private long maintenanceInterval = DEFAULT_MAINTENANCE_INTERVAL;
+
+	private volatile int statementCacheSize;
+
+	private ScheduledFuture<?> maintenanceTask;
+
+	private PrintWriter logWriter;
+
+	private int loginTimeout;
+
+	/**
+	 * @param poolName name of the pool, used in log and error messages
+	 * @param driver driver opening the connections
+	 * @param url JDBC URL of the database
+	 * @param connectionProperties properties passed to the driver, including the user
+	 * name and password
+	 * @param validationQuery query validating connections, or null to validate them
+	 * with {@link Connection#isValid(int)}
+	 */
+	public SimplePooledDataSource(String poolName, Driver driver, String url, Properties connectionProperties,
+			String validationQuery) {
+		this.poolName = poolName;
+		this.driver = driver;
+		this.url = url;
+		this.connectionProperties = connectionProperties;
+		this.validationQuery = validationQuery;
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = Math.max(0, minIdle);
+	}
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	/**
+	 * Set the maximum number of borrowed connections. May be changed while the pool
+	 * is in use; when lowered, surplus connections are closed as they are returned.
+	 */
+	public synchronized void setMaxActive(int maxActive) {
+		int newMaxActive = Math.max(1, maxActive);
+		int delta = newMaxActive - this.maxActive;
+		if (delta > 0) {
+			permits.release(delta);
+		} else if (delta < 0) {
+			permits.reducePermits(-delta);
+		}
+		this.maxActive = newMaxActive;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * @param maxWait milliseconds to wait for a connection, or 0 or less to wait
+	 * without limit
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	/**
+	 * @param testOnBorrow whether connections idle for longer than the validation
+	 * interval are validated as they are borrowed
+	 */
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	public boolean isTestWhileIdle() {
+		return testWhileIdle;
+	}
+
+	/**
+	 * @param testWhileIdle whether idle connections are validated in the background
+	 */
+	public void setTestWhileIdle(boolean testWhileIdle) {
+		this.testWhileIdle = testWhileIdle;
+	}
+
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+
+	/**
+	 * @param validationInterval milliseconds a connection may stay idle before it is
+	 * validated as it is borrowed
+	 */
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	/**
+	 * @param maxIdleTime milliseconds after which idle connections beyond
+	 * <code>minIdle</code> are closed
+	 */
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	/**
+	 * @param maintenanceInterval milliseconds between background validation and
+	 * eviction runs, or 0 or less to not run them; takes effect when the pool is
+	 * first used
+	 */
+	public void setMaintenanceInterval(long maintenanceInterval) {
+		this.maintenanceInterval = maintenanceInterval;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * @param statementCacheSize maximum number of prepared statements cached per
+	 * connection, or 0 to not cache them; applies to connections opened afterwards
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = Math.max(0, statementCacheSize);
+	}
+
+	/**
+	 * @return number of prepared statements taken from the statement caches
+	 */
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+
+	/**
+	 * @return number of prepared statements prepared by the driver while statements
+	 * are cached
+	 */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
+	/**
+	 * @return number of connections opened
+	 */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	/**
+	 * @return number of connections closed
+	 */
+	public long getDestroyedCount() {
+		return destroyedCount.get();
+	}
+
+	/**
+	 * @return number of connections that failed validation
+	 */
+	public long getValidationFailureCount() {
+		return validationFailureCount.get();
+	}
+
+	/**
+	 * @return number of connections currently borrowed
+	 */
+	public int getActiveCount() {
+		return Math.max(0, totalConnections.get() - idleConnections.get());
+	}
+
+	/**
+	 * @return number of idle connections
+	 */
+	public int getIdleCount() {
+		return idleConnections.get();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool " + poolName + " is closed");
+		}
+		start();
+		acquirePermit();
+		PooledConnection pooled;
+		try {
+			pooled = borrow();
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		WeakReference<PooledConnection> previous = lastUsed.get();
+		if (previous == null || previous.get() != pooled) {
+			lastUsed.set(new WeakReference<PooledConnection>(pooled));
+		}
+		return pooled.newHandle();
+	}
+
+	/**
+	 * Not supported: all the connections of the pool are opened with the credentials
+	 * of its connection properties.
+	 *
+	 * @throws SQLFeatureNotSupportedException always
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Connection pool " + poolName
+				+ " only opens connections with the credentials of the service");
+	}
+
+	/**
+	 * Close the idle connections and stop the background maintenance. Borrowed
+	 * connections are closed as they are returned.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			if (maintenanceTask != null) {
+				maintenanceTask.cancel(false);
+				maintenanceTask = null;
+				scheduler.release();
+			}
+		}
+		PooledConnection pooled;
+		while ((pooled = pop()) != null) {
+			if (pooled.reserve()) {
+				discard(pooled);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		close();
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter logWriter) {
+		this.logWriter = logWriter;
+	}
+
+	@Override
+	public int getLoginTimeout() {
+		return loginTimeout;
+	}
+
+	@Override
+	public void setLoginTimeout(int loginTimeout) {
+		this.loginTimeout = loginTimeout;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return (T) this;
+		}
+		throw new SQLException("DataSource of type " + getClass().getName() + " cannot be unwrapped as "
+				+ iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public String toString() {
+		return "SimplePooledDataSource[" + poolName + ", " + url + "]";
+	}
+
+	private void start() {
+		if (started.get() || !started.compareAndSet(false, true)) {
+			return;
+		}
+		synchronized (this) {
+			if (maintenanceInterval > 0 && !closed) {
+				maintenanceTask = scheduler.acquire().scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						maintain();
+					}
+				}, 0, maintenanceInterval, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private void acquirePermit() throws SQLException {
+		long wait = maxWait;
+		try {
+			if (wait <= 0) {
+				permits.acquire();
+			} else if (!permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out after " + wait + "ms waiting for a connection from pool "
+						+ poolName + " (maxActive " + maxActive + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection from pool " + poolName);
+		}
+	}
+
+	private PooledConnection borrow() throws SQLException {
+		WeakReference<PooledConnection> previous = lastUsed.get();
+		PooledConnection pooled = previous != null ? previous.get() : null;
+		if (pooled != null && pooled.reserve() && validateOnBorrow(pooled)) {
+			return pooled;
+		}
+		while ((pooled = pop()) != null) {
+			if (pooled.reserve() && validateOnBorrow(pooled)) {
+				return pooled;
+			}
+		}
+		return openConnection();
+	}
+
+	private boolean validateOnBorrow(PooledConnection pooled) {
+		if (!testOnBorrow || System.currentTimeMillis() - pooled.lastValidated <= validationInterval
+				|| validate(pooled)) {
+			return true;
+		}
+		discard(pooled);
+		return false;
+	}
+
+	private PooledConnection openConnection() throws SQLException {
+		totalConnections.incrementAndGet();
+		try {
+			Connection connection = driver.connect(url, connectionProperties);
+			if (connection == null) {
+				throw new SQLException("Driver " + driver.getClass().getName() + " does not accept URL " + url);
+			}
+			createdCount.incrementAndGet();
+			return new PooledConnection(connection);
+		} catch (SQLException e) {
+			totalConnections.decrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			totalConnections.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private void release(PooledConnection pooled) {
+		try {
+			if (pooled.broken || closed || totalConnections.get() > maxActive || !pooled.reset()) {
+				discard(pooled);
+			} else {
+				pooled.lastReturned = System.currentTimeMillis();
+				makeIdle(pooled);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void closeStatement(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			logger.log(Level.FINE, "Failed to close statement of pool " + poolName, e);
+		}
+	}
+
+	private void makeIdle(PooledConnection pooled) {
+		idleConnections.incrementAndGet();
+		// the state must be set before the stack membership is checked; see pop()
+		pooled.state.set(IDLE);
+		push(pooled);
+	}
+
+	private void discard(PooledConnection pooled) {
+		if (pooled.state.getAndSet(CLOSED) == CLOSED) {
+			return;
+		}
+		totalConnections.decrementAndGet();
+		destroyedCount.incrementAndGet();
+		try {
+			pooled.connection.close();
+		} catch (SQLException e) {
+			logger.log(Level.FINE, "Failed to close connection of pool " + poolName, e);
+		}
+	}
+
+	private boolean validate(PooledConnection pooled) {
+		try {
+			if (validationQuery != null) {
+				Statement statement = pooled.connection.createStatement();
+				try {
+					statement.execute(validationQuery);
+				} finally {
+					statement.close();
+				}
+			} else if (!pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+				validationFailureCount.incrementAndGet();
+				return false;
+			}
+			pooled.lastValidated = System.currentTimeMillis();
+			return true;
+		} catch (SQLException e) {
+			logger.log(Level.FINE, "Validation of connection of pool " + poolName + " failed", e);
+			validationFailureCount.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Push a connection onto the idle stack, unless it is on it already. A connection
+	 * may be taken through the thread-affinity path while it is on the stack, and be
+	 * returned before it is popped, so pushing unconditionally would grow the stack
+	 * without bound.
+	 */
+	private void push(PooledConnection pooled) {
+		if (!pooled.onStack.compareAndSet(false, true)) {
+			return;
+		}
+		IdleNode node = new IdleNode(pooled);
+		do {
+			node.next = idleStack.get();
+		} while (!idleStack.compareAndSet(node.next, node));
+	}
+
+	/**
+	 * Pop a connection off the idle stack. The caller must still reserve it, as it
+	 * may have been taken through the thread-affinity path. The stack membership is
+	 * cleared before the caller tries to reserve the connection, so a connection
+	 * returned after a failed reservation is pushed again.
+	 */
+	private PooledConnection pop() {
+		IdleNode top;
+		do {
+			top = idleStack.get();
+			if (top == null) {
+				return null;
+			}
+		} while (!idleStack.compareAndSet(top, top.next));
+		top.connection.onStack.set(false);
+		return top.connection;
+	}
+
+	/**
+	 * Validate the idle connections if enabled, close those idle for too long beyond
+	 * <code>minIdle</code>, and top the pool up to <code>minIdle</code> connections.
+	 * <p>
+	 * The idle connections are checked one at a time where they are on the stack, as
+	 * on the thread-affinity path: only the connection being validated is reserved,
+	 * the others stay available to borrowers. The entries of connections found closed
+	 * are unlinked from the stack; only the maintenance does so, and a borrower
+	 * popping an entry concurrently at worst pops an unlinked, closed one, which it
+	 * skips.
+	 * </p>
+	 */
+	void maintain() {
+		synchronized (maintenanceLock) {
+			try {
+				long now = System.currentTimeMillis();
+				IdleNode previous = null;
+				for (IdleNode node = idleStack.get(); node != null; node = node.next) {
+					PooledConnection pooled = node.connection;
+					if (pooled.reserve()) {
+						if (closed || (now - pooled.lastReturned > maxIdleTime && totalConnections.get() > minIdle)
+								|| (testWhileIdle && !validate(pooled))) {
+							discard(pooled);
+						} else {
+							// still on the stack, unless a borrower popped it in the meantime
+							makeIdle(pooled);
+						}
+					}
+					if (previous != null && pooled.state.get() == CLOSED) {
+						previous.next = node.next;
+					} else {
+						previous = node;
+					}
+				}
+				while (!closed && totalConnections.get() < Math.min(minIdle, maxActive)) {
+					PooledConnection pooled = openConnection();
+					pooled.lastReturned = System.currentTimeMillis();
+					makeIdle(pooled);
+				}
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Maintenance of connection pool " + poolName + " failed", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Entry of the idle stack. A new entry is created for every push, so a
+	 * compare-and-set on the top of the stack cannot succeed against an entry that
+	 * was popped and pushed again in between.
+	 */
+	private static class IdleNode {
+
+		final PooledConnection connection;
+
+		volatile IdleNode next;
+
+		IdleNode(PooledConnection connection) {
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Semaphore whose permits can be reduced when the pool is resized.
+	 */
+	private static class PoolSemaphore extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		PoolSemaphore(int permits) {
+			super(permits);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+
+	/**
+	 * Physical connection held by the pool.
+	 */
+	private class PooledConnection {
+
+		final Connection connection;
+
+		final StatementCache statementCache;
+
+		final AtomicInteger state = new AtomicInteger(IN_USE);
+
+		final AtomicBoolean onStack = new AtomicBoolean();
+
+		volatile long lastReturned;
+
+		volatile long lastValidated = System.currentTimeMillis();
+
+		volatile boolean broken;
+
+		PooledConnection(Connection connection) {
+			this.connection = connection;
+			int cacheSize = statementCacheSize;
+			this.statementCache = cacheSize > 0 ? new StatementCache(cacheSize) : null;
+		}
+
+		/**
+		 * @return true if the connection was idle and is now reserved by the caller
+		 */
+		boolean reserve() {
+			if (state.compareAndSet(IDLE, IN_USE)) {
+				idleConnections.decrementAndGet();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Roll back work left uncommitted by the borrower, and release the cached
+		 * statements it left open.
+		 *
+		 * @return false if the connection could not be reset
+		 */
+		boolean reset() {
+			try {
+				if (statementCache != null) {
+					statementCache.releaseAll();
+				}
+				if (!connection.getAutoCommit()) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				connection.clearWarnings();
+				return true;
+			} catch (SQLException e) {
+				logger.log(Level.FINE, "Failed to reset connection of pool " + poolName, e);
+				return false;
+			}
+		}
+
+		Connection newHandle() {
+			return (Connection) Proxy.newProxyInstance(SimplePooledDataSource.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new ConnectionHandle(this));
+		}
+
+		/**
+		 * Invoke a method on the connection or one of its statements, marking the
+		 * connection broken if it fails with a connection exception.
+		 */
+		Object invoke(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getTargetException();
+				if (cause instanceof SQLException) {
+					String sqlState = ((SQLException) cause).getSQLState();
+					// class 08 is a connection exception, after which the connection is unusable
+					if (sqlState != null && sqlState.startsWith("08")) {
+						broken = true;
+					}
+				}
+				throw cause;
+			}
+		}
+	}
+
+	/**
+	 * Connection handed out to one borrower. Closing it returns the physical
+	 * connection to the pool; the handle cannot be used afterwards.
+	 */
+	private class ConnectionHandle implements InvocationHandler {
+
+		private final PooledConnection pooled;
+
+		private final AtomicBoolean handleClosed = new AtomicBoolean();
+
+		ConnectionHandle(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		boolean isClosed() {
+			return handleClosed.get();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("equals")) {
+				return proxy == args[0];
+			} else if (methodName.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (methodName.equals("toString")) {
+				return "Pooled connection to " + url;
+			} else if (methodName.equals("close")) {
+				if (handleClosed.compareAndSet(false, true)) {
+					release(pooled);
+				}
+				return null;
+			} else if (methodName.equals("isClosed")) {
+				return handleClosed.get();
+			}
+			if (handleClosed.get()) {
+				throw new SQLException("Connection is closed");
+			}
+			if (methodName.equals("prepareStatement") && pooled.statementCache != null && isCacheable(args)) {
+				return pooled.statementCache.prepare((Connection) proxy, this, method, args);
+			}
+			return pooled.invoke(pooled.connection, method, args);
+		}
+
+		/**
+		 * Statements prepared with column indexes or names are not cached, as arrays
+		 * do not compare by content.
+		 */
+		private boolean isCacheable(Object[] args) {
+			for (Object arg : args) {
+				if (!(arg instanceof String || arg instanceof Integer)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Prepared statements of one connection, by SQL and statement options, least
+	 * recently used first. Only the borrower of the connection uses the cache, and
+	 * releases the statements it left open when it returns the connection.
+	 */
+	private class StatementCache {
+
+		private final Map<List<Object>, CachedStatement> statements;
+
+		/**
+		 * Statements in use by the borrower but not in the cache, closed when released:
+		 * duplicates of a statement in use, and statements evicted while in use.
+		 */
+		private final List<CachedStatement> evictedInUse = new ArrayList<CachedStatement>();
+
+		StatementCache(final int maxSize) {
+			this.statements = new LinkedHashMap<List<Object>, CachedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedStatement> eldest) {
+					if (size() <= maxSize) {
+						return false;
+					}
+					evict(eldest.getValue());
+					return true;
+				}
+			};
+		}
+
+		synchronized PreparedStatement prepare(Connection handle, ConnectionHandle owner, Method method,
+				Object[] args) throws Throwable {
+			List<Object> key = Arrays.asList(args);
+			CachedStatement cached = statements.get(key);
+			if (cached != null && !cached.inUse) {
+				statementCacheHits.incrementAndGet();
+			} else {
+				statementCacheMisses.incrementAndGet();
+				PreparedStatement statement = (PreparedStatement) owner.pooled.invoke(owner.pooled.connection, method,
+						args);
+				if (cached != null) {
+					// the cached statement is in use; this one is closed when released
+					cached = new CachedStatement(this, statement);
+					cached.inUse = true;
+					evict(cached);
+				} else {
+					cached = new CachedStatement(this, statement);
+					statements.put(key, cached);
+				}
+			}
+			cached.inUse = true;
+			return (PreparedStatement) Proxy.newProxyInstance(SimplePooledDataSource.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new StatementHandle(cached, handle, owner));
+		}
+
+		synchronized void release(CachedStatement cached) {
+			if (!cached.inUse) {
+				return;
+			}
+			cached.inUse = false;
+			if (cached.evicted) {
+				evictedInUse.remove(cached);
+				closeStatement(cached.statement);
+				return;
+			}
+			if (cached.modified) {
+				statements.values().remove(cached);
+				closeStatement(cached.statement);
+				return;
+			}
+			try {
+				cached.statement.clearParameters();
+			} catch (SQLException e) {
+				statements.values().remove(cached);
+				closeStatement(cached.statement);
+			}
+		}
+
+		synchronized void releaseAll() {
+			for (CachedStatement cached : new ArrayList<CachedStatement>(evictedInUse)) {
+				release(cached);
+			}
+			for (CachedStatement cached : new ArrayList<CachedStatement>(statements.values())) {
+				release(cached);
+			}
+		}
+
+		/**
+		 * Take a statement out of the cache: it is closed now if unused, or else when it
+		 * is released.
+		 */
+		private void evict(CachedStatement cached) {
+			cached.evicted = true;
+			if (cached.inUse) {
+				evictedInUse.add(cached);
+			} else {
+				closeStatement(cached.statement);
+			}
+		}
+	}
+
+	/**
+	 * Prepared statement held by a {@link StatementCache}.
+	 */
+	private class CachedStatement {
+
+		final StatementCache cache;
+
+		final PreparedStatement statement;
+
+		boolean inUse;
+
+		boolean evicted;
+
+		/**
+		 * Set when the borrower changes one of the statement settings, which are not
+		 * reset for the next borrower.
+		 */
+		volatile boolean modified;
+
+		CachedStatement(StatementCache cache, PreparedStatement statement) {
+			this.cache = cache;
+			this.statement = statement;
+		}
+	}
+
+	/**
+	 * Prepared statement handed out to the borrower of a connection. Closing it
+	 * returns the statement to the cache.
+	 */
+	private class StatementHandle implements InvocationHandler {
+
+		private final CachedStatement cached;
+
+		private final Connection connectionHandle;
+
+		private final ConnectionHandle owner;
+
+		private final AtomicBoolean handleClosed = new AtomicBoolean();
+
+		StatementHandle(CachedStatement cached, Connection connectionHandle, ConnectionHandle owner) {
+			this.cached = cached;
+			this.connectionHandle = connectionHandle;
+			this.owner = owner;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("equals")) {
+				return proxy == args[0];
+			} else if (methodName.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (methodName.equals("toString")) {
+				return "Pooled statement " + cached.statement;
+			} else if (methodName.equals("close")) {
+				// once the connection is returned, its statements were released already
+				if (handleClosed.compareAndSet(false, true) && !owner.isClosed()) {
+					cached.cache.release(cached);
+				}
+				return null;
+			} else if (methodName.equals("isClosed")) {
+				return handleClosed.get() || owner.isClosed();
+			}
+			if (handleClosed.get() || owner.isClosed()) {
+				throw new SQLException("Statement is closed");
+			}
+			if (methodName.equals("getConnection")) {
+				return connectionHandle;
+			}
+			if (STATEMENT_SETTERS.contains(methodName)) {
+				cached.modified = true;
+			}
+			return owner.pooled.invoke(cached.statement, method, args);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
+import org.cloudfoundry.runtime.env.CloudServiceException;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ValidationStrategy;
+
+/**
+ * Provider of the built-in {@link SimplePooledDataSource}, which is always
+ * available and therefore comes last. It supports every {@link ValidationStrategy}.
+ */
+class SimplePooledDataSourceProvider extends AbstractPooledDataSourceProvider<SimplePooledDataSource> {
+
+	SimplePooledDataSourceProvider() {
+		super("simple", "org.cloudfoundry.runtime.service.relational.SimplePooledDataSource");
+	}
+
+	@Override
+	public DataSource createDataSource(AbstractDataSourceServiceInfo serviceInfo, String driverClassName,
+			String validationQuery, CloudConnectionConfiguration connectionConfiguration,
+			CloudPoolConfiguration poolConfiguration) {
+		Driver driver;
+		try {
+			driver = DriverManager.getDriver(serviceInfo.getUrl());
+		} catch (SQLException e) {
+			throw new CloudServiceException("No JDBC driver accepts URL " + serviceInfo.getUrl(), e);
+		}
+		Properties connectionProperties = new Properties();
+		if (connectionConfiguration != null) {
+			connectionProperties.putAll(CloudConnectionConfiguration.parseConnectionProperties(
+					connectionConfiguration.getConnectionProperties()));
+		}
+		if (serviceInfo.getUserName() != null) {
+			connectionProperties.setProperty("user", serviceInfo.getUserName());
+		}
+		if (serviceInfo.getPassword() != null) {
+			connectionProperties.setProperty("password", serviceInfo.getPassword());
+		}
+		CloudPoolConfiguration defaultedConfiguration = orDefaults(poolConfiguration);
+		SimplePooledDataSource dataSource = new SimplePooledDataSource(serviceInfo.getServiceName(), driver,
+				serviceInfo.getUrl(), connectionProperties,
+				defaultedConfiguration.isJdbc4Validation() ? null : validationQuery);
+		configureValidation(dataSource, defaultedConfiguration);
+		if (defaultedConfiguration.isStatementCacheEnabled()) {
+			dataSource.setStatementCacheSize(defaultedConfiguration.getStatementCacheSize());
+		}
+		applyPoolConfiguration(dataSource, poolConfiguration);
+		return dataSource;
+	}
+
+	private void configureValidation(SimplePooledDataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		ValidationStrategy validation = poolConfiguration.getValidation();
+		dataSource.setTestOnBorrow(validation == ValidationStrategy.ON_BORROW
+				|| validation == ValidationStrategy.ON_BORROW_IF_IDLE);
+		dataSource.setTestWhileIdle(validation == ValidationStrategy.WHILE_IDLE);
+		if (validation == ValidationStrategy.ON_BORROW) {
+			dataSource.setValidationInterval(0);
+		} else if (validation == ValidationStrategy.ON_BORROW_IF_IDLE) {
+			dataSource.setValidationInterval(poolConfiguration.getValidationInterval());
+		} else if (validation == ValidationStrategy.WHILE_IDLE) {
+			dataSource.setMaintenanceInterval(poolConfiguration.getValidationInterval());
+		}
+	}
+
+	@Override
+	protected void configurePool(SimplePooledDataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		if (poolConfiguration.getMinIdle() != null) {
+			dataSource.setMinIdle(poolConfiguration.getMinIdle());
+		}
+		if (poolConfiguration.getMaxActive() != null) {
+			dataSource.setMaxActive(poolConfiguration.getMaxActive());
+		}
+		if (poolConfiguration.getMaxWait() != null) {
+			dataSource.setMaxWait(poolConfiguration.getMaxWait());
+		}
+	}
+
+	@Override
+	public int getMaxActive(DataSource dataSource) {
+		return ((SimplePooledDataSource) dataSource).getMaxActive();
+	}
+
+	@Override
+	public int getMinIdle(DataSource dataSource) {
+		return ((SimplePooledDataSource) dataSource).getMinIdle();
+	}
+}
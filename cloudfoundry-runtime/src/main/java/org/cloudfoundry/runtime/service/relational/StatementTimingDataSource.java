@@ -0,0 +1,465 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.ServiceConnectionHandler;
+import org.cloudfoundry.runtime.service.ServiceDisposal;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Data source timing the statements executed on its connections.
+ * <p>
+ * Statements are grouped by shape, their SQL with literals replaced by
+ * <code>?</code> and whitespace collapsed, and the execution times of each shape
+ * go to a lock-free histogram. The shape of a prepared statement is worked out
+ * once, when it is prepared, rather than on every execution. Only the slowest shapes are kept: once
+ * <code>maxTrackedStatements</code> shapes are tracked, a new shape replaces the
+ * tracked one with the lowest maximum if it is slower. New shapes no slower than
+ * the lowest maximum last seen are turned away without looking at the tracked
+ * ones, and slots are reserved atomically, so that the bound holds under
+ * concurrent use without a lock. Statements slower than the
+ * threshold are logged as warnings, at most once per log interval; the others are
+ * counted.
+ * </p>
+ * <p>
+ * The statistics are published as an MBean named after the service (see
+ * {@link #registerMBean()}).
+ * </p>
+ */
+public class StatementTimingDataSource extends DelegatingDataSource implements StatementTimingDataSourceMBean,
+		DisposableBean {
+
+	public static final String MBEAN_TYPE = "Statements";
+
+	static final int DEFAULT_MAX_TRACKED_STATEMENTS = 100;
+
+	private static final int SLOWEST_STATEMENTS_REPORTED = 20;
+
+	private static final Logger logger = Logger.getLogger(StatementTimingDataSource.class.getName());
+
+	private final String serviceName;
+
+	private final long slowQueryThresholdMicros;
+
+	private final long logIntervalNanos;
+
+	private final ConcurrentMap<String, StatementStatistics> statistics =
+			new ConcurrentHashMap<String, StatementStatistics>();
+
+	/**
+	 * Slots taken by tracked shapes, reserved before a shape is added; never less than
+	 * the number of tracked shapes.
+	 */
+	private final AtomicInteger trackedCount = new AtomicInteger();
+
+	/**
+	 * No more than the lowest maximum among the tracked shapes: as maxima only grow, a
+	 * new shape no slower than this is not slower than any tracked one. Raised by
+	 * comparisons of the tracked shapes, lowered by shapes added since.
+	 */
+	private final AtomicLong admissionThreshold = new AtomicLong(-1);
+
+	private final StripedCounter statementCount = new StripedCounter();
+
+	private final StripedCounter slowStatementCount = new StripedCounter();
+
+	private final StripedCounter unloggedSlowStatementCount = new StripedCounter();
+
+	private final AtomicLong nextLogTime = new AtomicLong(System.nanoTime());
+
+	private volatile int maxTrackedStatements = DEFAULT_MAX_TRACKED_STATEMENTS;
+
+	private ObjectName objectName;
+
+	/**
+	 * @param slowQueryThreshold milliseconds after which a statement is logged
+	 * @param logInterval minimum milliseconds between two slow statements logged
+	 */
+	public StatementTimingDataSource(String serviceName, DataSource targetDataSource, long slowQueryThreshold,
+			long logInterval) {
+		super(targetDataSource);
+		this.serviceName = serviceName;
+		this.slowQueryThresholdMicros = slowQueryThreshold * 1000;
+		this.logIntervalNanos = logInterval * 1000000;
+	}
+
+	public void setMaxTrackedStatements(int maxTrackedStatements) {
+		this.maxTrackedStatements = Math.max(1, maxTrackedStatements);
+	}
+
+	/**
+	 * Register the statistics on the platform MBean server, replacing an MBean
+	 * registered for the same service.
+	 */
+	public synchronized void registerMBean() {
+		objectName = ServiceMBeans.register(MBEAN_TYPE, serviceName, this);
+	}
+
+	/**
+	 * Unregister the MBean and dispose of the target data source.
+	 */
+	@Override
+	public synchronized void destroy() {
+		ServiceMBeans.unregister(objectName, this);
+		objectName = null;
+		ServiceDisposal.dispose(getTargetDataSource());
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrap(getTargetDataSource().getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrap(getTargetDataSource().getConnection(username, password));
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * @return statistics of the slowest statement shapes by 99th percentile, slowest
+	 *         first
+	 */
+	public List<StatementStatistics> getSlowestStatements(int count) {
+		List<StatementStatistics> slowest = new ArrayList<StatementStatistics>(statistics.values());
+		final Map<StatementStatistics, Long> percentiles = new IdentityHashMap<StatementStatistics, Long>();
+		for (StatementStatistics statementStatistics : slowest) {
+			percentiles.put(statementStatistics, statementStatistics.get99thPercentile());
+		}
+		Collections.sort(slowest, new Comparator<StatementStatistics>() {
+			@Override
+			public int compare(StatementStatistics first, StatementStatistics second) {
+				return percentiles.get(second).compareTo(percentiles.get(first));
+			}
+		});
+		return slowest.size() > count ? slowest.subList(0, count) : slowest;
+	}
+
+	@Override
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	@Override
+	public long getSlowQueryThreshold() {
+		return slowQueryThresholdMicros / 1000;
+	}
+
+	@Override
+	public String[] getSlowestStatements() {
+		List<StatementStatistics> slowest = getSlowestStatements(SLOWEST_STATEMENTS_REPORTED);
+		String[] lines = new String[slowest.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = slowest.get(i).toString();
+		}
+		return lines;
+	}
+
+	@Override
+	public long getStatementCount() {
+		return statementCount.sum();
+	}
+
+	@Override
+	public long getSlowStatementCount() {
+		return slowStatementCount.sum();
+	}
+
+	@Override
+	public long getUnloggedSlowStatementCount() {
+		return unloggedSlowStatementCount.sum();
+	}
+
+	void record(String sql, long micros) {
+		recordShape(normalize(sql), micros);
+	}
+
+	/**
+	 * Record an execution of a statement of the given shape, normalized once for all
+	 * the executions of a prepared statement.
+	 */
+	private void recordShape(String shape, long micros) {
+		statementCount.increment();
+		StatementStatistics statementStatistics = statistics.get(shape);
+		if (statementStatistics != null) {
+			statementStatistics.latency.record(micros);
+		} else {
+			track(shape, micros);
+		}
+		if (micros >= slowQueryThresholdMicros) {
+			slowStatementCount.increment();
+			logSlowStatement(shape, micros);
+		}
+	}
+
+	/**
+	 * Track a new shape with its first execution time, unless it is faster than all
+	 * tracked shapes and none may be added.
+	 */
+	private void track(String shape, long micros) {
+		if (!reserveSlot() && (micros <= admissionThreshold.get() || !evictFasterThan(micros))) {
+			return;
+		}
+		// recorded before the shape is visible, so that it is not evicted as the fastest
+		StatementStatistics statementStatistics = new StatementStatistics(shape);
+		statementStatistics.latency.record(micros);
+		StatementStatistics existing = statistics.putIfAbsent(shape, statementStatistics);
+		if (existing != null) {
+			// tracked by another thread meanwhile
+			trackedCount.decrementAndGet();
+			existing.latency.record(micros);
+			return;
+		}
+		// keep the threshold below this shape, which a comparison running meanwhile may miss
+		while (true) {
+			long threshold = admissionThreshold.get();
+			if (threshold <= micros || admissionThreshold.compareAndSet(threshold, micros)) {
+				return;
+			}
+		}
+	}
+
+	private boolean reserveSlot() {
+		while (true) {
+			int count = trackedCount.get();
+			if (count >= maxTrackedStatements) {
+				return false;
+			}
+			if (trackedCount.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove the tracked shape with the lowest maximum if it is faster than the given
+	 * time, handing its slot to the caller.
+	 *
+	 * @return true if the caller now holds a slot
+	 */
+	private boolean evictFasterThan(long micros) {
+		long threshold = admissionThreshold.get();
+		Map.Entry<String, StatementStatistics> fastest = null;
+		long fastestMax = Long.MAX_VALUE;
+		for (Map.Entry<String, StatementStatistics> entry : statistics.entrySet()) {
+			long max = entry.getValue().latency.getMax();
+			if (max < fastestMax) {
+				fastest = entry;
+				fastestMax = max;
+			}
+		}
+		if (fastest == null) {
+			return false;
+		}
+		// not raised if a shape this comparison may have missed was added meanwhile
+		admissionThreshold.compareAndSet(threshold, fastestMax);
+		// only one of the threads evicting the same shape takes its slot
+		return fastestMax < micros && statistics.remove(fastest.getKey(), fastest.getValue());
+	}
+
+	private void logSlowStatement(String shape, long micros) {
+		long now = System.nanoTime();
+		long next = nextLogTime.get();
+		if (now - next < 0 || !nextLogTime.compareAndSet(next, now + logIntervalNanos)) {
+			unloggedSlowStatementCount.increment();
+			return;
+		}
+		if (logger.isLoggable(Level.WARNING)) {
+			logger.warning("Statement on " + serviceName + " took " + micros / 1000 + "ms: " + shape);
+		}
+	}
+
+	/**
+	 * Replace the string and numeric literals of a statement by <code>?</code> and
+	 * collapse whitespace, so that statements differing only in their literals have
+	 * the same shape.
+	 */
+	static String normalize(String sql) {
+		if (sql == null) {
+			return "";
+		}
+		StringBuilder shape = new StringBuilder(sql.length());
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				// skip the literal, including doubled quotes
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				shape.append('?');
+				i++;
+			} else if (Character.isDigit(c) && !isIdentifierPart(shape)) {
+				while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				shape.append('?');
+			} else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if (shape.length() > 0 && i < length) {
+					shape.append(' ');
+				}
+			} else {
+				shape.append(c);
+				i++;
+			}
+		}
+		return shape.toString();
+	}
+
+	private static boolean isIdentifierPart(StringBuilder shape) {
+		if (shape.length() == 0) {
+			return false;
+		}
+		char previous = shape.charAt(shape.length() - 1);
+		return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+	}
+
+	private Connection wrap(Connection connection) {
+		return (Connection) new ConnectionHandler(connection).createProxy(Connection.class);
+	}
+
+	/**
+	 * Execution count and times of one statement shape.
+	 */
+	public static class StatementStatistics {
+
+		private final String sql;
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		StatementStatistics(String sql) {
+			this.sql = sql;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public long getCount() {
+			return latency.getCount();
+		}
+
+		public double getMean() {
+			return latency.getMean();
+		}
+
+		public long get50thPercentile() {
+			return latency.getPercentile(50);
+		}
+
+		public long get99thPercentile() {
+			return latency.getPercentile(99);
+		}
+
+		public long getMax() {
+			return latency.getMax();
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + get50thPercentile()
+					+ " p99=" + get99thPercentile() + " max=" + getMax() + " " + sql;
+		}
+	}
+
+	/**
+	 * Wraps the statements created by the connection.
+	 */
+	private class ConnectionHandler extends ServiceConnectionHandler<Connection> {
+
+		ConnectionHandler(Connection target) {
+			super(target);
+		}
+
+		@Override
+		protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = super.invokeTarget(proxy, method, args);
+			if (result instanceof Statement) {
+				Class<?> statementInterface = result instanceof CallableStatement ? CallableStatement.class
+						: result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+				String sql = method.getName().equals("createStatement") ? null : (String) args[0];
+				return new StatementHandler((Statement) result, (Connection) proxy, sql).createProxy(statementInterface);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Times the executions of a statement.
+	 */
+	private class StatementHandler extends ServiceConnectionHandler<Statement> {
+
+		private final Connection connection;
+
+		private final String preparedShape;
+
+		private volatile String batchSql;
+
+		StatementHandler(Statement target, Connection connection, String preparedSql) {
+			super(target);
+			this.connection = connection;
+			this.preparedShape = preparedSql != null ? normalize(preparedSql) : null;
+		}
+
+		@Override
+		protected Object invokeTarget(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("getConnection")) {
+				return connection;
+			} else if (methodName.equals("addBatch") && args != null && args.length == 1) {
+				batchSql = (String) args[0];
+			} else if (methodName.startsWith("execute")) {
+				long start = System.nanoTime();
+				try {
+					return super.invokeTarget(proxy, method, args);
+				} finally {
+					long micros = (System.nanoTime() - start) / 1000;
+					if (args != null && args.length > 0 && args[0] instanceof String) {
+						recordShape(normalize((String) args[0]), micros);
+					} else {
+						recordShape(preparedShape != null ? preparedShape : normalize(batchSql), micros);
+					}
+				}
+			}
+			return super.invokeTarget(proxy, method, args);
+		}
+	}
+}
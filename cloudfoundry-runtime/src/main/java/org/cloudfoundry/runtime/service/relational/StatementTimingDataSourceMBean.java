@@ -0,0 +1,27 @@
+package org.cloudfoundry.runtime.service.relational;
+
+/**
+ * Management interface of {@link StatementTimingDataSource}.
+ */
+public interface StatementTimingDataSourceMBean {
+
+	String getServiceName();
+
+	long getSlowQueryThreshold();
+
+	/**
+	 * @return the slowest statement shapes by 99th percentile, one per line with
+	 *         their execution count and mean, median, 99th percentile and maximum
+	 *         execution times in microseconds
+	 */
+	String[] getSlowestStatements();
+
+	long getStatementCount();
+
+	long getSlowStatementCount();
+
+	/**
+	 * @return number of slow statements not logged because of the log interval
+	 */
+	long getUnloggedSlowStatementCount();
+}
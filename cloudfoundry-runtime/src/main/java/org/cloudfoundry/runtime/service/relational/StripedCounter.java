@@ -0,0 +1,63 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading its updates across cells picked by thread, so that threads
+ * updating it concurrently rarely contend on one cache line. Reading the count sums
+ * the cells and is not atomic with concurrent updates.
+ */
+final class StripedCounter {
+
+	/**
+	 * Longs between two cells, so that each cell has a cache line of its own.
+	 */
+	private static final int PADDING = 8;
+
+	private static final int STRIPES = stripes();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	void increment() {
+		add(1);
+	}
+
+	void decrement() {
+		add(-1);
+	}
+
+	void add(long delta) {
+		cells.addAndGet(cellIndex(), delta);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	/**
+	 * Set the count back to zero; updates made meanwhile may be lost.
+	 */
+	void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			cells.set(i * PADDING, 0);
+		}
+	}
+
+	private static int cellIndex() {
+		// spread consecutive thread ids across the cells
+		int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return ((hash ^ (hash >>> 16)) & (STRIPES - 1)) * PADDING;
+	}
+
+	private static int stripes() {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 64) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+}
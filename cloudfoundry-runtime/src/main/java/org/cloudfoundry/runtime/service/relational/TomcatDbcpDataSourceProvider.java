@@ -0,0 +1,92 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.tomcat.dbcp.dbcp.BasicDataSource;
+import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ValidationStrategy;
+
+/**
+ * Provider of data sources of the DBCP repackaged in Tomcat. Validation strategies
+ * are mapped as for {@link CommonsDbcpDataSourceProvider Commons DBCP}.
+ */
+class TomcatDbcpDataSourceProvider extends AbstractPooledDataSourceProvider<BasicDataSource> {
+
+	TomcatDbcpDataSourceProvider() {
+		super("tomcat-dbcp", "org.apache.tomcat.dbcp.dbcp.BasicDataSource");
+	}
+
+	@Override
+	public DataSource createDataSource(AbstractDataSourceServiceInfo serviceInfo, String driverClassName,
+			String validationQuery, CloudConnectionConfiguration connectionConfiguration,
+			CloudPoolConfiguration poolConfiguration) {
+		BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setDriverClassName(driverClassName);
+		dataSource.setUrl(serviceInfo.getUrl());
+		dataSource.setUsername(serviceInfo.getUserName());
+		dataSource.setPassword(serviceInfo.getPassword());
+		configureValidation(dataSource, validationQuery, orDefaults(poolConfiguration));
+		if (orDefaults(poolConfiguration).isStatementCacheEnabled()) {
+			dataSource.setPoolPreparedStatements(true);
+			dataSource.setMaxOpenPreparedStatements(poolConfiguration.getStatementCacheSize());
+		}
+		if (connectionConfiguration != null && connectionConfiguration.getConnectionProperties() != null) {
+			// this DBCP version only takes the properties one at a time
+			Properties connectionProperties = CloudConnectionConfiguration.parseConnectionProperties(
+					connectionConfiguration.getConnectionProperties());
+			for (String name : connectionProperties.stringPropertyNames()) {
+				dataSource.addConnectionProperty(name, connectionProperties.getProperty(name));
+			}
+		}
+		applyPoolConfiguration(dataSource, poolConfiguration);
+		return dataSource;
+	}
+
+	private void configureValidation(BasicDataSource dataSource, String validationQuery,
+			CloudPoolConfiguration poolConfiguration) {
+		ValidationStrategy validation = poolConfiguration.getValidation();
+		if (validationQuery == null || validation == ValidationStrategy.NONE) {
+			return;
+		}
+		dataSource.setValidationQuery(validationQuery);
+		if (validation == ValidationStrategy.ON_BORROW) {
+			dataSource.setTestOnBorrow(true);
+		} else {
+			// DBCP tests on borrow by default
+			dataSource.setTestOnBorrow(false);
+			dataSource.setTestWhileIdle(true);
+			dataSource.setTimeBetweenEvictionRunsMillis(poolConfiguration.getValidationInterval());
+			// test all idle connections in each run
+			dataSource.setNumTestsPerEvictionRun(-1);
+		}
+	}
+
+	@Override
+	protected void configurePool(BasicDataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		if (poolConfiguration.getInitialSize() != null) {
+			dataSource.setInitialSize(poolConfiguration.getInitialSize());
+		}
+		if (poolConfiguration.getMinIdle() != null) {
+			dataSource.setMinIdle(poolConfiguration.getMinIdle());
+		}
+		if (poolConfiguration.getMaxActive() != null) {
+			dataSource.setMaxActive(poolConfiguration.getMaxActive());
+		}
+		if (poolConfiguration.getMaxWait() != null) {
+			dataSource.setMaxWait(poolConfiguration.getMaxWait());
+		}
+	}
+
+	@Override
+	public int getMaxActive(DataSource dataSource) {
+		return ((BasicDataSource) dataSource).getMaxActive();
+	}
+
+	@Override
+	public int getMinIdle(DataSource dataSource) {
+		return ((BasicDataSource) dataSource).getMinIdle();
+	}
+}
@@ -0,0 +1,129 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.apache.tomcat.jdbc.pool.Validator;
+import org.cloudfoundry.runtime.env.AbstractDataSourceServiceInfo;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ValidationStrategy;
+
+/**
+ * Provider of Tomcat JDBC pool data sources. Unlike DBCP, the pool does not lock
+ * when connections are borrowed and returned, and it supports every
+ * {@link ValidationStrategy} as well as validation with
+ * <code>Connection.isValid</code>.
+ */
+class TomcatJdbcDataSourceProvider extends AbstractPooledDataSourceProvider<DataSource> {
+
+	private static final String STATEMENT_CACHE_INTERCEPTOR = "org.apache.tomcat.jdbc.pool.interceptor.StatementCache";
+
+	TomcatJdbcDataSourceProvider() {
+		super("tomcat-jdbc", "org.apache.tomcat.jdbc.pool.DataSource");
+	}
+
+	@Override
+	public javax.sql.DataSource createDataSource(AbstractDataSourceServiceInfo serviceInfo, String driverClassName,
+			String validationQuery, CloudConnectionConfiguration connectionConfiguration,
+			CloudPoolConfiguration poolConfiguration) {
+		PoolProperties poolProperties = new PoolProperties();
+		poolProperties.setDriverClassName(driverClassName);
+		poolProperties.setUrl(serviceInfo.getUrl());
+		poolProperties.setUsername(serviceInfo.getUserName());
+		poolProperties.setPassword(serviceInfo.getPassword());
+		configureValidation(poolProperties, validationQuery, orDefaults(poolConfiguration));
+		if (connectionConfiguration != null && connectionConfiguration.getConnectionProperties() != null) {
+			poolProperties.setConnectionProperties(connectionConfiguration.getConnectionProperties());
+		}
+		configureStatementCache(poolProperties, orDefaults(poolConfiguration));
+		DataSource dataSource = new DataSource(poolProperties);
+		applyPoolConfiguration(dataSource, poolConfiguration);
+		return dataSource;
+	}
+
+	private void configureValidation(PoolProperties poolProperties, String validationQuery,
+			CloudPoolConfiguration poolConfiguration) {
+		ValidationStrategy validation = poolConfiguration.getValidation();
+		if (validation == ValidationStrategy.NONE) {
+			return;
+		}
+		if (poolConfiguration.isJdbc4Validation()) {
+			poolProperties.setValidator(new IsValidValidator());
+		} else if (validationQuery != null) {
+			poolProperties.setValidationQuery(validationQuery);
+		} else {
+			return;
+		}
+		switch (validation) {
+		case ON_BORROW:
+			poolProperties.setTestOnBorrow(true);
+			poolProperties.setValidationInterval(0);
+			break;
+		case ON_BORROW_IF_IDLE:
+			poolProperties.setTestOnBorrow(true);
+			poolProperties.setValidationInterval(poolConfiguration.getValidationInterval());
+			break;
+		default:
+			poolProperties.setTestWhileIdle(true);
+			poolProperties.setTimeBetweenEvictionRunsMillis(poolConfiguration.getValidationInterval());
+		}
+	}
+
+	private void configureStatementCache(PoolProperties poolProperties, CloudPoolConfiguration poolConfiguration) {
+		if (!poolConfiguration.isStatementCacheEnabled()) {
+			return;
+		}
+		// the interceptor limits the statements cached across the pool
+		int maxActive = poolConfiguration.getMaxActive() != null ? poolConfiguration.getMaxActive()
+				: poolProperties.getMaxActive();
+		poolProperties.setJdbcInterceptors(STATEMENT_CACHE_INTERCEPTOR + "(prepared=true,callable=false,max="
+				+ poolConfiguration.getStatementCacheSize() * maxActive + ")");
+	}
+
+	@Override
+	protected void configurePool(DataSource dataSource, CloudPoolConfiguration poolConfiguration) {
+		if (poolConfiguration.getInitialSize() != null) {
+			dataSource.setInitialSize(poolConfiguration.getInitialSize());
+		}
+		if (poolConfiguration.getMinIdle() != null) {
+			dataSource.setMinIdle(poolConfiguration.getMinIdle());
+		}
+		if (poolConfiguration.getMaxActive() != null) {
+			dataSource.setMaxActive(poolConfiguration.getMaxActive());
+			// idle connections beyond this are closed on return
+			dataSource.setMaxIdle(poolConfiguration.getMaxActive());
+		}
+		if (poolConfiguration.getMaxWait() != null) {
+			dataSource.setMaxWait(poolConfiguration.getMaxWait());
+		}
+	}
+
+	@Override
+	public int getMaxActive(javax.sql.DataSource dataSource) {
+		return ((DataSource) dataSource).getMaxActive();
+	}
+
+	@Override
+	public int getMinIdle(javax.sql.DataSource dataSource) {
+		return ((DataSource) dataSource).getMinIdle();
+	}
+
+	/**
+	 * Validates connections with the JDBC 4 <code>Connection.isValid</code> method.
+	 */
+	private static class IsValidValidator implements Validator {
+
+		private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+		@Override
+		public boolean validate(Connection connection, int validateAction) {
+			try {
+				return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+	}
+}
@@ -16,10 +16,15 @@ import static org.cloudfoundry.runtime.service.CloudEnvironmentTestHelper.getFul
 import static org.cloudfoundry.runtime.service.CloudEnvironmentTestHelper.getServicesPayload;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -29,6 +34,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
 
 /**
  * Unit test for CloudEnvironment
@@ -51,6 +57,7 @@ public class CloudEnvironmentTest {
 		MockitoAnnotations.initMocks(this);
 		
 		testRuntime.setCloudEnvironment(mockEnvironment);
+		EnvironmentSnapshot.clearSharedSnapshots();
 	}
 	
 	@Test
@@ -102,6 +109,20 @@ public class CloudEnvironmentTest {
 		assertEquals(2, serviceData.size());
 	}
 
+	@Test
+	public void getServiceInfo_nameNotFound() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+
+		assertNull(testRuntime.getServiceInfo("notfound", RedisServiceInfo.class));
+	}
+
+	@Test
+	public void getServiceInfo_typeMismatch() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+
+		assertNull(testRuntime.getServiceInfo("mongo-3", RedisServiceInfo.class));
+	}
+
 	@Test
 	public void getServiceInfoRedis() {
 		String serviceName = "redis-1";
@@ -222,6 +243,76 @@ public class CloudEnvironmentTest {
 		assertEquals(password, info.getPassword());
 	}
 
+	@Test
+	public void getServiceInfoMultiHostUri() {
+		when(mockEnvironment.getValue("VCAP_SERVICES"))
+			.thenReturn(getServicesPayload(new String[]{getElephantSQLServicePayload("n/a", "postgresql-1", "h1:5432,h2", 5433, username, password, "db-123")},
+					null,
+					null,
+					null));
+		RdbmsServiceInfo info = testRuntime.getServiceInfo("postgresql-1", RdbmsServiceInfo.class);
+		assertEquals(Arrays.asList("h1:5432", "h2:5433"), info.getHosts());
+		assertEquals("jdbc:postgresql://h1:5432/db-123", info.getUrl());
+		assertEquals(username, info.getUserName());
+		assertEquals(password, info.getPassword());
+		List<AbstractDataSourceServiceInfo> hostInfos = info.getHostServiceInfos();
+		assertEquals(2, hostInfos.size());
+		assertEquals("jdbc:postgresql://h1:5432/db-123", hostInfos.get(0).getUrl());
+		assertEquals("jdbc:postgresql://h2:5433/db-123", hostInfos.get(1).getUrl());
+		assertEquals(password, hostInfos.get(1).getPassword());
+	}
+
+	@Test
+	public void getServiceInfoMultiHostHostname() {
+		when(mockEnvironment.getValue("VCAP_SERVICES"))
+			.thenReturn(getServicesPayload(new String[]{getMysqlServicePayload("5.5", "mysql-1", "h1, h2", port, username, password, "database-123")},
+					null,
+					null,
+					null));
+		RdbmsServiceInfo info = testRuntime.getServiceInfo("mysql-1", RdbmsServiceInfo.class);
+		assertEquals(Arrays.asList("h1:" + port, "h2:" + port), info.getHosts());
+		assertEquals("jdbc:mysql://h1:" + port + "/database-123", info.getUrl());
+		assertEquals("jdbc:mysql://h2:" + port + "/database-123", info.getHostServiceInfos().get(1).getUrl());
+	}
+
+	@Test
+	public void getServiceInfoMultiHostList() {
+		String services = getServicesPayload(new String[]{getPostgreSQLServicePayload("9.0", "postgresql-1", hostname, 5433, username, password, "db-123")
+				.replace("\"credentials\": {", "\"credentials\": {\"hosts\": [\"h1:5432\", \"h2\"],")},
+				null,
+				null,
+				null);
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(services);
+
+		// streamed over VCAP_SERVICES
+		assertHostList(testRuntime.getServiceInfo("postgresql-1", RdbmsServiceInfo.class));
+
+		// built from the raw service data
+		EnvironmentSnapshot.clearSharedSnapshots();
+		CloudEnvironment runtime = new CloudEnvironment();
+		runtime.setCloudEnvironment(mockEnvironment);
+		assertEquals(1, runtime.getServices().size());
+		assertHostList(runtime.getServiceInfo("postgresql-1", RdbmsServiceInfo.class));
+	}
+
+	private static void assertHostList(RdbmsServiceInfo info) {
+		assertEquals(Arrays.asList("h1:5432", "h2:5433"), info.getHosts());
+		assertEquals("jdbc:postgresql://h1:5432/db-123", info.getUrl());
+		assertEquals("jdbc:postgresql://h2:5433/db-123", info.getHostServiceInfos().get(1).getUrl());
+	}
+
+	@Test
+	public void getServiceInfoSingleHost() {
+		when(mockEnvironment.getValue("VCAP_SERVICES"))
+			.thenReturn(getServicesPayload(new String[]{getMysqlServicePayload("5.5", "mysql-1", hostname, port, username, password, "database-123")},
+					null,
+					null,
+					null));
+		RdbmsServiceInfo info = testRuntime.getServiceInfo("mysql-1", RdbmsServiceInfo.class);
+		assertEquals(Collections.singletonList(hostname + ":" + port), info.getHosts());
+		assertSame(info, info.getHostServiceInfos().get(0));
+	}
+
 	@Test
 	public void getServiceInfoRds() {
 		// values as close to real data as possible
@@ -515,4 +606,160 @@ public class CloudEnvironmentTest {
 		assertEquals("redis-2.2", cloudProperties.getProperty("cloud.services.mongodb.type"));
 	}
 
+	@Test
+	public void snapshot_reusedWhileEnvironmentUnchanged() {
+		when(mockEnvironment.getValue("VCAP_APPLICATION")).thenReturn(getApplicationInstanceInfo("foo", "foo.cloudfoundry.com"));
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+
+		EnvironmentSnapshot snapshot = testRuntime.getSnapshot();
+		assertSame(snapshot, testRuntime.getSnapshot());
+		assertSame(testRuntime.getServices(), testRuntime.getServices());
+		assertSame(testRuntime.getInstanceInfo(), testRuntime.getInstanceInfo());
+	}
+
+	@Test
+	public void snapshot_refreshedWhenEnvironmentChanges() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+		EnvironmentSnapshot snapshot = testRuntime.getSnapshot();
+		assertEquals("mongo-3", testRuntime.getServiceDataByName("mongo-3").get("name"));
+
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getServicesPayload(null, null, null, null));
+		assertNotSame(snapshot, testRuntime.getSnapshot());
+		assertNull(testRuntime.getServiceDataByName("mongo-3"));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void getServices_sharedListIsUnmodifiable() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+
+		testRuntime.getServices().clear();
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void getServiceDataByName_sharedDataIsUnmodifiable() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+
+		testRuntime.getServiceDataByName("mongo-3").put("name", "other");
+	}
+
+	@Test
+	public void getServiceInfos_builtWithoutRawServiceData() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getFullServicesPayload());
+
+		List<RedisServiceInfo> infos = testRuntime.getServiceInfos(RedisServiceInfo.class);
+		assertEquals(1, infos.size());
+		assertEquals("redis-host", infos.get(0).getHost());
+		assertSame(infos, testRuntime.getServiceInfos(RedisServiceInfo.class));
+		assertSame(infos.get(0), testRuntime.getServiceInfo("redis-2", RedisServiceInfo.class));
+		assertNull(ReflectionTestUtils.getField(testRuntime.getSnapshot(), "rawServices"));
+	}
+
+	@Test
+	public void getServiceInfos_nestedAttributesSkipped() {
+		String redisPayload = "{\"name\":\"redis-1\",\"label\":\"redis-2.2\",\"plan\":\"free\"," +
+				"\"tags\":[\"redis\",{\"nested\":[1,2]}]," +
+				"\"credentials\":{\"hostname\":\"" + hostname + "\",\"port\":" + port + "," +
+				"\"ssl\":{\"ca\":\"-----BEGIN CERTIFICATE-----\"},\"password\":\"" + password + "\"}}";
+		when(mockEnvironment.getValue("VCAP_SERVICES"))
+			.thenReturn(getServicesPayload(null, new String[]{redisPayload}, null, null));
+
+		RedisServiceInfo info = testRuntime.getServiceInfo("redis-1", RedisServiceInfo.class);
+		assertEquals(hostname, info.getHost());
+		assertEquals(port, info.getPort());
+		assertEquals(password, info.getPassword());
+	}
+
+	@Test
+	public void getServiceInfos_failureLimitedToType() {
+		when(mockEnvironment.getValue("VCAP_SERVICES"))
+			.thenReturn(getServicesPayload(null,
+					new String[]{getRedisServicePayload("2.2", "redis-1", hostname, port, password, "r1")},
+					null,
+					new String[]{getRabbitSRSServicePayload("2.4", "rabbit-1", "http://" + hostname)}));
+
+		assertEquals(1, testRuntime.getServiceInfos(RedisServiceInfo.class).size());
+		try {
+			testRuntime.getServiceInfos(RabbitServiceInfo.class);
+			fail("Expected an invalid rabbit URI to be reported");
+		} catch (CloudServiceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void getCloudPropertyMap_sharedWhileEnvironmentUnchanged() {
+		when(mockEnvironment.getValue("VCAP_APPLICATION")).thenReturn(getApplicationInstanceInfo("foo", "foo.cloudfoundry.com"));
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getServicesPayload(
+			new String[]{ getMysqlServicePayload("5.1", "mydb", hostname, port, "mydb-user", "mydb-password", "mydb-name")},
+			null, null, null));
+
+		Map<String, String> cloudProperties = testRuntime.getCloudPropertyMap();
+		assertSame(cloudProperties, testRuntime.getCloudPropertyMap());
+		assertEquals(cloudProperties, testRuntime.getCloudProperties());
+		assertNotSame(testRuntime.getCloudProperties(), testRuntime.getCloudProperties());
+		try {
+			cloudProperties.put("cloud.application.name", "bar");
+			fail("Expected shared cloud properties to be read-only");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void getCloudPropertyMap_unchangedServicePropertiesReused() {
+		String mydb = getMysqlServicePayload("5.1", "mydb", hostname, port, "mydb-user", "mydb-password", "mydb-name");
+		when(mockEnvironment.getValue("VCAP_APPLICATION")).thenReturn(getApplicationInstanceInfo("foo", "foo.cloudfoundry.com"));
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getServicesPayload(
+			new String[]{ mydb }, new String[]{ getRedisServicePayload("2.2", "mykey", "2.2.0.0", 2200, "redis-password", "redis-name") },
+			null, null));
+		testRuntime.getCloudPropertyMap();
+		Map<?, ?> previous = (Map<?, ?>) ReflectionTestUtils.getField(testRuntime.getSnapshot(), "servicePropertiesByService");
+
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getServicesPayload(
+			new String[]{ mydb }, new String[]{ getRedisServicePayload("2.2", "mykey", "2.2.0.1", 2201, "redis-password", "redis-name") },
+			null, null));
+		Map<String, String> cloudProperties = testRuntime.getCloudPropertyMap();
+		Map<?, ?> current = (Map<?, ?>) ReflectionTestUtils.getField(testRuntime.getSnapshot(), "servicePropertiesByService");
+
+		Map<String, Object> mydbService = testRuntime.getServiceDataByName("mydb");
+		Map<String, Object> mykeyService = testRuntime.getServiceDataByName("mykey");
+		assertSame(previous.get(mydbService), current.get(mydbService));
+		assertNull(previous.get(mykeyService));
+		assertEquals(2, current.size());
+		assertEquals("2.2.0.1", cloudProperties.get("cloud.services.mykey.connection.hostname"));
+		assertEquals("2.2.0.1", cloudProperties.get("cloud.services.redis.connection.hostname"));
+		assertEquals(hostname, cloudProperties.get("cloud.services.mysql.connection.hostname"));
+	}
+
+	@Test
+	public void snapshot_sharedByCloudEnvironments() {
+		when(mockEnvironment.getValue("VCAP_SERVICES")).thenReturn(getServicesPayload(null,
+				new String[]{getRedisServicePayload("2.2", "redis-1", hostname, port, password, "r1")}, null, null));
+		CloudEnvironment otherRuntime = new CloudEnvironment(mockEnvironment);
+
+		assertSame(testRuntime.getSnapshot(), otherRuntime.getSnapshot());
+		assertSame(testRuntime.getServiceInfos(RedisServiceInfo.class), otherRuntime.getServiceInfos(RedisServiceInfo.class));
+	}
+
+	@Test
+	public void getInstanceInfo_limits() {
+		when(mockEnvironment.getValue("VCAP_APPLICATION")).thenReturn(getApplicationInstanceInfo("foo", "foo.cloudfoundry.com"));
+
+		ApplicationInstanceInfo instanceInfo = testRuntime.getInstanceInfo();
+		assertEquals(134217728L, instanceInfo.getMemoryLimit());
+		assertEquals(256, instanceInfo.getFileDescriptorLimit());
+		assertEquals(2147483648L, instanceInfo.getDiskLimit());
+	}
+
+	@Test
+	public void getInstanceInfo_limitsInMegabytes() {
+		when(mockEnvironment.getValue("VCAP_APPLICATION")).thenReturn(
+				"{\"name\":\"foo\",\"instance_index\":0,\"port\":1234,\"uris\":[\"foo.cloudfoundry.com\"],"
+				+ "\"limits\":{\"mem\":512,\"disk\":1024,\"fds\":16384}}");
+
+		ApplicationInstanceInfo instanceInfo = testRuntime.getInstanceInfo();
+		assertEquals(512L * 1024 * 1024, instanceInfo.getMemoryLimit());
+		assertEquals(16384, instanceInfo.getFileDescriptorLimit());
+		assertEquals(1024L * 1024 * 1024, instanceInfo.getDiskLimit());
+	}
 }
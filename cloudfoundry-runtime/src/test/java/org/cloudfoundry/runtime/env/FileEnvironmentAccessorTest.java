@@ -0,0 +1,76 @@
+package org.cloudfoundry.runtime.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileEnvironmentAccessorTest {
+
+	private File file;
+
+	@Before
+	public void setup() throws IOException {
+		file = File.createTempFile("vcap", ".json");
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+
+	@Test
+	public void valuesReadFromFile() throws IOException {
+		write("{\"VCAP_APPLICATION\":\"{\\\"name\\\":\\\"foo\\\"}\",\"VCAP_SERVICES\":{\"redis-2.2\":[]}}");
+		FileEnvironmentAccessor accessor = new FileEnvironmentAccessor(file, 0);
+
+		assertEquals("{\"name\":\"foo\"}", accessor.getValue("VCAP_APPLICATION"));
+		assertEquals("{\"redis-2.2\":[]}", accessor.getValue("VCAP_SERVICES"));
+		assertEquals(System.getenv("PATH"), accessor.getValue("PATH"));
+	}
+
+	@Test
+	public void changesDetected() throws IOException {
+		write("{\"VCAP_SERVICES\":\"{}\"}");
+		FileEnvironmentAccessor accessor = new FileEnvironmentAccessor(file, 0);
+		assertFalse(accessor.refresh());
+
+		write("{\"VCAP_SERVICES\":\"{\\\"mysql-5.1\\\":[]}\"}");
+		file.setLastModified(file.lastModified() + 2000);
+		assertEquals("{\"mysql-5.1\":[]}", accessor.getValue("VCAP_SERVICES"));
+	}
+
+	@Test
+	public void invalidFileKeepsPreviousValues() throws IOException {
+		write("{\"VCAP_SERVICES\":\"{}\"}");
+		FileEnvironmentAccessor accessor = new FileEnvironmentAccessor(file, 0);
+
+		write("{\"VCAP_SERVICES\":");
+		file.setLastModified(file.lastModified() + 2000);
+		assertFalse(accessor.refresh());
+		assertEquals("{}", accessor.getValue("VCAP_SERVICES"));
+
+		write("{\"VCAP_SERVICES\":\"[]\"}");
+		file.setLastModified(file.lastModified() + 4000);
+		assertTrue(accessor.refresh());
+		assertEquals("[]", accessor.getValue("VCAP_SERVICES"));
+	}
+
+	private void write(String content) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.cloudfoundry.runtime.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.runtime.env.CloudEnvironment.EnvironmentAccessor;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ServiceInfoFactoryRegistryTest {
+
+	@Test
+	public void builtInLabels() {
+		ServiceInfoFactoryRegistry registry = ServiceInfoFactoryRegistry.getInstance();
+		assertEquals(RdbmsServiceInfo.class, registry.getFactory("mysql").getServiceInfoType());
+		assertEquals(RdbmsServiceInfo.class, registry.getFactory("elephantsql-dev").getServiceInfoType());
+		assertEquals(RedisServiceInfo.class, registry.getFactory("rediscloud").getServiceInfoType());
+		assertEquals(MongoServiceInfo.class, registry.getFactory("mongolab").getServiceInfoType());
+		assertEquals(RabbitServiceInfo.class, registry.getFactory("cloudamqp").getServiceInfoType());
+		assertNull(registry.getFactory("unknown"));
+	}
+
+	@Test
+	public void exactAndPrefixLabels() {
+		ServiceInfoFactoryRegistry registry = new ServiceInfoFactoryRegistry();
+		ServiceInfoFactory exact = new TestRdbmsFactory("proxy");
+		ServiceInfoFactory prefix = new TestRdbmsFactory("proxy*");
+		registry.register(exact);
+		registry.register(prefix);
+
+		assertSame(exact, registry.getFactory("proxy"));
+		assertSame(prefix, registry.getFactory("proxy-mysql"));
+		assertSame(prefix, registry.getFactory("proxy-mysql"));
+		assertNull(registry.getFactory("other"));
+	}
+
+	@Test
+	public void laterRegistrationTakesPrecedence() {
+		ServiceInfoFactoryRegistry registry = new ServiceInfoFactoryRegistry();
+		registry.register(new TestRdbmsFactory("proxy*"));
+		Object version = registry.getVersion();
+		ServiceInfoFactory override = new TestRdbmsFactory("proxy-*");
+		registry.register(override);
+
+		assertSame(override, registry.getFactory("proxy-mysql"));
+		assertEquals(false, version == registry.getVersion());
+	}
+
+	@Test
+	public void customLabelResolvedByCloudEnvironment() {
+		EnvironmentAccessor environment = Mockito.mock(EnvironmentAccessor.class);
+		when(environment.getValue("VCAP_SERVICES")).thenReturn("{\"test-proxy-1.0\":[{\"name\":\"proxied-db\","
+				+ "\"label\":\"test-proxy-1.0\",\"plan\":\"free\",\"credentials\":{\"hostname\":\"10.20.30.40\","
+				+ "\"port\":3306,\"user\":\"myuser\",\"password\":\"mypass\",\"name\":\"db\"}}]}");
+		CloudEnvironment cloudEnvironment = new CloudEnvironment();
+		cloudEnvironment.setCloudEnvironment(environment);
+		assertEquals(0, cloudEnvironment.getServiceInfos(RdbmsServiceInfo.class).size());
+
+		ServiceInfoFactoryRegistry.getInstance().register(new TestRdbmsFactory("test-proxy"));
+
+		List<RdbmsServiceInfo> serviceInfos = cloudEnvironment.getServiceInfos(RdbmsServiceInfo.class);
+		assertEquals(1, serviceInfos.size());
+		assertEquals("proxied-db", serviceInfos.get(0).getServiceName());
+		assertEquals("10.20.30.40", serviceInfos.get(0).getHost());
+	}
+
+	private static class TestRdbmsFactory implements ServiceInfoFactory {
+
+		private final String[] labels;
+
+		TestRdbmsFactory(String... labels) {
+			this.labels = labels;
+		}
+
+		@Override
+		public String[] getLabels() {
+			return labels;
+		}
+
+		@Override
+		public Class<? extends AbstractServiceInfo> getServiceInfoType() {
+			return RdbmsServiceInfo.class;
+		}
+
+		@Override
+		public AbstractServiceInfo createServiceInfo(Map<String, Object> serviceData) {
+			return new RdbmsServiceInfo(serviceData);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link AdaptivePoolSizer}
+ */
+public class AdaptivePoolSizerTest {
+
+	private final List<Integer> applied = new ArrayList<Integer>();
+
+	private final List<Notification> notifications = new ArrayList<Notification>();
+
+	private AdaptivePoolSizer poolSizer;
+
+	@Before
+	public void setup() {
+		poolSizer = new AdaptivePoolSizer("mysql-1", 2, 20, 20, new AdaptivePoolSizer.PoolLimit() {
+			@Override
+			public void setMaxActive(int maxActive) {
+				applied.add(maxActive);
+			}
+		});
+		poolSizer.addNotificationListener(new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				notifications.add(notification);
+			}
+		}, null, null);
+	}
+
+	@After
+	public void destroy() {
+		poolSizer.destroy();
+	}
+
+	@Test
+	public void idlePoolShrunkAfterSustainedIdleness() {
+		for (int i = 1; i < AdaptivePoolSizer.SHRINK_PERIODS; i++) {
+			recordBorrows(10, 0, 3);
+			poolSizer.adjust();
+		}
+		assertTrue(applied.isEmpty());
+
+		recordBorrows(10, 0, 3);
+		poolSizer.adjust();
+
+		assertEquals(18, poolSizer.getMaxActive());
+		assertEquals(1, poolSizer.getShrinkCount());
+		assertEquals(3, poolSizer.getLastPeriodPeakActive());
+		assertEquals(18, applied.get(0).intValue());
+		AttributeChangeNotification notification = (AttributeChangeNotification) notifications.get(0);
+		assertEquals("MaxActive", notification.getAttributeName());
+		assertEquals(20, notification.getOldValue());
+		assertEquals(18, notification.getNewValue());
+	}
+
+	@Test
+	public void waitingBorrowersGrowThePool() {
+		shrinkTo(8);
+
+		recordBorrows(100, 10, 8);
+		poolSizer.adjust();
+		assertEquals(8, poolSizer.getMaxActive());
+		recordBorrows(100, 10, 8);
+		poolSizer.adjust();
+
+		assertEquals(10, poolSizer.getMaxActive());
+		assertEquals(1, poolSizer.getGrowCount());
+		assertEquals(10, poolSizer.getLastPeriodSlowBorrows());
+	}
+
+	@Test
+	public void busyPoolKeptWithinHysteresisBand() {
+		shrinkTo(8);
+		int shrinkCount = applied.size();
+
+		for (int i = 0; i < AdaptivePoolSizer.SHRINK_PERIODS * 2; i++) {
+			// a few slow borrows and half of the connections in use
+			recordBorrows(100, 2, i % 2 == 0 ? 4 : 7);
+			poolSizer.adjust();
+		}
+
+		assertEquals(8, poolSizer.getMaxActive());
+		assertEquals(shrinkCount, applied.size());
+	}
+
+	@Test
+	public void sizeKeptWithinLimits() {
+		for (int i = 0; i < AdaptivePoolSizer.GROW_PERIODS * 4; i++) {
+			recordBorrows(10, 10, 20);
+			poolSizer.adjust();
+		}
+		assertEquals(20, poolSizer.getMaxActive());
+		assertTrue(applied.isEmpty());
+
+		shrinkTo(2);
+		for (int i = 0; i < AdaptivePoolSizer.SHRINK_PERIODS; i++) {
+			poolSizer.adjust();
+		}
+		assertEquals(2, poolSizer.getMaxActive());
+
+		poolSizer.setLimits(4, 6);
+		assertEquals(4, poolSizer.getMaxActive());
+		assertEquals(4, applied.get(applied.size() - 1).intValue());
+		assertEquals(6, poolSizer.getUpperLimit());
+	}
+
+	private void shrinkTo(int maxActive) {
+		while (poolSizer.getMaxActive() > maxActive) {
+			poolSizer.adjust();
+		}
+		assertEquals(maxActive, poolSizer.getMaxActive());
+	}
+
+	private void recordBorrows(int borrows, int slowBorrows, int peakActive) {
+		for (int i = 0; i < borrows; i++) {
+			poolSizer.recordBorrow(i < slowBorrows ? 50000000L : 1000L, i == 0 ? peakActive : 1);
+		}
+	}
+}
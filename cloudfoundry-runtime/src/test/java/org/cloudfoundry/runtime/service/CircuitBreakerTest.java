@@ -0,0 +1,50 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link CircuitBreaker}
+ */
+public class CircuitBreakerTest {
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+
+		assertFalse(breaker.recordFailure());
+		assertFalse(breaker.recordFailure());
+		breaker.recordSuccess();
+		assertFalse(breaker.recordFailure());
+		assertFalse(breaker.recordFailure());
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.recordFailure());
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		assertFalse(breaker.recordFailure());
+		assertEquals(1, breaker.getOpenCount());
+	}
+
+	@Test
+	public void singleTrialCallAfterRetryInterval() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 0);
+		assertTrue(breaker.recordFailure());
+
+		assertTrue(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+
+		assertTrue(breaker.recordFailure());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		breaker.recordSuccess();
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		assertEquals(2, breaker.getOpenCount());
+	}
+}
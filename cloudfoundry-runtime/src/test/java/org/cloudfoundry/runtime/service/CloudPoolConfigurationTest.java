@@ -0,0 +1,75 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link CloudPoolConfiguration}
+ */
+public class CloudPoolConfigurationTest {
+
+	@Test
+	public void withoutBudget() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("3-5");
+		assertSame(poolConfiguration, poolConfiguration.forInstance(1, 4));
+	}
+
+	@Test
+	public void budgetDividedAcrossInstances() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("4-5");
+		poolConfiguration.setMaxWaitTime(1000);
+		poolConfiguration.setConnectionBudget(10);
+
+		assertEquals(Integer.valueOf(4), poolConfiguration.forInstance(0, 3).getMaxActive());
+		assertEquals(Integer.valueOf(4), poolConfiguration.forInstance(0, 3).getMinIdle());
+		assertEquals(Integer.valueOf(3), poolConfiguration.forInstance(1, 3).getMaxActive());
+		assertEquals(Integer.valueOf(3), poolConfiguration.forInstance(1, 3).getMinIdle());
+		assertEquals(Integer.valueOf(3), poolConfiguration.forInstance(2, 3).getMaxActive());
+		assertEquals(Integer.valueOf(1000), poolConfiguration.forInstance(2, 3).getMaxWait());
+		assertEquals(Integer.valueOf(10), poolConfiguration.forInstance(0, 0).getMaxActive());
+	}
+
+	@Test
+	public void atLeastOneConnectionPerInstance() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setConnectionBudget(2);
+
+		assertEquals(Integer.valueOf(1), poolConfiguration.forInstance(4, 5).getMaxActive());
+		assertEquals(Integer.valueOf(0), poolConfiguration.forInstance(4, 5).getMinIdle());
+	}
+
+	@Test
+	public void validationSettingsApplyToEachInstance() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		assertEquals(ValidationStrategy.ON_BORROW, poolConfiguration.getValidation());
+		poolConfiguration.setConnectionBudget(4);
+		poolConfiguration.setValidation(ValidationStrategy.WHILE_IDLE);
+		poolConfiguration.setValidationInterval(10000);
+		poolConfiguration.setJdbc4Validation(true);
+
+		CloudPoolConfiguration instanceConfiguration = poolConfiguration.forInstance(1, 2);
+		assertEquals(ValidationStrategy.WHILE_IDLE, instanceConfiguration.getValidation());
+		assertEquals(10000, instanceConfiguration.getValidationInterval());
+		assertEquals(true, instanceConfiguration.isJdbc4Validation());
+	}
+
+	@Test
+	public void maxPoolSizeReplacedInCopy() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("4-10");
+		poolConfiguration.setMaxWaitTime(1000);
+		poolConfiguration.setAdaptiveSizing(true);
+
+		CloudPoolConfiguration copy = poolConfiguration.withMaxPoolSize(3);
+
+		assertEquals(Integer.valueOf(3), copy.getMaxActive());
+		assertEquals(Integer.valueOf(3), copy.getMinIdle());
+		assertEquals(Integer.valueOf(1000), copy.getMaxWait());
+		assertEquals(true, copy.isAdaptiveSizing());
+		assertEquals(Integer.valueOf(10), poolConfiguration.getMaxActive());
+	}
+}
@@ -0,0 +1,74 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.env.ApplicationInstanceInfo;
+import org.cloudfoundry.runtime.env.CloudEnvironment;
+import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
+import org.cloudfoundry.runtime.service.relational.CloudDataSourceFactory;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Unit test of the {@link CloudPoolSizing}
+ */
+public class CloudPoolSizingTest {
+
+	private static final long MB = 1024 * 1024;
+
+	@Test
+	public void sizedFromMemory() {
+		CloudPoolSizing sizing = new CloudPoolSizing(512 * MB, 0);
+		assertEquals(32, sizing.getMaxConnections());
+		assertEquals(8, sizing.getMinIdleConnections());
+		assertEquals(Integer.valueOf(32), sizing.getPoolConfiguration().getMaxActive());
+		assertEquals(Integer.valueOf(8), sizing.getPoolConfiguration().getMinIdle());
+	}
+
+	@Test
+	public void sizedFromFileDescriptors() {
+		assertEquals(48, new CloudPoolSizing(4096 * MB, 256).getMaxConnections());
+	}
+
+	@Test
+	public void sizeBounded() {
+		assertEquals(CloudPoolSizing.MAX_CONNECTIONS, new CloudPoolSizing(16384 * MB, 0).getMaxConnections());
+		assertEquals(CloudPoolSizing.MIN_CONNECTIONS, new CloudPoolSizing(16 * MB, 64).getMaxConnections());
+		assertEquals(1, new CloudPoolSizing(16 * MB, 64).getMinIdleConnections());
+	}
+
+	@Test
+	public void unknownLimits() {
+		CloudEnvironment cloudEnvironment = mock(CloudEnvironment.class);
+		assertNull(CloudPoolSizing.forEnvironment(cloudEnvironment));
+		ApplicationInstanceInfo instanceInfo = mock(ApplicationInstanceInfo.class);
+		when(cloudEnvironment.getInstanceInfo()).thenReturn(instanceInfo);
+		assertNull(CloudPoolSizing.forEnvironment(cloudEnvironment));
+	}
+
+	@Test
+	public void dataSourceAutoSized() throws Exception {
+		CloudEnvironment cloudEnvironment = mock(CloudEnvironment.class);
+		ApplicationInstanceInfo instanceInfo = mock(ApplicationInstanceInfo.class);
+		RdbmsServiceInfo serviceInfo = mock(RdbmsServiceInfo.class);
+		when(cloudEnvironment.getInstanceInfo()).thenReturn(instanceInfo);
+		when(instanceInfo.getMemoryLimit()).thenReturn(128 * MB);
+		when(cloudEnvironment.getServiceInfo("mysql-1", RdbmsServiceInfo.class)).thenReturn(serviceInfo);
+		when(serviceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		when(serviceInfo.getServiceName()).thenReturn("mysql-1");
+
+		CloudDataSourceFactory factory = new CloudDataSourceFactory(cloudEnvironment);
+		factory.setServiceName("mysql-1");
+		factory.setAutoSizePools(true);
+		factory.afterPropertiesSet();
+		DataSource dataSource = factory.getObject();
+
+		assertEquals(8, ReflectionTestUtils.invokeGetterMethod(dataSource, "maxActive"));
+		assertEquals(2, ReflectionTestUtils.invokeGetterMethod(dataSource, "minIdle"));
+	}
+}
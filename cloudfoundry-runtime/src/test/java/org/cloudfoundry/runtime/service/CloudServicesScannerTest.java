@@ -1,5 +1,8 @@
 package org.cloudfoundry.runtime.service;
 
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -21,9 +24,12 @@ import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
 import org.cloudfoundry.runtime.env.RedisServiceInfo;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.aop.framework.Advised;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.data.mongodb.MongoDbFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
@@ -83,10 +89,12 @@ public class CloudServicesScannerTest {
 		when(mockEnvironment.getServiceInfos(RdbmsServiceInfo.class)).thenReturn(rdbmsSvcs);
 		when(rdbmsServiceInfo.getServiceName()).thenReturn("data1");
 		cloudServicesScanner.postProcessBeanFactory(beanFactory);
-		verify(beanFactory).registerSingleton(eq("mongo1"), any(MongoDbFactory.class));
-		verify(beanFactory).registerSingleton(eq("redis1"), any(RedisConnectionFactory.class));
-		verify(beanFactory).registerSingleton(eq("rabbit1"), any(ConnectionFactory.class));
-		verify(beanFactory).registerSingleton(eq("data1"), any(DataSource.class));
+		// created concurrently, but registered in a fixed order
+		InOrder registration = inOrder(beanFactory);
+		registration.verify(beanFactory).registerSingleton(eq("mongo1"), any(MongoDbFactory.class));
+		registration.verify(beanFactory).registerSingleton(eq("redis1"), any(RedisConnectionFactory.class));
+		registration.verify(beanFactory).registerSingleton(eq("rabbit1"), any(ConnectionFactory.class));
+		registration.verify(beanFactory).registerSingleton(eq("data1"), any(DataSource.class));
 	}
 
 	@Test(expected = CloudServiceException.class)
@@ -194,4 +202,26 @@ public class CloudServicesScannerTest {
 		// Verify we registered only the above 3 beans
 		verify(beanFactory, times(3)).registerSingleton(anyString(), anyObject());
 	}
+
+	@Test
+	public void lazyInitCreatesServiceOnFirstUse() throws Exception {
+		when(mockEnvironment.getServiceInfos(MongoServiceInfo.class)).thenReturn(new ArrayList<MongoServiceInfo>());
+		List<RedisServiceInfo> redisSvcs = new ArrayList<RedisServiceInfo>();
+		redisSvcs.add(redisServiceInfo);
+		when(mockEnvironment.getServiceInfos(RedisServiceInfo.class)).thenReturn(redisSvcs);
+		when(redisServiceInfo.getServiceName()).thenReturn("redis1");
+		when(mockEnvironment.getServiceInfos(RabbitServiceInfo.class)).thenReturn(new ArrayList<RabbitServiceInfo>());
+		when(mockEnvironment.getServiceInfos(RdbmsServiceInfo.class)).thenReturn(new ArrayList<RdbmsServiceInfo>());
+		cloudServicesScanner.setLazyInit(true);
+		cloudServicesScanner.createCloudServiceBeans(beanFactory, mockEnvironment);
+
+		ArgumentCaptor<Object> service = ArgumentCaptor.forClass(Object.class);
+		verify(beanFactory).registerSingleton(eq("redis1"), service.capture());
+		assertTrue(service.getValue() instanceof RedisConnectionFactory);
+		verify(redisServiceInfo, never()).getHost();
+
+		Object target = ((Advised) service.getValue()).getTargetSource().getTarget();
+		assertTrue(target instanceof RedisConnectionFactory);
+		verify(redisServiceInfo).getHost();
+	}
 }
@@ -0,0 +1,103 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.env.CloudServiceException;
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link LazyServiceTargetSource}
+ */
+public class LazyServiceTargetSourceTest {
+
+	private final AtomicInteger creations = new AtomicInteger();
+
+	@Test
+	public void serviceCreatedOnFirstCall() throws Exception {
+		final DataSource dataSource = mock(DataSource.class);
+		Connection connection = mock(Connection.class);
+		when(dataSource.getConnection()).thenReturn(connection);
+		DataSource proxy = LazyServiceTargetSource.createProxy(DataSource.class, countingFactory(dataSource));
+		assertEquals(0, creations.get());
+
+		assertSame(connection, proxy.getConnection());
+		proxy.getConnection();
+		assertEquals(1, creations.get());
+	}
+
+	@Test
+	public void serviceCreatedOnceByConcurrentCallers() throws Exception {
+		final LazyServiceTargetSource targetSource = new LazyServiceTargetSource(DataSource.class,
+				countingFactory(mock(DataSource.class)));
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						targetSource.getTarget();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(targetSource.isInitialized());
+		assertEquals(1, creations.get());
+	}
+
+	@Test
+	public void failedCreationRetriedOnNextCall() throws Exception {
+		final DataSource dataSource = mock(DataSource.class);
+		LazyServiceTargetSource targetSource = new LazyServiceTargetSource(DataSource.class, new Callable<DataSource>() {
+			@Override
+			public DataSource call() {
+				if (creations.incrementAndGet() == 1) {
+					throw new CloudServiceException("Service not reachable");
+				}
+				return dataSource;
+			}
+		});
+		try {
+			targetSource.getTarget();
+			fail("Expected CloudServiceException");
+		} catch (CloudServiceException e) {
+			assertFalse(targetSource.isInitialized());
+		}
+		assertSame(dataSource, targetSource.getTarget());
+	}
+
+	private Callable<DataSource> countingFactory(final DataSource dataSource) {
+		return new Callable<DataSource>() {
+			@Override
+			public DataSource call() throws Exception {
+				creations.incrementAndGet();
+				Thread.sleep(10);
+				return dataSource;
+			}
+		};
+	}
+}
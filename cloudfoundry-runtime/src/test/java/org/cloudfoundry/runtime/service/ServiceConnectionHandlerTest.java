@@ -0,0 +1,56 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link ServiceConnectionHandler}
+ */
+public class ServiceConnectionHandlerTest {
+
+	private final List<String> closed = new ArrayList<String>();
+
+	@Test
+	public void callbacksComposedOnOneProxy() throws Exception {
+		Connection connection = mock(Connection.class);
+
+		Connection inner = ServiceConnectionHandler.proxy(Connection.class, connection, callback("inner"));
+		Connection outer = ServiceConnectionHandler.proxy(Connection.class, inner, callback("outer"));
+		assertSame(inner, outer);
+
+		outer.close();
+		outer.close();
+		assertEquals("[outer, inner]", closed.toString());
+		verify(connection, times(1)).close();
+	}
+
+	@Test
+	public void subclassProxyNotComposed() throws Exception {
+		Connection connection = mock(Connection.class);
+		Connection tracked = (Connection) new ServiceConnectionHandler<Connection>(connection) {
+		}.createProxy(Connection.class);
+
+		Connection outer = ServiceConnectionHandler.proxy(Connection.class, tracked, callback("outer"));
+		outer.close();
+		assertEquals("[outer]", closed.toString());
+		verify(connection).close();
+	}
+
+	private ServiceConnectionHandler.CloseCallback callback(final String name) {
+		return new ServiceConnectionHandler.CloseCallback() {
+			@Override
+			public void closed() {
+				closed.add(name);
+			}
+		};
+	}
+}
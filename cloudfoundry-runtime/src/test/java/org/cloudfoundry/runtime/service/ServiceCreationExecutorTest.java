@@ -0,0 +1,109 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.cloudfoundry.runtime.env.CloudServiceException;
+import org.cloudfoundry.runtime.env.RedisServiceInfo;
+import org.cloudfoundry.runtime.service.ServiceCreationExecutor.Creation;
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Unit test of the {@link ServiceCreationExecutor}
+ */
+public class ServiceCreationExecutorTest {
+
+	private final SleepingServiceCreator serviceCreator = new SleepingServiceCreator();
+
+	@Test
+	public void servicesKeepSubmissionOrder() {
+		List<Creation<DisposableBean, RedisServiceInfo>> creations = creations("slow", "medium", "fast");
+
+		new ServiceCreationExecutor(3, 10000).createAll(creations);
+
+		for (Creation<DisposableBean, RedisServiceInfo> creation : creations) {
+			assertEquals(creation.getServiceName(), serviceCreator.names.get(creation.getService()));
+		}
+	}
+
+	@Test
+	public void failuresAggregatedAndCreatedServicesDisposed() throws Exception {
+		List<Creation<DisposableBean, RedisServiceInfo>> creations = creations("fail-first", "fast", "fail-second");
+
+		try {
+			new ServiceCreationExecutor(2, 10000).createAll(creations);
+			fail("Expected CloudServiceException");
+		} catch (CloudServiceException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to create 2 of 3 cloud services"));
+			assertTrue(e.getMessage(), e.getMessage().contains("fail-first (Cannot create fail-first)"));
+			assertTrue(e.getMessage(), e.getMessage().contains("fail-second (Cannot create fail-second)"));
+		}
+		assertNull(creations.get(1).getService());
+		verify(serviceCreator.created.get(0)).destroy();
+	}
+
+	@Test
+	public void timeoutAbandonsUnfinishedServices() {
+		List<Creation<DisposableBean, RedisServiceInfo>> creations = creations("fast", "hang");
+
+		try {
+			new ServiceCreationExecutor(2, 200).createAll(creations);
+			fail("Expected CloudServiceException");
+		} catch (CloudServiceException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("hang (timed out)"));
+		}
+		assertNull(creations.get(0).getService());
+	}
+
+	private List<Creation<DisposableBean, RedisServiceInfo>> creations(String... serviceNames) {
+		List<Creation<DisposableBean, RedisServiceInfo>> creations = new ArrayList<Creation<DisposableBean, RedisServiceInfo>>();
+		for (String serviceName : Arrays.asList(serviceNames)) {
+			RedisServiceInfo serviceInfo = mock(RedisServiceInfo.class);
+			when(serviceInfo.getServiceName()).thenReturn(serviceName);
+			creations.add(new Creation<DisposableBean, RedisServiceInfo>(serviceCreator, serviceInfo));
+		}
+		return creations;
+	}
+
+	/**
+	 * Creates services after a delay depending on the service name
+	 */
+	private static class SleepingServiceCreator extends AbstractServiceCreator<DisposableBean, RedisServiceInfo> {
+
+		final Map<DisposableBean, String> names = new ConcurrentHashMap<DisposableBean, String>();
+
+		final List<DisposableBean> created = new CopyOnWriteArrayList<DisposableBean>();
+
+		@Override
+		public DisposableBean createService(RedisServiceInfo serviceInfo) {
+			String serviceName = serviceInfo.getServiceName();
+			try {
+				if (serviceName.startsWith("fail")) {
+					Thread.sleep(serviceName.endsWith("second") ? 100 : 0);
+					throw new IllegalStateException("Cannot create " + serviceName);
+				}
+				Thread.sleep(serviceName.equals("slow") ? 200 : serviceName.equals("medium") ? 100
+						: serviceName.equals("hang") ? 60000 : 0);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException("Interrupted creating " + serviceName);
+			}
+			DisposableBean service = mock(DisposableBean.class);
+			names.put(service, serviceName);
+			created.add(service);
+			return service;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link ServiceGuard}
+ */
+public class ServiceGuardTest {
+
+	@Test
+	public void bulkheadRejectsCallsBeyondLimit() throws Exception {
+		CloudResilienceConfiguration configuration = new CloudResilienceConfiguration();
+		configuration.setMaxConcurrent(2);
+		ServiceGuard guard = new ServiceGuard("mysql-1", configuration);
+
+		guard.recordSuccess(guard.enter());
+		guard.recordSuccess(guard.enter());
+		try {
+			guard.enter();
+			fail("Expected the bulkhead to be full");
+		} catch (CallRejectedException e) {
+			assertTrue(e.getMessage().contains("2 calls"));
+		}
+		assertEquals(2, guard.getInFlight());
+		assertEquals(1, guard.getBulkheadRejections());
+
+		guard.exit();
+		guard.enter();
+		assertEquals(2, guard.getInFlight());
+		assertEquals("CLOSED", guard.getCircuitState());
+	}
+
+	@Test
+	public void circuitOpensAfterConsecutiveFailures() throws Exception {
+		CloudResilienceConfiguration configuration = new CloudResilienceConfiguration();
+		configuration.setFailureThreshold(2);
+		configuration.setRetryInterval(60000);
+		ServiceGuard guard = new ServiceGuard("mysql-1", configuration);
+
+		for (int i = 0; i < 2; i++) {
+			guard.enter();
+			guard.recordFailure();
+			guard.exit();
+		}
+		try {
+			guard.enter();
+			fail("Expected the circuit breaker to be open");
+		} catch (CallRejectedException e) {
+			assertTrue(e.getMessage().contains("circuit breaker"));
+		}
+		assertEquals("OPEN", guard.getCircuitState());
+		assertEquals(1, guard.getCircuitRejections());
+		assertEquals(0, guard.getInFlight());
+		assertEquals(-1, guard.getMaxConcurrent());
+	}
+
+	@Test
+	public void slowCallsCountAsFailures() throws Exception {
+		CloudResilienceConfiguration configuration = new CloudResilienceConfiguration();
+		configuration.setFailureThreshold(1);
+		configuration.setSlowCallThreshold(10L);
+		ServiceGuard guard = new ServiceGuard("mysql-1", configuration);
+
+		guard.recordSuccess(guard.enter());
+		assertEquals("CLOSED", guard.getCircuitState());
+		long start = guard.enter();
+		guard.recordSuccess(start - 20000000L);
+		guard.exit();
+
+		assertEquals("OPEN", guard.getCircuitState());
+		assertEquals(1, guard.getCircuitOpenCount());
+	}
+}
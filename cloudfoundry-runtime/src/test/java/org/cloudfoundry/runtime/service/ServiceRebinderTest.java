@@ -0,0 +1,183 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.runtime.env.ApplicationInstanceInfo;
+import org.cloudfoundry.runtime.env.CloudEnvironment;
+import org.cloudfoundry.runtime.env.MysqlServiceInfo;
+import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
+import org.cloudfoundry.runtime.service.relational.AdaptiveSizingDataSource;
+import org.cloudfoundry.runtime.service.relational.GuardedDataSource;
+import org.cloudfoundry.runtime.service.relational.InstrumentedDataSource;
+import org.cloudfoundry.runtime.service.relational.LeakDetectingDataSource;
+import org.cloudfoundry.runtime.service.relational.MysqlServiceCreator;
+import org.cloudfoundry.runtime.service.relational.StatementTimingDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Unit test of the {@link ServiceRebinder}
+ */
+public class ServiceRebinderTest {
+
+	@Mock
+	private CloudEnvironment mockEnvironment;
+
+	@Mock
+	private RdbmsServiceInfo serviceInfo;
+
+	@Mock
+	private DisposableDataSource oldDataSource;
+
+	@Mock
+	private DisposableDataSource newDataSource;
+
+	private final Map<String, Object> oldData = Collections.<String, Object>singletonMap("label", "mysql-5.1");
+
+	private final Map<String, Object> newData = Collections.<String, Object>singletonMap("label", "mysql-5.5");
+
+	private ServiceRebinder<DataSource, RdbmsServiceInfo> rebinder;
+
+	@Before
+	public void setup() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(mockEnvironment.getServiceDataByName("db")).thenReturn(oldData);
+		when(mockEnvironment.getServiceInfo("db", RdbmsServiceInfo.class)).thenReturn(serviceInfo);
+		Connection connection = mock(Connection.class);
+		when(newDataSource.getConnection()).thenReturn(connection);
+		AbstractServiceCreator<DataSource, RdbmsServiceInfo> serviceCreator =
+				new AbstractServiceCreator<DataSource, RdbmsServiceInfo>() {
+					@Override
+					public DataSource createService(RdbmsServiceInfo serviceInfo) {
+						return newDataSource;
+					}
+					@Override
+					protected void warmUp(DataSource dataSource) {
+						try {
+							dataSource.getConnection().close();
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+					}
+				};
+		rebinder = new ServiceRebinder<DataSource, RdbmsServiceInfo>(mockEnvironment, serviceCreator,
+				RdbmsServiceInfo.class, "db", oldDataSource, DataSource.class, 1000);
+		rebinder.setDisposeDelay(0);
+	}
+
+	@Test
+	public void unchangedBindingKept() throws Exception {
+		assertFalse(rebinder.rebindIfChanged());
+		assertSame(oldDataSource, rebinder.getTarget());
+	}
+
+	@Test
+	public void changedBindingSwappedAndOldServiceDisposed() throws Exception {
+		when(mockEnvironment.getServiceDataByName("db")).thenReturn(newData);
+
+		assertTrue(rebinder.rebindIfChanged());
+		assertSame(newDataSource, rebinder.getTarget());
+		verify(newDataSource).getConnection();
+		verify(oldDataSource, timeout(1000)).destroy();
+
+		rebinder.getProxy().getLoginTimeout();
+		verify(newDataSource).getLoginTimeout();
+		assertFalse(rebinder.rebindIfChanged());
+	}
+
+	@Test
+	public void replacedServiceDisposedOnceBorrowsDrain() throws Exception {
+		Connection borrowedConnection = mock(Connection.class);
+		when(oldDataSource.getConnection()).thenReturn(borrowedConnection);
+		rebinder.setDisposeDelay(60000);
+		Connection borrowed = rebinder.getProxy().getConnection();
+		when(mockEnvironment.getServiceDataByName("db")).thenReturn(newData);
+
+		assertTrue(rebinder.rebindIfChanged());
+		rebinder.getProxy().getLoginTimeout();
+		verify(oldDataSource, never()).destroy();
+
+		borrowed.close();
+		borrowed.close();
+		verify(borrowedConnection).close();
+		verify(oldDataSource).destroy();
+		rebinder.destroy();
+		verify(oldDataSource).destroy();
+	}
+
+	@Test
+	public void changedBindingDisposesWrappedPool() throws Exception {
+		DisposableDataSource pool = mock(DisposableDataSource.class);
+		// the wrappers AbstractDataSourceCreator may add, in the same order
+		DataSource wrapped = new AdaptiveSizingDataSource(pool,
+				new AdaptivePoolSizer("db", 1, 10, 100, mock(AdaptivePoolSizer.PoolLimit.class)));
+		wrapped = new GuardedDataSource(wrapped, new ServiceGuard("db", new CloudResilienceConfiguration()));
+		wrapped = new LeakDetectingDataSource("db", wrapped, 60000, 1, 0, 10, false);
+		wrapped = new StatementTimingDataSource("db", wrapped, 1000, 60000);
+		wrapped = new InstrumentedDataSource("db", wrapped);
+		AbstractServiceCreator<DataSource, RdbmsServiceInfo> serviceCreator =
+				new AbstractServiceCreator<DataSource, RdbmsServiceInfo>() {
+					@Override
+					public DataSource createService(RdbmsServiceInfo serviceInfo) {
+						return newDataSource;
+					}
+				};
+		ServiceRebinder<DataSource, RdbmsServiceInfo> rebinder = new ServiceRebinder<DataSource, RdbmsServiceInfo>(
+				mockEnvironment, serviceCreator, RdbmsServiceInfo.class, "db", wrapped, DataSource.class, 1000);
+		rebinder.setDisposeDelay(0);
+		when(mockEnvironment.getServiceDataByName("db")).thenReturn(newData);
+
+		assertTrue(rebinder.rebindIfChanged());
+		verify(pool, timeout(1000)).destroy();
+	}
+
+	@Test
+	public void failedWarmUpKeepsCurrentService() throws Exception {
+		when(mockEnvironment.getServiceDataByName("db")).thenReturn(newData);
+		doThrow(new IllegalStateException("unreachable")).when(newDataSource).getConnection();
+
+		assertFalse(rebinder.rebindIfChanged());
+		assertSame(oldDataSource, rebinder.getTarget());
+		verify(newDataSource).destroy();
+	}
+
+	@Test
+	public void poolResizedWhenInstancesChange() throws Exception {
+		ApplicationInstanceInfo instanceInfo = mock(ApplicationInstanceInfo.class);
+		when(instanceInfo.getInstanceIndex()).thenReturn(1);
+		when(instanceInfo.getInstanceCount()).thenReturn(2);
+		BasicDataSource dataSource = new BasicDataSource();
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setConnectionBudget(9);
+		MysqlServiceCreator serviceCreator = new MysqlServiceCreator();
+		serviceCreator.setCloudPoolConfiguration(poolConfiguration);
+		ServiceRebinder<DataSource, MysqlServiceInfo> rebinder = new ServiceRebinder<DataSource, MysqlServiceInfo>(
+				mockEnvironment, serviceCreator, MysqlServiceInfo.class, "db", dataSource, DataSource.class, 1000);
+		when(mockEnvironment.getInstanceInfo()).thenReturn(instanceInfo);
+
+		assertTrue(rebinder.resizeIfInstancesChanged());
+		assertEquals(4, dataSource.getMaxActive());
+		assertFalse(rebinder.resizeIfInstancesChanged());
+	}
+
+	interface DisposableDataSource extends DataSource, org.springframework.beans.factory.DisposableBean {
+	}
+}
@@ -0,0 +1,152 @@
+package org.cloudfoundry.runtime.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.runtime.env.RedisServiceInfo;
+import org.cloudfoundry.runtime.service.relational.MysqlServiceCreator;
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link ServiceWarmUp} and {@link ServiceReadiness}
+ */
+public class ServiceWarmUpTest {
+
+	@Test
+	public void readinessPublishedUntilWarmUpCompletes() throws Exception {
+		final CountDownLatch warmUpStarted = new CountDownLatch(1);
+		final CountDownLatch releaseWarmUp = new CountDownLatch(1);
+		AbstractServiceCreator<Object, RedisServiceInfo> serviceCreator = new AbstractServiceCreator<Object, RedisServiceInfo>() {
+			@Override
+			public Object createService(RedisServiceInfo serviceInfo) {
+				return null;
+			}
+
+			@Override
+			protected void warmUp(Object service) {
+				warmUpStarted.countDown();
+				try {
+					releaseWarmUp.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		ServiceReadiness readiness = ServiceReadiness.acquire("app1");
+
+		ServiceWarmUp.submit("redis1", serviceCreator, new Object(), readiness);
+		assertTrue(warmUpStarted.await(5, TimeUnit.SECONDS));
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = ServiceMBeans.getObjectName(ServiceReadiness.MBEAN_TYPE, "app1");
+		assertEquals(Boolean.FALSE, mbeanServer.getAttribute(objectName, "Ready"));
+
+		releaseWarmUp.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!readiness.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(Boolean.TRUE, mbeanServer.getAttribute(objectName, "Ready"));
+		assertEquals(1, readiness.getCompletedWarmUps());
+		readiness.release();
+		assertFalse(mbeanServer.isRegistered(objectName));
+	}
+
+	@Test
+	public void readinessRegisteredPerApplication() throws Exception {
+		ServiceReadiness first = ServiceReadiness.acquire("app1");
+		ServiceReadiness second = ServiceReadiness.acquire("app2");
+		assertSame(first, ServiceReadiness.acquire("app1"));
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName firstName = ServiceMBeans.getObjectName(ServiceReadiness.MBEAN_TYPE, "app1");
+		ObjectName secondName = ServiceMBeans.getObjectName(ServiceReadiness.MBEAN_TYPE, "app2");
+		assertTrue(mbeanServer.isRegistered(firstName));
+		assertTrue(mbeanServer.isRegistered(secondName));
+
+		// registered until its last user releases it
+		first.release();
+		assertTrue(mbeanServer.isRegistered(firstName));
+		first.release();
+		assertFalse(mbeanServer.isRegistered(firstName));
+		assertTrue(mbeanServer.isRegistered(secondName));
+		second.release();
+		assertFalse(mbeanServer.isRegistered(secondName));
+	}
+
+	@Test
+	public void readinessRegisteredPerApplicationContext() throws Exception {
+		ServiceReadiness first = ServiceReadiness.acquire("app1");
+		ObjectName firstName = ServiceMBeans.getObjectName(ServiceReadiness.MBEAN_TYPE, "app1");
+		// the applications of a container share the name of the droplet
+		Thread thread = Thread.currentThread();
+		ClassLoader classLoader = thread.getContextClassLoader();
+		thread.setContextClassLoader(new URLClassLoader(new URL[0], classLoader));
+		ServiceReadiness second;
+		ObjectName secondName;
+		try {
+			second = ServiceReadiness.acquire("app1");
+			secondName = ServiceMBeans.getObjectName(ServiceReadiness.MBEAN_TYPE, "app1");
+		} finally {
+			thread.setContextClassLoader(classLoader);
+		}
+		assertNotSame(first, second);
+		second.warmUpStarted();
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(Boolean.TRUE, mbeanServer.getAttribute(firstName, "Ready"));
+		assertEquals(Boolean.FALSE, mbeanServer.getAttribute(secondName, "Ready"));
+
+		second.release();
+		assertTrue(mbeanServer.isRegistered(firstName));
+		first.release();
+		assertFalse(mbeanServer.isRegistered(firstName));
+	}
+
+	@Test
+	public void failedWarmUpCountsAsFinished() {
+		ServiceReadiness readiness = new ServiceReadiness("app1");
+		readiness.warmUpStarted();
+		assertFalse(readiness.isReady());
+		readiness.warmUpFinished(false);
+		assertTrue(readiness.isReady());
+		assertEquals(1, readiness.getFailedWarmUps());
+	}
+
+	@Test
+	public void dataSourceWarmUpOpensIdleConnections() throws Exception {
+		BasicDataSource dataSource = mock(BasicDataSource.class);
+		when(dataSource.getMinIdle()).thenReturn(3);
+		when(dataSource.getMaxActive()).thenReturn(8);
+		Connection connection = mock(Connection.class);
+		Statement statement = mock(Statement.class);
+		when(dataSource.getConnection()).thenReturn(connection);
+		when(connection.createStatement()).thenReturn(statement);
+		MysqlServiceCreator serviceCreator = new MysqlServiceCreator();
+		serviceCreator.setWarmUpStatements(Arrays.asList("SELECT 1"));
+
+		serviceCreator.warmUp((DataSource) dataSource);
+
+		verify(dataSource, times(3)).getConnection();
+		verify(statement, times(3)).execute("SELECT 1");
+		verify(connection, times(3)).close();
+	}
+}
@@ -1,21 +1,28 @@
 package org.cloudfoundry.runtime.service.config.xml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
 import org.cloudfoundry.runtime.service.CloudEnvironmentTestHelper;
 import org.cloudfoundry.runtime.service.relational.CloudDataSourceFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.aop.framework.Advised;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import javax.sql.DataSource;
+
 public class CloudDataSourceFactoryParserTest extends AbstractCloudParserTest {
 
 	@Before
@@ -75,6 +82,60 @@ public class CloudDataSourceFactoryParserTest extends AbstractCloudParserTest {
 			assertEquals("not the correct maxWait", -1L, dataSourceWithDefaults.getPropertyValue("maxWait"));
 			Properties emptyConnectionProperties = (Properties) ReflectionTestUtils.getField(beanWithDefaults, "connectionProperties");
 			assertEquals("not empty connection properties", 0, emptyConnectionProperties.size());
+
+			Object lazyBean = this.appContext.getBean("lazyDataSource");
+			assertTrue("not a DataSource proxy", lazyBean instanceof DataSource && lazyBean instanceof Advised);
+			Object lazyTarget = ((Advised) lazyBean).getTargetSource().getTarget();
+			assertEquals("not the correct class", "org.apache.commons.dbcp.BasicDataSource", lazyTarget.getClass().getName());
+			assertEquals("not the correct driverClassName", "com.mysql.jdbc.Driver",
+					new BeanWrapperImpl(lazyTarget).getPropertyValue("driverClassName"));
+
+			Object warmUpStatements = this.appContext.getBeanDefinition("dataSourceWithWarmUpStatements")
+					.getPropertyValues().getPropertyValue("warmUpStatements").getValue();
+			assertEquals("not the correct warm-up statements", Arrays.asList("SELECT 1", "SELECT 2"), warmUpStatements);
+
+			Object tomcatJdbcBean = this.appContext.getBean("tomcatJdbcDataSource");
+			assertEquals("not the correct class", "org.apache.tomcat.jdbc.pool.DataSource", tomcatJdbcBean.getClass().getName());
+			BeanWrapper tomcatJdbcDataSource = new BeanWrapperImpl(tomcatJdbcBean);
+			assertEquals("not the correct maxActive", 4, tomcatJdbcDataSource.getPropertyValue("maxActive"));
+			assertEquals("not the correct testOnBorrow", true, tomcatJdbcDataSource.getPropertyValue("testOnBorrow"));
+			assertEquals("not the correct validationInterval", 10000L,
+					tomcatJdbcDataSource.getPropertyValue("validationInterval"));
+			assertTrue("not the correct jdbcInterceptors", ((String) tomcatJdbcDataSource
+					.getPropertyValue("jdbcInterceptors")).endsWith("StatementCache(prepared=true,callable=false,max=80)"));
+			Properties tomcatJdbcConnectionProperties = (Properties) tomcatJdbcDataSource.getPropertyValue("dbProperties");
+			assertEquals("not the correct performance profile", "true",
+					tomcatJdbcConnectionProperties.getProperty("rewriteBatchedStatements"));
+
+			MutablePropertyValues routingProperties =
+					this.appContext.getBeanDefinition("routingDataSource").getPropertyValues();
+			assertEquals("not the correct replica service names", Arrays.asList("replica-1", "replica-2"),
+					routingProperties.getPropertyValue("replicaServiceNames").getValue());
+			assertEquals("not the correct failover service names", Arrays.asList("standby-db"),
+					routingProperties.getPropertyValue("failoverServiceNames").getValue());
+			assertEquals("not the correct replica balancing", "LEAST_ACTIVE",
+					routingProperties.getPropertyValue("replicaBalancing").getValue());
+			assertEquals("not the correct metrics", "true", routingProperties.getPropertyValue("metrics").getValue());
+			BeanDefinition routingConnectionConfiguration =
+					(BeanDefinition) routingProperties.getPropertyValue("cloudConnectionConfiguration").getValue();
+			assertEquals("not the correct slow query threshold", "500", routingConnectionConfiguration
+					.getPropertyValues().getPropertyValue("slowQueryThreshold").getValue());
+			assertEquals("not the correct failover failure threshold", "2", routingConnectionConfiguration
+					.getPropertyValues().getPropertyValue("failoverFailureThreshold").getValue());
+			MutablePropertyValues routingPoolConfiguration = ((BeanDefinition) routingProperties
+					.getPropertyValue("cloudPoolConfiguration").getValue()).getPropertyValues();
+			assertEquals("not the correct leak detection threshold", "30000",
+					routingPoolConfiguration.getPropertyValue("leakDetectionThreshold").getValue());
+			assertEquals("not the correct leak reclamation", "true",
+					routingPoolConfiguration.getPropertyValue("leakReclamation").getValue());
+			assertEquals("not the correct adaptive sizing", "true",
+					routingPoolConfiguration.getPropertyValue("adaptiveSizing").getValue());
+			MutablePropertyValues routingResilienceConfiguration = ((BeanDefinition) routingProperties
+					.getPropertyValue("cloudResilienceConfiguration").getValue()).getPropertyValues();
+			assertEquals("not the correct max-concurrent", "50",
+					routingResilienceConfiguration.getPropertyValue("maxConcurrent").getValue());
+			assertEquals("not the correct slow-call-threshold", "1000",
+					routingResilienceConfiguration.getPropertyValue("slowCallThreshold").getValue());
 		}
 	}
 }
@@ -2,12 +2,14 @@ package org.cloudfoundry.runtime.service.config.xml;
 
 import org.cloudfoundry.runtime.env.RedisServiceInfo;
 import org.cloudfoundry.runtime.service.CloudEnvironmentTestHelper;
+import org.cloudfoundry.runtime.service.ServiceGuard;
 import org.cloudfoundry.runtime.service.keyvalue.CloudRedisConnectionFactoryBean;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
 import redis.clients.jedis.JedisPoolConfig;
 
 import java.util.HashMap;
@@ -52,5 +54,18 @@ public class CloudRedisConnectionFactoryParserTest extends AbstractCloudParserTe
 		assertEquals("not the correct maxActive", 8, ((JedisPoolConfig)connectionFactoryWithDefaults.getPropertyValue("poolConfig")).getMaxActive());
 		assertEquals("not the correct minIdle", 0, ((JedisPoolConfig)connectionFactoryWithDefaults.getPropertyValue("poolConfig")).minIdle);
 		assertEquals("not the correct maxWait", -1L, ((JedisPoolConfig)connectionFactoryWithDefaults.getPropertyValue("poolConfig")).getMaxWait());
+
+		BeanWrapper connectionFactoryWithBudget = new BeanWrapperImpl(this.appContext.getBean("redisConnectionFactoryWithBudget"));
+		assertEquals("not the correct budget share", 12, ((JedisPoolConfig)connectionFactoryWithBudget.getPropertyValue("poolConfig")).getMaxActive());
+		assertEquals("not the correct minIdle", 5, ((JedisPoolConfig)connectionFactoryWithBudget.getPropertyValue("poolConfig")).minIdle);
+
+		Object guardedBean = this.appContext.getBean("guardedRedisConnectionFactory");
+		assertEquals("not the correct class", "org.cloudfoundry.runtime.service.keyvalue.GuardedRedisConnectionFactory", guardedBean.getClass().getName());
+		ServiceGuard guard = (ServiceGuard) ReflectionTestUtils.getField(guardedBean, "guard");
+		assertEquals("not the correct max-concurrent", 10, guard.getMaxConcurrent());
+		assertEquals("not the correct service name", "redis-test", guard.getServiceName());
+		BeanWrapper guardedTarget = new BeanWrapperImpl(ReflectionTestUtils.getField(guardedBean, "targetConnectionFactory"));
+		assertEquals("not the correct upper limit for pool-size", 20, ((JedisPoolConfig)guardedTarget.getPropertyValue("poolConfig")).getMaxActive());
+		guard.destroy();
 	}
 }
@@ -1,7 +1,19 @@
 package org.cloudfoundry.runtime.service.keyvalue;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.commons.pool.impl.GenericObjectPool;
 import org.cloudfoundry.runtime.env.CloudServiceException;
 import org.cloudfoundry.runtime.env.RedisServiceInfo;
+import org.cloudfoundry.runtime.service.AdaptivePoolSizer;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ServiceGuard;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -31,6 +43,59 @@ public class RedisServiceCreatorTest {
 		serviceCreator.createService(mockServiceInfo);
 	}
 
+	@Test
+	public void adaptiveSizingAdjustsTheJedisPool() {
+		when(mockServiceInfo.getServiceName()).thenReturn("redis-1");
+		when(mockServiceInfo.getHost()).thenReturn("10.20.30.40");
+		when(mockServiceInfo.getPort()).thenReturn(10000);
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("2-10");
+		poolConfiguration.setAdaptiveSizing(true);
+		RedisServiceCreator redisServiceCreator = new RedisServiceCreator();
+		redisServiceCreator.setCloudPoolConfiguration(poolConfiguration);
+
+		AdaptiveJedisConnectionFactory connectionFactory =
+				(AdaptiveJedisConnectionFactory) redisServiceCreator.createService(mockServiceInfo);
+		try {
+			GenericObjectPool internalPool = RedisServiceCreator.getInternalPool(connectionFactory);
+			assertEquals(10, internalPool.getMaxActive());
+			assertEquals(10, connectionFactory.getPoolSizer().getMaxActive());
+
+			connectionFactory.getPoolSizer().setLimits(2, 6);
+
+			assertEquals(6, internalPool.getMaxActive());
+			assertEquals(6, internalPool.getMaxIdle());
+		} finally {
+			connectionFactory.destroy();
+		}
+	}
+
+	@Test
+	public void partiallyCreatedConnectionFactoryDisposedOnFailure() {
+		when(mockServiceInfo.getServiceName()).thenReturn("redis-1");
+		when(mockServiceInfo.getHost()).thenReturn("10.20.30.40");
+		when(mockServiceInfo.getPort()).thenReturn(10000);
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("2-10");
+		poolConfiguration.setAdaptiveSizing(true);
+		RedisServiceCreator redisServiceCreator = new RedisServiceCreator() {
+			@Override
+			protected ServiceGuard createServiceGuard(String serviceName) {
+				throw new IllegalStateException("No guard");
+			}
+		};
+		redisServiceCreator.setCloudPoolConfiguration(poolConfiguration);
+
+		try {
+			redisServiceCreator.createService(mockServiceInfo);
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertEquals("No guard", e.getMessage());
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+				ServiceMBeans.getObjectName(AdaptivePoolSizer.MBEAN_TYPE, "redis-1")));
+	}
+
 	private class StubRedisServiceCreator extends RedisServiceCreator {
 		@Override
 		protected boolean hasClass(String name) {
@@ -1,23 +1,35 @@
 package org.cloudfoundry.runtime.service.relational;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.when;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
 import javax.sql.DataSource;
 
+import org.apache.commons.dbcp.BasicDataSource;
 import org.cloudfoundry.runtime.env.CloudEnvironment;
+import org.cloudfoundry.runtime.env.CloudServiceException;
 import org.cloudfoundry.runtime.env.RdbmsServiceInfo;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.test.util.ReflectionTestUtils;
 
 public class CloudDataSourceFactoryTest {
 	@Mock private CloudEnvironment mockRuntime;
 	@Mock private RdbmsServiceInfo mockRdbmsServiceInfo;
+	@Mock private RdbmsServiceInfo mockReplicaServiceInfo;
 	private CloudDataSourceFactory rdbmsFactory;
 
 	@Before
@@ -47,6 +59,21 @@ public class CloudDataSourceFactoryTest {
 		assertTrue(((String) ReflectionTestUtils.invokeGetterMethod(dataSource, "validationQuery")).startsWith("/* ping */"));
 	}
 
+	@Test
+	public void dataSourceClosedWithTheFactory() throws Exception {
+		when(mockRuntime.getServiceInfo("mysql-1", RdbmsServiceInfo.class))
+			.thenReturn(mockRdbmsServiceInfo);
+		when(mockRdbmsServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+
+		rdbmsFactory.setServiceName("mysql-1");
+		rdbmsFactory.afterPropertiesSet();
+		BasicDataSource dataSource = (BasicDataSource) rdbmsFactory.getObject();
+		assertFalse(dataSource.isClosed());
+
+		rdbmsFactory.destroy();
+		assertTrue(dataSource.isClosed());
+	}
+
 	@Test
 	public void cloudPostgreSQLDataSourceCreation() throws Exception {
 		when(mockRuntime.getServiceInfo("postgres-1", RdbmsServiceInfo.class))
@@ -66,4 +93,72 @@ public class CloudDataSourceFactoryTest {
 		assertEquals("pgpass", ReflectionTestUtils.invokeGetterMethod(dataSource, "password"));
 		assertNotNull(((String) ReflectionTestUtils.invokeGetterMethod(dataSource, "validationQuery")));
 	}
+
+	@Test
+	public void postgresqlPerformanceProfileSelectedByLabel() throws Exception {
+		when(mockRuntime.getServiceInfo("elephantsql-1", RdbmsServiceInfo.class))
+			.thenReturn(mockRdbmsServiceInfo);
+		when(mockRdbmsServiceInfo.getLabel()).thenReturn("elephantsql");
+		when(mockRdbmsServiceInfo.getUrl()).thenReturn("jdbc:postgresql://10.20.30.40:5432/database-123");
+
+		rdbmsFactory.setServiceName("elephantsql-1");
+		rdbmsFactory.setPerformanceProfile(true);
+		rdbmsFactory.afterPropertiesSet();
+
+		Properties connectionProperties = (Properties) ReflectionTestUtils.getField(rdbmsFactory.getObject(),
+				"connectionProperties");
+		assertEquals("true", connectionProperties.getProperty("tcpKeepAlive"));
+		assertEquals("true", connectionProperties.getProperty("reWriteBatchedInserts"));
+	}
+
+	@Test
+	public void replicaServicesRoutedThrough() throws Exception {
+		when(mockRuntime.getServiceInfo("mysql-1", RdbmsServiceInfo.class))
+			.thenReturn(mockRdbmsServiceInfo);
+		when(mockRuntime.getServiceInfo("mysql-replica", RdbmsServiceInfo.class))
+			.thenReturn(mockReplicaServiceInfo);
+		when(mockRdbmsServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		when(mockReplicaServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.41:3306/database-123");
+
+		rdbmsFactory.setServiceName("mysql-1");
+		rdbmsFactory.setReplicaServiceNames(Arrays.asList("mysql-replica"));
+		rdbmsFactory.setReplicaBalancing(ReplicaBalancing.LEAST_ACTIVE);
+		rdbmsFactory.afterPropertiesSet();
+
+		ReadWriteRoutingDataSource routingDataSource = (ReadWriteRoutingDataSource)
+				((LazyConnectionDataSourceProxy) rdbmsFactory.getObject()).getTargetDataSource();
+		assertEquals("jdbc:mysql://10.20.30.40:3306/database-123",
+				ReflectionTestUtils.getField(routingDataSource.getPrimary(), "url"));
+		assertEquals(1, routingDataSource.getReplicas().size());
+		assertEquals("jdbc:mysql://10.20.30.41:3306/database-123",
+				ReflectionTestUtils.getField(routingDataSource.getReplicas().get(0), "url"));
+		assertEquals(ReplicaBalancing.LEAST_ACTIVE, routingDataSource.getBalancing());
+	}
+
+	@Test
+	public void dataSourcesDisposedWhenReplicaMissing() throws Exception {
+		when(mockRuntime.getServiceInfo("mysql-1", RdbmsServiceInfo.class))
+			.thenReturn(mockRdbmsServiceInfo);
+		when(mockRuntime.getServiceInfo("mysql-replica", RdbmsServiceInfo.class))
+			.thenReturn(mockReplicaServiceInfo);
+		when(mockRdbmsServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockRdbmsServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		when(mockReplicaServiceInfo.getServiceName()).thenReturn("mysql-replica");
+		when(mockReplicaServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.41:3306/database-123");
+
+		rdbmsFactory.setServiceName("mysql-1");
+		rdbmsFactory.setReplicaServiceNames(Arrays.asList("mysql-replica", "mysql-missing"));
+		rdbmsFactory.setMetrics(true);
+		try {
+			rdbmsFactory.afterPropertiesSet();
+			fail("Expected CloudServiceException");
+		} catch (CloudServiceException e) {
+			assertEquals("No replica service bound to name mysql-missing", e.getMessage());
+		}
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		assertFalse(mbeanServer.isRegistered(ServiceMBeans.getObjectName(InstrumentedDataSource.MBEAN_TYPE, "mysql-1")));
+		assertFalse(mbeanServer.isRegistered(ServiceMBeans.getObjectName(InstrumentedDataSource.MBEAN_TYPE,
+				"mysql-replica")));
+	}
 }
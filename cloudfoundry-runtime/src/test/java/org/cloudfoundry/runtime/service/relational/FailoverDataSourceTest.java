@@ -0,0 +1,200 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Unit test of the {@link FailoverDataSource}
+ */
+public class FailoverDataSourceTest {
+
+	private DataSource primary;
+
+	private DataSource standby;
+
+	private Connection primaryConnection;
+
+	private Connection standbyConnection;
+
+	private int createdPools;
+
+	private FailoverDataSource dataSource;
+
+	@Before
+	public void setup() throws Exception {
+		primary = mock(DataSource.class, withSettings().extraInterfaces(DisposableBean.class));
+		standby = mock(DataSource.class, withSettings().extraInterfaces(DisposableBean.class));
+		primaryConnection = mock(Connection.class);
+		standbyConnection = mock(Connection.class);
+		when(primary.getConnection()).thenReturn(primaryConnection);
+		when(standby.getConnection()).thenReturn(standbyConnection);
+	}
+
+	@After
+	public void destroy() {
+		if (dataSource != null) {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void connectionsOpenedToFirstHost() throws Exception {
+		createDataSource(2);
+
+		Connection connection = dataSource.getConnection();
+		connection.close();
+
+		verify(primaryConnection).close();
+		assertEquals("h1:3306", dataSource.getCurrentHost());
+		assertEquals(1, createdPools);
+		assertEquals(0, dataSource.getFailoverCount());
+	}
+
+	@Test
+	public void failsOverOnceFailureThresholdReached() throws Exception {
+		when(primary.getConnection()).thenThrow(new SQLException("Communications link failure", "08S01"));
+		createDataSource(2);
+
+		try {
+			dataSource.getConnection();
+			fail("Expected the connection failure");
+		} catch (SQLException e) {
+			assertEquals("08S01", e.getSQLState());
+		}
+		Connection connection = dataSource.getConnection();
+		connection.createStatement();
+
+		verify(standbyConnection).createStatement();
+		verify((DisposableBean) primary).destroy();
+		assertEquals("h2:3306", dataSource.getCurrentHost());
+		assertEquals(1, dataSource.getFailoverCount());
+		assertArrayEquals(new String[] { "h1:3306 OPEN", "h2:3306 CLOSED" }, dataSource.getHostStates());
+		assertEquals(Arrays.asList(standby), dataSource.getPools());
+	}
+
+	@Test
+	public void failsFastWhileAllHostsAreOpen() throws Exception {
+		when(primary.getConnection()).thenThrow(new SQLException("Communications link failure", "08S01"));
+		when(standby.getConnection()).thenThrow(new SQLException("Connection refused", "08001"));
+		createDataSource(1);
+
+		try {
+			dataSource.getConnection();
+			fail("Expected no host to be available");
+		} catch (SQLException e) {
+			assertEquals("08001", e.getSQLState());
+			assertEquals("Connection refused", e.getCause().getMessage());
+		}
+		try {
+			dataSource.getConnection();
+			fail("Expected no host to be available");
+		} catch (SQLException e) {
+			assertEquals("08001", e.getSQLState());
+		}
+
+		assertEquals(2, createdPools);
+		assertTrue(dataSource.getPools().isEmpty());
+	}
+
+	@Test
+	public void otherErrorsDoNotFailOver() throws Exception {
+		when(primary.getConnection()).thenThrow(new SQLException("Access denied", "28000"));
+		createDataSource(1);
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				dataSource.getConnection();
+				fail("Expected the access failure");
+			} catch (SQLException e) {
+				assertEquals("28000", e.getSQLState());
+			}
+		}
+
+		assertEquals("h1:3306", dataSource.getCurrentHost());
+		assertEquals(1, createdPools);
+	}
+
+	@Test
+	public void connectionFailureInUseCountsAgainstHost() throws Exception {
+		when(primaryConnection.createStatement()).thenThrow(new SQLException("Broken pipe", "08S01"));
+		createDataSource(1);
+
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement();
+			fail("Expected the connection failure");
+		} catch (SQLException e) {
+			assertEquals("Broken pipe", e.getMessage());
+		}
+		connection.close();
+		dataSource.getConnection().createStatement();
+
+		verify(standbyConnection).createStatement();
+		assertEquals("h2:3306", dataSource.getCurrentHost());
+	}
+
+	@Test
+	public void connectionFailureRunningStatementCountsAgainstHost() throws Exception {
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(primaryConnection.prepareStatement("select 1")).thenReturn(statement);
+		when(statement.executeQuery()).thenThrow(new SQLException("Communications link failure", "08S01"));
+		createDataSource(1);
+
+		Connection connection = dataSource.getConnection();
+		PreparedStatement proxy = connection.prepareStatement("select 1");
+		assertSame(connection, proxy.getConnection());
+		try {
+			proxy.executeQuery();
+			fail("Expected the connection failure");
+		} catch (SQLException e) {
+			assertEquals("Communications link failure", e.getMessage());
+		}
+		connection.close();
+
+		assertEquals("h2:3306", dataSource.getCurrentHost());
+	}
+
+	@Test
+	public void connectionFailuresRecognizedInCauses() {
+		SQLException wrapped = new SQLException("Could not create connection", "S1000",
+				new ConnectException("Connection refused"));
+		SQLException chained = new SQLException("Batch failed");
+		chained.setNextException(new SQLException("I/O error", "08006"));
+
+		assertTrue(FailoverDataSource.isConnectionFailure(wrapped));
+		assertTrue(FailoverDataSource.isConnectionFailure(chained));
+		assertFalse(FailoverDataSource.isConnectionFailure(new SQLException("Duplicate key", "23000")));
+	}
+
+	private void createDataSource(int failureThreshold) {
+		dataSource = new FailoverDataSource("mysql-1", Arrays.asList("h1:3306", "h2:3306"),
+				new FailoverDataSource.PoolFactory() {
+					@Override
+					public DataSource createPool(int hostIndex) {
+						createdPools++;
+						return hostIndex == 0 ? primary : standby;
+					}
+				}, failureThreshold, 60000);
+	}
+}
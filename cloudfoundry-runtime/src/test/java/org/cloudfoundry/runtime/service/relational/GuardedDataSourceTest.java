@@ -0,0 +1,82 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.CloudResilienceConfiguration;
+import org.cloudfoundry.runtime.service.ServiceGuard;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link GuardedDataSource}
+ */
+public class GuardedDataSourceTest {
+
+	private Connection connection;
+
+	private DataSource target;
+
+	private CloudResilienceConfiguration configuration;
+
+	@Before
+	public void setup() throws Exception {
+		connection = mock(Connection.class);
+		target = mock(DataSource.class);
+		when(target.getConnection()).thenReturn(connection);
+		configuration = new CloudResilienceConfiguration();
+	}
+
+	@Test
+	public void connectionInFlightUntilClosed() throws Exception {
+		configuration.setMaxConcurrent(1);
+		GuardedDataSource dataSource = new GuardedDataSource(target, new ServiceGuard("mysql-1", configuration));
+
+		Connection borrowed = dataSource.getConnection();
+		try {
+			dataSource.getConnection();
+			fail("Expected the borrow to be rejected");
+		} catch (SQLTransientConnectionException e) {
+			assertEquals("08001", e.getSQLState());
+		}
+		borrowed.close();
+		borrowed.close();
+		dataSource.getConnection().close();
+
+		verify(target, times(2)).getConnection();
+		verify(connection, times(2)).close();
+		assertEquals(0, dataSource.getGuard().getInFlight());
+		assertEquals(1, dataSource.getGuard().getBulkheadRejections());
+	}
+
+	@Test
+	public void failingBorrowsOpenTheCircuit() throws Exception {
+		when(target.getConnection()).thenThrow(new SQLException("Connection refused", "08001"));
+		configuration.setFailureThreshold(2);
+		GuardedDataSource dataSource = new GuardedDataSource(target, new ServiceGuard("mysql-1", configuration));
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				dataSource.getConnection();
+				fail("Expected the borrow to fail");
+			} catch (SQLException e) {
+				assertEquals(i < 2 ? "Connection refused" : "The circuit breaker of the mysql-1 service is open",
+						e.getMessage());
+			}
+		}
+
+		verify(target, times(2)).getConnection();
+		assertEquals("OPEN", dataSource.getGuard().getCircuitState());
+		assertEquals(0, dataSource.getGuard().getInFlight());
+	}
+}
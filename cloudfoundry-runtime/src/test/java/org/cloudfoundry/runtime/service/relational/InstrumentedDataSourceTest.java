@@ -0,0 +1,229 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.ServiceMBeans;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Unit test of the {@link InstrumentedDataSource}
+ */
+public class InstrumentedDataSourceTest {
+
+	@Test
+	public void borrowsAndPoolCountsRecorded() throws Exception {
+		InstrumentedDataSource dataSource = new InstrumentedDataSource("mysql-1", createPool());
+
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		assertEquals(2, dataSource.getActiveConnections());
+		Thread.sleep(2);
+		first.close();
+		assertEquals(1, dataSource.getActiveConnections());
+		second.close();
+
+		assertEquals(0, dataSource.getActiveConnections());
+		assertEquals(0, dataSource.getWaitingThreads());
+		assertEquals(2, dataSource.getBorrowCount());
+		assertTrue(dataSource.getHoldTimeMax() >= 2000);
+		assertTrue(dataSource.getHoldTime99thPercentile() <= dataSource.getHoldTimeMax());
+		assertEquals(2, dataSource.getIdleConnections());
+		assertEquals(2, dataSource.getCreatedConnections());
+		assertEquals(0, dataSource.getDestroyedConnections());
+		assertEquals(0, dataSource.getValidationFailures());
+	}
+
+	@Test
+	public void statementCacheCountsRead() throws Exception {
+		SimplePooledDataSource pool = createPool();
+		pool.setStatementCacheSize(5);
+		InstrumentedDataSource dataSource = new InstrumentedDataSource("mysql-1", pool);
+
+		Connection connection = dataSource.getConnection();
+		connection.prepareStatement("SELECT 1").close();
+		connection.prepareStatement("SELECT 1").close();
+		connection.close();
+
+		assertEquals(1, dataSource.getStatementCacheHits());
+		assertEquals(1, dataSource.getStatementCacheMisses());
+	}
+
+	@Test
+	public void poolCountsReadThroughWrappersAndFailover() throws Exception {
+		final SimplePooledDataSource pool = createPool();
+		FailoverDataSource failover = new FailoverDataSource("mysql-1", Arrays.asList("h1:3306", "h2:3306"),
+				new FailoverDataSource.PoolFactory() {
+					@Override
+					public DataSource createPool(int hostIndex) {
+						return pool;
+					}
+				}, 1, 60000);
+		InstrumentedDataSource dataSource =
+				new InstrumentedDataSource("mysql-1", new DelegatingDataSource(failover));
+
+		dataSource.getConnection().close();
+
+		assertEquals(1, dataSource.getIdleConnections());
+		assertEquals(1, dataSource.getCreatedConnections());
+		failover.destroy();
+	}
+
+	@Test
+	public void failedBorrowsCounted() throws Exception {
+		DataSource target = mock(DataSource.class);
+		when(target.getConnection()).thenThrow(new SQLException("Timeout waiting for idle object"));
+		InstrumentedDataSource dataSource = new InstrumentedDataSource("mysql-1", target);
+
+		try {
+			dataSource.getConnection();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("Timeout waiting for idle object", e.getMessage());
+		}
+		assertEquals(1, dataSource.getBorrowFailureCount());
+		assertEquals(0, dataSource.getBorrowCount());
+		assertEquals(0, dataSource.getWaitingThreads());
+		// a mock exposes none of the pool counts
+		assertEquals(-1, dataSource.getIdleConnections());
+	}
+
+	@Test
+	public void mbeanRegisteredPerService() throws Exception {
+		InstrumentedDataSource dataSource = new InstrumentedDataSource("mysql-1", mock(DataSource.class));
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = ServiceMBeans.getObjectName(InstrumentedDataSource.MBEAN_TYPE, "mysql-1");
+
+		dataSource.registerMBean();
+		InstrumentedDataSource replacement = new InstrumentedDataSource("mysql-1", mock(DataSource.class));
+		replacement.registerMBean();
+		assertEquals("mysql-1", mbeanServer.getAttribute(objectName, "ServiceName"));
+		assertEquals(0L, mbeanServer.getAttribute(objectName, "BorrowCount"));
+
+		// the replaced data source leaves the MBean of its replacement in place
+		dataSource.destroy();
+		assertTrue(mbeanServer.isRegistered(objectName));
+		replacement.destroy();
+		assertFalse(mbeanServer.isRegistered(objectName));
+	}
+
+	@Test
+	public void mbeansOfApplicationsKeptApart() throws Exception {
+		InstrumentedDataSource dataSource = new InstrumentedDataSource("mysql-1", mock(DataSource.class));
+		dataSource.registerMBean();
+		ObjectName objectName = ServiceMBeans.getObjectName(InstrumentedDataSource.MBEAN_TYPE, "mysql-1");
+		// another application of the container binds a service of the same name
+		Thread thread = Thread.currentThread();
+		ClassLoader classLoader = thread.getContextClassLoader();
+		thread.setContextClassLoader(new URLClassLoader(new URL[0], classLoader));
+		InstrumentedDataSource otherDataSource = new InstrumentedDataSource("mysql-1", mock(DataSource.class));
+		ObjectName otherName;
+		try {
+			otherDataSource.registerMBean();
+			otherName = ServiceMBeans.getObjectName(InstrumentedDataSource.MBEAN_TYPE, "mysql-1");
+		} finally {
+			thread.setContextClassLoader(classLoader);
+		}
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		assertFalse(objectName.equals(otherName));
+		assertTrue(mbeanServer.isRegistered(objectName));
+
+		otherDataSource.destroy();
+		assertFalse(mbeanServer.isRegistered(otherName));
+		assertTrue(mbeanServer.isRegistered(objectName));
+		dataSource.destroy();
+	}
+
+	@Test
+	public void histogramPercentilesWithinBucketPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		histogram.record(1000000);
+
+		assertEquals(1001, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		long median = histogram.getPercentile(50);
+		assertTrue(String.valueOf(median), median >= 501 && median <= 501 + 501 / 16);
+		assertEquals(1000000, histogram.getPercentile(100));
+		for (long value : new long[] { 0, 31, 32, 63, 64, 1000, Long.MAX_VALUE }) {
+			assertTrue(value <= LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value)));
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void histogramSumsThreadsAndResets() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final long value = (i + 1) * 100;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						histogram.record(value);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(4000, histogram.getCount());
+		assertEquals(250, histogram.getMean(), 0.001);
+		assertEquals(400, histogram.getPercentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(99));
+		assertEquals(0, histogram.getMax());
+		histogram.record(7);
+		assertEquals(7, histogram.getPercentile(50));
+	}
+
+	private SimplePooledDataSource createPool() throws SQLException {
+		Driver driver = mock(Driver.class);
+		when(driver.connect(anyString(), any(Properties.class))).thenAnswer(new Answer<Connection>() {
+			@Override
+			public Connection answer(InvocationOnMock invocation) throws Throwable {
+				Connection connection = mock(Connection.class);
+				when(connection.getAutoCommit()).thenReturn(true);
+				when(connection.isValid(anyInt())).thenReturn(true);
+				when(connection.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+				return connection;
+			}
+		});
+		SimplePooledDataSource pool = new SimplePooledDataSource("mysql-1", driver, "jdbc:mysql://localhost/db",
+				new Properties(), null);
+		pool.setMaintenanceInterval(0);
+		return pool;
+	}
+}
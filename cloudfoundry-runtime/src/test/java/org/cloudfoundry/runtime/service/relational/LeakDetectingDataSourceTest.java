@@ -0,0 +1,135 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link LeakDetectingDataSource}
+ */
+public class LeakDetectingDataSourceTest {
+
+	private Connection connection;
+
+	private DataSource target;
+
+	private LeakDetectingDataSource dataSource;
+
+	@Before
+	public void setup() throws Exception {
+		connection = mock(Connection.class);
+		target = mock(DataSource.class);
+		when(target.getConnection()).thenReturn(connection);
+	}
+
+	@After
+	public void destroy() {
+		if (dataSource != null) {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void leakReportedOnceWithSampledSite() throws Exception {
+		dataSource = new LeakDetectingDataSource("mysql-1", target, 0, 1.0, 0.9, 10, false);
+		Connection leaked = dataSource.getConnection();
+		dataSource.getConnection().close();
+		assertEquals(1, dataSource.getOutstandingConnections());
+
+		dataSource.detectLeaks();
+		dataSource.detectLeaks();
+
+		assertEquals(1, dataSource.getLeakedConnectionCount());
+		assertEquals(0, dataSource.getReclaimedConnectionCount());
+		String[] sites = dataSource.getLeakSites();
+		assertEquals(1, sites.length);
+		assertTrue(sites[0], sites[0].startsWith("leaks=1\n"));
+		assertTrue(sites[0], sites[0].contains(getClass().getName() + ".leakReportedOnceWithSampledSite"));
+		// still usable without reclamation
+		leaked.createStatement();
+		verify(connection).createStatement();
+		leaked.close();
+		assertEquals(0, dataSource.getOutstandingConnections());
+	}
+
+	@Test
+	public void unsampledLeakCountedWithoutSite() throws Exception {
+		dataSource = new LeakDetectingDataSource("mysql-1", target, 0, 0.0, 0.5, 4, false);
+		dataSource.getConnection();
+
+		dataSource.detectLeaks();
+
+		assertEquals(1, dataSource.getLeakedConnectionCount());
+		assertEquals(0, dataSource.getLeakSites().length);
+
+		// every borrow site is captured once half of the pool is borrowed
+		dataSource.getConnection();
+		dataSource.detectLeaks();
+		assertEquals(2, dataSource.getLeakedConnectionCount());
+		assertEquals(1, dataSource.getLeakSites().length);
+	}
+
+	@Test
+	public void connectionsUnderThresholdNotReported() throws Exception {
+		dataSource = new LeakDetectingDataSource("mysql-1", target, 60000, 1.0, 0.9, 10, true);
+		dataSource.getConnection();
+
+		dataSource.detectLeaks();
+
+		assertEquals(0, dataSource.getLeakedConnectionCount());
+		verify(connection, never()).close();
+	}
+
+	@Test
+	public void leakedConnectionReclaimed() throws Exception {
+		Connection physical = mock(Connection.class);
+		when(connection.unwrap(Connection.class)).thenReturn(physical);
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(connection.prepareStatement("select 1")).thenReturn(statement);
+		dataSource = new LeakDetectingDataSource("mysql-1", target, 0, 1.0, 0.9, 10, true);
+		Connection leaked = dataSource.getConnection();
+		PreparedStatement leakedStatement = leaked.prepareStatement("select 1");
+		assertTrue(leakedStatement.getConnection() == leaked);
+
+		dataSource.detectLeaks();
+
+		assertEquals(1, dataSource.getReclaimedConnectionCount());
+		assertEquals(0, dataSource.getOutstandingConnections());
+		// the physical connection is closed so that the pool discards the connection
+		verify(physical).close();
+		verify(connection).close();
+		assertTrue(leaked.isClosed());
+		try {
+			leakedStatement.executeQuery();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("Connection was reclaimed after being held for longer than 0ms", e.getMessage());
+		}
+		verify(statement, never()).executeQuery();
+		try {
+			leaked.createStatement();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("Connection was reclaimed after being held for longer than 0ms", e.getMessage());
+		}
+		// closing by the borrower does not return the connection twice
+		leaked.close();
+		verify(connection).close();
+		assertFalse(leaked.equals(dataSource.getConnection()));
+	}
+}
@@ -1,12 +1,22 @@
 package org.cloudfoundry.runtime.service.relational;
 
+import org.cloudfoundry.runtime.env.CloudServiceException;
 import org.cloudfoundry.runtime.env.MysqlServiceInfo;
+import org.cloudfoundry.runtime.service.AdaptivePoolSizer;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.CloudResilienceConfiguration;
+import org.cloudfoundry.runtime.service.ServiceGuard;
+import org.cloudfoundry.runtime.service.ServiceMBeans;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
 import javax.sql.DataSource;
 
 import static org.junit.Assert.*;
@@ -39,4 +49,152 @@ public class MysqlServiceCreatorTest {
 		assertNotNull(ReflectionTestUtils.invokeGetterMethod(dataSource, "validationQuery"));
 		assertTrue(((String) ReflectionTestUtils.invokeGetterMethod(dataSource, "validationQuery")).startsWith("/* ping */ SELECT 1"));
 	}
+
+	@Test
+	public void performanceProfileMergedWithConnectionProperties() throws Exception {
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		CloudConnectionConfiguration connectionConfiguration = new CloudConnectionConfiguration();
+		connectionConfiguration.setConnectionProperties("defaultFetchSize=500;characterEncoding=UTF-8");
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator();
+		mysqlCreationHelper.setCloudConnectionConfiguration(connectionConfiguration);
+		mysqlCreationHelper.setPerformanceProfile(true);
+		DataSource dataSource = mysqlCreationHelper.createService(mockMysqlServiceInfo);
+
+		Properties connectionProperties = (Properties) ReflectionTestUtils.getField(dataSource, "connectionProperties");
+		assertEquals("true", connectionProperties.getProperty("rewriteBatchedStatements"));
+		assertEquals("true", connectionProperties.getProperty("useLocalSessionState"));
+		assertEquals("500", connectionProperties.getProperty("defaultFetchSize"));
+		assertEquals("UTF-8", connectionProperties.getProperty("characterEncoding"));
+	}
+
+	@Test
+	public void metricsWrapThePool() throws Exception {
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator();
+		mysqlCreationHelper.setMetrics(true);
+		InstrumentedDataSource dataSource = (InstrumentedDataSource) mysqlCreationHelper.createService(mockMysqlServiceInfo);
+		try {
+			assertEquals("mysql-1", dataSource.getServiceName());
+			assertEquals("jdbc:mysql://10.20.30.40:3306/database-123",
+					ReflectionTestUtils.getField(dataSource.getTargetDataSource(), "url"));
+			assertEquals(0, dataSource.getIdleConnections());
+		} finally {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void slowQueryThresholdTimesStatements() throws Exception {
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		CloudConnectionConfiguration connectionConfiguration = new CloudConnectionConfiguration();
+		connectionConfiguration.setSlowQueryThreshold(500L);
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator();
+		mysqlCreationHelper.setCloudConnectionConfiguration(connectionConfiguration);
+		StatementTimingDataSource dataSource = (StatementTimingDataSource) mysqlCreationHelper.createService(mockMysqlServiceInfo);
+		try {
+			assertEquals(500, dataSource.getSlowQueryThreshold());
+			assertEquals("jdbc:mysql://10.20.30.40:3306/database-123",
+					ReflectionTestUtils.getField(dataSource.getTargetDataSource(), "url"));
+		} finally {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void leakDetectionWrapsThePool() throws Exception {
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("5-20");
+		poolConfiguration.setLeakDetectionThreshold(30000);
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator();
+		mysqlCreationHelper.setCloudPoolConfiguration(poolConfiguration);
+		mysqlCreationHelper.setMetrics(true);
+		InstrumentedDataSource dataSource = (InstrumentedDataSource) mysqlCreationHelper.createService(mockMysqlServiceInfo);
+		try {
+			LeakDetectingDataSource leakDetectingDataSource = (LeakDetectingDataSource) dataSource.getTargetDataSource();
+			assertEquals(30000, leakDetectingDataSource.getLeakDetectionThreshold());
+			assertEquals(20, ReflectionTestUtils.getField(leakDetectingDataSource.getTargetDataSource(), "maxActive"));
+			leakDetectingDataSource.destroy();
+		} finally {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void resilienceGuardsTheDataSource() throws Exception {
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		CloudResilienceConfiguration resilienceConfiguration = new CloudResilienceConfiguration();
+		resilienceConfiguration.setMaxConcurrent(10);
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator();
+		mysqlCreationHelper.setCloudResilienceConfiguration(resilienceConfiguration);
+		mysqlCreationHelper.setMetrics(true);
+		InstrumentedDataSource dataSource = (InstrumentedDataSource) mysqlCreationHelper.createService(mockMysqlServiceInfo);
+		try {
+			GuardedDataSource guardedDataSource = (GuardedDataSource) dataSource.getTargetDataSource();
+			assertEquals("mysql-1", guardedDataSource.getGuard().getServiceName());
+			assertEquals(10, guardedDataSource.getGuard().getMaxConcurrent());
+		} finally {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void adaptiveSizingAdjustsThePool() throws Exception {
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("5-20");
+		poolConfiguration.setAdaptiveSizing(true);
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator();
+		mysqlCreationHelper.setCloudPoolConfiguration(poolConfiguration);
+		AdaptiveSizingDataSource dataSource = (AdaptiveSizingDataSource) mysqlCreationHelper.createService(mockMysqlServiceInfo);
+		try {
+			assertEquals(20, dataSource.getPoolSizer().getMaxActive());
+			assertEquals(5, dataSource.getPoolSizer().getLowerLimit());
+			assertEquals(20, dataSource.getPoolSizer().getWaitThreshold());
+
+			dataSource.getPoolSizer().setLimits(5, 12);
+
+			assertEquals(12, ReflectionTestUtils.getField(dataSource.getTargetDataSource(), "maxActive"));
+			assertEquals(5, ReflectionTestUtils.getField(dataSource.getTargetDataSource(), "minIdle"));
+		} finally {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void partiallyCreatedDataSourceDisposedOnFailure() throws Exception {
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("5-20");
+		poolConfiguration.setAdaptiveSizing(true);
+
+		MysqlServiceCreator mysqlCreationHelper = new MysqlServiceCreator() {
+			@Override
+			protected ServiceGuard createServiceGuard(String serviceName) {
+				throw new IllegalStateException("No guard");
+			}
+		};
+		mysqlCreationHelper.setCloudPoolConfiguration(poolConfiguration);
+		try {
+			mysqlCreationHelper.createService(mockMysqlServiceInfo);
+			fail("Expected CloudServiceException");
+		} catch (CloudServiceException e) {
+			assertEquals("No guard", e.getCause().getMessage());
+		}
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		assertFalse(mbeanServer.isRegistered(ServiceMBeans.getObjectName(AdaptivePoolSizer.MBEAN_TYPE, "mysql-1")));
+	}
 }
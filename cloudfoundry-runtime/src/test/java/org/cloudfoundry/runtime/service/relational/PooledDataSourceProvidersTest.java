@@ -0,0 +1,173 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.runtime.env.CloudServiceException;
+import org.cloudfoundry.runtime.env.MysqlServiceInfo;
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.cloudfoundry.runtime.service.ValidationStrategy;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Unit test of the {@link PooledDataSourceProviders} and the built-in providers
+ */
+public class PooledDataSourceProvidersTest {
+
+	@Mock private MysqlServiceInfo mockMysqlServiceInfo;
+
+	private MysqlServiceCreator serviceCreator;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		when(mockMysqlServiceInfo.getServiceName()).thenReturn("mysql-1");
+		when(mockMysqlServiceInfo.getUrl()).thenReturn("jdbc:mysql://10.20.30.40:3306/database-123");
+		when(mockMysqlServiceInfo.getUserName()).thenReturn("myuser");
+		when(mockMysqlServiceInfo.getPassword()).thenReturn("mypass");
+
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("5-20");
+		poolConfiguration.setMaxWaitTime(200);
+		CloudConnectionConfiguration connectionConfiguration = new CloudConnectionConfiguration();
+		connectionConfiguration.setConnectionProperties("useUnicode=true;characterEncoding=UTF-8");
+		serviceCreator = new MysqlServiceCreator();
+		serviceCreator.setCloudPoolConfiguration(poolConfiguration);
+		serviceCreator.setCloudConnectionConfiguration(connectionConfiguration);
+	}
+
+	@Test
+	public void commonsDbcpRemainsDefault() {
+		DataSource dataSource = serviceCreator.createService(mockMysqlServiceInfo);
+
+		assertTrue(dataSource instanceof BasicDataSource);
+		assertEquals(20, ((BasicDataSource) dataSource).getMaxActive());
+	}
+
+	@Test
+	public void tomcatJdbcPoolConfigured() {
+		serviceCreator.setPoolProvider("tomcat-jdbc");
+
+		org.apache.tomcat.jdbc.pool.DataSource dataSource =
+				(org.apache.tomcat.jdbc.pool.DataSource) serviceCreator.createService(mockMysqlServiceInfo);
+
+		assertEquals("com.mysql.jdbc.Driver", dataSource.getDriverClassName());
+		assertEquals("myuser", dataSource.getUsername());
+		assertEquals(5, dataSource.getMinIdle());
+		assertEquals(20, dataSource.getMaxActive());
+		assertEquals(200, dataSource.getMaxWait());
+		assertTrue(dataSource.isTestOnBorrow());
+		assertEquals("UTF-8", dataSource.getDbProperties().getProperty("characterEncoding"));
+		assertEquals("tomcat-jdbc", PooledDataSourceProviders.getProvider(dataSource).getName());
+	}
+
+	@Test
+	public void hikariPoolConfigured() {
+		serviceCreator.setPoolProvider("hikari");
+
+		HikariDataSource dataSource = (HikariDataSource) serviceCreator.createService(mockMysqlServiceInfo);
+
+		assertEquals("mysql-1", dataSource.getPoolName());
+		assertEquals("jdbc:mysql://10.20.30.40:3306/database-123", dataSource.getJdbcUrl());
+		assertEquals(5, dataSource.getMinimumIdle());
+		assertEquals(20, dataSource.getMaximumPoolSize());
+		// HikariCP does not accept waits under a second
+		assertEquals(1000, dataSource.getConnectionTimeout());
+		assertEquals("true", dataSource.getDataSourceProperties().getProperty("useUnicode"));
+
+		CloudPoolConfiguration resized = new CloudPoolConfiguration();
+		resized.setPoolSize("2-8");
+		PooledDataSourceProvider provider = PooledDataSourceProviders.getProvider(dataSource);
+		provider.applyPoolConfiguration(dataSource, resized);
+		assertEquals(8, dataSource.getMaximumPoolSize());
+		// read through the provider, whatever the pool names its sizes
+		assertEquals(8, provider.getMaxActive(dataSource));
+		assertEquals(2, provider.getMinIdle(dataSource));
+	}
+
+	@Test
+	public void dbcpValidatesIdleConnectionsInBackground() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setValidation(ValidationStrategy.ON_BORROW_IF_IDLE);
+		poolConfiguration.setValidationInterval(10000);
+		serviceCreator.setCloudPoolConfiguration(poolConfiguration);
+
+		BasicDataSource dataSource = (BasicDataSource) serviceCreator.createService(mockMysqlServiceInfo);
+
+		assertFalse(dataSource.getTestOnBorrow());
+		assertTrue(dataSource.getTestWhileIdle());
+		assertEquals(10000, dataSource.getTimeBetweenEvictionRunsMillis());
+		assertTrue(dataSource.getValidationQuery().startsWith("/* ping */ SELECT 1"));
+	}
+
+	@Test
+	public void tomcatJdbcValidationStrategies() {
+		serviceCreator.setPoolProvider("tomcat-jdbc");
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setValidation(ValidationStrategy.ON_BORROW_IF_IDLE);
+		poolConfiguration.setValidationInterval(10000);
+		poolConfiguration.setJdbc4Validation(true);
+		serviceCreator.setCloudPoolConfiguration(poolConfiguration);
+
+		org.apache.tomcat.jdbc.pool.DataSource dataSource =
+				(org.apache.tomcat.jdbc.pool.DataSource) serviceCreator.createService(mockMysqlServiceInfo);
+		assertTrue(dataSource.isTestOnBorrow());
+		assertEquals(10000, dataSource.getValidationInterval());
+		assertNull(dataSource.getValidationQuery());
+		assertNotNull(dataSource.getValidator());
+
+		poolConfiguration.setValidation(ValidationStrategy.NONE);
+		dataSource = (org.apache.tomcat.jdbc.pool.DataSource) serviceCreator.createService(mockMysqlServiceInfo);
+		assertFalse(dataSource.isTestOnBorrow());
+		assertFalse(dataSource.isTestWhileIdle());
+		assertNull(dataSource.getValidator());
+	}
+
+	@Test
+	public void statementCacheMappedToPool() {
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("5-20");
+		poolConfiguration.setStatementCacheEnabled(true);
+		poolConfiguration.setStatementCacheSize(25);
+		serviceCreator.setCloudPoolConfiguration(poolConfiguration);
+
+		BasicDataSource dbcpDataSource = (BasicDataSource) serviceCreator.createService(mockMysqlServiceInfo);
+		assertTrue(dbcpDataSource.isPoolPreparedStatements());
+		assertEquals(25, dbcpDataSource.getMaxOpenPreparedStatements());
+
+		serviceCreator.setPoolProvider("tomcat-jdbc");
+		org.apache.tomcat.jdbc.pool.DataSource tomcatJdbcDataSource =
+				(org.apache.tomcat.jdbc.pool.DataSource) serviceCreator.createService(mockMysqlServiceInfo);
+		assertEquals("org.apache.tomcat.jdbc.pool.interceptor.StatementCache(prepared=true,callable=false,max=500)",
+				tomcatJdbcDataSource.getJdbcInterceptors());
+
+		serviceCreator.setPoolProvider("hikari");
+		HikariDataSource hikariDataSource = (HikariDataSource) serviceCreator.createService(mockMysqlServiceInfo);
+		assertEquals("true", hikariDataSource.getDataSourceProperties().getProperty("cachePrepStmts"));
+		assertEquals("25", hikariDataSource.getDataSourceProperties().getProperty("prepStmtCacheSize"));
+	}
+
+	@Test
+	public void unknownProviderRejected() {
+		serviceCreator.setPoolProvider("no-such-pool");
+		try {
+			serviceCreator.createService(mockMysqlServiceInfo);
+			fail("Expected CloudServiceException");
+		} catch (CloudServiceException e) {
+			assertEquals("Connection pool provider no-such-pool is not available", e.getMessage());
+		}
+	}
+}
@@ -11,6 +11,7 @@ import org.springframework.test.util.ReflectionTestUtils;
 import javax.sql.DataSource;
 
 import java.util.Collections;
+import java.util.Properties;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
@@ -41,4 +42,22 @@ public class PostgresqlServiceCreatorTest {
 		assertNotNull(ReflectionTestUtils.invokeGetterMethod(dataSource, "validationQuery"));
 		assertTrue(((String) ReflectionTestUtils.invokeGetterMethod(dataSource, "validationQuery")).startsWith("SELECT 1"));
 	}
+
+	@Test
+	public void performanceProfileAppliedWhenEnabled() throws Exception {
+		when(mockPostgresqlServiceInfo.getUrl()).thenReturn("jdbc:postgresql://10.20.30.40:5432/database-123");
+
+		PostgresqlServiceCreator postgresqlCreationHelper = new PostgresqlServiceCreator();
+		DataSource dataSource = postgresqlCreationHelper.createService(mockPostgresqlServiceInfo);
+		Properties connectionProperties = (Properties) ReflectionTestUtils.getField(dataSource, "connectionProperties");
+		assertNull(connectionProperties.getProperty("tcpKeepAlive"));
+
+		postgresqlCreationHelper.setPerformanceProfile(true);
+		dataSource = postgresqlCreationHelper.createService(mockPostgresqlServiceInfo);
+		connectionProperties = (Properties) ReflectionTestUtils.getField(dataSource, "connectionProperties");
+		assertEquals("3", connectionProperties.getProperty("prepareThreshold"));
+		assertEquals("true", connectionProperties.getProperty("reWriteBatchedInserts"));
+		assertEquals("100", connectionProperties.getProperty("defaultRowFetchSize"));
+		assertEquals("true", connectionProperties.getProperty("tcpKeepAlive"));
+	}
 }
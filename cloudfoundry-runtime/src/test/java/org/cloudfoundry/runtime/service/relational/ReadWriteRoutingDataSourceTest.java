@@ -0,0 +1,92 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Unit test of the {@link ReadWriteRoutingDataSource}
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+	@Mock private DataSource primary;
+	@Mock private DataSource replica1;
+	@Mock private DataSource replica2;
+	@Mock private Connection primaryConnection;
+	@Mock private Connection replicaConnection1;
+	@Mock private Connection replicaConnection2;
+
+	@Before
+	public void setup() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(primary.getConnection()).thenReturn(primaryConnection);
+		when(replica1.getConnection()).thenReturn(replicaConnection1);
+		when(replica2.getConnection()).thenReturn(replicaConnection2);
+	}
+
+	@After
+	public void clearReadOnly() {
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+	}
+
+	@Test
+	public void readOnlyTransactionsRoundRobinAcrossReplicas() throws Exception {
+		ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary,
+				Arrays.asList(replica1, replica2), ReplicaBalancing.ROUND_ROBIN);
+
+		assertSame(primaryConnection, dataSource.getConnection());
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		assertSame(replicaConnection1, dataSource.getConnection());
+		assertSame(replicaConnection2, dataSource.getConnection());
+		assertSame(replicaConnection1, dataSource.getConnection());
+	}
+
+	@Test
+	public void leastActiveReplicaSelected() throws Exception {
+		ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary,
+				Arrays.asList(replica1, replica2), ReplicaBalancing.LEAST_ACTIVE);
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		Connection third = dataSource.getConnection();
+		assertArrayEquals(new int[] { 2, 1 }, dataSource.getReplicaActiveCounts());
+
+		first.close();
+		third.close();
+		first.close();
+		verify(replicaConnection1, times(3)).close();
+		assertArrayEquals(new int[] { 0, 1 }, dataSource.getReplicaActiveCounts());
+		dataSource.getConnection();
+		assertArrayEquals(new int[] { 1, 1 }, dataSource.getReplicaActiveCounts());
+		second.close();
+		assertArrayEquals(new int[] { 1, 0 }, dataSource.getReplicaActiveCounts());
+	}
+
+	@Test
+	public void proxyRoutesOnFirstStatement() throws Exception {
+		DataSource dataSource = ReadWriteRoutingDataSource.createProxy(primary, Arrays.asList(replica1), null);
+		Connection connection = dataSource.getConnection();
+		connection.setReadOnly(true);
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		connection.createStatement();
+
+		verify(replicaConnection1).createStatement();
+		verify(primary, never()).getConnection();
+	}
+}
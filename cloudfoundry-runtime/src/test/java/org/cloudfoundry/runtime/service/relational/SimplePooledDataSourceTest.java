@@ -0,0 +1,357 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.runtime.service.CloudPoolConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test of the {@link SimplePooledDataSource}
+ */
+public class SimplePooledDataSourceTest {
+
+	private final List<Connection> opened = new CopyOnWriteArrayList<Connection>();
+
+	private Driver driver;
+
+	private SimplePooledDataSource dataSource;
+
+	@Before
+	public void setup() throws SQLException {
+		driver = mock(Driver.class);
+		when(driver.connect(anyString(), any(Properties.class))).thenAnswer(new Answer<Connection>() {
+			@Override
+			public Connection answer(InvocationOnMock invocation) throws Throwable {
+				Connection connection = mock(Connection.class);
+				when(connection.getAutoCommit()).thenReturn(true);
+				when(connection.isValid(anyInt())).thenReturn(true);
+				opened.add(connection);
+				return connection;
+			}
+		});
+		dataSource = new SimplePooledDataSource("mysql-1", driver, "jdbc:mysql://10.20.30.40:3306/db", new Properties(),
+				null);
+		dataSource.setMaintenanceInterval(0);
+	}
+
+	@Test
+	public void connectionReusedByTheSameThread() throws Exception {
+		dataSource.getConnection().close();
+		Connection connection = dataSource.getConnection();
+		connection.createStatement();
+		connection.close();
+
+		assertEquals(1, opened.size());
+		verify(opened.get(0)).createStatement();
+		assertEquals(1, dataSource.getIdleCount());
+		assertEquals(0, dataSource.getActiveCount());
+	}
+
+	@Test
+	public void closedHandleCannotBeUsed() throws Exception {
+		Connection connection = dataSource.getConnection();
+		connection.close();
+		connection.close();
+		assertTrue(connection.isClosed());
+		try {
+			connection.createStatement();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("Connection is closed", e.getMessage());
+		}
+		Connection next = dataSource.getConnection();
+		assertNotSame(connection, next);
+		assertFalse(next.isClosed());
+	}
+
+	@Test
+	public void connectionWithOtherCredentialsNotSupported() throws Exception {
+		try {
+			dataSource.getConnection("other", "secret");
+			fail("Expected SQLFeatureNotSupportedException");
+		} catch (SQLFeatureNotSupportedException e) {
+			assertTrue(opened.isEmpty());
+		}
+	}
+
+	@Test
+	public void borrowerWaitsUpToMaxWait() throws Exception {
+		dataSource.setMaxActive(1);
+		dataSource.setMaxWait(100);
+		Connection connection = dataSource.getConnection();
+		try {
+			dataSource.getConnection();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out after 100ms"));
+		}
+		connection.close();
+		dataSource.getConnection();
+	}
+
+	@Test
+	public void uncommittedWorkRolledBackOnReturn() throws Exception {
+		Connection connection = dataSource.getConnection();
+		when(opened.get(0).getAutoCommit()).thenReturn(false);
+		connection.close();
+
+		verify(opened.get(0)).rollback();
+		verify(opened.get(0)).setAutoCommit(true);
+	}
+
+	@Test
+	public void brokenConnectionDiscarded() throws Exception {
+		Connection connection = dataSource.getConnection();
+		when(opened.get(0).createStatement()).thenThrow(new SQLException("Communications link failure", "08S01"));
+		try {
+			connection.createStatement();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("08S01", e.getSQLState());
+		}
+		connection.close();
+
+		verify(opened.get(0)).close();
+		assertEquals(0, dataSource.getIdleCount());
+	}
+
+	@Test
+	public void idleConnectionsEvictedAndPoolToppedUp() throws Exception {
+		dataSource.setMinIdle(1);
+		dataSource.setMaxIdleTime(0);
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		first.close();
+		second.close();
+		Thread.sleep(5);
+
+		dataSource.maintain();
+
+		// one idle connection is kept for minIdle
+		assertEquals(1, dataSource.getIdleCount());
+		assertEquals(2, opened.size());
+		dataSource.close();
+		assertEquals(0, dataSource.getIdleCount());
+
+		SimplePooledDataSource fresh = new SimplePooledDataSource("mysql-2", driver, "jdbc:mysql://10.20.30.40:3306/db",
+				new Properties(), null);
+		fresh.setMinIdle(2);
+		fresh.maintain();
+		assertEquals(2, fresh.getIdleCount());
+	}
+
+	@Test
+	public void idleConnectionsAvailableWhileOneIsValidated() throws Exception {
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		first.close();
+		second.close();
+		final List<Connection> borrowedDuringValidation = new ArrayList<Connection>();
+		for (Connection connection : opened) {
+			when(connection.isValid(anyInt())).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					if (borrowedDuringValidation.isEmpty()) {
+						Connection borrowed = dataSource.getConnection();
+						borrowedDuringValidation.add(borrowed);
+						borrowed.close();
+					}
+					return true;
+				}
+			});
+		}
+
+		dataSource.maintain();
+
+		assertEquals(1, borrowedDuringValidation.size());
+		assertEquals(2, opened.size());
+		assertEquals(2, dataSource.getIdleCount());
+		for (Connection connection : opened) {
+			verify(connection, never()).close();
+		}
+	}
+
+	@Test
+	public void invalidConnectionReplacedOnBorrow() throws Exception {
+		dataSource = new SimplePooledDataSource("mysql-1", driver, "jdbc:mysql://10.20.30.40:3306/db", new Properties(),
+				"/* ping */ SELECT 1");
+		dataSource.setMaintenanceInterval(0);
+		dataSource.setValidationInterval(0);
+		dataSource.getConnection().close();
+		Statement statement = mock(Statement.class);
+		when(statement.execute("/* ping */ SELECT 1")).thenThrow(new SQLException("Connection reset"));
+		when(opened.get(0).createStatement()).thenReturn(statement);
+		Thread.sleep(5);
+
+		dataSource.getConnection();
+
+		assertEquals(2, opened.size());
+		verify(opened.get(0)).close();
+	}
+
+	@Test
+	public void borrowedConnectionsBoundedUnderContention() throws Exception {
+		dataSource.setMaxActive(3);
+		final AtomicInteger borrowed = new AtomicInteger();
+		final AtomicInteger maxBorrowed = new AtomicInteger();
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < 200; j++) {
+							Connection connection = dataSource.getConnection();
+							int current = borrowed.incrementAndGet();
+							while (current > maxBorrowed.get()) {
+								maxBorrowed.compareAndSet(maxBorrowed.get(), current);
+							}
+							borrowed.decrementAndGet();
+							connection.close();
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertTrue(maxBorrowed.toString(), maxBorrowed.get() <= 3);
+		assertEquals(0, dataSource.getActiveCount());
+		// surplus connections opened in races are closed as they are returned
+		assertTrue(String.valueOf(dataSource.getIdleCount()), dataSource.getIdleCount() <= 3);
+	}
+
+	@Test
+	public void preparedStatementsCachedPerConnection() throws Exception {
+		dataSource.setStatementCacheSize(1);
+		Connection connection = dataSource.getConnection();
+		Connection physical = opened.get(0);
+		PreparedStatement select = mock(PreparedStatement.class);
+		PreparedStatement update = mock(PreparedStatement.class);
+		PreparedStatement duplicate = mock(PreparedStatement.class);
+		when(physical.prepareStatement("SELECT 1")).thenReturn(select, duplicate);
+		when(physical.prepareStatement("UPDATE t")).thenReturn(update);
+
+		PreparedStatement first = connection.prepareStatement("SELECT 1");
+		PreparedStatement inUse = connection.prepareStatement("SELECT 1");
+		inUse.close();
+		verify(duplicate).close();
+		first.executeQuery();
+		first.close();
+		connection.close();
+		connection = dataSource.getConnection();
+		PreparedStatement second = connection.prepareStatement("SELECT 1");
+		assertSame(connection, second.getConnection());
+		second.executeQuery();
+
+		verify(select, times(2)).executeQuery();
+		verify(select, never()).close();
+		assertEquals(1, dataSource.getStatementCacheHits());
+		assertEquals(2, dataSource.getStatementCacheMisses());
+
+		// evicted while in use, closed once released
+		connection.prepareStatement("UPDATE t").close();
+		verify(select, never()).close();
+		second.close();
+		verify(select).close();
+	}
+
+	@Test
+	public void leakedStatementsClosedWhenConnectionReturned() throws Exception {
+		dataSource.setStatementCacheSize(1);
+		Connection connection = dataSource.getConnection();
+		Connection physical = opened.get(0);
+		PreparedStatement select = mock(PreparedStatement.class);
+		PreparedStatement duplicate = mock(PreparedStatement.class);
+		PreparedStatement update = mock(PreparedStatement.class);
+		when(physical.prepareStatement("SELECT 1")).thenReturn(select, duplicate);
+		when(physical.prepareStatement("UPDATE t")).thenReturn(update);
+
+		connection.prepareStatement("SELECT 1");
+		connection.prepareStatement("SELECT 1");
+		// evicts the cached SELECT while it is in use
+		connection.prepareStatement("UPDATE t");
+		connection.close();
+
+		verify(duplicate).close();
+		verify(select).close();
+		verify(update, never()).close();
+	}
+
+	@Test
+	public void statementWithChangedSettingsNotCached() throws Exception {
+		dataSource.setStatementCacheSize(1);
+		Connection connection = dataSource.getConnection();
+		Connection physical = opened.get(0);
+		PreparedStatement limited = mock(PreparedStatement.class);
+		PreparedStatement fresh = mock(PreparedStatement.class);
+		when(physical.prepareStatement("SELECT 1")).thenReturn(limited, fresh);
+
+		PreparedStatement statement = connection.prepareStatement("SELECT 1");
+		statement.setMaxRows(10);
+		statement.close();
+		verify(limited).close();
+		connection.prepareStatement("SELECT 1").executeQuery();
+
+		verify(fresh).executeQuery();
+		verify(fresh, never()).setMaxRows(anyInt());
+		assertEquals(2, dataSource.getStatementCacheMisses());
+	}
+
+	@Test
+	public void providerMapsPoolConfiguration() {
+		SimplePooledDataSourceProvider provider = new SimplePooledDataSourceProvider();
+		SimplePooledDataSource created = new SimplePooledDataSource("mysql-3", driver, "jdbc:mysql://localhost/db",
+				new Properties(), null);
+		CloudPoolConfiguration poolConfiguration = new CloudPoolConfiguration();
+		poolConfiguration.setPoolSize("2-6");
+		poolConfiguration.setMaxWaitTime(500);
+
+		provider.applyPoolConfiguration(created, poolConfiguration);
+
+		assertTrue(provider.isProvided(created));
+		assertEquals(2, created.getMinIdle());
+		assertEquals(6, created.getMaxActive());
+		assertEquals(500, created.getMaxWait());
+	}
+}
@@ -0,0 +1,146 @@
+package org.cloudfoundry.runtime.service.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.runtime.service.relational.StatementTimingDataSource.StatementStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the {@link StatementTimingDataSource}
+ */
+public class StatementTimingDataSourceTest {
+
+	private Connection connection;
+
+	private StatementTimingDataSource dataSource;
+
+	@Before
+	public void setup() throws Exception {
+		connection = mock(Connection.class);
+		DataSource target = mock(DataSource.class);
+		when(target.getConnection()).thenReturn(connection);
+		dataSource = new StatementTimingDataSource("mysql-1", target, 1000, 60000);
+	}
+
+	@Test
+	public void statementsNormalizedToShapes() {
+		assertEquals("SELECT * FROM t1 WHERE id = ? AND name = ?",
+				StatementTimingDataSource.normalize("SELECT *\n  FROM t1 WHERE id = 42 AND name = 'O''Brien'"));
+		assertEquals("UPDATE t SET x = ? WHERE y IN (?, ?)",
+				StatementTimingDataSource.normalize("  UPDATE t SET x = 1.5 WHERE y IN (1, 2)  "));
+	}
+
+	@Test
+	public void executionsTimedByShape() throws Exception {
+		PreparedStatement prepared = mock(PreparedStatement.class);
+		when(connection.prepareStatement("SELECT * FROM t WHERE id = ?")).thenReturn(prepared);
+		Statement statement = mock(Statement.class);
+		when(connection.createStatement()).thenReturn(statement);
+
+		Connection wrapped = dataSource.getConnection();
+		PreparedStatement wrappedPrepared = wrapped.prepareStatement("SELECT * FROM t WHERE id = ?");
+		wrappedPrepared.executeQuery();
+		wrappedPrepared.executeQuery();
+		assertSame(wrapped, wrappedPrepared.getConnection());
+		Statement wrappedStatement = wrapped.createStatement();
+		wrappedStatement.execute("DELETE FROM t WHERE id = 1");
+		wrappedStatement.execute("DELETE FROM t WHERE id = 2");
+		wrappedStatement.addBatch("INSERT INTO t VALUES (3)");
+		wrappedStatement.executeBatch();
+
+		verify(prepared, times(2)).executeQuery();
+		verify(statement).execute("DELETE FROM t WHERE id = 1");
+		assertEquals(5, dataSource.getStatementCount());
+		assertEquals(0, dataSource.getSlowStatementCount());
+		List<StatementStatistics> slowest = dataSource.getSlowestStatements(10);
+		assertEquals(3, slowest.size());
+		long total = 0;
+		for (StatementStatistics statistics : slowest) {
+			total += statistics.getCount();
+			if (statistics.getSql().startsWith("DELETE")) {
+				assertEquals("DELETE FROM t WHERE id = ?", statistics.getSql());
+				assertEquals(2, statistics.getCount());
+			}
+		}
+		assertEquals(5, total);
+	}
+
+	@Test
+	public void onlySlowestShapesKept() {
+		dataSource.setMaxTrackedStatements(2);
+		dataSource.record("SELECT a FROM t", 100);
+		dataSource.record("SELECT b FROM t", 300);
+		dataSource.record("SELECT c FROM t", 50);
+		dataSource.record("SELECT d FROM t", 200);
+
+		List<StatementStatistics> slowest = dataSource.getSlowestStatements(10);
+		assertEquals(2, slowest.size());
+		assertEquals("SELECT b FROM t", slowest.get(0).getSql());
+		assertEquals("SELECT d FROM t", slowest.get(1).getSql());
+		assertEquals(4, dataSource.getStatementCount());
+		assertTrue(dataSource.getSlowestStatements()[0].endsWith("max=300 SELECT b FROM t"));
+	}
+
+	@Test
+	public void trackedShapesBoundedUnderContention() throws Exception {
+		dataSource.setMaxTrackedStatements(5);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final int thread = i;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 500; j++) {
+						dataSource.record("SELECT c" + thread + "_" + j + " FROM t", j);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		List<StatementStatistics> slowest = dataSource.getSlowestStatements(100);
+		assertTrue(String.valueOf(slowest.size()), slowest.size() <= 5);
+		assertEquals(4000, dataSource.getStatementCount());
+		// the slowest shapes displace the others
+		assertTrue(slowest.get(slowest.size() - 1).getMax() >= 400);
+	}
+
+	@Test
+	public void slowStatementsLoggedOncePerInterval() {
+		dataSource.record("SELECT a FROM t", 2000000);
+		dataSource.record("SELECT a FROM t", 3000000);
+		dataSource.record("SELECT a FROM t", 4000000);
+
+		assertEquals(3, dataSource.getSlowStatementCount());
+		// the first slow statement is logged, the others fall within the interval
+		assertEquals(2, dataSource.getUnloggedSlowStatementCount());
+	}
+}
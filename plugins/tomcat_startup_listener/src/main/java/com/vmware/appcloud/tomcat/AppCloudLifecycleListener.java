@@ -7,17 +7,39 @@ import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardEngine;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
 import javax.management.Notification;
 import javax.management.NotificationListener;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class AppCloudLifecycleListener implements LifecycleListener, NotificationListener {
 
+    private static final Logger logger = Logger.getLogger(AppCloudLifecycleListener.class.getName());
+
     private String stateFile;
 
+    private long warmUpTimeout = 60000;
+
     private static final String APPCLOUD_STATE_FILE = "tomcat.state";
     private static final String J2EE_RUNNING_STATE = "j2ee.state.running";
 
+    // published by cloudfoundry-runtime, one per application context, while service pools are warmed up
+    private static final String SERVICE_READINESS_MBEANS = "org.cloudfoundry.runtime:type=ServiceReadiness,*";
+    private static final long READINESS_POLL_INTERVAL = 100;
+
+    /**
+     * Maximum time, in milliseconds, to wait for the services of the application to
+     * be warmed up before reporting it as running.
+     */
+    public void setWarmUpTimeout(long warmUpTimeout) {
+        this.warmUpTimeout = warmUpTimeout;
+    }
+
     public void lifecycleEvent(LifecycleEvent event) {
         Lifecycle lifecycle = event.getLifecycle();
 
@@ -44,13 +66,58 @@ public class AppCloudLifecycleListener implements LifecycleListener, Notificatio
 
     public void handleNotification(Notification notification, Object handback) {
         if (J2EE_RUNNING_STATE.equals(notification.getType())) {
+            // don't hold up the container while the services warm up
+            Thread stateWriter = new Thread("appcloud-state-writer") {
+                public void run() {
+                    awaitServicesReady();
+                    writeRunningState();
+                }
+            };
+            stateWriter.setDaemon(true);
+            stateWriter.start();
+        }
+    }
+
+    private void awaitServicesReady() {
+        long deadline = System.currentTimeMillis() + warmUpTimeout;
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName readiness = new ObjectName(SERVICE_READINESS_MBEANS);
+            while (!isReady(mbeanServer, readiness)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    logger.warning("Services not warmed up after " + warmUpTimeout + "ms, reporting running.");
+                    return;
+                }
+                Thread.sleep(READINESS_POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to query the readiness of the services, reporting running.", e);
+        }
+    }
+
+    private boolean isReady(MBeanServer mbeanServer, ObjectName readinessPattern) throws Exception {
+        for (Object name : mbeanServer.queryNames(readinessPattern, null)) {
+            ObjectName readiness = (ObjectName) name;
             try {
-                PrintWriter writer = new PrintWriter(stateFile);
-                writer.println("{\"state\": \"RUNNING\"}");
-                writer.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+                if (!Boolean.TRUE.equals(mbeanServer.getAttribute(readiness, "Ready"))) {
+                    return false;
+                }
+            } catch (InstanceNotFoundException e) {
+                // unregistered since the query, along with its application context
             }
         }
+        return true;
+    }
+
+    private void writeRunningState() {
+        try {
+            PrintWriter writer = new PrintWriter(stateFile);
+            writer.println("{\"state\": \"RUNNING\"}");
+            writer.close();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
     }
 }